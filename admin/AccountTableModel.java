@@ -0,0 +1,279 @@
+package admin;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.table.AbstractTableModel;
+
+import ledger.AccountStore;
+import main.BalanceUpdateBus;
+import money.MoneyFormatter;
+
+/**
+ * Lazy, paged table model for the admin account browser. Rows are loaded a page at
+ * a time from a {@link RowSource} and copied out of the account store into small
+ * primitive arrays. Only a bounded number of pages is cached, so memory stays the
+ * same whether there are ten accounts or ten million.
+ *
+ * The browser reports the visible rows with {@link #setVisibleRows(int, int)}; the
+ * pages around them are then fetched in the background so that scrolling doesn't
+ * wait for the store. Live balance changes from the {@link BalanceUpdateBus} are
+ * applied to cached rows only.
+ */
+public class AccountTableModel extends AbstractTableModel implements BalanceUpdateBus.Listener {
+
+	public static final int PAGE_SIZE = 256;
+	public static final int PREFETCH_PAGES = 2;
+	private static final int MAX_CACHED_PAGES = 64;
+
+	private static final String[] COLUMNS = { "Card number", "Balance", "Status", "Last activity" };
+
+	private final AccountStore store;
+	private final ExecutorService prefetcher;
+	private volatile RowSource source;
+	private int rowCount;
+
+	// Page number -> page, least recently used first. Guarded by itself.
+	private final Map<Integer, Page> pages = new LinkedHashMap<Integer, Page>(MAX_CACHED_PAGES, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+			return size() > MAX_CACHED_PAGES;
+		}
+	};
+
+	// Reused for every frame of live updates: the rows to repaint (at most every
+	// cached row)
+	private final int[] changedRows = new int[MAX_CACHED_PAGES * PAGE_SIZE];
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private final MoneyFormatter moneyFormat = MoneyFormatter.finnishEuros();
+
+	private static final class Page {
+		final int firstRow;
+		final int count;
+		final int[] slots = new int[PAGE_SIZE];
+		final long[] cards = new long[PAGE_SIZE];
+		final long[] balances = new long[PAGE_SIZE];
+		final int[] flags = new int[PAGE_SIZE];
+		final long[] lastActivity = new long[PAGE_SIZE];
+		// For finding a slot's row: slot << 32 | index, sorted, and the slot range
+		final long[] bySlot;
+		final int minSlot;
+		final int maxSlot;
+		// Rows of this page in the current frame of live updates, one bit each
+		final long[] changed = new long[PAGE_SIZE / 64];
+
+		Page(int firstRow, RowSource source, AccountStore store) {
+			this.firstRow = firstRow;
+			this.count = source.fetch(firstRow, slots, PAGE_SIZE);
+			for (int i = 0; i < count; i++) {
+				int slot = slots[i];
+				cards[i] = store.cardAt(slot);
+				balances[i] = store.balance(slot);
+				flags[i] = store.flags(slot);
+				lastActivity[i] = store.lastActivity(slot);
+			}
+			bySlot = new long[count];
+			for (int i = 0; i < count; i++) {
+				bySlot[i] = (long) slots[i] << 32 | i;
+			}
+			Arrays.sort(bySlot);
+			minSlot = count == 0 ? Integer.MAX_VALUE : (int) (bySlot[0] >>> 32);
+			maxSlot = count == 0 ? -1 : (int) (bySlot[count - 1] >>> 32);
+		}
+
+		// Marks the slot's row as changed, if the slot is on this page
+		void markChanged(int slot) {
+			if (slot < minSlot || slot > maxSlot) {
+				return;
+			}
+			int position = Arrays.binarySearch(bySlot, (long) slot << 32);
+			if (position < 0) {
+				position = -position - 1;
+			}
+			if (position < count && (int) (bySlot[position] >>> 32) == slot) {
+				int index = (int) bySlot[position];
+				changed[index >>> 6] |= 1L << index;
+			}
+		}
+	}
+
+	public AccountTableModel(AccountStore store, RowSource source) {
+		this.store = store;
+		this.source = source;
+		this.rowCount = source.rowCount();
+		this.prefetcher = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "admin-table-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Switches to another ordering or filter. Call on the EDT.
+	 */
+	public void setSource(RowSource source) {
+		this.source = source;
+		this.rowCount = source.rowCount();
+		synchronized (pages) {
+			pages.clear();
+		}
+		fireTableDataChanged();
+	}
+
+	public RowSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Reloads everything from the current source. Call on the EDT.
+	 */
+	public void reload() {
+		setSource(source);
+	}
+
+	/**
+	 * Tells the model which rows are on screen, so it can fetch the neighbouring pages
+	 * in the background before the user scrolls there.
+	 */
+	public void setVisibleRows(int firstRow, int lastRow) {
+		int firstPage = Math.max(0, firstRow / PAGE_SIZE - PREFETCH_PAGES);
+		int lastPage = Math.min((rowCount - 1) / PAGE_SIZE, lastRow / PAGE_SIZE + PREFETCH_PAGES);
+		RowSource current = source;
+		for (int page = firstPage; page <= lastPage; page++) {
+			final int number = page;
+			synchronized (pages) {
+				if (pages.containsKey(number)) {
+					continue;
+				}
+			}
+			prefetcher.execute(() -> {
+				if (current != source) {
+					return; // the source changed while this was queued
+				}
+				Page loaded = new Page(number * PAGE_SIZE, current, store);
+				synchronized (pages) {
+					if (current == source) {
+						pages.putIfAbsent(number, loaded);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Slot (account id) shown in a row, or -1.
+	 */
+	public int slotAt(int row) {
+		Page page = page(row);
+		int index = row - page.firstRow;
+		return index < page.count ? page.slots[index] : -1;
+	}
+
+	/**
+	 * Re-reads a single row from the store, e.g. after an admin changed the account.
+	 */
+	public void refreshRow(int row) {
+		Page page = page(row);
+		int index = row - page.firstRow;
+		if (index < page.count) {
+			int slot = page.slots[index];
+			page.balances[index] = store.balance(slot);
+			page.flags[index] = store.flags(slot);
+			page.lastActivity[index] = store.lastActivity(slot);
+			fireTableRowsUpdated(row, row);
+		}
+	}
+
+	private Page page(int row) {
+		int number = row / PAGE_SIZE;
+		synchronized (pages) {
+			Page page = pages.get(number);
+			if (page == null) {
+				// Not prefetched (yet): a page is only a few microseconds of store reads
+				page = new Page(number * PAGE_SIZE, source, store);
+				pages.put(number, page);
+			}
+			return page;
+		}
+	}
+
+	@Override
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return COLUMNS.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return COLUMNS[column];
+	}
+
+	@Override
+	public Object getValueAt(int row, int column) {
+		Page page = page(row);
+		int index = row - page.firstRow;
+		if (index >= page.count) {
+			return null;
+		}
+		switch (column) {
+			case 0:
+				return page.cards[index];
+			case 1:
+				return moneyFormat.format(page.balances[index]);
+			case 2:
+				return status(page.flags[index]);
+			default:
+				return dateFormat.format(new Date(page.lastActivity[index]));
+		}
+	}
+
+	private static String status(int flags) {
+		if ((flags & AccountStore.FLAG_CLOSED) != 0) {
+			return "Closed";
+		}
+		if ((flags & AccountStore.FLAG_FROZEN) != 0) {
+			return "Frozen";
+		}
+		return (flags & AccountStore.FLAG_ADMIN) != 0 ? "Admin" : "Active";
+	}
+
+	@Override
+	public void balancesChanged(int[] accounts, long[] balances, int count) {
+		int rows = 0;
+		synchronized (pages) {
+			for (Page page : pages.values()) {
+				for (int i = 0; i < count; i++) {
+					page.markChanged(accounts[i]);
+				}
+				for (int word = 0; word < page.changed.length; word++) {
+					for (long bits = page.changed[word]; bits != 0; bits &= bits - 1) {
+						int index = word << 6 | Long.numberOfTrailingZeros(bits);
+						int slot = page.slots[index];
+						page.balances[index] = store.balance(slot);
+						page.lastActivity[index] = store.lastActivity(slot);
+						changedRows[rows++] = page.firstRow + index;
+					}
+					page.changed[word] = 0;
+				}
+			}
+		}
+		// Fired outside the lock, repainting reads the pages again
+		for (int i = 0; i < rows; i++) {
+			fireTableRowsUpdated(changedRows[i], changedRows[i]);
+		}
+	}
+
+	@Override
+	public void allBalancesChanged() {
+		reload();
+	}
+}
@@ -0,0 +1,194 @@
+package admin;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Random;
+
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+
+import ledger.AccountIndexes;
+import ledger.AccountStore;
+import ledger.Ledger;
+import main.ActivitySimulator;
+import main.BalanceUpdateBus;
+
+/**
+ * The admin's view of every account in the bank. The table is virtualized: the
+ * model only holds the pages around the visible rows (see {@link AccountTableModel}),
+ * so this window works the same for a handful of customers and for millions.
+ *
+ * Searching and sorting never happen in the table: the search box and the sort
+ * choice just pick a different {@link RowSource} backed by the {@link AccountIndexes}.
+ * Digits search by card number, anything else by the beginning of the name.
+ */
+public class AdminAccountBrowser extends JFrame {
+
+	private static final int WINDOW_HEIGHT = 720;
+	private static final int WINDOW_WIDTH = 1080;
+
+	private static final String SORT_STORE = "Store order";
+	private static final String SORT_BALANCE = "Balance";
+	private static final String SORT_ACTIVITY = "Last activity";
+
+	private final Ledger ledger;
+	private final AccountIndexes indexes;
+	private final StoreOrderRowSource allAccounts;
+	private final AccountTableModel model;
+	private final JTable table;
+	private final JLabel statusLabel = new JLabel();
+	private final JTextField searchField = new JTextField(20);
+	private final JComboBox<String> sortBox = new JComboBox<>(new String[] { SORT_STORE, SORT_BALANCE, SORT_ACTIVITY });
+
+	public AdminAccountBrowser(Ledger ledger, AccountIndexes indexes, BalanceUpdateBus bus) {
+		this.ledger = ledger;
+		this.indexes = indexes;
+		this.allAccounts = new StoreOrderRowSource(ledger.store());
+		this.model = new AccountTableModel(ledger.store(), allAccounts);
+		this.table = new JTable(model);
+
+		setTitle("Bank administration | Accounts");
+		setSize(WINDOW_WIDTH, WINDOW_HEIGHT);
+		setLayout(new BorderLayout());
+
+		table.setFillsViewportHeight(true);
+		table.setAutoCreateRowSorter(false); // sorting is done by the row sources
+		JScrollPane scrollPane = new JScrollPane(table);
+		scrollPane.getViewport().addChangeListener(e -> visibleRowsChanged(scrollPane.getViewport()));
+		add(scrollPane, BorderLayout.CENTER);
+
+		// Search and sort
+		JButton searchButton = new JButton("Search");
+		searchButton.addActionListener(e -> applyQuery());
+		searchField.addActionListener(e -> applyQuery());
+		sortBox.addActionListener(e -> applyQuery());
+		JPanel query = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		query.add(new JLabel("Search (card number or name):"));
+		query.add(searchField);
+		query.add(searchButton);
+		query.add(new JLabel("Sort by:"));
+		query.add(sortBox);
+		add(query, BorderLayout.NORTH);
+
+		// Buttons for modifying accounts
+		JButton refreshButton = new JButton("Refresh");
+		refreshButton.addActionListener(e -> {
+			allAccounts.refresh();
+			applyQuery();
+		});
+		JButton freezeButton = new JButton("Freeze / unfreeze");
+		freezeButton.addActionListener(e -> toggleFrozen());
+
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		buttons.add(refreshButton);
+		buttons.add(freezeButton);
+		buttons.add(statusLabel);
+		add(buttons, BorderLayout.SOUTH);
+
+		if (bus != null) {
+			bus.addListener(model);
+		}
+		updateStatus();
+	}
+
+	private void applyQuery() {
+		String text = searchField.getText().trim();
+		RowSource source;
+		if (indexes == null) {
+			source = allAccounts;
+		} else if (!text.isEmpty() && text.chars().allMatch(Character::isDigit)) {
+			source = new SingleRowSource(findByCard(text));
+		} else if (!text.isEmpty()) {
+			source = new NamePrefixRowSource(indexes.names(), text);
+		} else if (SORT_BALANCE.equals(sortBox.getSelectedItem())) {
+			source = new RangeRowSource(indexes.balances());
+		} else if (SORT_ACTIVITY.equals(sortBox.getSelectedItem())) {
+			source = new RangeRowSource(indexes.activity());
+		} else {
+			source = allAccounts;
+		}
+		model.setSource(source);
+		updateStatus();
+	}
+
+	// The account with this card number, or -1; too many digits is no card at all
+	private int findByCard(String digits) {
+		try {
+			return indexes.findByCard(Long.parseLong(digits));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void visibleRowsChanged(JViewport viewport) {
+		Rectangle view = viewport.getViewRect();
+		int first = table.rowAtPoint(new Point(0, view.y));
+		int last = table.rowAtPoint(new Point(0, view.y + view.height - 1));
+		if (first < 0) {
+			return;
+		}
+		model.setVisibleRows(first, last < 0 ? model.getRowCount() - 1 : last);
+	}
+
+	private void toggleFrozen() {
+		int row = table.getSelectedRow();
+		if (row < 0) {
+			return;
+		}
+		int account = model.slotAt(row);
+		if (account < 0) {
+			return;
+		}
+		int flags = ledger.store().flags(account);
+		ledger.setFlags(account, flags ^ AccountStore.FLAG_FROZEN);
+		model.refreshRow(row);
+	}
+
+	private void updateStatus() {
+		statusLabel.setText(String.format("%,d accounts", model.getRowCount()));
+		sortBox.setEnabled(indexes != null);
+	}
+
+	/**
+	 * Demo with a million named accounts (pass a count to try ten million) and the
+	 * activity simulator running.
+	 */
+	public static void main(String[] args) {
+		int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		String[] firstNames = { "Aino", "Eero", "Liisa", "Matti", "Sofia", "Juha", "Emma", "Oskari" };
+		String[] lastNames = { "Virtanen", "Korhonen", "Nieminen", "Meier", "Smith", "Laine", "Heikkinen" };
+		Random random = new Random(7);
+
+		Ledger ledger = new Ledger(new AccountStore(accountCount));
+		int[] accounts = new int[accountCount];
+		for (int i = 0; i < accountCount; i++) {
+			accounts[i] = ledger.openAccount(4_000_0000_0000_0000L + i, random.nextInt(10_000_00), 0);
+		}
+		AccountIndexes indexes = new AccountIndexes(ledger.store());
+		for (int i = 0; i < accountCount; i++) {
+			indexes.addName(lastNames[random.nextInt(lastNames.length)] + " "
+					+ firstNames[random.nextInt(firstNames.length)], accounts[i]);
+		}
+		ledger.addListener(indexes);
+		BalanceUpdateBus bus = new BalanceUpdateBus(ledger.store());
+		ledger.addListener(bus);
+		bus.start(BalanceUpdateBus.DEFAULT_FRAME_RATE);
+		new ActivitySimulator(ledger, accounts).rate(50_000).start();
+
+		SwingUtilities.invokeLater(() -> {
+			AdminAccountBrowser browser = new AdminAccountBrowser(ledger, indexes, bus);
+			browser.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+			browser.setVisible(true);
+		});
+	}
+}
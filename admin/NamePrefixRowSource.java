@@ -0,0 +1,27 @@
+package admin;
+
+import ledger.NamePrefixIndex;
+
+/**
+ * Accounts whose customer name starts with a prefix, in name order.
+ */
+public class NamePrefixRowSource implements RowSource {
+
+	private final NamePrefixIndex index;
+	private final String prefix;
+
+	public NamePrefixRowSource(NamePrefixIndex index, String prefix) {
+		this.index = index;
+		this.prefix = prefix;
+	}
+
+	@Override
+	public int rowCount() {
+		return index.count(prefix);
+	}
+
+	@Override
+	public int fetch(int firstRow, int[] slots, int count) {
+		return index.find(prefix, firstRow, slots, count);
+	}
+}
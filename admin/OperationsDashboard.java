@@ -0,0 +1,265 @@
+package admin;
+
+import java.awt.BorderLayout;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import auth.CredentialService;
+import auth.PinHasher;
+import invest.MarketEngine;
+import invest.StockMarket;
+import invest.TickFeed;
+import ledger.Ledger;
+import ledger.PersistentLedger;
+import main.ActivitySimulator;
+import main.BalanceUpdateBus;
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.MetricsHttpServer;
+import metrics.MetricsJmx;
+import metrics.MetricsRegistry;
+
+/**
+ * The operations view: every metric in a {@link MetricsRegistry}, one row each,
+ * with the rate over the last second and, for latencies, p50, p99, p99.9 and the
+ * worst case since start. It reads the same histograms and counters as the JMX
+ * bean and the scrape endpoint, once a second on the event thread, so watching
+ * doesn't slow the bank down.
+ */
+public class OperationsDashboard extends JFrame {
+
+	private static final int WINDOW_HEIGHT = 400;
+	private static final int WINDOW_WIDTH = 900;
+	private static final int REFRESH_MILLIS = 1000;
+
+	private static final String[] COLUMNS = { "Metric", "Count", "Per second", "p50", "p99", "p99.9", "Max" };
+
+	private final MetricsRegistry registry;
+	private final MetricsModel model = new MetricsModel();
+	private final JLabel statusLabel = new JLabel();
+
+	// Counts at the last refresh, for the rates
+	private final Map<String, Long> lastCounts = new HashMap<>();
+	private long lastRefresh;
+
+	public OperationsDashboard(MetricsRegistry registry) {
+		this.registry = registry;
+
+		setTitle("Bank administration | Operations");
+		setSize(WINDOW_WIDTH, WINDOW_HEIGHT);
+		setLayout(new BorderLayout());
+		JTable table = new JTable(model);
+		table.setFillsViewportHeight(true);
+		table.getColumnModel().getColumn(0).setPreferredWidth(200);
+		add(new JScrollPane(table), BorderLayout.CENTER);
+		add(statusLabel, BorderLayout.SOUTH);
+
+		refresh();
+		new Timer(REFRESH_MILLIS, e -> refresh()).start();
+	}
+
+	private void refresh() {
+		long now = System.nanoTime();
+		double seconds = lastRefresh == 0 ? 0 : (now - lastRefresh) / 1e9;
+		lastRefresh = now;
+
+		List<Object[]> rows = new ArrayList<>();
+		for (Map.Entry<String, LatencyHistogram> entry : registry.histograms().entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			long count = histogram.count();
+			rows.add(new Object[] { entry.getKey(), count, rate(entry.getKey(), count, seconds),
+					formatNanos(histogram.percentile(50)), formatNanos(histogram.percentile(99)),
+					formatNanos(histogram.percentile(99.9)), formatNanos(histogram.max()) });
+		}
+		for (Map.Entry<String, Counter> entry : registry.counters().entrySet()) {
+			long count = entry.getValue().count();
+			rows.add(new Object[] { entry.getKey(), count, rate(entry.getKey(), count, seconds), "", "", "", "" });
+		}
+		for (Map.Entry<String, LongSupplier> entry : registry.gauges().entrySet()) {
+			rows.add(new Object[] { entry.getKey(), entry.getValue().getAsLong(), "", "", "", "", "" });
+		}
+		model.setRows(rows);
+		statusLabel.setText(String.format("%d metrics, refreshed every %d ms", rows.size(), REFRESH_MILLIS));
+	}
+
+	// Change since the last refresh, per second; sampled histograms only count
+	// their samples, so their rate is that of the samples
+	private String rate(String name, long count, double seconds) {
+		Long last = lastCounts.put(name, count);
+		if (last == null || seconds == 0) {
+			return "";
+		}
+		return String.format("%,.0f", (count - last) / seconds);
+	}
+
+	static String formatNanos(long nanos) {
+		if (nanos < 1_000) {
+			return nanos + " ns";
+		}
+		if (nanos < 1_000_000) {
+			return String.format("%.1f µs", nanos / 1e3);
+		}
+		if (nanos < 1_000_000_000) {
+			return String.format("%.2f ms", nanos / 1e6);
+		}
+		return String.format("%.2f s", nanos / 1e9);
+	}
+
+	private static final class MetricsModel extends AbstractTableModel {
+		private List<Object[]> rows = new ArrayList<>();
+
+		void setRows(List<Object[]> rows) {
+			boolean sameShape = rows.size() == this.rows.size();
+			this.rows = rows;
+			if (sameShape) {
+				fireTableRowsUpdated(0, rows.size() - 1);
+			} else {
+				fireTableDataChanged();
+			}
+		}
+
+		@Override
+		public int getRowCount() {
+			return rows.size();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return COLUMNS.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return COLUMNS[column];
+		}
+
+		@Override
+		public Object getValueAt(int row, int column) {
+			return rows.get(row)[column];
+		}
+	}
+
+	/**
+	 * Registers the usual metrics of a running bank. Any of the parts can be null.
+	 */
+	public static void registerBank(MetricsRegistry registry, Ledger ledger, CredentialService credentials,
+			MarketEngine market, BalanceUpdateBus bus) {
+		if (ledger != null) {
+			registry.register("ledger.transfer", ledger.transferLatency());
+			registry.register("ledger.transfers", ledger.transfers());
+			registry.gauge("ledger.accounts", ledger::accountCount);
+			if (ledger.journal() != null) {
+				registry.register("journal.append", ledger.journal().appendLatency());
+				registry.register("journal.fsync", ledger.journal().syncLatency());
+				registry.gauge("journal.last_seq", ledger.journal()::lastSeq);
+			}
+		}
+		if (credentials != null) {
+			registry.register("auth.login", credentials.latency());
+			registry.gauge("auth.queued", credentials::queued);
+		}
+		if (market != null) {
+			registry.register("market.match", market.latency());
+			registry.gauge("market.trades", market::trades);
+		}
+		if (bus != null) {
+			registry.register("ui.balance_lag", bus.lag());
+			registry.gauge("ui.frames", bus::frames);
+		}
+	}
+
+	/**
+	 * Demo: a journaled ledger under simulated load, logins, the stock market and
+	 * the balance bus, all on the dashboard, on JMX and on
+	 * http://localhost:9404/metrics.
+	 */
+	public static void main(String[] args) throws Exception {
+		int accountCount = 50_000;
+		long firstCard = 4_000_0000_0000_0000L;
+		Path dir = Files.createTempDirectory("operations");
+		PersistentLedger persistent = PersistentLedger.open(dir, accountCount);
+		Ledger ledger = persistent.ledger();
+		ledger.setSyncCommit(false);
+		int[] accounts = new int[accountCount];
+		for (int i = 0; i < accountCount; i++) {
+			accounts[i] = ledger.openAccount(firstCard + i, 1_000_00, 0);
+		}
+		ledger.flush();
+		ledger.setSyncCommit(true);
+
+		CredentialService credentials = new CredentialService(ledger,
+				new PinHasher("demo pepper".getBytes(StandardCharsets.UTF_8), 10));
+		int customers = 1_000;
+		for (int i = 0; i < customers; i++) {
+			credentials.setPin(firstCard + i, "1234".toCharArray());
+		}
+
+		MarketEngine market = StockMarket.createEngine();
+		BalanceUpdateBus bus = new BalanceUpdateBus(ledger.store());
+		ledger.addListener(bus);
+
+		MetricsRegistry registry = MetricsRegistry.global();
+		registerBank(registry, ledger, credentials, market, bus);
+		MetricsJmx.register(registry);
+		MetricsHttpServer http;
+		try {
+			http = new MetricsHttpServer(registry, MetricsHttpServer.DEFAULT_PORT);
+		} catch (IOException e) {
+			http = new MetricsHttpServer(registry, 0); // the usual port is taken
+		}
+		System.out.println("Metrics on http://localhost:" + http.port() + "/metrics and over JMX as "
+				+ MetricsJmx.OBJECT_NAME);
+
+		SwingUtilities.invokeLater(() -> {
+			OperationsDashboard dashboard = new OperationsDashboard(registry);
+			dashboard.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+			dashboard.setVisible(true);
+		});
+
+		bus.start(BalanceUpdateBus.DEFAULT_FRAME_RATE);
+		new ActivitySimulator(ledger, accounts).rate(20_000).start();
+		market.start();
+		Thread feed = new Thread(() -> {
+			TickFeed ticks = new TickFeed(market.books(), StockMarket.REFERENCE_PRICES, 7);
+			while (true) {
+				ticks.emit(256, market.input());
+				sleep(1);
+			}
+		}, "tick-feed");
+		feed.setDaemon(true);
+		feed.start();
+		Thread logins = new Thread(() -> {
+			SplittableRandom random = new SplittableRandom(1);
+			while (true) {
+				credentials.verifyAsync(firstCard + random.nextInt(customers), "1234".toCharArray());
+				sleep(5);
+			}
+		}, "login-load");
+		logins.setDaemon(true);
+		logins.start();
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package admin;
+
+import ledger.RangeIndex;
+
+/**
+ * Accounts ordered by a {@link RangeIndex} key (balance or last activity), optionally
+ * limited to {@code low <= key <= high}.
+ */
+public class RangeRowSource implements RowSource {
+
+	private final RangeIndex index;
+	private final long low;
+	private final long high;
+
+	public RangeRowSource(RangeIndex index) {
+		this(index, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	public RangeRowSource(RangeIndex index, long low, long high) {
+		this.index = index;
+		this.low = low;
+		this.high = high;
+	}
+
+	@Override
+	public int rowCount() {
+		return index.count(low, high);
+	}
+
+	@Override
+	public int fetch(int firstRow, int[] slots, int count) {
+		return index.fetch(low, high, firstRow, slots, count);
+	}
+}
@@ -0,0 +1,182 @@
+package admin;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+import ledger.AccountStore;
+import ledger.Ledger;
+import ledger.TransferResult;
+import main.ActivitySimulator;
+import money.MoneyFormatter;
+import risk.ReviewItem;
+import risk.ReviewQueue;
+import risk.RiskEngine;
+
+/**
+ * Where admins verify transfers: the flagged and held transfers of the
+ * {@link RiskEngine}'s {@link ReviewQueue}, oldest first. Approving a held transfer
+ * carries it out; rejecting drops it. The list follows the queue live, with at
+ * most one refresh queued on the event thread at a time.
+ */
+public class ReviewQueueWindow extends JFrame {
+
+	private static final int WINDOW_HEIGHT = 600;
+	private static final int WINDOW_WIDTH = 1000;
+
+	private static final String[] COLUMNS = { "Id", "Time", "Action", "From", "To", "Amount", "Reasons" };
+
+	private final ReviewQueue queue;
+	private final AccountStore store;
+	private final ItemModel model = new ItemModel();
+	private final JTable table = new JTable(model);
+	private final JLabel statusLabel = new JLabel();
+	private final AtomicBoolean refreshQueued = new AtomicBoolean();
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	private final MoneyFormatter moneyFormat = MoneyFormatter.finnishEuros();
+
+	public ReviewQueueWindow(ReviewQueue queue, AccountStore store) {
+		this.queue = queue;
+		this.store = store;
+
+		setTitle("Bank administration | Transfers to verify");
+		setSize(WINDOW_WIDTH, WINDOW_HEIGHT);
+		setLayout(new BorderLayout());
+		table.setFillsViewportHeight(true);
+		table.getColumnModel().getColumn(6).setPreferredWidth(400);
+		add(new JScrollPane(table), BorderLayout.CENTER);
+
+		JButton approveButton = new JButton("Approve");
+		approveButton.addActionListener(e -> approveSelected());
+		JButton rejectButton = new JButton("Reject");
+		rejectButton.addActionListener(e -> rejectSelected());
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		buttons.add(approveButton);
+		buttons.add(rejectButton);
+		buttons.add(statusLabel);
+		add(buttons, BorderLayout.SOUTH);
+
+		queue.addListener(this::queueChanged);
+		refresh();
+	}
+
+	// Any thread: coalesces bursts of changes into one refresh
+	private void queueChanged() {
+		if (refreshQueued.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(() -> {
+				refreshQueued.set(false);
+				refresh();
+			});
+		}
+	}
+
+	private void refresh() {
+		model.setItems(queue.pending());
+		statusLabel.setText(String.format("%,d waiting", model.getRowCount()));
+	}
+
+	private ReviewItem selected() {
+		int row = table.getSelectedRow();
+		return row < 0 ? null : model.itemAt(row);
+	}
+
+	private void approveSelected() {
+		ReviewItem item = selected();
+		if (item == null) {
+			return;
+		}
+		TransferResult result = queue.approve(item.id());
+		statusLabel.setText("Approved " + item.id() + (result == null ? "" : ": " + result));
+	}
+
+	private void rejectSelected() {
+		ReviewItem item = selected();
+		if (item != null && queue.reject(item.id())) {
+			statusLabel.setText("Rejected " + item.id());
+		}
+	}
+
+	private final class ItemModel extends AbstractTableModel {
+
+		private List<ReviewItem> items = new ArrayList<>();
+
+		void setItems(List<ReviewItem> items) {
+			this.items = items;
+			fireTableDataChanged();
+		}
+
+		ReviewItem itemAt(int row) {
+			return items.get(row);
+		}
+
+		@Override
+		public int getRowCount() {
+			return items.size();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return COLUMNS.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return COLUMNS[column];
+		}
+
+		@Override
+		public Object getValueAt(int row, int column) {
+			ReviewItem item = items.get(row);
+			switch (column) {
+			case 0:
+				return item.id();
+			case 1:
+				return dateFormat.format(new Date(item.time()));
+			case 2:
+				return item.action();
+			case 3:
+				return store.cardAt(item.from());
+			case 4:
+				return store.cardAt(item.to());
+			case 5:
+				return moneyFormat.format(item.amount());
+			default:
+				return item.reasons();
+			}
+		}
+	}
+
+	/**
+	 * Demo: the activity simulator with large amounts, so that the rules have
+	 * something to find.
+	 */
+	public static void main(String[] args) {
+		int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		Ledger ledger = new Ledger(new AccountStore(accountCount));
+		int[] accounts = new int[accountCount];
+		for (int i = 0; i < accountCount; i++) {
+			accounts[i] = ledger.openAccount(4_000_0000_0000_0000L + i, 1_000_000_00L, 0);
+		}
+		RiskEngine engine = RiskEngine.install(ledger);
+		new ActivitySimulator(ledger, accounts).rate(5_000).skew(1.2).maxAmount(60_000_00).start();
+
+		SwingUtilities.invokeLater(() -> {
+			ReviewQueueWindow window = new ReviewQueueWindow(engine.queue(), ledger.store());
+			window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+			window.setVisible(true);
+		});
+	}
+}
@@ -0,0 +1,20 @@
+package admin;
+
+/**
+ * An ordered, possibly filtered list of accounts that the admin table pages
+ * through. The table never holds the whole list; it asks for one page of account
+ * ids (store slots) at a time. Sorting and filtering are done by choosing a
+ * different source, so the work happens next to the data and not in the table.
+ */
+public interface RowSource {
+
+	int rowCount();
+
+	/**
+	 * Copies the account ids of rows {@code firstRow .. firstRow + count - 1} into
+	 * {@code slots}.
+	 *
+	 * @return how many ids were copied, less than {@code count} at the end of the list
+	 */
+	int fetch(int firstRow, int[] slots, int count);
+}
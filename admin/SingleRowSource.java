@@ -0,0 +1,30 @@
+package admin;
+
+/**
+ * Exactly one account (or none), e.g. the result of a card number search.
+ */
+public class SingleRowSource implements RowSource {
+
+	private final int slot;
+
+	/**
+	 * @param slot the account, or -1 for an empty result
+	 */
+	public SingleRowSource(int slot) {
+		this.slot = slot;
+	}
+
+	@Override
+	public int rowCount() {
+		return slot < 0 ? 0 : 1;
+	}
+
+	@Override
+	public int fetch(int firstRow, int[] slots, int count) {
+		if (slot < 0 || firstRow > 0 || count == 0) {
+			return 0;
+		}
+		slots[0] = slot;
+		return 1;
+	}
+}
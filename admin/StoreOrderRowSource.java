@@ -0,0 +1,81 @@
+package admin;
+
+import java.util.Arrays;
+
+import ledger.AccountStore;
+
+/**
+ * Every account, in the order the accounts sit in the store. To find row n without
+ * a row-to-slot array (which would grow with the customer base), the store is split
+ * into blocks of slots and only the number of rows before each block is kept. A
+ * fetch binary-searches the block and then walks the slots from there.
+ */
+public class StoreOrderRowSource implements RowSource {
+
+	private static final int BLOCK_SHIFT = 12; // 4096 slots per block
+
+	private final AccountStore store;
+	private int[] rowsBefore;
+	private int rowCount;
+
+	public StoreOrderRowSource(AccountStore store) {
+		this.store = store;
+		refresh();
+	}
+
+	/**
+	 * Recounts the blocks, for example after new accounts were registered.
+	 */
+	public synchronized void refresh() {
+		int blocks = (store.capacity() + (1 << BLOCK_SHIFT) - 1) >>> BLOCK_SHIFT;
+		int[] counts = new int[blocks + 1];
+		int rows = 0;
+		for (int block = 0; block < blocks; block++) {
+			counts[block] = rows;
+			int end = Math.min(store.capacity(), (block + 1) << BLOCK_SHIFT);
+			for (int slot = block << BLOCK_SHIFT; slot < end; slot++) {
+				if (store.isOccupied(slot)) {
+					rows++;
+				}
+			}
+		}
+		counts[blocks] = rows;
+		rowsBefore = counts;
+		rowCount = rows;
+	}
+
+	@Override
+	public synchronized int rowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public synchronized int fetch(int firstRow, int[] slots, int count) {
+		if (firstRow < 0 || firstRow >= rowCount) {
+			return 0;
+		}
+		// Last block that starts at or before firstRow
+		int block = Arrays.binarySearch(rowsBefore, 0, rowsBefore.length - 1, firstRow);
+		if (block < 0) {
+			block = -block - 2;
+		} else {
+			while (block + 1 < rowsBefore.length - 1 && rowsBefore[block + 1] == firstRow) {
+				block++;
+			}
+		}
+
+		int row = rowsBefore[block];
+		int filled = 0;
+		int capacity = store.capacity();
+		for (int slot = block << BLOCK_SHIFT; slot < capacity && filled < count; slot++) {
+			if (!store.isOccupied(slot)) {
+				continue;
+			}
+			if (row >= firstRow) {
+				slots[filled++] = slot;
+			}
+			row++;
+		}
+		return filled;
+	}
+}
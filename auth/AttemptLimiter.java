@@ -0,0 +1,113 @@
+package auth;
+
+import ledger.AccountStore;
+
+/**
+ * Counts failed PIN attempts per card and locks the card out for a while after too
+ * many of them.
+ *
+ * The state lives in the account's 4-byte auth field of the {@link AccountStore}
+ * and is only changed with compare-and-set, so there is no lock and no map of
+ * counters: the low 8 bits are the failures so far, the upper 24 bits the minute
+ * (on a 24-bit wrapping clock, about 31 years around) the lockout ends, 0 if the
+ * card is not locked. A successful login clears it.
+ */
+public class AttemptLimiter {
+
+	public static final int DEFAULT_MAX_FAILURES = 3;
+	public static final int DEFAULT_LOCKOUT_MINUTES = 15;
+
+	private static final int FAILURE_MASK = 0xFF;
+	private static final int MINUTE_MASK = 0xFFFFFF;
+
+	private final AccountStore store;
+	private final int maxFailures;
+	private final int lockoutMinutes;
+
+	public AttemptLimiter(AccountStore store, int maxFailures, int lockoutMinutes) {
+		if (maxFailures < 1 || maxFailures > FAILURE_MASK) {
+			throw new IllegalArgumentException("maxFailures must be between 1 and " + FAILURE_MASK);
+		}
+		if (lockoutMinutes < 1 || lockoutMinutes > MINUTE_MASK / 2) {
+			throw new IllegalArgumentException("Bad lockout: " + lockoutMinutes + " minutes");
+		}
+		this.store = store;
+		this.maxFailures = maxFailures;
+		this.lockoutMinutes = lockoutMinutes;
+	}
+
+	public AttemptLimiter(AccountStore store) {
+		this(store, DEFAULT_MAX_FAILURES, DEFAULT_LOCKOUT_MINUTES);
+	}
+
+	/**
+	 * True while the account is locked out. Checked before a PIN is hashed, so
+	 * guesses against a locked card cost nothing.
+	 */
+	public boolean isLockedOut(int account, long nowMillis) {
+		return lockedUntil(store.authState(account), nowMillis) != 0;
+	}
+
+	/**
+	 * Counts a wrong PIN.
+	 *
+	 * @return true if this failure locked the account
+	 */
+	public boolean recordFailure(int account, long nowMillis) {
+		while (true) {
+			int state = store.authState(account);
+			if (lockedUntil(state, nowMillis) != 0) {
+				return false; // a concurrent guess already locked it
+			}
+			int failures = (state & FAILURE_MASK) + 1;
+			int next;
+			if (failures >= maxFailures) {
+				// +1 so the lockout is never shorter than asked for; 0 means "not locked"
+				int until = (int) (minuteOf(nowMillis) + lockoutMinutes + 1) & MINUTE_MASK;
+				next = Math.max(until, 1) << 8;
+			} else {
+				next = failures;
+			}
+			if (store.compareAndSetAuthState(account, state, next)) {
+				return failures >= maxFailures;
+			}
+		}
+	}
+
+	/**
+	 * Clears the failures after a correct PIN.
+	 */
+	public void recordSuccess(int account) {
+		int state = store.authState(account);
+		// Only write if there is something to clear, most logins don't dirty the slot
+		while (state != 0 && !store.compareAndSetAuthState(account, state, 0)) {
+			state = store.authState(account);
+		}
+	}
+
+	/**
+	 * Lifts a lockout, e.g. from the admin pages.
+	 */
+	public void unlock(int account) {
+		recordSuccess(account);
+	}
+
+	public int failures(int account) {
+		return store.authState(account) & FAILURE_MASK;
+	}
+
+	// The lockout's end minute if it is still in the future, otherwise 0
+	private static int lockedUntil(int state, long nowMillis) {
+		int until = state >>> 8;
+		if (until == 0) {
+			return 0;
+		}
+		// Difference on the wrapping 24-bit clock, as a signed number
+		int left = ((until - (int) minuteOf(nowMillis)) << 8) >> 8;
+		return left > 0 ? until : 0;
+	}
+
+	private static long minuteOf(long millis) {
+		return (millis / 60_000) & MINUTE_MASK;
+	}
+}
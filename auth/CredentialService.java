@@ -0,0 +1,322 @@
+package auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import ledger.AccountStore;
+import ledger.Ledger;
+import metrics.LatencyHistogram;
+
+/**
+ * Checks card number + PIN logins against the hashes in the {@link AccountStore}.
+ * New PINs go through the {@link Ledger}, so that they are journaled.
+ *
+ * Hashing is deliberately slow (see {@link PinHasher}), so it runs on a small pool
+ * of its own, one thread less than there are cores, at a lower priority than the
+ * rest of the bank. A login storm (market open) then queues up here instead of
+ * taking the CPU away from transfers. The queue is bounded; when it is full a
+ * login is answered with {@link LoginResult#BUSY} right away rather than after
+ * minutes in line.
+ *
+ * While the queue is more than a quarter full the service is in storm mode: a
+ * customer who logged in successfully in the last few minutes is let in again on a
+ * cheap check against a short-lived in-memory tag (an HMAC with a key that only
+ * lives in this process) instead of the full PIN hash. Retries and second devices
+ * are most of a storm, so this keeps the queue moving. Wrong PINs always go the
+ * slow way, and locked cards are turned away before any hashing.
+ */
+public class CredentialService {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+	private static final int CACHE_SIZE = 1 << 16; // direct-mapped, power of two
+	private static final long CACHE_TTL_MILLIS = 5 * 60_000;
+
+	private final Ledger ledger;
+	private final AccountStore store;
+	private final PinHasher hasher;
+	private final AttemptLimiter limiter;
+	private final ThreadPoolExecutor workers;
+	private final int stormThreshold;
+
+	// Storm-mode cache: per entry the account, the tag of the PIN and when it expires
+	private final AtomicLongArray cacheAccounts = new AtomicLongArray(CACHE_SIZE);
+	private final AtomicLongArray cacheTags = new AtomicLongArray(CACHE_SIZE);
+	private final AtomicLongArray cacheExpiry = new AtomicLongArray(CACHE_SIZE);
+	private final byte[] tagKey = new byte[32];
+	private final ThreadLocal<Mac> tagMac = ThreadLocal.withInitial(this::newTagMac);
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong busy = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+
+	/**
+	 * @param threads       hashing threads
+	 * @param queueCapacity logins that may wait for a thread before BUSY is returned
+	 */
+	public CredentialService(Ledger ledger, PinHasher hasher, AttemptLimiter limiter, int threads,
+			int queueCapacity) {
+		this.ledger = ledger;
+		this.store = ledger.store();
+		this.hasher = hasher;
+		this.limiter = limiter;
+		this.stormThreshold = Math.max(1, queueCapacity / 4);
+		new SecureRandom().nextBytes(tagKey);
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, "pin-verifier-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				}, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	public CredentialService(Ledger ledger, PinHasher hasher) {
+		this(ledger, hasher, new AttemptLimiter(ledger.store()),
+				Math.max(1, Runtime.getRuntime().availableProcessors() - 1), DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Checks a login without blocking. The future completes on a verifier thread,
+	 * or right away for unknown and locked cards and when the service is busy.
+	 */
+	public CompletableFuture<LoginResult> verifyAsync(long cardNumber, char[] pin) {
+		long start = System.nanoTime();
+		int account = store.slotOf(cardNumber);
+		if (account < 0) {
+			return done(start, LoginResult.UNKNOWN_CARD);
+		}
+		if (limiter.isLockedOut(account, System.currentTimeMillis())) {
+			return done(start, LoginResult.LOCKED_OUT);
+		}
+		if (isStorm() && cacheHit(account, cardNumber, pin)) {
+			cacheHits.incrementAndGet();
+			limiter.recordSuccess(account);
+			return done(start, LoginResult.OK);
+		}
+
+		char[] copy = pin.clone(); // the caller may wipe its array
+		CompletableFuture<LoginResult> future = new CompletableFuture<>();
+		try {
+			workers.execute(() -> {
+				LoginResult result;
+				try {
+					result = check(account, cardNumber, copy);
+				} catch (RuntimeException e) {
+					future.completeExceptionally(e);
+					return;
+				} finally {
+					Arrays.fill(copy, '\0');
+				}
+				latency.record(System.nanoTime() - start);
+				future.complete(result);
+			});
+		} catch (RejectedExecutionException e) {
+			Arrays.fill(copy, '\0');
+			busy.incrementAndGet();
+			return done(start, LoginResult.BUSY);
+		}
+		return future;
+	}
+
+	/**
+	 * Checks a login and waits for the answer.
+	 */
+	public LoginResult verify(long cardNumber, char[] pin) {
+		return verifyAsync(cardNumber, pin).join();
+	}
+
+	/**
+	 * Sets a new PIN (registration or PIN change) and lifts any lockout. Hashes on the
+	 * calling thread.
+	 *
+	 * @return false if there is no account with this card
+	 */
+	public boolean setPin(long cardNumber, char[] pin) {
+		int account = store.slotOf(cardNumber);
+		if (account < 0) {
+			return false;
+		}
+		ledger.setPinHash(account, hasher.hash(cardNumber, pin));
+		forget(account);
+		limiter.unlock(account);
+		return true;
+	}
+
+	private LoginResult check(int account, long cardNumber, char[] pin) {
+		// Checked again, the card may have been locked while this login waited
+		long now = System.currentTimeMillis();
+		if (limiter.isLockedOut(account, now)) {
+			return LoginResult.LOCKED_OUT;
+		}
+		long stored = store.pinHash(account);
+		if (!hasher.verify(cardNumber, pin, stored)) {
+			limiter.recordFailure(account, now);
+			return limiter.isLockedOut(account, now) ? LoginResult.LOCKED_OUT : LoginResult.WRONG_PIN;
+		}
+		limiter.recordSuccess(account);
+		if (hasher.needsRehash(stored) && !isStorm()) {
+			ledger.setPinHash(account, hasher.hash(cardNumber, pin));
+		}
+		remember(account, cardNumber, pin, now);
+		return LoginResult.OK;
+	}
+
+	private CompletableFuture<LoginResult> done(long start, LoginResult result) {
+		latency.record(System.nanoTime() - start);
+		return CompletableFuture.completedFuture(result);
+	}
+
+	/**
+	 * True while the verifier queue is longer than a quarter of its capacity.
+	 */
+	public boolean isStorm() {
+		return workers.getQueue().size() > stormThreshold;
+	}
+
+	private void remember(int account, long cardNumber, char[] pin, long now) {
+		int index = cacheIndex(account);
+		// Expiry first, so a reader never pairs a new account with an old tag
+		cacheExpiry.set(index, 0);
+		cacheAccounts.set(index, account);
+		cacheTags.set(index, tag(cardNumber, pin));
+		cacheExpiry.set(index, now + CACHE_TTL_MILLIS);
+	}
+
+	private void forget(int account) {
+		int index = cacheIndex(account);
+		if (cacheAccounts.get(index) == account) {
+			cacheExpiry.set(index, 0);
+		}
+	}
+
+	private boolean cacheHit(int account, long cardNumber, char[] pin) {
+		int index = cacheIndex(account);
+		long expiry = cacheExpiry.get(index);
+		if (expiry <= System.currentTimeMillis() || cacheAccounts.get(index) != account) {
+			return false;
+		}
+		long tag = cacheTags.get(index);
+		return cacheExpiry.get(index) == expiry && tag == tag(cardNumber, pin);
+	}
+
+	private static int cacheIndex(int account) {
+		return (account * 0x9E3779B9) >>> 16 & (CACHE_SIZE - 1);
+	}
+
+	private long tag(long cardNumber, char[] pin) {
+		Mac mac = tagMac.get();
+		for (int i = 0; i < 8; i++) {
+			mac.update((byte) (cardNumber >>> (56 - 8 * i)));
+		}
+		for (char c : pin) {
+			mac.update((byte) (c >>> 8));
+			mac.update((byte) c);
+		}
+		byte[] digest = mac.doFinal();
+		long tag = 0;
+		for (int i = 0; i < 8; i++) {
+			tag = (tag << 8) | (digest[i] & 0xFF);
+		}
+		return tag;
+	}
+
+	private Mac newTagMac() {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(tagKey, "HmacSHA256"));
+			return mac;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 is not available", e);
+		}
+	}
+
+	public LatencyHistogram latency() {
+		return latency;
+	}
+
+	public long busyCount() {
+		return busy.get();
+	}
+
+	public long stormCacheHits() {
+		return cacheHits.get();
+	}
+
+	public int queued() {
+		return workers.getQueue().size();
+	}
+
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * Login storm check: a burst of 50 000 logins (mostly returning customers, some
+	 * wrong PINs) against a few thousand accounts, then the result counts and the
+	 * login latency percentiles.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+		int logins = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+		long firstCard = 4_000_0000_0000_0000L;
+
+		Ledger ledger = new Ledger(new AccountStore(accounts));
+		PinHasher hasher = new PinHasher("demo pepper".getBytes(StandardCharsets.UTF_8), 10);
+		CredentialService service = new CredentialService(ledger, hasher);
+		for (int i = 0; i < accounts; i++) {
+			ledger.openAccount(firstCard + i, 100_00, 0);
+			service.setPin(firstCard + i, pinOf(i));
+		}
+
+		// Everyone logs in once before the storm, as they would during the day
+		for (int i = 0; i < accounts; i++) {
+			service.verify(firstCard + i, pinOf(i));
+		}
+		service.latency().reset();
+
+		SplittableRandom random = new SplittableRandom(42);
+		int[] counts = new int[LoginResult.values().length];
+		List<CompletableFuture<LoginResult>> futures = new ArrayList<>(logins);
+		long start = System.nanoTime();
+		for (int i = 0; i < logins; i++) {
+			int customer = random.nextInt(accounts);
+			char[] pin = random.nextInt(20) == 0 ? "0000".toCharArray() : pinOf(customer);
+			futures.add(service.verifyAsync(firstCard + customer, pin));
+		}
+		for (CompletableFuture<LoginResult> future : futures) {
+			counts[future.join().ordinal()]++;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d logins in %.2f s (%.0f/s), %d served from the storm cache%n", logins, seconds,
+				logins / seconds, service.stormCacheHits());
+		for (LoginResult result : LoginResult.values()) {
+			System.out.printf("  %-12s %d%n", result, counts[result.ordinal()]);
+		}
+		System.out.println("Latency: " + service.latency().summary());
+		service.shutdown();
+	}
+
+	private static char[] pinOf(int customer) {
+		return String.format("%04d", (customer * 7919) % 10_000).toCharArray();
+	}
+}
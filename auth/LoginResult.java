@@ -0,0 +1,17 @@
+package auth;
+
+/**
+ * Outcome of a PIN check. Only {@link #OK} lets the customer in.
+ */
+public enum LoginResult {
+	OK,
+	WRONG_PIN,
+	LOCKED_OUT,
+	UNKNOWN_CARD,
+	/** The verifier queue is full; the customer should try again in a moment. */
+	BUSY;
+
+	public boolean isOk() {
+		return this == OK;
+	}
+}
@@ -0,0 +1,143 @@
+package auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted, tunable-cost PIN hashes (PBKDF2 with HMAC-SHA256, which HotSpot runs on
+ * the CPU's SHA instructions where there are any).
+ *
+ * A PIN hash has to fit the 8-byte PIN field of the {@link ledger.AccountStore}, so
+ * there is no room for a stored salt. Instead the salt is the card number (unique
+ * per account) plus a server-side pepper, which is not stored with the accounts. A
+ * stored hash packs the cost into its top 6 bits and 58 bits of the derived key
+ * below, so the cost can be raised later and old hashes still verify.
+ *
+ * A four digit PIN only has 10 000 values, so no hash makes a leaked table safe on
+ * its own; the pepper and the attempt limiter are what really protect it. The cost
+ * is there to make every guess expensive for whoever has both.
+ */
+public class PinHasher {
+
+	public static final int DEFAULT_COST = 12; // 4096 iterations, a few milliseconds
+	public static final int MIN_COST = 4;
+	public static final int MAX_COST = 24;
+
+	private static final int COST_SHIFT = 58;
+	private static final long HASH_MASK = (1L << COST_SHIFT) - 1;
+
+	// SecretKeyFactory is not thread-safe
+	private static final ThreadLocal<SecretKeyFactory> FACTORY = ThreadLocal.withInitial(() -> {
+		try {
+			return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+		}
+	});
+
+	private final byte[] pepper;
+	private final int cost;
+
+	/**
+	 * @param pepper server secret mixed into every salt
+	 * @param cost   log2 of the PBKDF2 iteration count for new hashes
+	 */
+	public PinHasher(byte[] pepper, int cost) {
+		if (cost < MIN_COST || cost > MAX_COST) {
+			throw new IllegalArgumentException("Cost must be between " + MIN_COST + " and " + MAX_COST);
+		}
+		this.pepper = pepper.clone();
+		this.cost = cost;
+	}
+
+	public PinHasher(String pepper) {
+		this(pepper.getBytes(StandardCharsets.UTF_8), DEFAULT_COST);
+	}
+
+	public int cost() {
+		return cost;
+	}
+
+	/**
+	 * @return the value to store in the account's PIN field (never 0, which means
+	 *         "no PIN set")
+	 */
+	public long hash(long cardNumber, char[] pin) {
+		return pack(cost, derive(cardNumber, pin, cost));
+	}
+
+	/**
+	 * Checks a PIN against a stored hash, at the cost the hash was made with.
+	 */
+	public boolean verify(long cardNumber, char[] pin, long stored) {
+		if (stored == 0) {
+			return false;
+		}
+		int storedCost = costOf(stored);
+		if (storedCost < MIN_COST || storedCost > MAX_COST) {
+			return false;
+		}
+		return pack(storedCost, derive(cardNumber, pin, storedCost)) == stored;
+	}
+
+	/**
+	 * True if the hash was made with a lower cost than the current one and should be
+	 * replaced on the next successful login.
+	 */
+	public boolean needsRehash(long stored) {
+		return costOf(stored) < cost;
+	}
+
+	public static int costOf(long stored) {
+		return (int) (stored >>> COST_SHIFT);
+	}
+
+	private static long pack(int cost, long derived) {
+		return ((long) cost << COST_SHIFT) | (derived & HASH_MASK);
+	}
+
+	private long derive(long cardNumber, char[] pin, int cost) {
+		byte[] salt = new byte[8 + pepper.length];
+		for (int i = 0; i < 8; i++) {
+			salt[i] = (byte) (cardNumber >>> (56 - 8 * i));
+		}
+		System.arraycopy(pepper, 0, salt, 8, pepper.length);
+
+		PBEKeySpec spec = new PBEKeySpec(pin, salt, 1 << cost, 64);
+		try {
+			byte[] key = FACTORY.get().generateSecret(spec).getEncoded();
+			long derived = 0;
+			for (int i = 0; i < 8; i++) {
+				derived = (derived << 8) | (key[i] & 0xFF);
+			}
+			return derived;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Could not hash PIN", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * Prints how long one hash takes at each cost, to pick the cost for a machine.
+	 */
+	public static void main(String[] args) {
+		for (int cost = 8; cost <= 16; cost++) {
+			PinHasher hasher = new PinHasher("pepper".getBytes(StandardCharsets.UTF_8), cost);
+			char[] pin = "1234".toCharArray();
+			for (int i = 0; i < 20; i++) {
+				hasher.hash(4_000_0000_0000_0000L + i, pin); // warm up
+			}
+			int rounds = Math.max(5, 20_000 >> cost);
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				hasher.hash(4_000_0000_0000_0000L + i, pin);
+			}
+			System.out.printf("cost %2d (%6d iterations): %.3f ms per hash%n", cost, 1 << cost,
+					(System.nanoTime() - start) / 1e6 / rounds);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import cards.Luhn;
+import ledger.AccountStore;
+import ledger.Ledger;
+
+class AccountImporterTest {
+
+	private static final int ROWS = 500;
+
+	@TempDir
+	Path dir;
+
+	// Every split size puts the boundaries somewhere else: at a line start, just
+	// after one, in the middle of a field, on a line break. Each line has to be
+	// read exactly once whatever the size.
+	@Test
+	void everyCsvLineIsImportedOnceWhereverTheSplitsFall() throws IOException {
+		Path file = dir.resolve("accounts.csv");
+		long total = writeCsv(file, "card,balance\n", "\n");
+		for (int splitSize = 24; splitSize <= 80; splitSize++) {
+			importAndCheck(file, splitSize, total);
+		}
+	}
+
+	@Test
+	void windowsLineBreaksAndLongSplitsToo() throws IOException {
+		Path file = dir.resolve("accounts.csv");
+		long total = writeCsv(file, "", "\r\n");
+		for (int splitSize : new int[] { 24, 31, 47, 48, 49, 1024, 1 << 20 }) {
+			importAndCheck(file, splitSize, total);
+		}
+	}
+
+	private static void importAndCheck(Path file, int splitSize, long total) throws IOException {
+		Ledger ledger = new Ledger(new AccountStore(ROWS));
+		ImportResult result = new AccountImporter(ledger, 3, splitSize).run(file, AccountImporter.Format.CSV);
+		assertEquals(ROWS, result.imported(), "split size " + splitSize + ": " + result.samples());
+		assertEquals(0, result.rejected(), "split size " + splitSize + ": " + result.samples());
+		assertEquals(total, ledger.totalBalance(), "split size " + splitSize);
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(balanceOf(i), ledger.balance(ledger.accountOf(cardOf(i))), "split size " + splitSize);
+		}
+	}
+
+	// Lines of different lengths, so the boundaries move around from line to line
+	private static long writeCsv(Path file, String header, String lineBreak) throws IOException {
+		StringBuilder csv = new StringBuilder(header);
+		long total = 0;
+		for (int i = 0; i < ROWS; i++) {
+			long balance = balanceOf(i);
+			csv.append(cardOf(i)).append(',').append(balance / 100).append('.')
+					.append(String.format("%02d", balance % 100)).append(',').append(i % 3 == 0 ? "0" : "12345")
+					.append(lineBreak);
+			total += balance;
+		}
+		Files.writeString(file, csv, StandardCharsets.US_ASCII);
+		return total;
+	}
+
+	private static long cardOf(int row) {
+		return Luhn.withCheckDigit(400_000_000_000_000L + row * 7919L);
+	}
+
+	private static long balanceOf(int row) {
+		return (long) row * row * 37 % 10_000_000;
+	}
+}
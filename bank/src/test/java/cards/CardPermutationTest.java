@@ -0,0 +1,51 @@
+package cards;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+class CardPermutationTest {
+
+	@Test
+	void everyValueMapsToADifferentValueInRange() {
+		// Powers of two, odd sizes and sizes just past a power of two, where most
+		// results need cycle walking
+		for (long size : new long[] { 2, 3, 10, 64, 65, 1000, 4097, 100_000 }) {
+			for (long key : new long[] { 0, 1, 0x5DEECE66DL }) {
+				CardPermutation permutation = new CardPermutation(size, key);
+				BitSet seen = new BitSet((int) size);
+				for (long value = 0; value < size; value++) {
+					long permuted = permutation.permute(value);
+					assertTrue(permuted >= 0 && permuted < size, "out of range: " + permuted);
+					assertFalse(seen.get((int) permuted), "size " + size + " key " + key + ": " + permuted + " twice");
+					seen.set((int) permuted);
+				}
+			}
+		}
+	}
+
+	@Test
+	void theKeyPicksThePermutation() {
+		CardPermutation a = new CardPermutation(1_000_000, 1);
+		CardPermutation b = new CardPermutation(1_000_000, 2);
+		int same = 0;
+		for (long value = 0; value < 1000; value++) {
+			if (a.permute(value) == b.permute(value)) {
+				same++;
+			}
+		}
+		assertTrue(same < 10, same + " of 1000 the same");
+	}
+
+	@Test
+	void valuesOutsideTheRangeAreRefused() {
+		CardPermutation permutation = new CardPermutation(10, 0);
+		assertThrows(IllegalArgumentException.class, () -> permutation.permute(10));
+		assertThrows(IllegalArgumentException.class, () -> permutation.permute(-1));
+		assertThrows(IllegalArgumentException.class, () -> new CardPermutation(1, 0));
+	}
+}
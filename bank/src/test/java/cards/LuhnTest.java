@@ -0,0 +1,44 @@
+package cards;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class LuhnTest {
+
+	@Test
+	void knownNumbersAreValid() {
+		assertTrue(Luhn.isValid(79927398713L));
+		assertTrue(Luhn.isValid(4111111111111111L));
+		assertTrue(Luhn.isValid(5555555555554444L));
+		assertTrue(Luhn.isValid(378282246310005L));
+	}
+
+	@Test
+	void checkDigitCompletesThePayload() {
+		assertEquals(3, Luhn.checkDigit(7992739871L));
+		assertEquals(79927398713L, Luhn.withCheckDigit(7992739871L));
+		assertEquals(4111111111111111L, Luhn.withCheckDigit(411111111111111L));
+	}
+
+	@Test
+	void anyOtherLastDigitIsInvalid() {
+		for (int digit = 0; digit <= 9; digit++) {
+			assertEquals(digit == 3, Luhn.isValid(7992739871L * 10 + digit));
+		}
+	}
+
+	@Test
+	void aSwapOfNeighbouringDigitsIsCaught() {
+		assertFalse(Luhn.isValid(79927398731L));
+		assertFalse(Luhn.isValid(97927398713L));
+	}
+
+	@Test
+	void zeroAndNegativeNumbersAreInvalid() {
+		assertFalse(Luhn.isValid(0));
+		assertFalse(Luhn.isValid(-79927398713L));
+	}
+}
@@ -0,0 +1,41 @@
+package ledger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import storage.Journal;
+
+class LedgerTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void aPostingThatWouldOverflowChangesAndJournalsNothing() throws IOException {
+		try (Journal journal = Journal.open(dir)) {
+			Ledger ledger = new Ledger(new AccountStore(10), journal);
+			int payer = ledger.openAccount(4_000_0000_0000_0001L, 1_000_00, 0);
+			int first = ledger.openAccount(4_000_0000_0000_0002L, 0, 0);
+			int full = ledger.openAccount(4_000_0000_0000_0003L, Long.MAX_VALUE - 50_00, 0);
+			long lastSeq = journal.lastSeq();
+
+			// The first leg is fine, the last one overflows
+			assertThrows(ArithmeticException.class, () -> ledger.post(new int[] { payer, first, full },
+					new long[] { -200_00, 100_00, 100_00 }));
+			assertEquals(lastSeq, journal.lastSeq());
+			assertEquals(1_000_00, ledger.balance(payer));
+			assertEquals(0, ledger.balance(first));
+			assertEquals(Long.MAX_VALUE - 50_00, ledger.balance(full));
+
+			assertEquals(TransferResult.OK, ledger.post(new int[] { payer, first, full },
+					new long[] { -200_00, 150_00, 50_00 }));
+			assertEquals(lastSeq + 3, journal.lastSeq());
+		}
+	}
+}
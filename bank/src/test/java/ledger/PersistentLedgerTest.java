@@ -0,0 +1,101 @@
+package ledger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PersistentLedgerTest {
+
+	private static final int ACCOUNTS = 100;
+	private static final long FIRST_CARD = 4_000_0000_0000_0000L;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void reopeningLoadsTheSnapshotAndReplaysOnlyTheJournalAfterIt() throws IOException {
+		long[] balances = new long[ACCOUNTS];
+		long snapshotSeq;
+		long lastSeq;
+		try (PersistentLedger persistent = PersistentLedger.open(dir, ACCOUNTS)) {
+			Ledger ledger = persistent.ledger();
+			int[] accounts = openAccounts(ledger);
+			Random random = new Random(7);
+			transfers(ledger, accounts, random, 500);
+			snapshotSeq = persistent.snapshot().journalSeq();
+			transfers(ledger, accounts, random, 50);
+			lastSeq = ledger.journal().lastSeq();
+			for (int i = 0; i < ACCOUNTS; i++) {
+				balances[i] = ledger.balance(accounts[i]);
+			}
+		}
+		assertTrue(lastSeq > snapshotSeq);
+
+		try (PersistentLedger persistent = PersistentLedger.open(dir, ACCOUNTS)) {
+			Ledger ledger = persistent.ledger();
+			assertEquals(snapshotSeq, persistent.recoveredSnapshotSeq());
+			assertEquals(lastSeq - snapshotSeq, persistent.replayedRecords());
+			for (int i = 0; i < ACCOUNTS; i++) {
+				assertEquals(balances[i], ledger.balance(ledger.accountOf(FIRST_CARD + i)), "account " + i);
+			}
+			assertEquals(ACCOUNTS * 1_000_00L, ledger.totalBalance());
+		}
+	}
+
+	@Test
+	void aRetryAfterARestartGetsTheFirstAnswerAndChangesNothing() throws IOException {
+		long sent = 0x5EED;
+		long declined = 0xD1ED;
+		try (PersistentLedger persistent = PersistentLedger.open(dir, ACCOUNTS, new DedupCache())) {
+			Ledger ledger = persistent.ledger();
+			int[] accounts = openAccounts(ledger);
+			assertEquals(TransferResult.OK, ledger.transfer(sent, accounts[0], accounts[1], 300_00));
+			assertEquals(TransferResult.INSUFFICIENT_FUNDS,
+					ledger.transfer(declined, accounts[2], accounts[3], 5_000_00));
+		}
+
+		try (PersistentLedger persistent = PersistentLedger.open(dir, ACCOUNTS, new DedupCache())) {
+			Ledger ledger = persistent.ledger();
+			int a = ledger.accountOf(FIRST_CARD);
+			int b = ledger.accountOf(FIRST_CARD + 1);
+			int c = ledger.accountOf(FIRST_CARD + 2);
+			int d = ledger.accountOf(FIRST_CARD + 3);
+			assertEquals(TransferResult.OK, ledger.transfer(sent, a, b, 300_00));
+			assertEquals(700_00, ledger.balance(a));
+			assertEquals(1_300_00, ledger.balance(b));
+
+			// Still declined, even though the money is there now
+			assertEquals(TransferResult.OK, ledger.deposit(c, 5_000_00));
+			assertEquals(TransferResult.INSUFFICIENT_FUNDS, ledger.transfer(declined, c, d, 5_000_00));
+			assertEquals(6_000_00, ledger.balance(c));
+
+			// A new key is a new transfer
+			assertEquals(TransferResult.OK, ledger.transfer(sent + 2, a, b, 300_00));
+			assertEquals(400_00, ledger.balance(a));
+		}
+	}
+
+	private static int[] openAccounts(Ledger ledger) {
+		int[] accounts = new int[ACCOUNTS];
+		for (int i = 0; i < ACCOUNTS; i++) {
+			accounts[i] = ledger.openAccount(FIRST_CARD + i, 1_000_00, 0);
+		}
+		return accounts;
+	}
+
+	private static void transfers(Ledger ledger, int[] accounts, Random random, int count) {
+		for (int i = 0; i < count; i++) {
+			int from = accounts[random.nextInt(ACCOUNTS)];
+			int to = accounts[random.nextInt(ACCOUNTS)];
+			if (from != to) {
+				ledger.transfer(from, to, 1 + random.nextInt(100_00));
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package money;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class MoneyTest {
+
+	@Test
+	void divideHalfEvenRoundsTiesToTheEvenNeighbour() {
+		assertEquals(2, Money.divideHalfEven(5, 2)); // 2.5
+		assertEquals(4, Money.divideHalfEven(7, 2)); // 3.5
+		assertEquals(-2, Money.divideHalfEven(-5, 2));
+		assertEquals(-4, Money.divideHalfEven(7, -2));
+		assertEquals(2, Money.divideHalfEven(-5, -2));
+	}
+
+	@Test
+	void divideHalfEvenRoundsEverythingElseToTheNearest() {
+		assertEquals(3, Money.divideHalfEven(10, 3)); // 3.33
+		assertEquals(3, Money.divideHalfEven(11, 4)); // 2.75
+		assertEquals(-3, Money.divideHalfEven(-11, 4));
+		assertEquals(7, Money.divideHalfEven(21, 3));
+		assertEquals(0, Money.divideHalfEven(1, 3));
+	}
+
+	@Test
+	void divideHalfEvenHandlesTheExtremes() {
+		assertEquals(Long.MIN_VALUE, Money.divideHalfEven(Long.MIN_VALUE, 1));
+		assertEquals(1L << 62, Money.divideHalfEven(Long.MIN_VALUE, -2));
+		assertEquals(0, Money.divideHalfEven(1, Long.MIN_VALUE));
+		assertEquals(1, Money.divideHalfEven(Long.MAX_VALUE, Long.MAX_VALUE));
+		// Twice the remainder would overflow here
+		assertEquals(1, Money.divideHalfEven(Long.MAX_VALUE, Long.MAX_VALUE - 1));
+		assertEquals(2, Money.divideHalfEven(Long.MAX_VALUE, Long.MAX_VALUE / 2));
+	}
+
+	@Test
+	void divideHalfEvenAgreesWithBigDecimal() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100_000; i++) {
+			long dividend = random.nextLong() >> random.nextInt(64);
+			long divisor = random.nextLong() >> random.nextInt(64);
+			if (divisor == 0) {
+				continue;
+			}
+			long expected = BigDecimal.valueOf(dividend)
+					.divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_EVEN).longValueExact();
+			assertEquals(expected, Money.divideHalfEven(dividend, divisor), dividend + " / " + divisor);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalTest {
+
+	// Room for the header and four records
+	private static final int SMALL_SEGMENT = JournalSegment.HEADER_SIZE + 4 * JournalRecord.SIZE;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void recoveryStopsAtTheFirstRecordWithABadCrc() throws IOException {
+		try (Journal journal = Journal.open(dir)) {
+			for (int i = 1; i <= 10; i++) {
+				journal.append(JournalRecord.DEPOSIT, i, 0, i * 100);
+			}
+			journal.awaitDurable(10);
+		}
+		// One flipped bit in the amount of record 8
+		Path segment = segments().get(0);
+		long amountOf8 = JournalSegment.HEADER_SIZE + 7L * JournalRecord.SIZE + JournalRecord.AMOUNT;
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer one = ByteBuffer.allocate(1);
+			channel.read(one, amountOf8);
+			one.put(0, (byte) (one.get(0) ^ 1)).rewind();
+			channel.write(one, amountOf8);
+		}
+
+		try (Journal journal = Journal.open(dir)) {
+			assertEquals(7, journal.lastSeq());
+			assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), sequences(journal));
+			// The damaged record and the ones after it are gone for good
+			assertEquals(8, journal.append(JournalRecord.DEPOSIT, 8, 0, 800));
+			journal.awaitDurable(8);
+		}
+		try (Journal journal = Journal.open(dir)) {
+			assertEquals(8, journal.lastSeq());
+			List<Long> amounts = new ArrayList<>();
+			journal.replay(1, (seq, type, timestamp, accountA, accountB, amount) -> amounts.add(amount));
+			assertEquals(800, amounts.get(7));
+		}
+	}
+
+	@Test
+	void appendsRollOverToNewSegmentsAndReplayInOrder() throws IOException {
+		try (Journal journal = Journal.open(dir, SMALL_SEGMENT)) {
+			for (int i = 1; i <= 10; i++) {
+				assertEquals(i, journal.append(JournalRecord.DEPOSIT, i, 0, i));
+			}
+			journal.awaitDurable(10);
+		}
+		List<Path> files = segments();
+		assertEquals(3, files.size());
+		assertEquals(1, JournalSegment.firstSeqOf(files.get(0)));
+		assertEquals(5, JournalSegment.firstSeqOf(files.get(1)));
+		assertEquals(9, JournalSegment.firstSeqOf(files.get(2)));
+
+		try (Journal journal = Journal.open(dir, SMALL_SEGMENT)) {
+			assertEquals(10, journal.lastSeq());
+			assertEquals(11, journal.append(JournalRecord.DEPOSIT, 11, 0, 11));
+			List<Long> expected = new ArrayList<>();
+			for (long seq = 1; seq <= 11; seq++) {
+				expected.add(seq);
+			}
+			assertEquals(expected, sequences(journal));
+			assertEquals(List.of(6L, 7L, 8L, 9L, 10L, 11L), sequencesFrom(journal, 6));
+		}
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(JournalSegment::isSegmentFile).sorted().toList();
+		}
+	}
+
+	private static List<Long> sequences(Journal journal) {
+		return sequencesFrom(journal, 1);
+	}
+
+	private static List<Long> sequencesFrom(Journal journal, long from) {
+		List<Long> seqs = new ArrayList<>();
+		journal.replay(from, (seq, type, timestamp, accountA, accountB, amount) -> seqs.add(seq));
+		return seqs;
+	}
+}
@@ -0,0 +1,581 @@
+package batch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import cards.CardIssuer;
+import cards.Luhn;
+import ledger.Ledger;
+import ledger.PersistentLedger;
+
+/**
+ * Bulk load of accounts, e.g. the tens of millions the bank starts with when it
+ * moves over from the old system.
+ *
+ * <pre>
+ *  CSV     card,balance[,pin hash]   e.g. 4000001234567899,1250.50,0
+ *          balance in euros with at most two decimals, pin hash as stored by
+ *          PinHasher (0 for none); more fields are ignored, and a first line
+ *          that doesn't start with a digit is taken for a header
+ *  binary  {@value #BINARY_RECORD_SIZE} byte records: long card, balance in cents,
+ *          pin hash, big-endian
+ * </pre>
+ *
+ * The file is memory-mapped in splits of 16 MB, and parser threads take splits
+ * until there are none left. A CSV split starts after the first line break in it
+ * and ends with the line that runs over its end, so every line is parsed by
+ * exactly one thread. Fields are read straight from the mapped bytes into long
+ * arrays, a batch of 8192 rows at a time; no String is made for a row unless it
+ * is rejected.
+ *
+ * Full batches go to the calling thread, which opens the accounts through the
+ * ledger (so every one is journaled) with sync commit off, and forces the journal
+ * once at the end. There is a fixed number of batches: when the writer falls
+ * behind, the parsers wait for an empty one, so memory stays flat however big
+ * the file is.
+ *
+ * Rows that don't parse, fail the Luhn check, have a negative balance or a card
+ * that is already there are counted by {@link RejectReason} and left out; the
+ * first few are reported with their byte offset. Rows of one file can end up in
+ * the store in any order, so of two rows with the same card either one may win.
+ */
+public class AccountImporter {
+
+	public enum Format {
+		CSV, BINARY
+	}
+
+	public static final int BINARY_RECORD_SIZE = 24;
+
+	private static final int SPLIT_SIZE = 16 * 1024 * 1024;
+	private static final int MAX_LINE = 4096; // how far a line may run past its split
+	private static final int BATCH_ROWS = 8192;
+	private static final int BATCHES_PER_PARSER = 4; // how far parsing may get ahead of the writer
+	private static final int MAX_SAMPLES = 10;
+
+	private static final Batch END = new Batch(0);
+
+	private final Ledger ledger;
+	private final int parsers;
+	private final int splitSize;
+	private boolean checkDigits = true;
+	private volatile Run current;
+
+	public AccountImporter(Ledger ledger, int parsers) {
+		this(ledger, parsers, SPLIT_SIZE);
+	}
+
+	// Small splits let a test put many split boundaries into a small file
+	AccountImporter(Ledger ledger, int parsers, int splitSize) {
+		if (parsers < 1) {
+			throw new IllegalArgumentException("Need at least one parser");
+		}
+		if (splitSize < BINARY_RECORD_SIZE) {
+			throw new IllegalArgumentException("Split size too small: " + splitSize);
+		}
+		this.ledger = ledger;
+		this.parsers = parsers;
+		this.splitSize = splitSize;
+	}
+
+	/**
+	 * Whether card numbers have to pass the Luhn check, on by default. Turn it off
+	 * for old numbers that were never given a check digit.
+	 */
+	public AccountImporter checkDigits(boolean checkDigits) {
+		this.checkDigits = checkDigits;
+		return this;
+	}
+
+	/**
+	 * Rows done so far (imported or rejected) by the running import, for a progress
+	 * display.
+	 */
+	public long progress() {
+		Run run = current;
+		return run == null ? 0 : run.imported + run.rejected();
+	}
+
+	/**
+	 * Imports a file. Accounts are journaled as they go in and forced to disk before
+	 * this returns; sync commit is on again afterwards.
+	 *
+	 * @throws IOException if the file can't be read or the journal fails; the
+	 *                     accounts imported until then stay
+	 */
+	public synchronized ImportResult run(Path file, Format format) throws IOException {
+		long start = System.currentTimeMillis();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Run run = new Run(channel, format);
+			current = run;
+			Thread[] threads = new Thread[parsers];
+			for (int t = 0; t < parsers; t++) {
+				threads[t] = new Thread(run::parse, "import-parse-" + t);
+				threads[t].setDaemon(true);
+				threads[t].start();
+			}
+			ledger.setSyncCommit(false);
+			try {
+				try {
+					run.write();
+				} catch (RuntimeException | Error e) {
+					run.abort(threads);
+					throw e;
+				}
+				for (Thread thread : threads) {
+					thread.join();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Import interrupted");
+			} finally {
+				ledger.flush();
+				ledger.setSyncCommit(true);
+			}
+			if (run.failure != null) {
+				throw run.failure;
+			}
+			long[] rejected = new long[RejectReason.values().length];
+			for (int i = 0; i < rejected.length; i++) {
+				rejected[i] = run.rejects[i].sum();
+			}
+			return new ImportResult(run.imported + run.rejected(), run.imported, rejected, run.samples,
+					run.size, run.amount, System.currentTimeMillis() - start);
+		}
+	}
+
+	// Rows on their way from a parser to the writer
+	private static final class Batch {
+		final long[] cards;
+		final long[] balances;
+		final long[] pinHashes;
+		final long[] offsets; // in the file, to report rejects
+		int size;
+
+		Batch(int capacity) {
+			cards = new long[capacity];
+			balances = new long[capacity];
+			pinHashes = new long[capacity];
+			offsets = new long[capacity];
+		}
+
+		boolean isFull() {
+			return size == cards.length;
+		}
+	}
+
+	// One import: the splits, the batches and the counts
+	private final class Run {
+		final FileChannel channel;
+		final Format format;
+		final long size;
+		final long splitSize;
+		final int splits;
+		final AtomicInteger nextSplit = new AtomicInteger();
+		final BlockingQueue<Batch> free = new ArrayBlockingQueue<>(parsers * BATCHES_PER_PARSER);
+		// Room for every batch and every parser's END, so adding never blocks
+		final BlockingQueue<Batch> full = new ArrayBlockingQueue<>(parsers * BATCHES_PER_PARSER + parsers);
+		final LongAdder[] rejects = new LongAdder[RejectReason.values().length];
+		final List<String> samples = new ArrayList<>();
+		volatile long imported; // written by the writer only
+		long amount;
+		int ended; // parsers whose END the writer has taken
+		volatile IOException failure;
+
+		Run(FileChannel channel, Format format) throws IOException {
+			this.channel = channel;
+			this.format = format;
+			this.size = channel.size();
+			this.splitSize = format == Format.BINARY
+					? AccountImporter.this.splitSize / BINARY_RECORD_SIZE * BINARY_RECORD_SIZE
+					: AccountImporter.this.splitSize;
+			this.splits = (int) ((size + splitSize - 1) / splitSize);
+			for (int i = 0; i < rejects.length; i++) {
+				rejects[i] = new LongAdder();
+			}
+			for (int i = 0; i < parsers * BATCHES_PER_PARSER; i++) {
+				free.add(new Batch(BATCH_ROWS));
+			}
+		}
+
+		long rejected() {
+			long sum = 0;
+			for (LongAdder count : rejects) {
+				sum += count.sum();
+			}
+			return sum;
+		}
+
+		void reject(RejectReason reason, long offset) {
+			rejects[reason.ordinal()].increment();
+			synchronized (samples) {
+				if (samples.size() < MAX_SAMPLES) {
+					samples.add(offset + ": " + reason);
+				}
+			}
+		}
+
+		// A parser thread: takes splits until there are none left
+		void parse() {
+			Parser parser = new Parser(this);
+			try {
+				parser.batch = free.take();
+				for (int i = nextSplit.getAndIncrement(); i < splits; i = nextSplit.getAndIncrement()) {
+					long from = i * splitSize;
+					long to = Math.min(size, from + splitSize);
+					if (format == Format.CSV) {
+						parser.csv(from, to);
+					} else {
+						parser.binary(from, to);
+					}
+				}
+				full.add(parser.batch);
+			} catch (IOException e) {
+				failure = e;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				full.add(END);
+			}
+		}
+
+		// The calling thread: opens the accounts until every parser is done
+		void write() throws InterruptedException {
+			while (ended < parsers) {
+				Batch batch = full.take();
+				if (batch == END) {
+					ended++;
+					continue;
+				}
+				long count = 0;
+				for (int i = 0; i < batch.size; i++) {
+					long card = batch.cards[i];
+					if (ledger.accountOf(card) >= 0) {
+						reject(RejectReason.DUPLICATE, batch.offsets[i]);
+						continue;
+					}
+					try {
+						ledger.openAccount(card, batch.balances[i], batch.pinHashes[i]);
+						amount += batch.balances[i];
+						count++;
+					} catch (IllegalStateException e) {
+						reject(RejectReason.STORE_FULL, batch.offsets[i]);
+					}
+				}
+				imported += count;
+				batch.size = 0;
+				free.put(batch);
+			}
+		}
+
+		// After the writer failed (e.g. the journal did): no more splits, and the
+		// parsers are woken from waiting for a free batch that would never come. Their
+		// batches are taken until every END is in, so none of them is left parked.
+		void abort(Thread[] threads) throws InterruptedException {
+			nextSplit.set(splits);
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+			while (ended < parsers) {
+				if (full.take() == END) {
+					ended++;
+				}
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+	}
+
+	// Per parser thread: where it is in the current split and the batch it fills
+	private final class Parser {
+		final Run run;
+		Batch batch;
+		MappedByteBuffer buffer;
+		long base; // file offset of the buffer
+		int pos;
+		int limit;
+		boolean fileEnd; // the buffer goes to the end of the file
+		long value; // of the last digits()
+
+		Parser(Run run) {
+			this.run = run;
+		}
+
+		void csv(long from, long to) throws IOException, InterruptedException {
+			base = from == 0 ? 0 : from - 1;
+			long mapEnd = Math.min(run.size, to + MAX_LINE);
+			buffer = run.channel.map(FileChannel.MapMode.READ_ONLY, base, mapEnd - base);
+			limit = buffer.limit();
+			fileEnd = mapEnd == run.size;
+			int end = (int) (to - base); // lines starting before this are ours
+			pos = 0;
+			// A line running into the split from before belongs to the split before,
+			// and a first line that isn't data is the header
+			if (from > 0 || (limit > 0 && !isDigit(buffer.get(0)))) {
+				skipLine();
+			}
+			while (pos < end) {
+				byte first = buffer.get(pos);
+				if (first == '\n' || first == '\r') {
+					pos++; // empty line
+					continue;
+				}
+				long offset = base + pos;
+				RejectReason reason = csvLine(offset);
+				if (reason != null) {
+					run.reject(reason, offset);
+				}
+			}
+		}
+
+		// Parses the line at pos into the batch, leaving pos at the start of the next
+		private RejectReason csvLine(long offset) throws InterruptedException {
+			if (digits(19) <= 0 || !skip(',')) {
+				return malformed();
+			}
+			long card = value;
+			boolean negative = skip('-');
+			if (digits(15) <= 0) {
+				return malformed();
+			}
+			long balance = value * 100;
+			if (skip('.')) {
+				int decimals = digits(2);
+				if (decimals <= 0) {
+					return malformed();
+				}
+				balance += decimals == 1 ? value * 10 : value;
+			}
+			long pinHash = 0;
+			if (skip(',')) {
+				if (digits(19) < 0) {
+					return malformed();
+				}
+				pinHash = value;
+			}
+			if (pos < limit) {
+				byte next = buffer.get(pos);
+				if (next != ',' && next != '\r' && next != '\n') {
+					return malformed();
+				}
+			} else if (!fileEnd) {
+				return malformed(); // longer than MAX_LINE
+			}
+			skipLine();
+			return add(card, negative && balance != 0 ? -1 : balance, pinHash, offset);
+		}
+
+		void binary(long from, long to) throws IOException, InterruptedException {
+			base = from;
+			buffer = run.channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+			int records = buffer.limit() / BINARY_RECORD_SIZE;
+			for (int i = 0, at = 0; i < records; i++, at += BINARY_RECORD_SIZE) {
+				RejectReason reason = add(buffer.getLong(at), buffer.getLong(at + 8), buffer.getLong(at + 16),
+						from + at);
+				if (reason != null) {
+					run.reject(reason, from + at);
+				}
+			}
+			if (buffer.limit() % BINARY_RECORD_SIZE != 0) {
+				run.reject(RejectReason.MALFORMED, from + (long) records * BINARY_RECORD_SIZE); // cut off
+			}
+		}
+
+		// Checks a row and puts it in the batch, passing the batch on when it is full
+		private RejectReason add(long card, long balance, long pinHash, long offset) throws InterruptedException {
+			if (card <= 0) {
+				return RejectReason.MALFORMED;
+			}
+			if (checkDigits && !Luhn.isValid(card)) {
+				return RejectReason.BAD_CHECK_DIGIT;
+			}
+			if (balance < 0) {
+				return RejectReason.NEGATIVE_BALANCE;
+			}
+			Batch batch = this.batch;
+			int i = batch.size++;
+			batch.cards[i] = card;
+			batch.balances[i] = balance;
+			batch.pinHashes[i] = pinHash;
+			batch.offsets[i] = offset;
+			if (batch.isFull()) {
+				run.full.add(batch);
+				this.batch = run.free.take(); // waits here while the writer is behind
+			}
+			return null;
+		}
+
+		// Reads digits into value; returns how many, or -1 if more than max or too
+		// big for a long
+		private int digits(int max) {
+			long v = 0;
+			int n = 0;
+			while (pos < limit) {
+				int digit = buffer.get(pos) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				if (++n > max || (n >= 19 && v > (Long.MAX_VALUE - digit) / 10)) {
+					return -1;
+				}
+				v = v * 10 + digit;
+				pos++;
+			}
+			value = v;
+			return n;
+		}
+
+		private boolean skip(char c) {
+			if (pos < limit && buffer.get(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private RejectReason malformed() {
+			skipLine();
+			return RejectReason.MALFORMED;
+		}
+
+		private void skipLine() {
+			while (pos < limit && buffer.get(pos++) != '\n') {
+				// to the line break
+			}
+		}
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	/**
+	 * Writes a test file of {@code rows} accounts, one in a thousand of them bad in
+	 * some way (a cut off line, a wrong check digit, a negative balance, a card
+	 * repeated), and returns the total of the good balances.
+	 */
+	static long writeSample(Path file, Format format, int rows) throws IOException {
+		CardIssuer issuer = CardIssuer.sequential(CardIssuer.DEFAULT_IIN, 0);
+		SplittableRandom random = new SplittableRandom(25);
+		long expected = 0;
+		long previous = 0;
+		try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+				DataOutputStream out = new DataOutputStream(stream)) {
+			StringBuilder line = new StringBuilder(64);
+			if (format == Format.CSV) {
+				out.write("card,balance,pin_hash,name\n".getBytes(StandardCharsets.US_ASCII));
+			}
+			for (int i = 0; i < rows; i++) {
+				long card = issuer.cardFor(i);
+				long balance = random.nextLong(10_000_00);
+				int bad = i % 1000 == 999 ? (i / 1000) % 4 : -1;
+				switch (bad) {
+				case 1:
+					card = card / 10 * 10 + (card + 1) % 10;
+					break;
+				case 2:
+					balance = -balance - 1;
+					break;
+				case 3:
+					card = issuer.cardFor(i - 1);
+					balance = previous; // whichever of the two wins, the total is the same
+					break;
+				default:
+					break;
+				}
+				if (bad < 0) {
+					expected += balance;
+				}
+				previous = balance;
+				if (format == Format.BINARY && bad == 0) {
+					card = 0; // no lines to cut off
+				}
+				if (format == Format.BINARY) {
+					out.writeLong(card);
+					out.writeLong(balance);
+					out.writeLong(0);
+					continue;
+				}
+				line.setLength(0);
+				line.append(card).append(',');
+				if (balance < 0) {
+					line.append('-');
+					balance = -balance;
+				}
+				line.append(balance / 100).append('.').append((char) ('0' + balance / 10 % 10))
+						.append((char) ('0' + balance % 10));
+				if (bad == 0) {
+					line.setLength(10); // cut off
+				} else {
+					line.append(",0,Customer ").append(i);
+				}
+				line.append('\n');
+				for (int c = 0; c < line.length(); c++) {
+					out.write(line.charAt(c));
+				}
+			}
+			if (format == Format.BINARY) {
+				out.write(new byte[10]); // a cut off last record
+			}
+		}
+		return expected;
+	}
+
+	/**
+	 * Demo: writes a CSV and a binary file of the same accounts, imports each into a
+	 * new journaled ledger and checks the balances add up.
+	 *
+	 * <pre>
+	 *  java batch.AccountImporter [rows] [parser threads]
+	 * </pre>
+	 */
+	public static void main(String[] args) throws IOException {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		Path dir = Files.createTempDirectory("import");
+		for (Format format : Format.values()) {
+			Path file = dir.resolve(format == Format.CSV ? "accounts.csv" : "accounts.bin");
+			long expected = writeSample(file, format, rows);
+			System.out.printf("%s: %,d rows, %,d MB%n", file, rows, Files.size(file) >> 20);
+
+			try (PersistentLedger persistent = PersistentLedger.open(dir.resolve("bank-" + format), rows)) {
+				Ledger ledger = persistent.ledger();
+				AccountImporter importer = new AccountImporter(ledger, threads);
+				Thread progress = new Thread(() -> {
+					try {
+						while (true) {
+							Thread.sleep(1000);
+							System.out.printf("  %,d rows%n", importer.progress());
+						}
+					} catch (InterruptedException e) {
+						// done
+					}
+				}, "import-progress");
+				progress.setDaemon(true);
+				progress.start();
+				ImportResult result = importer.run(file, format);
+				progress.interrupt();
+				System.out.println(result);
+				System.out.println("Balances add up: "
+						+ (result.amount() == expected && ledger.totalBalance() == expected));
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package batch;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Interest accrued but not yet paid, one 16-byte record per account slot in a
+ * memory-mapped file:
+ *
+ * <pre>
+ *  offset  size  field
+ *       0     8  accrued interest in units of 1 / (365 * 1,000,000) cent
+ *       8     4  last day accrued (epoch day, 0 = never)
+ *      12     4  last period paid out (e.g. 202405, 0 = never)
+ * </pre>
+ *
+ * The day and period make every step idempotent per account: running the same day
+ * twice, or a range again after a crash, changes nothing the second time.
+ */
+final class AccrualFile implements AutoCloseable {
+
+	static final int RECORD_SIZE = 16;
+	private static final int CHUNK_SHIFT = 20; // 1M slots (16 MB) per mapping
+	private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer[] chunks;
+
+	AccrualFile(Path path, int slots) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		chunks = new MappedByteBuffer[(slots + CHUNK_MASK) >>> CHUNK_SHIFT];
+		for (int i = 0; i < chunks.length; i++) {
+			long size = (long) Math.min(1 << CHUNK_SHIFT, slots - (i << CHUNK_SHIFT)) * RECORD_SIZE;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, ((long) i << CHUNK_SHIFT) * RECORD_SIZE, size);
+		}
+	}
+
+	long accrued(int slot) {
+		return chunks[slot >>> CHUNK_SHIFT].getLong((slot & CHUNK_MASK) * RECORD_SIZE);
+	}
+
+	int lastDay(int slot) {
+		return chunks[slot >>> CHUNK_SHIFT].getInt((slot & CHUNK_MASK) * RECORD_SIZE + 8);
+	}
+
+	int lastPeriod(int slot) {
+		return chunks[slot >>> CHUNK_SHIFT].getInt((slot & CHUNK_MASK) * RECORD_SIZE + 12);
+	}
+
+	void accrue(int slot, long accrued, int day) {
+		MappedByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+		int offset = (slot & CHUNK_MASK) * RECORD_SIZE;
+		chunk.putLong(offset, accrued);
+		chunk.putInt(offset + 8, day);
+	}
+
+	void paid(int slot, long remainder, int period) {
+		MappedByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+		int offset = (slot & CHUNK_MASK) * RECORD_SIZE;
+		chunk.putLong(offset, remainder);
+		chunk.putInt(offset + 12, period);
+	}
+
+	/**
+	 * Forces the records of a slot range to disk.
+	 */
+	void force(int fromSlot, int toSlot) {
+		for (int c = fromSlot >>> CHUNK_SHIFT; c <= (toSlot - 1) >>> CHUNK_SHIFT; c++) {
+			int start = c == fromSlot >>> CHUNK_SHIFT ? (fromSlot & CHUNK_MASK) * RECORD_SIZE : 0;
+			int end = c == (toSlot - 1) >>> CHUNK_SHIFT ? (((toSlot - 1) & CHUNK_MASK) + 1) * RECORD_SIZE
+					: chunks[c].capacity();
+			chunks[c].force(start, end - start);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+		channel.close();
+	}
+}
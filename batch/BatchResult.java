@@ -0,0 +1,68 @@
+package batch;
+
+/**
+ * What a batch job did: how many ranges it ran (and how many an earlier, crashed
+ * run had already finished), how many accounts it touched and the money involved.
+ */
+public class BatchResult {
+
+	private final String job;
+	private final int ranges;
+	private final int alreadyDone;
+	private final long accounts;
+	private final long amount;
+	private final long millis;
+
+	public BatchResult(String job, int ranges, int alreadyDone, long accounts, long amount, long millis) {
+		this.job = job;
+		this.ranges = ranges;
+		this.alreadyDone = alreadyDone;
+		this.accounts = accounts;
+		this.amount = amount;
+		this.millis = millis;
+	}
+
+	public String job() {
+		return job;
+	}
+
+	public int ranges() {
+		return ranges;
+	}
+
+	/**
+	 * Ranges that were skipped because the checkpoint said they were done.
+	 */
+	public int alreadyDone() {
+		return alreadyDone;
+	}
+
+	public long accounts() {
+		return accounts;
+	}
+
+	/**
+	 * Money involved in cents (interest paid, or the closing balances of the
+	 * statements).
+	 */
+	public long amount() {
+		return amount;
+	}
+
+	public long millis() {
+		return millis;
+	}
+
+	/**
+	 * Accounts per second.
+	 */
+	public double rate() {
+		return millis == 0 ? accounts : accounts * 1000.0 / millis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %,d ranges (%,d already done), %,d accounts, %,.2f in %.2f s (%,.0f accounts/s)",
+				job, ranges, alreadyDone, accounts, amount / 100.0, millis / 1000.0, rate());
+	}
+}
@@ -0,0 +1,137 @@
+package batch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Which ranges of a batch job are done, in a small file next to the job's output.
+ * The file is rewritten (temp file, force, atomic move) every time a range
+ * finishes, so after a crash the job restarts with only the ranges that were not
+ * finished yet. The job id ties a checkpoint to one run, e.g. "accrue-2024-05-31";
+ * a checkpoint of another run is ignored.
+ *
+ * <pre>
+ *  magic, job id (UTF-8), ranges, start seq, bitset of finished ranges
+ * </pre>
+ */
+final class Checkpoint {
+
+	private static final int MAGIC = 0x42434B50; // "BCKP"
+
+	private final Path path;
+	private final String job;
+	private final int ranges;
+	private final long startSeq;
+	private final BitSet done;
+	private final boolean resumed;
+
+	private Checkpoint(Path path, String job, int ranges, long startSeq, BitSet done, boolean resumed) {
+		this.path = path;
+		this.job = job;
+		this.ranges = ranges;
+		this.startSeq = startSeq;
+		this.done = done;
+		this.resumed = resumed;
+	}
+
+	/**
+	 * Loads the checkpoint of this job, or starts a new one.
+	 *
+	 * @param startSeq the journal position the job starts at; a resumed job keeps
+	 *                 the one it was started with
+	 */
+	static Checkpoint open(Path path, String job, int ranges, long startSeq) throws IOException {
+		if (Files.exists(path)) {
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+			if (in.remaining() >= 8 && in.getInt() == MAGIC) {
+				byte[] id = new byte[in.getInt()];
+				in.get(id);
+				int savedRanges = in.getInt();
+				long savedSeq = in.getLong();
+				if (new String(id, StandardCharsets.UTF_8).equals(job) && savedRanges == ranges) {
+					long[] words = new long[in.remaining() / 8];
+					in.asLongBuffer().get(words);
+					return new Checkpoint(path, job, ranges, savedSeq, BitSet.valueOf(words), true);
+				}
+			}
+		}
+		Checkpoint checkpoint = new Checkpoint(path, job, ranges, startSeq, new BitSet(ranges), false);
+		checkpoint.save();
+		return checkpoint;
+	}
+
+	/**
+	 * True if the checkpoint at {@code path} is of this job and has every range
+	 * done. Doesn't create or change anything.
+	 */
+	static boolean isFinished(Path path, String job) throws IOException {
+		if (!Files.exists(path)) {
+			return false;
+		}
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+		if (in.remaining() < 8 || in.getInt() != MAGIC) {
+			return false;
+		}
+		byte[] id = new byte[in.getInt()];
+		in.get(id);
+		int savedRanges = in.getInt();
+		in.getLong();
+		long[] words = new long[in.remaining() / 8];
+		in.asLongBuffer().get(words);
+		return new String(id, StandardCharsets.UTF_8).equals(job) && BitSet.valueOf(words).cardinality() == savedRanges;
+	}
+
+	synchronized boolean isDone(int range) {
+		return done.get(range);
+	}
+
+	synchronized void markDone(int range) throws IOException {
+		done.set(range);
+		save();
+	}
+
+	synchronized int doneCount() {
+		return done.cardinality();
+	}
+
+	boolean isComplete() {
+		return doneCount() == ranges;
+	}
+
+	/**
+	 * True if an earlier, unfinished run of the same job was found.
+	 */
+	boolean resumed() {
+		return resumed;
+	}
+
+	long startSeq() {
+		return startSeq;
+	}
+
+	private void save() throws IOException {
+		byte[] id = job.getBytes(StandardCharsets.UTF_8);
+		long[] words = done.toLongArray();
+		ByteBuffer out = ByteBuffer.allocate(4 + 4 + id.length + 4 + 8 + words.length * 8);
+		out.putInt(MAGIC).putInt(id.length).put(id).putInt(ranges).putLong(startSeq);
+		out.asLongBuffer().put(words);
+		out.position(out.capacity()).flip();
+
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+			channel.force(true);
+		}
+		Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,91 @@
+package batch;
+
+import java.util.List;
+
+/**
+ * What an import did: rows read, rows that went into the store, rows left out and
+ * why, and the first few rejected rows so they can be looked up in the file.
+ */
+public class ImportResult {
+
+	private final long rows;
+	private final long imported;
+	private final long[] rejected;
+	private final List<String> samples;
+	private final long bytes;
+	private final long amount;
+	private final long millis;
+
+	ImportResult(long rows, long imported, long[] rejected, List<String> samples, long bytes, long amount,
+			long millis) {
+		this.rows = rows;
+		this.imported = imported;
+		this.rejected = rejected;
+		this.samples = samples;
+		this.bytes = bytes;
+		this.amount = amount;
+		this.millis = millis;
+	}
+
+	public long rows() {
+		return rows;
+	}
+
+	public long imported() {
+		return imported;
+	}
+
+	public long rejected() {
+		return rows - imported;
+	}
+
+	public long rejected(RejectReason reason) {
+		return rejected[reason.ordinal()];
+	}
+
+	/**
+	 * The first rejected rows, as "byte offset: reason".
+	 */
+	public List<String> samples() {
+		return samples;
+	}
+
+	public long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * The opening balances of the imported accounts, in cents.
+	 */
+	public long amount() {
+		return amount;
+	}
+
+	public long millis() {
+		return millis;
+	}
+
+	/**
+	 * Rows per second.
+	 */
+	public double rate() {
+		return millis == 0 ? rows : rows * 1000.0 / millis;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder(String.format(
+				"import: %,d rows, %,d imported, %,d rejected, %,.2f in %.2f s (%,.0f rows/s, %,.1f MB/s)",
+				rows, imported, rejected(), amount / 100.0, millis / 1000.0, rate(),
+				millis == 0 ? 0 : bytes / 1e3 / millis));
+		for (RejectReason reason : RejectReason.values()) {
+			if (rejected(reason) > 0) {
+				text.append(String.format("%n  %-16s %,d", reason, rejected(reason)));
+			}
+		}
+		for (String sample : samples) {
+			text.append(System.lineSeparator()).append("  at byte ").append(sample);
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,197 @@
+package batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import ledger.AccountStore;
+import ledger.Ledger;
+import storage.Journal;
+import storage.JournalRecord;
+
+/**
+ * End-of-day interest accrual and the monthly interest payout, for every account of
+ * a {@link Ledger}.
+ *
+ * The account slots are cut into ranges of {@value #RANGE_SLOTS} that run in
+ * parallel on a fork-join pool. Each finished range is recorded in a
+ * {@link Checkpoint}, so a crashed run picks up where it stopped.
+ *
+ * Interest is exact fixed-point: every day an account accrues balance * annual rate
+ * (the rate in parts per million), counted in units of 1 / (365 * 1,000,000) cent
+ * (actual/365). The payout credits the whole cents and carries the remainder over to
+ * the next month, so no fraction of a cent is ever rounded away.
+ *
+ * A payout goes to the journal as an {@link JournalRecord#INTEREST} record with the
+ * period in it. If a payout crashed between journaling a credit and noting it in the
+ * accrual file, the resumed run finds the credit in the journal and does not pay it
+ * twice.
+ *
+ * <pre>
+ *  dir/accruals.dat           accrued interest per slot ({@link AccrualFile})
+ *  dir/checkpoints/*.ckpt     one checkpoint per job run
+ * </pre>
+ */
+public class InterestEngine implements Closeable {
+
+	public static final int RANGE_SLOTS = 1 << 16;
+	// Accrued interest is counted in 1 / DENOMINATOR cents
+	static final long DENOMINATOR = 365L * 1_000_000L;
+
+	private final Ledger ledger;
+	private final AccountStore store;
+	private final Path checkpoints;
+	private final long annualRatePpm;
+	private final ForkJoinPool pool;
+	private final AccrualFile accruals;
+	private final int ranges;
+
+	/**
+	 * @param annualRatePpm yearly interest in parts per million, 25_000 = 2.5 %
+	 * @param parallelism   worker threads
+	 */
+	public InterestEngine(Ledger ledger, Path dir, long annualRatePpm, int parallelism) throws IOException {
+		if (annualRatePpm < 0 || annualRatePpm > 1_000_000) {
+			throw new IllegalArgumentException("Bad rate: " + annualRatePpm);
+		}
+		this.ledger = ledger;
+		this.store = ledger.store();
+		this.checkpoints = dir.resolve("checkpoints");
+		this.annualRatePpm = annualRatePpm;
+		this.pool = new ForkJoinPool(parallelism);
+		Files.createDirectories(checkpoints);
+		this.accruals = new AccrualFile(dir.resolve("accruals.dat"), store.capacity());
+		this.ranges = (store.capacity() + RANGE_SLOTS - 1) / RANGE_SLOTS;
+	}
+
+	/**
+	 * Accrues one day of interest on today's balances. An account that missed days
+	 * (the batch didn't run) accrues all of them at today's balance; an account that
+	 * already has this day is left alone.
+	 */
+	public BatchResult accrue(LocalDate day) throws IOException {
+		String job = "accrue-" + day;
+		int epochDay = (int) day.toEpochDay();
+		Checkpoint checkpoint = Checkpoint.open(checkpoints.resolve(job + ".ckpt"), job, ranges, 0);
+		int alreadyDone = checkpoint.doneCount();
+		LongAdder accounts = new LongAdder();
+		long start = System.currentTimeMillis();
+
+		RangeTask.runAll(pool, ranges, range -> {
+			if (checkpoint.isDone(range)) {
+				return;
+			}
+			int from = range * RANGE_SLOTS;
+			int to = Math.min(store.capacity(), from + RANGE_SLOTS);
+			long count = 0;
+			for (int slot = from; slot < to; slot++) {
+				if (!ledger.exists(slot)) {
+					continue;
+				}
+				int lastDay = accruals.lastDay(slot);
+				if (lastDay >= epochDay) {
+					continue;
+				}
+				int days = lastDay == 0 ? 1 : epochDay - lastDay;
+				long interest = Math.multiplyExact(Math.multiplyExact(ledger.balance(slot), annualRatePpm), days);
+				accruals.accrue(slot, Math.addExact(accruals.accrued(slot), interest), epochDay);
+				count++;
+			}
+			accruals.force(from, to);
+			checkpoint.markDone(range);
+			accounts.add(count);
+		});
+		return new BatchResult(job, ranges, alreadyDone, accounts.sum(), 0, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Pays out the whole cents of accrued interest for a month.
+	 */
+	public BatchResult pay(YearMonth month) throws IOException {
+		String job = "pay-" + month;
+		int period = periodOf(month);
+		Journal journal = ledger.journal();
+		long nextSeq = journal == null ? 0 : journal.lastSeq() + 1;
+		Checkpoint checkpoint = Checkpoint.open(checkpoints.resolve(job + ".ckpt"), job, ranges, nextSeq);
+		int alreadyDone = checkpoint.doneCount();
+		if (checkpoint.resumed() && journal != null) {
+			settleJournaled(journal, checkpoint.startSeq(), period);
+		}
+		LongAdder accounts = new LongAdder();
+		LongAdder paid = new LongAdder();
+		long start = System.currentTimeMillis();
+
+		RangeTask.runAll(pool, ranges, range -> {
+			if (checkpoint.isDone(range)) {
+				return;
+			}
+			int from = range * RANGE_SLOTS;
+			int to = Math.min(store.capacity(), from + RANGE_SLOTS);
+			long count = 0;
+			long total = 0;
+			for (int slot = from; slot < to; slot++) {
+				if (!store.isOccupied(slot) || accruals.lastPeriod(slot) >= period) {
+					continue;
+				}
+				long accrued = accruals.accrued(slot);
+				long cents = accrued / DENOMINATOR;
+				if (cents > 0) {
+					if (!ledger.postInterest(slot, cents, period).isOk()) {
+						continue; // closed: keeps its accrual
+					}
+					total += cents;
+				}
+				accruals.paid(slot, accrued - cents * DENOMINATOR, period);
+				count++;
+			}
+			// The credits are on disk before the range counts as done
+			ledger.flush();
+			accruals.force(from, to);
+			checkpoint.markDone(range);
+			accounts.add(count);
+			paid.add(total);
+		});
+		return new BatchResult(job, ranges, alreadyDone, accounts.sum(), paid.sum(),
+				System.currentTimeMillis() - start);
+	}
+
+	// After a crash: credits of this period that made it into the journal but not
+	// into the accrual file are settled now, so they are not paid again
+	private void settleJournaled(Journal journal, long fromSeq, int period) {
+		if (journal.firstSeq() > fromSeq) {
+			throw new IllegalStateException("Journal no longer has the records from " + fromSeq
+					+ " on; can't tell which interest was already paid");
+		}
+		journal.replay(fromSeq, (seq, type, timestamp, accountA, accountB, amount) -> {
+			if (type != JournalRecord.INTEREST || accountB != period) {
+				return;
+			}
+			int slot = store.slotOf(accountA);
+			if (slot >= 0 && accruals.lastPeriod(slot) < period) {
+				accruals.paid(slot, accruals.accrued(slot) - amount * DENOMINATOR, period);
+			}
+		});
+	}
+
+	/**
+	 * Interest accrued and not paid yet, in whole cents.
+	 */
+	public long accruedCents(int account) {
+		return accruals.accrued(account) / DENOMINATOR;
+	}
+
+	public static int periodOf(YearMonth month) {
+		return month.getYear() * 100 + month.getMonthValue();
+	}
+
+	@Override
+	public void close() throws IOException {
+		pool.shutdown();
+		accruals.close();
+	}
+}
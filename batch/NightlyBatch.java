@@ -0,0 +1,109 @@
+package batch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.SplittableRandom;
+
+import ledger.AccountStore;
+import ledger.Ledger;
+import storage.Directories;
+import storage.Journal;
+
+/**
+ * The nightly cycle: accrue today's interest, and at the end of the month pay it out
+ * and write the statements.
+ *
+ * <pre>
+ *  java batch.NightlyBatch dir [--pay] [--statements]
+ * </pre>
+ *
+ * Run without arguments, it builds a journaled ledger of a million accounts with
+ * some activity in a temp directory, runs the whole cycle on it, runs it again to
+ * show that finished work is skipped, and checks that the money adds up.
+ */
+public class NightlyBatch {
+
+	private static final long FIRST_CARD = 4_000_0000_0000_0000L;
+	public static final long DEFAULT_RATE_PPM = 25_000; // 2.5 %
+
+	private final InterestEngine interest;
+	private final StatementEngine statements;
+
+	public NightlyBatch(Ledger ledger, Path dir, long annualRatePpm, int parallelism) throws IOException {
+		this.interest = new InterestEngine(ledger, dir, annualRatePpm, parallelism);
+		this.statements = ledger.journal() == null ? null : new StatementEngine(ledger, dir, parallelism);
+	}
+
+	/**
+	 * Accrues the day, and if it is the last day of its month also pays the month's
+	 * interest and writes its statements.
+	 */
+	public void run(LocalDate day) throws IOException {
+		System.out.println(interest.accrue(day));
+		if (day.equals(YearMonth.from(day).atEndOfMonth())) {
+			System.out.println(interest.pay(YearMonth.from(day)));
+			if (statements != null) {
+				System.out.println(statements.run(YearMonth.from(day)));
+			}
+		}
+	}
+
+	public InterestEngine interest() {
+		return interest;
+	}
+
+	public StatementEngine statements() {
+		return statements;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int cores = Runtime.getRuntime().availableProcessors();
+		Path dir = Files.createTempDirectory("nightly");
+		try (Journal journal = Journal.open(dir.resolve("journal"))) {
+			Ledger ledger = new Ledger(new AccountStore(accounts), journal);
+			ledger.setSyncCommit(false);
+			SplittableRandom random = new SplittableRandom(11);
+			long start = System.currentTimeMillis();
+			int[] ids = new int[accounts];
+			for (int i = 0; i < accounts; i++) {
+				ids[i] = ledger.openAccount(FIRST_CARD + i, random.nextLong(5_000_00), 0);
+			}
+			for (int i = 0; i < accounts * 2; i++) {
+				ledger.transfer(ids[random.nextInt(accounts)], ids[random.nextInt(accounts)], 1 + random.nextInt(50_00));
+			}
+			ledger.flush();
+			System.out.printf("Set up %,d accounts and %,d journal records in %.1f s%n", accounts, journal.lastSeq(),
+					(System.currentTimeMillis() - start) / 1000.0);
+
+			NightlyBatch batch = new NightlyBatch(ledger, dir.resolve("batch"), DEFAULT_RATE_PPM, cores);
+			LocalDate today = LocalDate.now(ZoneOffset.UTC);
+			YearMonth month = YearMonth.from(today);
+			long before = ledger.totalBalance();
+
+			BatchResult accrued = batch.interest().accrue(today);
+			System.out.println(accrued);
+			BatchResult paid = batch.interest().pay(month);
+			System.out.println(paid);
+			BatchResult written = batch.statements().run(month);
+			System.out.println(written);
+
+			// Again: the checkpoints say everything is done
+			System.out.println(batch.interest().accrue(today));
+			System.out.println(batch.interest().pay(month));
+
+			long after = ledger.totalBalance();
+			System.out.println("Interest paid matches the change in total balance: " + (after - before == paid.amount()));
+			System.out.println("Closing balances of the statements match the ledger: " + (written.amount() == after));
+			double perAccount = (accrued.millis() + paid.millis() + written.millis()) / (double) accounts;
+			System.out.printf("At this speed 50M accounts take about %.1f minutes%n", perAccount * 50_000_000 / 60_000);
+			batch.interest().close();
+		} finally {
+			Directories.deleteRecursively(dir);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package batch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a job over ranges [from, to) on a fork-join pool: the range list is split in
+ * halves until one range is left, so idle workers steal the other halves and a few
+ * slow ranges don't hold up the rest.
+ */
+final class RangeTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The work for one range. Must be safe to run for different ranges in parallel.
+	 */
+	@FunctionalInterface
+	interface RangeJob {
+		void run(int range) throws IOException;
+	}
+
+	private final int from;
+	private final int to;
+	private final transient RangeJob job;
+
+	private RangeTask(int from, int to, RangeJob job) {
+		this.from = from;
+		this.to = to;
+		this.job = job;
+	}
+
+	/**
+	 * Runs the job for ranges 0 .. ranges - 1 and waits for all of them.
+	 */
+	static void runAll(ForkJoinPool pool, int ranges, RangeJob job) throws IOException {
+		try {
+			pool.invoke(new RangeTask(0, ranges, job));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from == 1) {
+			try {
+				job.run(from);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		invokeAll(new RangeTask(from, middle, job), new RangeTask(middle, to, job));
+	}
+}
@@ -0,0 +1,13 @@
+package batch;
+
+/**
+ * Why {@link AccountImporter} left a row out.
+ */
+public enum RejectReason {
+
+	MALFORMED, // not card,balance[,pin hash], a number too long, or a cut off record
+	BAD_CHECK_DIGIT,
+	NEGATIVE_BALANCE,
+	DUPLICATE, // the card is already in the store, or earlier in the file
+	STORE_FULL
+}
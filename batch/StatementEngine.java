@@ -0,0 +1,475 @@
+package batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import ledger.AccountStore;
+import ledger.Ledger;
+import storage.Journal;
+import storage.JournalRecord;
+import storage.JournalVisitor;
+
+/**
+ * Monthly account statements for every account, written from the journal.
+ *
+ * The journal is read once, front to back, and every change is split into one line
+ * per account it touches (a leg). The legs go into bucket files on disk, one per
+ * range of {@value #RANGE_SLOTS} account slots. The ranges then run in parallel on a
+ * fork-join pool: a worker loads one bucket, sorts it by account and streams the
+ * statements of its accounts to a text file. Memory use is one bucket per worker,
+ * however long the month was.
+ *
+ * The closing balance is the balance now minus everything after the end of the
+ * month, and the opening balance is the closing balance minus the month. This needs
+ * the journal to go back to the start of the month, so the engine asks the journal
+ * to keep everything from the start of the first month whose statements aren't
+ * written yet (the current month if none ever were). Snapshot compaction leaves
+ * those segments alone.
+ *
+ * <pre>
+ *  dir/statements/2024-05/statements-0000.txt   statements of range 0
+ *  dir/work/statements-2024-05/                 buckets while the job runs
+ *  dir/checkpoints/statements-2024-05.ckpt      finished ranges
+ * </pre>
+ */
+public class StatementEngine {
+
+	public static final int RANGE_SLOTS = 1 << 18;
+
+	// Leg types in the buckets
+	private static final int OPENED = 0;
+	private static final int DEPOSIT = 1;
+	private static final int WITHDRAWAL = 2;
+	private static final int TRANSFER_IN = 3;
+	private static final int TRANSFER_OUT = 4;
+	private static final int PAYMENT = 5;
+	private static final int INTEREST = 6;
+	private static final String[] LEG_NAMES = { "ACCOUNT OPENED", "DEPOSIT", "WITHDRAWAL", "TRANSFER IN",
+			"TRANSFER OUT", "PAYMENT", "INTEREST" };
+	// slot, type, timestamp, delta, counterparty card
+	private static final int LEG_SIZE = 4 + 1 + 8 + 8 + 8;
+
+	private final Ledger ledger;
+	private final AccountStore store;
+	private final Journal journal;
+	private final Path dir;
+	private final ForkJoinPool pool;
+	private final int ranges;
+
+	public StatementEngine(Ledger ledger, Path dir, int parallelism) throws IOException {
+		if (ledger.journal() == null) {
+			throw new IllegalArgumentException("Statements are written from the journal; this ledger has none");
+		}
+		this.ledger = ledger;
+		this.store = ledger.store();
+		this.journal = ledger.journal();
+		this.dir = dir;
+		this.pool = new ForkJoinPool(parallelism);
+		this.ranges = (store.capacity() + RANGE_SLOTS - 1) / RANGE_SLOTS;
+		journal.retainSince(startOf(firstOpenMonth()));
+	}
+
+	// The month after the newest one with all its statements written
+	private YearMonth firstOpenMonth() throws IOException {
+		YearMonth newest = null;
+		Path checkpoints = dir.resolve("checkpoints");
+		if (Files.isDirectory(checkpoints)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(checkpoints, "statements-*.ckpt")) {
+				for (Path file : files) {
+					String name = file.getFileName().toString();
+					String job = name.substring(0, name.length() - ".ckpt".length());
+					YearMonth month;
+					try {
+						month = YearMonth.parse(job.substring("statements-".length()));
+					} catch (DateTimeParseException e) {
+						continue;
+					}
+					if ((newest == null || month.isAfter(newest)) && Checkpoint.isFinished(file, job)) {
+						newest = month;
+					}
+				}
+			}
+		}
+		return newest == null ? YearMonth.now(ZoneOffset.UTC) : newest.plusMonths(1);
+	}
+
+	private static long startOf(YearMonth month) {
+		return month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	/**
+	 * Writes the statements of one month.
+	 *
+	 * @return the job's result; its amount is the sum of all closing balances
+	 */
+	public BatchResult run(YearMonth month) throws IOException {
+		String job = "statements-" + month;
+		long periodStart = startOf(month);
+		long periodEnd = startOf(month.plusMonths(1));
+		Path work = dir.resolve("work").resolve(job);
+		Path output = dir.resolve("statements").resolve(month.toString());
+		Path checkpoints = dir.resolve("checkpoints");
+		Files.createDirectories(work);
+		Files.createDirectories(output);
+		Files.createDirectories(checkpoints);
+
+		long start = System.currentTimeMillis();
+		// The job covers the journal up to here; anything later is accounted for
+		// separately per account
+		Checkpoint checkpoint = Checkpoint.open(checkpoints.resolve(job + ".ckpt"), job, ranges, journal.lastSeq());
+		int alreadyDone = checkpoint.doneCount();
+		long endSeq = checkpoint.startSeq();
+		Path partitioned = work.resolve("partitioned");
+		if (!checkpoint.isComplete() && !Files.exists(partitioned)) {
+			partition(work, periodStart, endSeq);
+			Files.createFile(partitioned);
+		}
+
+		LongAdder accounts = new LongAdder();
+		LongAdder closing = new LongAdder();
+		RangeTask.runAll(pool, ranges, range -> {
+			if (checkpoint.isDone(range)) {
+				return;
+			}
+			Path bucket = work.resolve(bucketName(range));
+			writeRange(range, bucket, output.resolve(String.format("statements-%04d.txt", range)), month,
+					periodEnd, endSeq, accounts, closing);
+			checkpoint.markDone(range);
+			Files.deleteIfExists(bucket);
+		});
+		Files.deleteIfExists(partitioned);
+		Files.deleteIfExists(work);
+		journal.retainSince(startOf(firstOpenMonth()));
+		return new BatchResult(job, ranges, alreadyDone, accounts.sum(), closing.sum(),
+				System.currentTimeMillis() - start);
+	}
+
+	private static String bucketName(int range) {
+		return String.format("bucket-%04d.bin", range);
+	}
+
+	// One pass over the journal: every leg from the start of the month on goes to the
+	// bucket of its account's range
+	private void partition(Path work, long periodStart, long endSeq) throws IOException {
+		DataOutputStream[] buckets = new DataOutputStream[ranges];
+		try {
+			for (int r = 0; r < ranges; r++) {
+				OutputStream out = Files.newOutputStream(work.resolve(bucketName(r)));
+				buckets[r] = new DataOutputStream(new BufferedOutputStream(out, 32 * 1024));
+			}
+			Partitioner partitioner = new Partitioner(buckets, periodStart, endSeq);
+			journal.replay(journal.firstSeq(), partitioner);
+			if (partitioner.failure != null) {
+				throw partitioner.failure;
+			}
+			if (journal.firstSeq() > 1 && partitioner.firstTimestamp > periodStart) {
+				throw new IllegalStateException("The journal starts after the beginning of the month");
+			}
+		} finally {
+			for (DataOutputStream bucket : buckets) {
+				if (bucket != null) {
+					bucket.close();
+				}
+			}
+		}
+	}
+
+	private final class Partitioner implements JournalVisitor {
+
+		private final DataOutputStream[] buckets;
+		private final long periodStart;
+		private final long endSeq;
+		private long firstTimestamp = Long.MIN_VALUE;
+		private IOException failure;
+		// Legs of a posting, written once its last leg is there
+		private long[] postCards = new long[8];
+		private long[] postDeltas = new long[8];
+		private int postLegs;
+
+		Partitioner(DataOutputStream[] buckets, long periodStart, long endSeq) {
+			this.buckets = buckets;
+			this.periodStart = periodStart;
+			this.endSeq = endSeq;
+		}
+
+		@Override
+		public void record(long seq, short type, long timestamp, long accountA, long accountB, long amount) {
+			if (firstTimestamp == Long.MIN_VALUE) {
+				firstTimestamp = timestamp;
+			}
+			if (seq > endSeq || timestamp < periodStart || failure != null) {
+				return;
+			}
+			try {
+				switch (type) {
+				case JournalRecord.REGISTER:
+					leg(accountA, OPENED, timestamp, amount, 0);
+					break;
+				case JournalRecord.DEPOSIT:
+					leg(accountA, DEPOSIT, timestamp, amount, 0);
+					break;
+				case JournalRecord.WITHDRAW:
+					leg(accountA, WITHDRAWAL, timestamp, -amount, 0);
+					break;
+				case JournalRecord.INTEREST:
+					leg(accountA, INTEREST, timestamp, amount, 0);
+					break;
+				case JournalRecord.TRANSFER:
+					leg(accountA, TRANSFER_OUT, timestamp, -amount, accountB);
+					leg(accountB, TRANSFER_IN, timestamp, amount, accountA);
+					break;
+				case JournalRecord.POST:
+					if (postLegs == postCards.length) {
+						postCards = Arrays.copyOf(postCards, postLegs * 2);
+						postDeltas = Arrays.copyOf(postDeltas, postLegs * 2);
+					}
+					postCards[postLegs] = accountA;
+					postDeltas[postLegs++] = amount;
+					if (accountB == 0) {
+						for (int i = 0; i < postLegs; i++) {
+							leg(postCards[i], PAYMENT, timestamp, postDeltas[i], 0);
+						}
+						postLegs = 0;
+					}
+					break;
+				default:
+					break;
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+
+		private void leg(long card, int type, long timestamp, long delta, long counterparty) throws IOException {
+			int slot = store.slotOf(card);
+			if (slot < 0) {
+				return;
+			}
+			DataOutputStream out = buckets[slot / RANGE_SLOTS];
+			out.writeInt(slot);
+			out.writeByte(type);
+			out.writeLong(timestamp);
+			out.writeLong(delta);
+			out.writeLong(counterparty);
+		}
+	}
+
+	private void writeRange(int range, Path bucket, Path file, YearMonth month, long periodEnd, long endSeq,
+			LongAdder accounts, LongAdder closingTotal) throws IOException {
+		int from = range * RANGE_SLOTS;
+		int to = Math.min(store.capacity(), from + RANGE_SLOTS);
+
+		// The bucket, sorted by account; the sort is stable because the index is part
+		// of the key, so each account's legs stay in journal order
+		int legs = (int) (Files.size(bucket) / LEG_SIZE);
+		int[] slots = new int[legs];
+		byte[] types = new byte[legs];
+		long[] times = new long[legs];
+		long[] deltas = new long[legs];
+		long[] counterparties = new long[legs];
+		long[] order = new long[legs];
+		try (InputStream raw = Files.newInputStream(bucket);
+				DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 64 * 1024))) {
+			for (int i = 0; i < legs; i++) {
+				slots[i] = in.readInt();
+				types[i] = in.readByte();
+				times[i] = in.readLong();
+				deltas[i] = in.readLong();
+				counterparties[i] = in.readLong();
+				order[i] = ((long) (slots[i] - from) << 32) | i;
+			}
+		} catch (EOFException e) {
+			throw new IOException("Bucket " + bucket + " is cut short", e);
+		}
+		Arrays.sort(order);
+
+		// Balances now, and for accounts that changed after the job's end of journal,
+		// what changed since
+		long[] balances = new long[to - from];
+		Map<Integer, Long> late = null;
+		for (int slot = from; slot < to; slot++) {
+			if (!store.isOccupied(slot)) {
+				continue;
+			}
+			long seq;
+			long balance;
+			do {
+				seq = store.journalSeq(slot);
+				balance = ledger.balance(slot);
+			} while (seq != store.journalSeq(slot));
+			balances[slot - from] = balance;
+			if (seq > endSeq) {
+				if (late == null) {
+					late = new HashMap<>();
+				}
+				late.put(slot, 0L);
+			}
+		}
+		if (late != null) {
+			Map<Integer, Long> changes = late;
+			journal.replay(endSeq + 1, (seq, type, timestamp, accountA, accountB, amount) -> {
+				lateChange(changes, accountA, accountB, type, amount);
+			});
+			for (Map.Entry<Integer, Long> entry : changes.entrySet()) {
+				balances[entry.getKey() - from] -= entry.getValue();
+			}
+		}
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		StringBuilder line = new StringBuilder(128);
+		long count = 0;
+		long closingSum = 0;
+		try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			int next = 0;
+			for (int slot = from; slot < to; slot++) {
+				if (!store.isOccupied(slot)) {
+					continue;
+				}
+				int first = next;
+				while (next < legs && (int) (order[next] >>> 32) == slot - from) {
+					next++;
+				}
+				// Closing = now minus everything after the month, opening = closing
+				// minus the month
+				long closing = balances[slot - from];
+				for (int i = first; i < next; i++) {
+					int leg = (int) order[i];
+					if (times[leg] >= periodEnd) {
+						closing -= deltas[leg];
+					}
+				}
+				long opening = closing;
+				for (int i = first; i < next; i++) {
+					int leg = (int) order[i];
+					if (times[leg] < periodEnd) {
+						opening -= deltas[leg];
+					}
+				}
+
+				line.setLength(0);
+				line.append("STATEMENT ").append(month).append(" CARD ").append(store.cardAt(slot)).append('\n');
+				pad(line.append("OPENING BALANCE"), 32);
+				appendCents(line, opening, false).append('\n');
+				for (int i = first; i < next; i++) {
+					int leg = (int) order[i];
+					if (times[leg] >= periodEnd) {
+						continue;
+					}
+					appendDateTime(line, times[leg]).append(' ').append(LEG_NAMES[types[leg]]);
+					if (counterparties[leg] != 0) {
+						line.append(' ').append(counterparties[leg]);
+					}
+					pad(line, 32);
+					appendCents(line, deltas[leg], true).append('\n');
+				}
+				pad(line.append("CLOSING BALANCE"), 32);
+				appendCents(line, closing, false).append("\n\n");
+				out.append(line);
+				count++;
+				closingSum += closing;
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		accounts.add(count);
+		closingTotal.add(closingSum);
+	}
+
+	// Adds up what the journal after the job's end did to the late accounts
+	private void lateChange(Map<Integer, Long> late, long accountA, long accountB, short type, long amount) {
+		switch (type) {
+		case JournalRecord.REGISTER:
+		case JournalRecord.DEPOSIT:
+		case JournalRecord.INTEREST:
+			late.computeIfPresent(store.slotOf(accountA), (slot, sum) -> sum + amount);
+			break;
+		case JournalRecord.WITHDRAW:
+			late.computeIfPresent(store.slotOf(accountA), (slot, sum) -> sum - amount);
+			break;
+		case JournalRecord.TRANSFER:
+			late.computeIfPresent(store.slotOf(accountA), (slot, sum) -> sum - amount);
+			late.computeIfPresent(store.slotOf(accountB), (slot, sum) -> sum + amount);
+			break;
+		case JournalRecord.POST:
+			// Every leg carries its own account's change
+			late.computeIfPresent(store.slotOf(accountA), (slot, sum) -> sum + amount);
+			break;
+		default:
+			break;
+		}
+	}
+
+	// Pads the current line to a column
+	private static void pad(StringBuilder line, int column) {
+		int lineStart = line.lastIndexOf("\n") + 1;
+		while (line.length() - lineStart < column) {
+			line.append(' ');
+		}
+	}
+
+	private static StringBuilder appendTwoDigits(StringBuilder line, int value) {
+		if (value < 10) {
+			line.append('0');
+		}
+		return line.append(value);
+	}
+
+	// Right-aligned in 16 characters: [sign]euros.cents
+	private static StringBuilder appendCents(StringBuilder line, long cents, boolean signed) {
+		long abs = Math.abs(cents);
+		int width = 4 + (cents < 0 || signed ? 1 : 0);
+		for (long euros = abs / 100; euros >= 10; euros /= 10) {
+			width++;
+		}
+		for (int i = width; i < 16; i++) {
+			line.append(' ');
+		}
+		if (cents < 0) {
+			line.append('-');
+		} else if (signed) {
+			line.append('+');
+		}
+		line.append(abs / 100).append('.');
+		return appendTwoDigits(line, (int) (abs % 100));
+	}
+
+	// yyyy-MM-dd HH:mm in UTC, without going through java.time for every line
+	private static StringBuilder appendDateTime(StringBuilder line, long epochMillis) {
+		long epochDay = Math.floorDiv(epochMillis, 86_400_000L);
+		int minuteOfDay = (int) (Math.floorMod(epochMillis, 86_400_000L) / 60_000);
+		// Days to civil date (the algorithm java.time.LocalDate.ofEpochDay uses)
+		long zeroDay = epochDay + 719_468;
+		long era = Math.floorDiv(zeroDay, 146_097);
+		long dayOfEra = zeroDay - era * 146_097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long monthIndex = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+		int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		line.append(year).append('-');
+		appendTwoDigits(line, month).append('-');
+		appendTwoDigits(line, day).append(' ');
+		appendTwoDigits(line, minuteOfDay / 60).append(':');
+		return appendTwoDigits(line, minuteOfDay % 60);
+	}
+}
@@ -0,0 +1,256 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import auth.PinHasher;
+import ledger.AccountStore;
+import ledger.Ledger;
+import main.BalanceUpdateBus;
+import money.MoneyFormatter;
+import storage.Directories;
+import storage.Journal;
+import storage.JournalRecord;
+
+/**
+ * The bank's benchmark suite: the transfer path with and without contention, the
+ * journal, PIN verification, balance formatting and the UI update bus.
+ *
+ * <pre>
+ *  java bench.BankBenchmarks [--filter regex] [--quick] [--save file] [--baseline file]
+ * </pre>
+ *
+ * --save records the results as a new {@link Baseline}; --baseline compares the run
+ * with a recorded one and exits with status 1 if anything regressed.
+ *
+ * The same benchmarks run under JMH in {@code bench.jmh} (mvn package, then
+ * {@code bench.jmh.JmhSuite}); this hand-rolled harness is the fallback for when the
+ * JMH jars are not at hand.
+ */
+public class BankBenchmarks {
+
+	private static final int ACCOUNTS = 1_000_000;
+	private static final long FIRST_CARD = 4_000_0000_0000_0000L;
+
+	public static List<Benchmark> all() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<Benchmark> benchmarks = new ArrayList<>();
+
+		// Transfers between random accounts: stripes almost never collide
+		benchmarks.add(new LedgerBenchmark("ledger.transfer.uniform", cores, ACCOUNTS, false));
+		// Everybody pays the same 16 accounts: the stripe locks are fought over
+		benchmarks.add(new LedgerBenchmark("ledger.transfer.contended", Math.max(4, cores), 16, false));
+		// The transfer path with the UI update bus listening
+		benchmarks.add(new LedgerBenchmark("ledger.transfer.withBus", cores, ACCOUNTS, true));
+
+		benchmarks.add(new JournalBenchmark("journal.append", Mode.THROUGHPUT, 1, false));
+		benchmarks.add(new JournalBenchmark("journal.commit", Mode.SAMPLE, 1, true));
+		benchmarks.add(new JournalBenchmark("journal.commit.group", Mode.SAMPLE, 32, true));
+
+		benchmarks.add(new Benchmark("auth.pinVerify", Mode.THROUGHPUT, cores) {
+			private final PinHasher hasher = new PinHasher("bench".getBytes(StandardCharsets.UTF_8),
+					PinHasher.DEFAULT_COST);
+			private final char[] pin = "4711".toCharArray();
+			private long stored;
+
+			@Override
+			protected void setup() {
+				stored = hasher.hash(FIRST_CARD, pin);
+			}
+
+			@Override
+			protected void run(int thread, Blackhole blackhole) {
+				blackhole.consume(hasher.verify(FIRST_CARD, pin, stored));
+			}
+		});
+
+		// The way the account table and the bus demo used to format balances
+		benchmarks.add(new Benchmark("format.balance", Mode.THROUGHPUT, 1) {
+			@Override
+			protected void run(int thread, Blackhole blackhole) {
+				long cents = ThreadLocalRandom.current().nextLong(100_000_000_00L);
+				blackhole.consume(String.format("%,.2f €", cents / 100.0));
+			}
+		});
+
+		// ... and the way they do now: a String per cell, and into a reused buffer
+		benchmarks.add(new Benchmark("format.balance.money", Mode.THROUGHPUT, 1) {
+			private final MoneyFormatter formatter = MoneyFormatter.finnishEuros();
+
+			@Override
+			protected void run(int thread, Blackhole blackhole) {
+				long cents = ThreadLocalRandom.current().nextLong(100_000_000_00L);
+				blackhole.consume(formatter.format(cents));
+			}
+		});
+		benchmarks.add(new Benchmark("format.balance.buffer", Mode.THROUGHPUT, 1) {
+			private final MoneyFormatter formatter = MoneyFormatter.finnishEuros();
+			private final char[] buffer = new char[formatter.maxLength()];
+
+			@Override
+			protected void run(int thread, Blackhole blackhole) {
+				long cents = ThreadLocalRandom.current().nextLong(100_000_000_00L);
+				blackhole.consume(formatter.format(cents, buffer, 0));
+			}
+		});
+
+		// The ledger-side cost of the bus: marking an account dirty
+		benchmarks.add(new Benchmark("bus.balanceChanged", Mode.THROUGHPUT, cores) {
+			private BalanceUpdateBus bus;
+
+			@Override
+			protected void setup() {
+				bus = new BalanceUpdateBus(new AccountStore(ACCOUNTS));
+				bus.start(BalanceUpdateBus.DEFAULT_FRAME_RATE);
+			}
+
+			@Override
+			protected void run(int thread, Blackhole blackhole) {
+				bus.balanceChanged(ThreadLocalRandom.current().nextInt(ACCOUNTS), 0);
+			}
+
+			@Override
+			protected void tearDown() {
+				bus.stop();
+			}
+		});
+		return benchmarks;
+	}
+
+	private static final class LedgerBenchmark extends Benchmark {
+
+		private final int accounts;
+		private final boolean withBus;
+		private Ledger ledger;
+		private BalanceUpdateBus bus;
+		private int[] ids;
+
+		LedgerBenchmark(String name, int threads, int accounts, boolean withBus) {
+			super(name, Mode.THROUGHPUT, threads);
+			this.accounts = accounts;
+			this.withBus = withBus;
+		}
+
+		@Override
+		protected void setup() {
+			ledger = new Ledger(new AccountStore(accounts));
+			ids = new int[accounts];
+			for (int i = 0; i < accounts; i++) {
+				ids[i] = ledger.openAccount(FIRST_CARD + i, Long.MAX_VALUE / 4 / accounts, 0);
+			}
+			if (withBus) {
+				bus = new BalanceUpdateBus(ledger.store());
+				ledger.addListener(bus);
+				bus.start(BalanceUpdateBus.DEFAULT_FRAME_RATE);
+			}
+		}
+
+		@Override
+		protected void run(int thread, Blackhole blackhole) {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			blackhole.consume(ledger.transfer(ids[random.nextInt(accounts)], ids[random.nextInt(accounts)], 1));
+		}
+
+		@Override
+		protected void tearDown() {
+			if (bus != null) {
+				bus.stop();
+			}
+		}
+	}
+
+	private static final class JournalBenchmark extends Benchmark {
+
+		private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+		private final boolean commit;
+		private Path directory;
+		private Journal journal;
+
+		JournalBenchmark(String name, Mode mode, int threads, boolean commit) {
+			super(name, mode, threads);
+			this.commit = commit;
+		}
+
+		@Override
+		protected void setup() throws IOException {
+			directory = Files.createTempDirectory("journal-bench");
+			journal = Journal.open(directory, SEGMENT_SIZE);
+		}
+
+		@Override
+		protected void run(int thread, Blackhole blackhole) throws IOException {
+			long seq = commit ? journal.appendAndCommit(JournalRecord.TRANSFER, thread, thread + 1, 100)
+					: journal.append(JournalRecord.TRANSFER, thread, thread + 1, 100);
+			// Keep the disk from filling up with finished segments
+			if ((seq & 0xFFFFF) == 0) {
+				journal.deleteBefore(seq);
+			}
+			blackhole.consume(seq);
+		}
+
+		@Override
+		protected void tearDown() throws IOException {
+			journal.close();
+			Directories.deleteRecursively(directory);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Pattern filter = null;
+		Path save = null;
+		Path baseline = null;
+		boolean quick = false;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--filter":
+				filter = Pattern.compile(args[++i]);
+				break;
+			case "--save":
+				save = Path.of(args[++i]);
+				break;
+			case "--baseline":
+				baseline = Path.of(args[++i]);
+				break;
+			case "--quick":
+				quick = true;
+				break;
+			default:
+				System.err.println("Usage: BankBenchmarks [--filter regex] [--quick] [--save file] [--baseline file]");
+				System.exit(2);
+			}
+		}
+
+		BenchmarkRunner runner = quick ? new BenchmarkRunner(1, 3, 300) : new BenchmarkRunner();
+		List<BenchmarkResult> results = new ArrayList<>();
+		for (Benchmark benchmark : all()) {
+			if (filter != null && !filter.matcher(benchmark.name()).find()) {
+				continue;
+			}
+			for (BenchmarkResult result : runner.run(benchmark)) {
+				System.out.println(result);
+				results.add(result);
+			}
+		}
+
+		if (save != null) {
+			Baseline.write(save, results);
+			System.out.println("Baseline saved to " + save);
+		}
+		if (baseline != null) {
+			Map<String, BenchmarkResult> before = Baseline.read(baseline);
+			List<String> regressions = Baseline.compare(before, results, Baseline.DEFAULT_TOLERANCE, System.out);
+			if (!regressions.isEmpty()) {
+				System.out.println("Regressed: " + regressions);
+				System.exit(1);
+			}
+		}
+	}
+}
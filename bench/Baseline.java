@@ -0,0 +1,94 @@
+package bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Recorded benchmark results to compare later runs against, so that a change that
+ * makes something slower shows up as a regression instead of going unnoticed.
+ *
+ * The file is plain text and meant to be committed next to the code it measures:
+ *
+ * <pre>
+ * # bank benchmark baseline v1
+ * # java 17.0.9, 8 cores, Linux
+ * ledger.transfer.uniform	thrpt	2155520.000	35120.000	ops/s
+ * journal.commit	sample	812.400	40.100	us/op
+ * </pre>
+ *
+ * Lines starting with # are comments; every other line is one
+ * {@link BenchmarkResult#toLine()}. Results from different machines are not
+ * comparable, so the comment records where the baseline was taken.
+ */
+public final class Baseline {
+
+	public static final String HEADER = "# bank benchmark baseline v1";
+	public static final double DEFAULT_TOLERANCE = 0.10;
+
+	private Baseline() {
+	}
+
+	public static Map<String, BenchmarkResult> read(Path file) throws IOException {
+		Map<String, BenchmarkResult> results = new LinkedHashMap<>();
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+			throw new IOException("Not a benchmark baseline: " + file);
+		}
+		for (String line : lines) {
+			if (!line.isBlank() && !line.startsWith("#")) {
+				BenchmarkResult result = BenchmarkResult.parse(line);
+				results.put(result.name(), result);
+			}
+		}
+		return results;
+	}
+
+	public static void write(Path file, List<BenchmarkResult> results) throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add(HEADER);
+		lines.add(String.format("# java %s, %d cores, %s", System.getProperty("java.version"),
+				Runtime.getRuntime().availableProcessors(), System.getProperty("os.name")));
+		for (BenchmarkResult result : results) {
+			lines.add(result.toLine());
+		}
+		Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Prints every result next to its baseline. A result is a regression if it is
+	 * worse by more than {@code tolerance} (0.10 = 10%) and by more than the two
+	 * error bars together, so noise alone doesn't fail a run.
+	 *
+	 * @return the names of the regressed benchmarks
+	 */
+	public static List<String> compare(Map<String, BenchmarkResult> baseline, List<BenchmarkResult> current,
+			double tolerance, PrintStream out) {
+		List<String> regressions = new ArrayList<>();
+		out.printf("%-34s %16s %16s %9s%n", "benchmark", "baseline", "current", "change");
+		for (BenchmarkResult result : current) {
+			BenchmarkResult before = baseline.get(result.name());
+			if (before == null || before.mode() != result.mode()) {
+				out.printf(Locale.ROOT, "%-34s %16s %,16.3f %9s%n", result.name(), "-", result.score(), "new");
+				continue;
+			}
+			double change = (result.score() - before.score()) / before.score();
+			double worse = result.mode().higherIsBetter() ? -change : change;
+			boolean regressed = worse > tolerance
+					&& Math.abs(result.score() - before.score()) > before.error() + result.error();
+			out.printf(Locale.ROOT, "%-34s %,16.3f %,16.3f %+8.1f%%%s%n", result.name(), before.score(),
+					result.score(), change * 100, regressed ? "  REGRESSION" : "");
+			if (regressed) {
+				regressions.add(result.name());
+			}
+		}
+		return regressions;
+	}
+}
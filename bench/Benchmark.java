@@ -0,0 +1,49 @@
+package bench;
+
+/**
+ * One benchmark, in the spirit of a JMH {@code @Benchmark} method with its
+ * {@code @State}: the state lives in fields of the subclass, {@link #setup()} and
+ * {@link #tearDown()} run once around all iterations, and {@link #run(int, Blackhole)}
+ * is one operation. Anything the operation computes should go into the blackhole.
+ */
+public abstract class Benchmark {
+
+	private final String name;
+	private final Mode mode;
+	private final int threads;
+
+	/**
+	 * @param name    dotted name, e.g. {@code ledger.transfer.uniform}
+	 * @param threads how many threads run the operation at the same time
+	 */
+	protected Benchmark(String name, Mode mode, int threads) {
+		this.name = name;
+		this.mode = mode;
+		this.threads = threads;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public Mode mode() {
+		return mode;
+	}
+
+	public int threads() {
+		return threads;
+	}
+
+	protected void setup() throws Exception {
+	}
+
+	/**
+	 * One operation.
+	 *
+	 * @param thread index of the calling benchmark thread, 0 .. threads - 1
+	 */
+	protected abstract void run(int thread, Blackhole blackhole) throws Exception;
+
+	protected void tearDown() throws Exception {
+	}
+}
@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.Locale;
+
+/**
+ * The score of one benchmark, and one line of a {@link Baseline} file.
+ */
+public final class BenchmarkResult {
+
+	private final String name;
+	private final Mode mode;
+	private final double score;
+	private final double error;
+
+	/**
+	 * @param error half-width of the 99.9% confidence interval of the score
+	 */
+	public BenchmarkResult(String name, Mode mode, double score, double error) {
+		this.name = name;
+		this.mode = mode;
+		this.score = score;
+		this.error = error;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public Mode mode() {
+		return mode;
+	}
+
+	public double score() {
+		return score;
+	}
+
+	public double error() {
+		return error;
+	}
+
+	/**
+	 * Tab-separated: name, mode, score, error, unit.
+	 */
+	public String toLine() {
+		return String.format(Locale.ROOT, "%s\t%s\t%.3f\t%.3f\t%s", name, mode.label(), score, error, mode.unit());
+	}
+
+	public static BenchmarkResult parse(String line) {
+		String[] fields = line.split("\t");
+		if (fields.length < 4) {
+			throw new IllegalArgumentException("Not a benchmark result: " + line);
+		}
+		return new BenchmarkResult(fields[0], Mode.ofLabel(fields[1]), Double.parseDouble(fields[2]),
+				Double.parseDouble(fields[3]));
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%-34s %-6s %,16.3f ± %,12.3f %s", name, mode.label(), score, error,
+				mode.unit());
+	}
+}
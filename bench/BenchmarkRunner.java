@@ -0,0 +1,165 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import metrics.LatencyHistogram;
+
+/**
+ * Runs {@link Benchmark}s the way JMH does in one fork: a few warmup iterations
+ * whose results are thrown away (so the JIT has compiled the hot code), then
+ * measured iterations of fixed length. The score is the mean over the measured
+ * iterations and the error the half-width of its 99.9% confidence interval
+ * (Student's t), which is what a regression has to exceed to count.
+ *
+ * In {@link Mode#SAMPLE} mode every operation is timed into a histogram, and two
+ * results come out: the mean and the 99th percentile ({@code name:p99}).
+ */
+public class BenchmarkRunner {
+
+	public static final int DEFAULT_WARMUP_ITERATIONS = 3;
+	public static final int DEFAULT_ITERATIONS = 5;
+	public static final int DEFAULT_ITERATION_MILLIS = 1000;
+
+	// Two-sided 99.9% quantiles of Student's t for 1..10 degrees of freedom
+	private static final double[] T_999 = { 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59 };
+
+	private final int warmupIterations;
+	private final int iterations;
+	private final int iterationMillis;
+
+	public BenchmarkRunner(int warmupIterations, int iterations, int iterationMillis) {
+		if (iterations < 2) {
+			throw new IllegalArgumentException("Need at least two measured iterations for an error estimate");
+		}
+		this.warmupIterations = warmupIterations;
+		this.iterations = iterations;
+		this.iterationMillis = iterationMillis;
+	}
+
+	public BenchmarkRunner() {
+		this(DEFAULT_WARMUP_ITERATIONS, DEFAULT_ITERATIONS, DEFAULT_ITERATION_MILLIS);
+	}
+
+	public List<BenchmarkResult> run(Benchmark benchmark) throws Exception {
+		benchmark.setup();
+		try {
+			for (int i = 0; i < warmupIterations; i++) {
+				iteration(benchmark);
+			}
+			double[] scores = new double[iterations];
+			double[] p99s = new double[iterations];
+			for (int i = 0; i < iterations; i++) {
+				Iteration result = iteration(benchmark);
+				if (benchmark.mode() == Mode.THROUGHPUT) {
+					scores[i] = result.operations / result.seconds;
+				} else {
+					scores[i] = result.latency.mean() / 1e3;
+					p99s[i] = result.latency.percentile(99) / 1e3;
+				}
+			}
+
+			List<BenchmarkResult> results = new ArrayList<>(2);
+			results.add(new BenchmarkResult(benchmark.name(), benchmark.mode(), mean(scores), error(scores)));
+			if (benchmark.mode() == Mode.SAMPLE) {
+				results.add(new BenchmarkResult(benchmark.name() + ":p99", Mode.SAMPLE, mean(p99s), error(p99s)));
+			}
+			return results;
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	private static final class Iteration {
+		long operations;
+		double seconds;
+		final LatencyHistogram latency = new LatencyHistogram();
+	}
+
+	private Iteration iteration(Benchmark benchmark) throws Exception {
+		int threads = benchmark.threads();
+		boolean sample = benchmark.mode() == Mode.SAMPLE;
+		long[] operations = new long[threads];
+		LatencyHistogram[] histograms = new LatencyHistogram[threads];
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		CyclicBarrier start = new CyclicBarrier(threads + 1);
+		Thread[] workers = new Thread[threads];
+		Flag stop = new Flag();
+
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			histograms[t] = sample ? new LatencyHistogram() : null;
+			workers[t] = new Thread(() -> {
+				Blackhole blackhole = new Blackhole();
+				LatencyHistogram histogram = histograms[thread];
+				long count = 0;
+				try {
+					start.await();
+					while (!stop.raised) {
+						if (sample) {
+							long begin = System.nanoTime();
+							benchmark.run(thread, blackhole);
+							histogram.record(System.nanoTime() - begin);
+						} else {
+							benchmark.run(thread, blackhole);
+						}
+						count++;
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+				operations[thread] = count;
+				blackhole.publish();
+			}, "bench-" + benchmark.name() + "-" + t);
+			workers[t].start();
+		}
+
+		start.await();
+		long begin = System.nanoTime();
+		Thread.sleep(iterationMillis);
+		stop.raised = true;
+		long end = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (failure.get() != null) {
+			throw new Exception("Benchmark " + benchmark.name() + " failed", failure.get());
+		}
+
+		Iteration result = new Iteration();
+		result.seconds = (end - begin) / 1e9;
+		for (int t = 0; t < threads; t++) {
+			result.operations += operations[t];
+			if (sample) {
+				result.latency.add(histograms[t]);
+			}
+		}
+		return result;
+	}
+
+	private static final class Flag {
+		volatile boolean raised;
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	private static double error(double[] values) {
+		double mean = mean(values);
+		double squares = 0;
+		for (double value : values) {
+			squares += (value - mean) * (value - mean);
+		}
+		int degrees = values.length - 1;
+		double deviation = Math.sqrt(squares / degrees);
+		double t = degrees <= T_999.length ? T_999[degrees - 1] : 3.29;
+		return t * deviation / Math.sqrt(values.length);
+	}
+}
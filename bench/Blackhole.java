@@ -0,0 +1,31 @@
+package bench;
+
+/**
+ * Swallows benchmark results so that the JIT can't decide the measured code is
+ * dead and remove it. One per benchmark thread, so consuming never shares a cache
+ * line between threads.
+ */
+public final class Blackhole {
+
+	private long accumulator;
+	private Object last;
+	private volatile long published;
+
+	public void consume(long value) {
+		accumulator ^= value;
+	}
+
+	public void consume(boolean value) {
+		accumulator ^= value ? 1 : 0;
+	}
+
+	public void consume(Object value) {
+		last = value;
+	}
+
+	// Called by the runner between iterations, so the results escape for real
+	void publish() {
+		published = accumulator ^ (last == null ? 0 : 1);
+		last = null;
+	}
+}
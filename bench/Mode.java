@@ -0,0 +1,40 @@
+package bench;
+
+/**
+ * What a benchmark measures.
+ */
+public enum Mode {
+	/** Operations per second over all threads; higher is better. */
+	THROUGHPUT("thrpt", "ops/s"),
+	/** Time of single operations in microseconds; lower is better. */
+	SAMPLE("sample", "us/op");
+
+	private final String label;
+	private final String unit;
+
+	Mode(String label, String unit) {
+		this.label = label;
+		this.unit = unit;
+	}
+
+	public String label() {
+		return label;
+	}
+
+	public String unit() {
+		return unit;
+	}
+
+	public boolean higherIsBetter() {
+		return this == THROUGHPUT;
+	}
+
+	public static Mode ofLabel(String label) {
+		for (Mode mode : values()) {
+			if (mode.label.equals(label)) {
+				return mode;
+			}
+		}
+		throw new IllegalArgumentException("Unknown benchmark mode: " + label);
+	}
+}
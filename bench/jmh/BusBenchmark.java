@@ -0,0 +1,54 @@
+package bench.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ledger.AccountStore;
+import main.BalanceUpdateBus;
+
+/**
+ * The ledger-side cost of the UI update bus: marking an account dirty, on every
+ * core, while the bus coalesces the marks into frames.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class BusBenchmark {
+
+	private static final int ACCOUNTS = 1_000_000;
+
+	private BalanceUpdateBus bus;
+
+	@Setup
+	public void setup() {
+		bus = new BalanceUpdateBus(new AccountStore(ACCOUNTS));
+		bus.start(BalanceUpdateBus.DEFAULT_FRAME_RATE);
+	}
+
+	@TearDown
+	public void tearDown() {
+		bus.stop();
+	}
+
+	@Benchmark
+	public void balanceChanged() {
+		bus.balanceChanged(ThreadLocalRandom.current().nextInt(ACCOUNTS), 0);
+	}
+}
@@ -0,0 +1,51 @@
+package bench.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import money.MoneyFormatter;
+
+/**
+ * Balance formatting: the way the account table and the bus demo used to do it,
+ * and the way they do now, a String per cell or into a reused buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+	private final MoneyFormatter formatter = MoneyFormatter.finnishEuros();
+	private final char[] buffer = new char[formatter.maxLength()];
+
+	@Benchmark
+	public String stringFormat() {
+		return String.format("%,.2f €", cents() / 100.0);
+	}
+
+	@Benchmark
+	public String money() {
+		return formatter.format(cents());
+	}
+
+	@Benchmark
+	public int buffer() {
+		return formatter.format(cents(), buffer, 0);
+	}
+
+	private static long cents() {
+		return ThreadLocalRandom.current().nextLong(100_000_000_00L);
+	}
+}
@@ -0,0 +1,125 @@
+package bench.jmh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import bench.Baseline;
+import bench.BenchmarkResult;
+import bench.Mode;
+
+/**
+ * Runs the JMH benchmarks and records or compares them as a {@link Baseline}, under
+ * the same names as {@link bench.BankBenchmarks}. Compare a baseline only with runs
+ * of the harness that recorded it.
+ *
+ * <pre>
+ *  java -cp bench/target/benchmarks.jar bench.jmh.JmhSuite [--filter regex] [--quick] [--save file] [--baseline file]
+ * </pre>
+ *
+ * For anything else (profilers, other modes) run JMH itself: java -jar bench/target/benchmarks.jar
+ */
+public class JmhSuite {
+
+	private static final Map<String, String> NAMES = Map.ofEntries(
+			Map.entry("TransferBenchmark.transfer:uniform", "ledger.transfer.uniform"),
+			Map.entry("TransferBenchmark.transfer:contended", "ledger.transfer.contended"),
+			Map.entry("TransferBenchmark.transfer:withBus", "ledger.transfer.withBus"),
+			Map.entry("JournalBenchmark.append", "journal.append"),
+			Map.entry("JournalBenchmark.commit", "journal.commit"),
+			Map.entry("JournalBenchmark.commitGroup", "journal.commit.group"),
+			Map.entry("PinBenchmark.verify", "auth.pinVerify"),
+			Map.entry("FormatBenchmark.stringFormat", "format.balance"),
+			Map.entry("FormatBenchmark.money", "format.balance.money"),
+			Map.entry("FormatBenchmark.buffer", "format.balance.buffer"),
+			Map.entry("BusBenchmark.balanceChanged", "bus.balanceChanged"));
+
+	public static void main(String[] args) throws IOException, RunnerException {
+		String filter = JmhSuite.class.getPackageName() + ".";
+		boolean quick = false;
+		Path save = null;
+		Path baseline = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--filter":
+				filter = args[++i];
+				break;
+			case "--quick":
+				quick = true;
+				break;
+			case "--save":
+				save = Paths.get(args[++i]);
+				break;
+			case "--baseline":
+				baseline = Paths.get(args[++i]);
+				break;
+			default:
+				System.err.println("Usage: JmhSuite [--filter regex] [--quick] [--save file] [--baseline file]");
+				System.exit(2);
+			}
+		}
+
+		ChainedOptionsBuilder options = new OptionsBuilder().include(filter);
+		if (quick) {
+			options.warmupIterations(1).measurementIterations(3)
+					.warmupTime(TimeValue.milliseconds(300)).measurementTime(TimeValue.milliseconds(300));
+		}
+		Collection<RunResult> runs = new Runner(options.build()).run();
+
+		List<BenchmarkResult> results = new ArrayList<>();
+		for (RunResult run : runs) {
+			String name = nameOf(run);
+			Result<?> primary = run.getPrimaryResult();
+			Mode mode = run.getParams().getMode() == org.openjdk.jmh.annotations.Mode.SampleTime ? Mode.SAMPLE
+					: Mode.THROUGHPUT;
+			results.add(new BenchmarkResult(name, mode, primary.getScore(), primary.getScoreError()));
+			if (mode == Mode.SAMPLE) {
+				// JMH hands out the secondary results as a Map of raw Results
+				for (@SuppressWarnings("rawtypes") Map.Entry<String, Result> secondary : run.getSecondaryResults().entrySet()) {
+					if (secondary.getKey().endsWith("p0.99")) {
+						// A single percentile has no error of its own
+						Result<?> p99 = secondary.getValue();
+						results.add(new BenchmarkResult(name + ":p99", mode, p99.getScore(), 0));
+					}
+				}
+			}
+		}
+		results.forEach(System.out::println);
+
+		if (save != null) {
+			Baseline.write(save, results);
+			System.out.println("Baseline saved to " + save);
+		}
+		if (baseline != null) {
+			Map<String, BenchmarkResult> before = Baseline.read(baseline);
+			List<String> regressions = Baseline.compare(before, results, Baseline.DEFAULT_TOLERANCE, System.out);
+			if (!regressions.isEmpty()) {
+				System.out.println("Regressed: " + regressions);
+				System.exit(1);
+			}
+		}
+	}
+
+	// bench.jmh.TransferBenchmark.transfer with scenario=uniform -> ledger.transfer.uniform
+	private static String nameOf(RunResult run) {
+		String benchmark = run.getParams().getBenchmark();
+		String key = benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+		String scenario = run.getParams().getParam("scenario");
+		if (scenario != null) {
+			key += ":" + scenario;
+		}
+		return NAMES.getOrDefault(key, key);
+	}
+}
@@ -0,0 +1,81 @@
+package bench.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import storage.Directories;
+import storage.Journal;
+import storage.JournalRecord;
+
+/**
+ * The journal: appends without waiting for the disk, and appends that wait for
+ * their fsync, alone and with 32 threads sharing each fsync (group commit).
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+	private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private Path directory;
+	private Journal journal;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("journal-bench");
+		journal = Journal.open(directory, SEGMENT_SIZE);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		journal.close();
+		Directories.deleteRecursively(directory);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public long append() throws IOException {
+		return trim(journal.append(JournalRecord.TRANSFER, 1, 2, 100));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long commit() throws IOException {
+		return trim(journal.appendAndCommit(JournalRecord.TRANSFER, 1, 2, 100));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Threads(32)
+	public long commitGroup() throws IOException {
+		return trim(journal.appendAndCommit(JournalRecord.TRANSFER, 1, 2, 100));
+	}
+
+	// Keeps the disk from filling up with finished segments
+	private long trim(long seq) throws IOException {
+		if ((seq & 0xFFFFF) == 0) {
+			journal.deleteBefore(seq);
+		}
+		return seq;
+	}
+}
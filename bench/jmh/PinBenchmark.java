@@ -0,0 +1,47 @@
+package bench.jmh;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import auth.PinHasher;
+
+/**
+ * PIN verification at the default cost, on every core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class PinBenchmark {
+
+	private static final long CARD = 4_000_0000_0000_0000L;
+
+	private final PinHasher hasher = new PinHasher("bench".getBytes(StandardCharsets.UTF_8), PinHasher.DEFAULT_COST);
+	private final char[] pin = "4711".toCharArray();
+	private long stored;
+
+	@Setup
+	public void setup() {
+		stored = hasher.hash(CARD, pin);
+	}
+
+	@Benchmark
+	public boolean verify() {
+		return hasher.verify(CARD, pin, stored);
+	}
+}
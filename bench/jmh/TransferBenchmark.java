@@ -0,0 +1,77 @@
+package bench.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ledger.AccountStore;
+import ledger.Ledger;
+import ledger.TransferResult;
+import main.BalanceUpdateBus;
+
+/**
+ * Transfers on every core:
+ *
+ * - uniform: between random accounts of a million, stripes almost never collide
+ * - contended: everybody pays the same 16 accounts, the stripe locks are fought over
+ * - withBus: uniform, with the UI update bus listening
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class TransferBenchmark {
+
+	private static final long FIRST_CARD = 4_000_0000_0000_0000L;
+
+	@Param({ "uniform", "contended", "withBus" })
+	public String scenario;
+
+	private Ledger ledger;
+	private BalanceUpdateBus bus;
+	private int[] ids;
+
+	@Setup
+	public void setup() {
+		int accounts = scenario.equals("contended") ? 16 : 1_000_000;
+		ledger = new Ledger(new AccountStore(accounts));
+		ids = new int[accounts];
+		for (int i = 0; i < accounts; i++) {
+			ids[i] = ledger.openAccount(FIRST_CARD + i, Long.MAX_VALUE / 4 / accounts, 0);
+		}
+		if (scenario.equals("withBus")) {
+			bus = new BalanceUpdateBus(ledger.store());
+			ledger.addListener(bus);
+			bus.start(BalanceUpdateBus.DEFAULT_FRAME_RATE);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (bus != null) {
+			bus.stop();
+		}
+	}
+
+	@Benchmark
+	public TransferResult transfer() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return ledger.transfer(ids[random.nextInt(ids.length)], ids[random.nextInt(ids.length)], 1);
+	}
+}
@@ -0,0 +1,71 @@
+package cards;
+
+/**
+ * A set of longs that can say "maybe" or "definitely not", in a fixed number of
+ * bits. Used to keep card numbers that were imported from elsewhere away from new
+ * ones: only a "maybe" costs a real lookup.
+ *
+ * Fill it before sharing it; after that {@link #mightContain} can be called from
+ * any number of threads.
+ */
+public final class BloomFilter {
+
+	private final long[] bits;
+	private final long bitCount;
+	private final int hashes;
+	private long added;
+
+	/**
+	 * @param expected             how many values will be added
+	 * @param falsePositiveRate    wanted share of "maybe" for values never added,
+	 *                             e.g. 0.01
+	 */
+	public BloomFilter(long expected, double falsePositiveRate) {
+		if (expected <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("Need a positive size and a rate between 0 and 1");
+		}
+		double ln2 = Math.log(2);
+		long wanted = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+		this.bits = new long[(int) Math.max(1, (wanted + 63) / 64)];
+		this.bitCount = bits.length * 64L;
+		this.hashes = Math.max(1, (int) Math.round(bitCount / (double) expected * ln2));
+	}
+
+	public void add(long value) {
+		long hash = mix(value);
+		long h1 = hash;
+		long h2 = (hash >>> 32) | 1;
+		for (int i = 0; i < hashes; i++) {
+			long bit = Math.floorMod(h1 + i * h2, bitCount);
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+		added++;
+	}
+
+	public boolean mightContain(long value) {
+		long hash = mix(value);
+		long h1 = hash;
+		long h2 = (hash >>> 32) | 1;
+		for (int i = 0; i < hashes; i++) {
+			long bit = Math.floorMod(h1 + i * h2, bitCount);
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long added() {
+		return added;
+	}
+
+	public long memoryUsage() {
+		return bits.length * (long) Long.BYTES;
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return z ^ (z >>> 33);
+	}
+}
@@ -0,0 +1,290 @@
+package cards;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/**
+ * Hands out new card numbers and PINs, e.g. to the registration page or to a bulk
+ * onboarding job.
+ *
+ * A card number is the bank's 6 digit issuer number (IIN), a 9 digit account
+ * number and the Luhn check digit. Account numbers come from one sequence; a
+ * caller claims a whole range of it with one compare-and-set and turns the range
+ * into card numbers on its own, so any number of threads issue in parallel without
+ * getting in each other's way. Every sequence number is used once, so numbers
+ * are unique without looking anything up. With a key the account numbers are
+ * shuffled through a {@link CardPermutation}, so consecutive cards don't look
+ * consecutive; the shuffle is a permutation, so they stay unique.
+ *
+ * Card numbers that weren't issued here (imported from an older system) can be
+ * guarded against with a {@link BloomFilter} of them and an exact check: a number
+ * the filter says "maybe" to is checked, and skipped if it really is taken. Only
+ * those lookups cost anything.
+ *
+ * Save {@link #nextSequence()} along with the accounts and pass it back in after
+ * a restart, or numbers get issued twice.
+ */
+public class CardIssuer {
+
+	public static final long DEFAULT_IIN = 400_000;
+	public static final long ACCOUNT_NUMBERS = 1_000_000_000L; // 9 digits
+
+	private static final char[][] WEAK_PINS = weakPins();
+	private static final ThreadLocal<SecureRandom> PIN_RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+	private final long iin;
+	private final CardPermutation permutation;
+	private final AtomicLong nextSeq;
+	private volatile BloomFilter legacy;
+	private volatile LongPredicate taken;
+	private final LongAdder skipped = new LongAdder();
+
+	/**
+	 * @param iin      6 digit issuer number, not starting with 0
+	 * @param key      shuffles the account numbers; the same key has to be used for
+	 *                 the life of the IIN
+	 * @param firstSeq where the sequence starts, 0 for a new IIN
+	 */
+	public CardIssuer(long iin, long key, long firstSeq) {
+		this(iin, new CardPermutation(ACCOUNT_NUMBERS, key), firstSeq);
+	}
+
+	private CardIssuer(long iin, CardPermutation permutation, long firstSeq) {
+		if (iin < 100_000 || iin > 999_999) {
+			throw new IllegalArgumentException("The IIN must have 6 digits");
+		}
+		if (firstSeq < 0 || firstSeq > ACCOUNT_NUMBERS) {
+			throw new IllegalArgumentException("Sequence out of range");
+		}
+		this.iin = iin;
+		this.permutation = permutation;
+		this.nextSeq = new AtomicLong(firstSeq);
+	}
+
+	/**
+	 * An issuer that hands out account numbers in order, e.g. for test data.
+	 */
+	public static CardIssuer sequential(long iin, long firstSeq) {
+		return new CardIssuer(iin, (CardPermutation) null, firstSeq);
+	}
+
+	/**
+	 * Makes the issuer skip numbers that are already taken elsewhere.
+	 *
+	 * @param legacy filled with every such number, and not changed afterwards
+	 * @param taken  the exact check, asked only when the filter says maybe
+	 */
+	public CardIssuer guard(BloomFilter legacy, LongPredicate taken) {
+		this.taken = taken;
+		this.legacy = legacy;
+		return this;
+	}
+
+	/**
+	 * The card number for a sequence number. Pure: the same every time.
+	 */
+	public long cardFor(long seq) {
+		long account = permutation == null ? seq : permutation.permute(seq);
+		return Luhn.withCheckDigit(iin * ACCOUNT_NUMBERS + account);
+	}
+
+	/**
+	 * Issues one card number.
+	 *
+	 * @throws IllegalStateException if the IIN has run out of numbers
+	 */
+	public long issue() {
+		long[] card = new long[1];
+		if (issue(card, 0, 1) == 0) {
+			throw new IllegalStateException("IIN " + iin + " has no card numbers left");
+		}
+		return card[0];
+	}
+
+	/**
+	 * Issues up to {@code count} card numbers into {@code out}, claiming them from
+	 * the sequence in one go. Fewer are issued only when the IIN runs out; what is
+	 * left of it is never claimed past its end.
+	 *
+	 * @return how many were issued, from {@code offset} on
+	 */
+	public int issue(long[] out, int offset, int count) {
+		BloomFilter legacy = this.legacy;
+		LongPredicate taken = this.taken;
+		int filled = 0;
+		while (filled < count) {
+			long first;
+			int claimed;
+			do {
+				first = nextSeq.get();
+				claimed = (int) Math.min(count - filled, ACCOUNT_NUMBERS - first);
+				if (claimed <= 0) {
+					return filled;
+				}
+			} while (!nextSeq.compareAndSet(first, first + claimed));
+			for (long seq = first; seq < first + claimed; seq++) {
+				long card = cardFor(seq);
+				if (legacy != null && legacy.mightContain(card) && taken.test(card)) {
+					skipped.increment(); // the loop claims a replacement
+					continue;
+				}
+				out[offset + filled++] = card;
+			}
+		}
+		return filled;
+	}
+
+	/**
+	 * Where the sequence goes on from; save it to resume after a restart.
+	 */
+	public long nextSequence() {
+		return nextSeq.get();
+	}
+
+	public long remaining() {
+		return ACCOUNT_NUMBERS - nextSequence();
+	}
+
+	/**
+	 * Numbers skipped because they were already taken elsewhere.
+	 */
+	public long skipped() {
+		return skipped.sum();
+	}
+
+	/**
+	 * A random 4 digit PIN from a SecureRandom, never one of the easily guessed
+	 * ones (all digits the same, or a run up or down like 1234).
+	 */
+	public static char[] newPin() {
+		SecureRandom random = PIN_RANDOM.get();
+		char[] pin = new char[4];
+		do {
+			int value = random.nextInt(10_000);
+			for (int i = 3; i >= 0; i--) {
+				pin[i] = (char) ('0' + value % 10);
+				value /= 10;
+			}
+		} while (isWeak(pin));
+		return pin;
+	}
+
+	static boolean isWeak(char[] pin) {
+		for (char[] weak : WEAK_PINS) {
+			if (Arrays.equals(weak, pin)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static char[][] weakPins() {
+		char[][] pins = new char[30][];
+		int n = 0;
+		for (int first = 0; first <= 9; first++) {
+			char[] same = new char[4];
+			char[] up = new char[4];
+			char[] down = new char[4];
+			for (int i = 0; i < 4; i++) {
+				same[i] = (char) ('0' + first);
+				up[i] = (char) ('0' + (first + i) % 10);
+				down[i] = (char) ('0' + (first - i + 10) % 10);
+			}
+			pins[n++] = same;
+			pins[n++] = up;
+			pins[n++] = down;
+		}
+		return pins;
+	}
+
+	/**
+	 * Checks the permutation and uniqueness, then bulk issuing on all cores with a
+	 * million legacy card numbers to keep away from.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		// A small permutation has to hit every value exactly once
+		int small = 1_000_003;
+		CardPermutation permutation = new CardPermutation(small, 42);
+		BitSet seen = new BitSet(small);
+		for (int i = 0; i < small; i++) {
+			seen.set((int) permutation.permute(i));
+		}
+		System.out.println("Permutation of " + small + " values is one to one: " + (seen.cardinality() == small));
+
+		// Legacy numbers: a million made-up Luhn-valid cards of the same IIN
+		SplittableRandom random = new SplittableRandom(7);
+		long[] legacyCards = new long[1_000_000];
+		for (int i = 0; i < legacyCards.length; i++) {
+			legacyCards[i] = Luhn.withCheckDigit(DEFAULT_IIN * ACCOUNT_NUMBERS + random.nextLong(ACCOUNT_NUMBERS));
+		}
+		Arrays.sort(legacyCards);
+		BloomFilter legacy = new BloomFilter(legacyCards.length, 0.01);
+		for (long card : legacyCards) {
+			legacy.add(card);
+		}
+		System.out.printf("Legacy filter: %,d cards in %,d bytes%n", legacy.added(), legacy.memoryUsage());
+
+		// Ten million cards in one go: all valid, all unique, none of them legacy
+		CardIssuer issuer = new CardIssuer(DEFAULT_IIN, 0x5EED_CAFEL, 0)
+				.guard(legacy, card -> Arrays.binarySearch(legacyCards, card) >= 0);
+		long[] cards = new long[10_000_000];
+		issuer.issue(cards, 0, cards.length);
+		boolean valid = true;
+		boolean clashes = false;
+		for (long card : cards) {
+			valid &= Luhn.isValid(card) && card / (10 * ACCOUNT_NUMBERS) == DEFAULT_IIN;
+			clashes |= Arrays.binarySearch(legacyCards, card) >= 0;
+		}
+		Arrays.sort(cards);
+		int duplicates = 0;
+		for (int i = 1; i < cards.length; i++) {
+			if (cards[i] == cards[i - 1]) {
+				duplicates++;
+			}
+		}
+		System.out.printf("%,d cards: Luhn valid %b, %d duplicates, legacy clashes %b, %,d legacy numbers skipped%n",
+				cards.length, valid, duplicates, clashes, issuer.skipped());
+		cards = null;
+
+		// The end of the IIN: a batch gets what is left, and nothing is claimed past it
+		CardIssuer nearlyFull = sequential(DEFAULT_IIN, ACCOUNT_NUMBERS - 10);
+		int last = nearlyFull.issue(new long[25], 0, 25);
+		System.out.printf("Near the end: %d of 25 issued, %d left, next sequence %,d%n", last, nearlyFull.remaining(),
+				nearlyFull.nextSequence());
+
+		// Bulk onboarding speed, in batches of 4096
+		LongAdder issued = new LongAdder();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(() -> {
+				long[] batch = new long[4096];
+				while (System.nanoTime() < deadline) {
+					issued.add(issuer.issue(batch, 0, batch.length));
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		System.out.printf("%d threads: %,.0f cards/s%n", threads, issued.sum() / (double) seconds);
+
+		long start = System.nanoTime();
+		int pins = 100_000;
+		for (int i = 0; i < pins; i++) {
+			newPin();
+		}
+		System.out.printf("PINs: %,.0f/s on one thread, e.g. %s%n", pins / ((System.nanoTime() - start) / 1e9),
+				new String(newPin()));
+	}
+}
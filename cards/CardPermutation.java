@@ -0,0 +1,76 @@
+package cards;
+
+/**
+ * A keyed, format-preserving permutation of the numbers 0 .. size-1: every number
+ * maps to exactly one other number in the same range, and without the key the
+ * order looks random. The card issuer runs its sequence numbers through it so that
+ * cards issued one after the other don't get neighbouring numbers.
+ *
+ * It is a balanced Feistel network over the smallest even power of two that
+ * covers the range. A result outside the range is put through again (cycle
+ * walking) until it lands inside. The network is a permutation of the power of
+ * two, so this is a permutation of the range, and as the power of two is less
+ * than four times the range, a couple of rounds through are enough on average.
+ *
+ * This hides the issuing order; it is not meant to protect anything secret.
+ */
+public final class CardPermutation {
+
+	private static final int ROUNDS = 8;
+
+	private final long size;
+	private final int halfBits;
+	private final long halfMask;
+	private final long[] roundKeys = new long[ROUNDS];
+
+	/**
+	 * @param size number of values, at least 2 and below 2^62
+	 * @param key  picks the permutation
+	 */
+	public CardPermutation(long size, long key) {
+		if (size < 2 || size > 1L << 62) {
+			throw new IllegalArgumentException("Size must be between 2 and 2^62");
+		}
+		int bits = 64 - Long.numberOfLeadingZeros(size - 1);
+		this.size = size;
+		this.halfBits = (bits + 1) / 2;
+		this.halfMask = (1L << halfBits) - 1;
+		long state = key;
+		for (int i = 0; i < ROUNDS; i++) {
+			state += 0x9E3779B97F4A7C15L;
+			roundKeys[i] = mix(state);
+		}
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public long permute(long value) {
+		if (value < 0 || value >= size) {
+			throw new IllegalArgumentException("Value " + value + " out of range");
+		}
+		do {
+			value = feistel(value);
+		} while (value >= size);
+		return value;
+	}
+
+	private long feistel(long value) {
+		long left = value >>> halfBits;
+		long right = value & halfMask;
+		for (int i = 0; i < ROUNDS; i++) {
+			long next = left ^ (mix(right ^ roundKeys[i]) & halfMask);
+			left = right;
+			right = next;
+		}
+		return (left << halfBits) | right;
+	}
+
+	// SplitMix64's finalizer
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,42 @@
+package cards;
+
+/**
+ * The Luhn check digit that card numbers end with, on numbers held as longs.
+ */
+public final class Luhn {
+
+	private Luhn() {
+	}
+
+	/**
+	 * The digit to append to {@code payload} to make it a valid number.
+	 */
+	public static int checkDigit(long payload) {
+		// The rightmost payload digit ends up second from the right, so it is doubled
+		int sum = 0;
+		boolean doubled = true;
+		for (long rest = payload; rest > 0; rest /= 10) {
+			int digit = (int) (rest % 10);
+			if (doubled) {
+				digit *= 2;
+				if (digit > 9) {
+					digit -= 9;
+				}
+			}
+			sum += digit;
+			doubled = !doubled;
+		}
+		return (10 - sum % 10) % 10;
+	}
+
+	/**
+	 * The payload with its check digit appended.
+	 */
+	public static long withCheckDigit(long payload) {
+		return payload * 10 + checkDigit(payload);
+	}
+
+	public static boolean isValid(long number) {
+		return number > 0 && checkDigit(number / 10) == number % 10;
+	}
+}
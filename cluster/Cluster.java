@@ -0,0 +1,223 @@
+package cluster;
+
+import java.io.Closeable;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import ledger.AccountStore;
+import ledger.Ledger;
+import ledger.TransferResult;
+
+/**
+ * A ledger split over several shards, by a hash of the card number, so that more
+ * accounts fit than one JVM can hold and more transfers get done than one ledger
+ * can do.
+ *
+ * This class is the gateway that clients use. It sends each transfer to the payer's
+ * shard and completes the caller's future when that shard answers. The shards
+ * themselves are {@link ShardNode}s and only talk to each other through the
+ * {@link Transport}. The gateway is a node on the transport too, with the id after
+ * the last shard.
+ *
+ * Opening accounts and reading balances go to the shard's ledger directly. They
+ * stand in for the admin tools, which would have their own way in.
+ */
+public class Cluster implements Closeable {
+
+	private final ShardNode[] shards;
+	private final Transport transport;
+	private final int gateway;
+	private final AtomicLong nextId = new AtomicLong();
+	private final ConcurrentHashMap<Long, CompletableFuture<TransferResult>> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * @param ledgers one ledger per shard, empty or holding the accounts of that shard
+	 */
+	public Cluster(Ledger[] ledgers, Transport transport) {
+		this.transport = transport;
+		this.shards = new ShardNode[ledgers.length];
+		for (int i = 0; i < ledgers.length; i++) {
+			shards[i] = new ShardNode(i, ledgers.length, ledgers[i], transport);
+		}
+		this.gateway = ledgers.length;
+		transport.register(gateway, this::result);
+	}
+
+	/**
+	 * A cluster of ledgers that only live in memory, on a {@link LoopbackTransport}.
+	 */
+	public static Cluster inMemory(int shardCount, int accountsPerShard) {
+		Ledger[] ledgers = new Ledger[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			ledgers[i] = new Ledger(new AccountStore(accountsPerShard));
+		}
+		return new Cluster(ledgers, new LoopbackTransport());
+	}
+
+	/**
+	 * The shard a card belongs to. Card numbers are handed out in sequence, so they
+	 * are mixed first to spread them evenly.
+	 */
+	public static int shardOf(long card, int shardCount) {
+		long h = card * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 31;
+		return (int) Math.floorMod(h, (long) shardCount);
+	}
+
+	public int shardOf(long card) {
+		return shardOf(card, shards.length);
+	}
+
+	public int shardCount() {
+		return shards.length;
+	}
+
+	public ShardNode shard(int shard) {
+		return shards[shard];
+	}
+
+	public void openAccount(long card, long openingBalance) {
+		shards[shardOf(card)].ledger().openAccount(card, openingBalance, 0);
+	}
+
+	/**
+	 * @return the balance, or -1 for an unknown card
+	 */
+	public long balance(long card) {
+		Ledger ledger = shards[shardOf(card)].ledger();
+		int account = ledger.accountOf(card);
+		return account < 0 ? -1 : ledger.balance(account);
+	}
+
+	/**
+	 * Starts a transfer. The future completes on the gateway's transport thread,
+	 * once the payer's shard has an answer.
+	 */
+	public CompletableFuture<TransferResult> transfer(long fromCard, long toCard, long amount) {
+		if (fromCard == toCard) {
+			return CompletableFuture.completedFuture(TransferResult.SAME_ACCOUNT);
+		}
+		if (amount <= 0) {
+			return CompletableFuture.completedFuture(TransferResult.INVALID_AMOUNT);
+		}
+		long id = nextId.incrementAndGet();
+		CompletableFuture<TransferResult> future = new CompletableFuture<>();
+		pending.put(id, future);
+		transport.send(shardOf(fromCard), new Message(Message.TRANSFER, id, gateway, fromCard, toCard, amount, 0));
+		return future;
+	}
+
+	private void result(Message message) {
+		CompletableFuture<TransferResult> future = pending.remove(message.id);
+		if (future == null) {
+			return;
+		}
+		if (message.result == Message.FAILED) {
+			future.completeExceptionally(new IllegalStateException("Shard " + message.sender + " failed on transfer "
+					+ message.id + ", see its log"));
+		} else {
+			future.complete(TransferResult.values()[message.result]);
+		}
+	}
+
+	/**
+	 * Sum of all balances plus the money in transit between shards.
+	 */
+	public long totalBalance() {
+		long total = 0;
+		for (ShardNode shard : shards) {
+			total += shard.ledger().totalBalance() + shard.inTransit();
+		}
+		return total;
+	}
+
+	@Override
+	public void close() {
+		transport.close();
+	}
+
+	/**
+	 * Throughput at 1, 2, 4 and 8 shards for mostly local transfers: a payee on the
+	 * payer's own shard nine times out of ten.
+	 */
+	public static void main(String[] args) throws Exception {
+		int accountsPerShard = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		double localShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.9;
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores");
+		double single = 0;
+		for (int shardCount : new int[] { 1, 2, 4, 8 }) {
+			Cluster cluster = inMemory(shardCount, accountsPerShard);
+			long[][] cards = new long[shardCount][accountsPerShard];
+			int[] filled = new int[shardCount];
+			for (long card = 4_000_0000_0000_0000L; min(filled) < accountsPerShard; card++) {
+				int shard = cluster.shardOf(card);
+				if (filled[shard] < accountsPerShard) {
+					cards[shard][filled[shard]++] = card;
+					cluster.openAccount(card, 1_000_00);
+				}
+			}
+			long before = cluster.totalBalance();
+
+			// One client per shard, each with up to 1024 transfers in flight
+			LongAdder done = new LongAdder();
+			LongAdder refused = new LongAdder();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+			Thread[] clients = new Thread[shardCount];
+			for (int c = 0; c < shardCount; c++) {
+				int seed = c;
+				clients[c] = new Thread(() -> {
+					SplittableRandom random = new SplittableRandom(seed);
+					Semaphore window = new Semaphore(1024);
+					while (System.nanoTime() < deadline) {
+						window.acquireUninterruptibly();
+						int shard = random.nextInt(shardCount);
+						int toShard = shardCount == 1 || random.nextDouble() < localShare ? shard
+								: (shard + 1 + random.nextInt(shardCount - 1)) % shardCount;
+						long from = cards[shard][random.nextInt(accountsPerShard)];
+						long to = cards[toShard][random.nextInt(accountsPerShard)];
+						cluster.transfer(from, to, 1 + random.nextInt(100_00)).thenAccept(result -> {
+							done.increment();
+							if (!result.isOk()) {
+								refused.increment();
+							}
+							window.release();
+						});
+					}
+					window.acquireUninterruptibly(1024);
+				});
+				clients[c].start();
+			}
+			for (Thread client : clients) {
+				client.join();
+			}
+			long local = 0;
+			long cross = 0;
+			for (int i = 0; i < shardCount; i++) {
+				local += cluster.shard(i).localTransfers();
+				cross += cluster.shard(i).crossShardTransfers();
+			}
+			double rate = done.sum() / (double) seconds;
+			if (shardCount == 1) {
+				single = rate;
+			}
+			System.out.printf("%d shards: %,10.0f transfers/s (%.2fx), %,d local, %,d cross-shard, %,d refused,"
+					+ " money conserved: %b%n", shardCount, rate, rate / single, local, cross, refused.sum(),
+					before == cluster.totalBalance());
+			cluster.close();
+		}
+	}
+
+	private static int min(int[] values) {
+		int min = Integer.MAX_VALUE;
+		for (int value : values) {
+			min = Math.min(min, value);
+		}
+		return min;
+	}
+}
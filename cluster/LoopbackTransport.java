@@ -0,0 +1,106 @@
+package cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A transport for a whole cluster inside one JVM, for testing and benchmarking on
+ * one machine. Every node gets a mailbox and a thread ("node-N") that takes
+ * messages off it in batches and hands them to the node's handler. Sending is
+ * putting the message into the mailbox; nothing is copied or serialized.
+ *
+ * Mailboxes are unbounded. Two shards that credit each other at the same time
+ * would deadlock on bounded ones, so back pressure belongs to the clients, which
+ * limit how many transfers they have in flight.
+ */
+public class LoopbackTransport implements Transport {
+
+	private static final int BATCH = 256;
+	private static final Message STOP = new Message(0, 0, 0, 0, 0, 0, 0);
+
+	private final Map<Integer, LinkedBlockingQueue<Message>> mailboxes = new ConcurrentHashMap<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private final LongAdder sent = new LongAdder();
+
+	@Override
+	public synchronized void register(int node, MessageHandler handler) {
+		LinkedBlockingQueue<Message> mailbox = new LinkedBlockingQueue<>();
+		if (mailboxes.putIfAbsent(node, mailbox) != null) {
+			throw new IllegalStateException("Node " + node + " is already registered");
+		}
+		Thread thread = new Thread(() -> deliver(mailbox, handler), "node-" + node);
+		thread.setDaemon(true);
+		thread.start();
+		threads.add(thread);
+	}
+
+	@Override
+	public void send(int node, Message message) {
+		LinkedBlockingQueue<Message> mailbox = mailboxes.get(node);
+		if (mailbox == null) {
+			throw new IllegalArgumentException("No node " + node);
+		}
+		sent.increment();
+		mailbox.add(message);
+	}
+
+	private void deliver(LinkedBlockingQueue<Message> mailbox, MessageHandler handler) {
+		List<Message> batch = new ArrayList<>(BATCH);
+		try {
+			while (true) {
+				batch.add(mailbox.take());
+				mailbox.drainTo(batch, BATCH - 1);
+				for (Message message : batch) {
+					if (message == STOP) {
+						return;
+					}
+					try {
+						handler.onMessage(message);
+					} catch (RuntimeException e) {
+						// one bad message must not stop the node for all the others
+						System.err.println(Thread.currentThread().getName() + " failed on " + message + ": " + e);
+					}
+				}
+				try {
+					handler.batchDone();
+				} catch (RuntimeException e) {
+					System.err.println(Thread.currentThread().getName() + " failed to finish a batch: " + e);
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Messages sent so far, over all nodes.
+	 */
+	public long sent() {
+		return sent.sum();
+	}
+
+	/**
+	 * Delivers what the mailboxes already hold and stops the node threads.
+	 */
+	@Override
+	public synchronized void close() {
+		for (LinkedBlockingQueue<Message> mailbox : mailboxes.values()) {
+			mailbox.add(STOP);
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		threads.clear();
+		mailboxes.clear();
+	}
+}
@@ -0,0 +1,54 @@
+package cluster;
+
+/**
+ * What the nodes of a cluster send each other. One class for every kind, so a
+ * transport only has to know how to carry this.
+ */
+public final class Message {
+
+	/** Client to the payer's shard: start a transfer. */
+	public static final int TRANSFER = 1;
+	/** Payer's shard to the payee's: credit the amount already taken from the payer. */
+	public static final int CREDIT = 2;
+	/** Payee's shard back to the payer's: the outcome of a credit. */
+	public static final int CREDITED = 3;
+	/** Payer's shard back to the client: the outcome of the transfer. */
+	public static final int RESULT = 4;
+
+	/**
+	 * The result of a CREDITED or RESULT whose request made the node throw, in place
+	 * of a {@code TransferResult}. The node changed nothing for the request.
+	 */
+	public static final int FAILED = -1;
+
+	public final int type;
+	public final long id;
+	public final int sender;
+	public final long cardA;
+	public final long cardB;
+	public final long amount;
+	public final int result;
+
+	/**
+	 * @param id     the transfer's id, which every message of the transfer carries
+	 * @param sender node to reply to
+	 * @param cardA  payer card
+	 * @param cardB  payee card
+	 * @param result ordinal of a {@code TransferResult}, for replies
+	 */
+	public Message(int type, long id, int sender, long cardA, long cardB, long amount, int result) {
+		this.type = type;
+		this.id = id;
+		this.sender = sender;
+		this.cardA = cardA;
+		this.cardB = cardB;
+		this.amount = amount;
+		this.result = result;
+	}
+
+	@Override
+	public String toString() {
+		return "Message[type=" + type + ", id=" + id + ", sender=" + sender + ", " + cardA + " -> " + cardB + ", "
+				+ amount + ", result=" + result + "]";
+	}
+}
@@ -0,0 +1,19 @@
+package cluster;
+
+/**
+ * A node's side of the transport. A transport delivers the messages for one node
+ * one at a time, in the order each sender sent them, so a handler needs no locks
+ * for its own state.
+ */
+@FunctionalInterface
+public interface MessageHandler {
+
+	void onMessage(Message message);
+
+	/**
+	 * Called after a batch of messages, before the node waits for more. A node that
+	 * journals can force the journal once here for the whole batch.
+	 */
+	default void batchDone() {
+	}
+}
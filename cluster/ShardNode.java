@@ -0,0 +1,231 @@
+package cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import ledger.Ledger;
+import ledger.TransferResult;
+
+/**
+ * One shard of a {@link Cluster}: a {@link Ledger} with the accounts whose card
+ * numbers hash to this shard, served on the node's transport thread.
+ *
+ * A transfer between two accounts of the shard is an ordinary ledger transfer. A
+ * transfer to another shard is a saga that this shard, the payer's, coordinates:
+ * <ol>
+ * <li>take the amount from the payer (a withdrawal here) and send CREDIT;</li>
+ * <li>the payee's shard deposits it and answers CREDITED with its result;</li>
+ * <li>if that failed, because the payee's card is unknown or frozen, give the money
+ * back to the payer (the compensation). Then answer the client.</li>
+ * </ol>
+ * Until the payee's shard has answered, the money is in transit. It shows in
+ * {@link #inTransit()} and in neither balance. With a journal, replies go out only
+ * after the batch that produced them is on disk, so a shard never promises
+ * something it could lose in a crash. Sagas still in progress are kept in memory,
+ * so a crashed shard forgets them.
+ *
+ * A message the ledger throws on is logged and answered with {@link Message#FAILED},
+ * which fails the client's future; the shard goes on serving the next one.
+ */
+public class ShardNode implements MessageHandler {
+
+	private final int id;
+	private final int shardCount;
+	private final Ledger ledger;
+	private final Transport transport;
+
+	// Node thread only
+	private final Map<Long, Saga> sagas = new HashMap<>();
+	private final List<Message> outbox = new ArrayList<>();
+	private final List<Integer> outboxTargets = new ArrayList<>();
+
+	private final LongAdder local = new LongAdder();
+	private final LongAdder crossShard = new LongAdder();
+	private final LongAdder compensated = new LongAdder();
+	private final LongAdder inTransit = new LongAdder();
+
+	private static final class Saga {
+		final int account;
+		final long amount;
+		final int client;
+
+		Saga(int account, long amount, int client) {
+			this.account = account;
+			this.amount = amount;
+			this.client = client;
+		}
+	}
+
+	/**
+	 * @param ledger the shard's own ledger; with a journal it is switched to one
+	 *               fsync per batch of messages
+	 */
+	public ShardNode(int id, int shardCount, Ledger ledger, Transport transport) {
+		this.id = id;
+		this.shardCount = shardCount;
+		this.ledger = ledger;
+		this.transport = transport;
+		ledger.setSyncCommit(false);
+		transport.register(id, this);
+	}
+
+	@Override
+	public void onMessage(Message message) {
+		try {
+			handle(message);
+		} catch (RuntimeException e) {
+			failed(message, e);
+		}
+	}
+
+	private void handle(Message message) {
+		switch (message.type) {
+		case Message.TRANSFER:
+			transfer(message);
+			break;
+		case Message.CREDIT:
+			int to = ledger.accountOf(message.cardB);
+			TransferResult credited = to < 0 ? TransferResult.UNKNOWN_ACCOUNT : ledger.deposit(to, message.amount);
+			reply(message.sender, Message.CREDITED, message, credited.ordinal());
+			break;
+		case Message.CREDITED:
+			Saga saga = sagas.get(message.id);
+			if (saga == null) {
+				System.err.println("Shard " + id + ": no transfer is waiting for " + message);
+				break;
+			}
+			if (message.result != TransferResult.OK.ordinal()) {
+				ledger.refund(saga.account, saga.amount);
+				compensated.increment();
+			}
+			sagas.remove(message.id);
+			inTransit.add(-saga.amount);
+			reply(saga.client, Message.RESULT, message, message.result);
+			break;
+		default:
+			throw new IllegalArgumentException("Unexpected " + message);
+		}
+	}
+
+	// A message the ledger threw on (a journal that can't be written, a balance that
+	// would overflow) changed nothing; whoever waits for it is told so, and the node
+	// goes on with the next message
+	private void failed(Message message, RuntimeException e) {
+		System.err.println("Shard " + id + " failed on " + message + ": " + e);
+		switch (message.type) {
+		case Message.TRANSFER:
+			reply(message.sender, Message.RESULT, message, Message.FAILED);
+			break;
+		case Message.CREDIT:
+			// the payer's shard gives the money back
+			reply(message.sender, Message.CREDITED, message, Message.FAILED);
+			break;
+		case Message.CREDITED:
+			// the refund failed, so the money stays in transit
+			Saga saga = sagas.remove(message.id);
+			if (saga != null) {
+				reply(saga.client, Message.RESULT, message, Message.FAILED);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void transfer(Message message) {
+		int from = ledger.accountOf(message.cardA);
+		if (from < 0) {
+			reply(message.sender, Message.RESULT, message, TransferResult.UNKNOWN_ACCOUNT.ordinal());
+			return;
+		}
+		int toShard = Cluster.shardOf(message.cardB, shardCount);
+		if (toShard == id) {
+			int to = ledger.accountOf(message.cardB);
+			TransferResult result = to < 0 ? TransferResult.UNKNOWN_ACCOUNT
+					: ledger.transfer(from, to, message.amount);
+			local.increment();
+			reply(message.sender, Message.RESULT, message, result.ordinal());
+			return;
+		}
+		TransferResult taken = ledger.withdraw(from, message.amount);
+		if (!taken.isOk()) {
+			reply(message.sender, Message.RESULT, message, taken.ordinal());
+			return;
+		}
+		crossShard.increment();
+		inTransit.add(message.amount);
+		sagas.put(message.id, new Saga(from, message.amount, message.sender));
+		outboxTargets.add(toShard);
+		outbox.add(new Message(Message.CREDIT, message.id, id, message.cardA, message.cardB, message.amount, 0));
+	}
+
+	// result is a TransferResult's ordinal or Message.FAILED
+	private void reply(int node, int type, Message request, int result) {
+		outboxTargets.add(node);
+		outbox.add(new Message(type, request.id, id, request.cardA, request.cardB, request.amount, result));
+	}
+
+	@Override
+	public void batchDone() {
+		if (outbox.isEmpty()) {
+			return;
+		}
+		boolean durable = true;
+		try {
+			ledger.flush();
+		} catch (RuntimeException e) {
+			System.err.println("Shard " + id + " could not force its journal: " + e);
+			durable = false;
+		}
+		for (int i = 0; i < outbox.size(); i++) {
+			Message message = outbox.get(i);
+			if (!durable && message.type == Message.RESULT) {
+				// the client can't be promised an outcome that may not survive a crash
+				message = new Message(Message.RESULT, message.id, id, message.cardA, message.cardB, message.amount,
+						Message.FAILED);
+			}
+			transport.send(outboxTargets.get(i), message);
+		}
+		outbox.clear();
+		outboxTargets.clear();
+	}
+
+	public int id() {
+		return id;
+	}
+
+	public Ledger ledger() {
+		return ledger;
+	}
+
+	/**
+	 * Transfers that stayed on this shard.
+	 */
+	public long localTransfers() {
+		return local.sum();
+	}
+
+	/**
+	 * Transfers this shard started towards another one.
+	 */
+	public long crossShardTransfers() {
+		return crossShard.sum();
+	}
+
+	/**
+	 * Cross-shard transfers that the payee's shard refused and that were paid back.
+	 */
+	public long compensated() {
+		return compensated.sum();
+	}
+
+	/**
+	 * Money taken from payers here that the payee's shard hasn't confirmed yet.
+	 */
+	public long inTransit() {
+		return inTransit.sum();
+	}
+}
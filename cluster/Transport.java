@@ -0,0 +1,25 @@
+package cluster;
+
+import java.io.Closeable;
+
+/**
+ * How the nodes of a cluster reach each other. {@link LoopbackTransport} runs every
+ * node in one JVM; one that goes over sockets only has to implement these two
+ * methods and carry {@link Message}s.
+ */
+public interface Transport extends Closeable {
+
+	/**
+	 * Makes a node reachable. Messages for it go to the handler.
+	 */
+	void register(int node, MessageHandler handler);
+
+	/**
+	 * Sends a message on its way and returns; it is delivered later, on the
+	 * receiving node's thread.
+	 */
+	void send(int node, Message message);
+
+	@Override
+	void close();
+}
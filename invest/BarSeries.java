@@ -0,0 +1,153 @@
+package invest;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * OHLCV bars of one symbol at one resolution, kept as fixed-size records in a
+ * memory-mapped file: time, open, high, low, close, volume. Bars are only written for
+ * periods that had trades. The last bar is updated in place while its period is
+ * still running, so the series is always up to date without a separate rollup job.
+ *
+ * Fixed records keep the time column searchable: a query finds its first bar with a
+ * binary search and then reads sequentially. Not thread-safe; {@link CandleStore}
+ * locks around it.
+ */
+final class BarSeries {
+
+	private static final int RECORD_SIZE = 6 * 8;
+	private static final int RECORDS_PER_CHUNK = 1 << 16; // 3 MB mappings
+	private static final long MAGIC = 0x4241_5253_0000_0001L; // "BARS" v1
+
+	private final long resolution;
+	private final MappedChunks file;
+	// Record 0 is the header (magic, bar count), bars start at record 1
+	private long count;
+
+	// The last bar, also cached here so updating it needs no reads
+	private long time = Long.MIN_VALUE;
+	private long open;
+	private long high;
+	private long low;
+	private long close;
+	private long volume;
+
+	BarSeries(Path path, long resolution) throws IOException {
+		this.resolution = resolution;
+		this.file = new MappedChunks(path, RECORDS_PER_CHUNK * RECORD_SIZE);
+		MappedByteBuffer header = file.chunk(0);
+		if (header.getLong(0) == MAGIC) {
+			count = header.getLong(8);
+		} else {
+			header.putLong(0, MAGIC);
+			header.putLong(8, 0);
+		}
+		if (count > 0) {
+			MappedByteBuffer buffer = chunkOf(count);
+			int at = offsetOf(count);
+			time = buffer.getLong(at);
+			open = buffer.getLong(at + 8);
+			high = buffer.getLong(at + 16);
+			low = buffer.getLong(at + 24);
+			close = buffer.getLong(at + 32);
+			volume = buffer.getLong(at + 40);
+		}
+	}
+
+	long resolution() {
+		return resolution;
+	}
+
+	/**
+	 * Adds a trade to the bar of its period, starting a new bar when the period has
+	 * moved on. A trade older than the last bar is counted in the last bar.
+	 */
+	void add(long tickTime, long price, long quantity) throws IOException {
+		long start = tickTime - Math.floorMod(tickTime, resolution);
+		if (count == 0 || start > time) {
+			count++;
+			time = start;
+			open = price;
+			high = price;
+			low = price;
+			close = price;
+			volume = quantity;
+			MappedByteBuffer buffer = chunkOf(count);
+			int at = offsetOf(count);
+			buffer.putLong(at, time);
+			buffer.putLong(at + 8, open);
+			buffer.putLong(at + 16, high);
+			buffer.putLong(at + 24, low);
+			buffer.putLong(at + 32, close);
+			buffer.putLong(at + 40, volume);
+			file.chunk(0).putLong(8, count);
+			return;
+		}
+		MappedByteBuffer buffer = chunkOf(count);
+		int at = offsetOf(count);
+		if (price > high) {
+			high = price;
+			buffer.putLong(at + 16, high);
+		} else if (price < low) {
+			low = price;
+			buffer.putLong(at + 24, low);
+		}
+		close = price;
+		volume += quantity;
+		buffer.putLong(at + 32, close);
+		buffer.putLong(at + 40, volume);
+	}
+
+	/**
+	 * Hands the bars starting in [from, to) to the visitor.
+	 *
+	 * @return how many bars were read
+	 */
+	int read(long from, long to, BarVisitor visitor) throws IOException {
+		// First bar with time >= from
+		long lo = 1;
+		long hi = count + 1;
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			if (chunkOf(mid).getLong(offsetOf(mid)) < from) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int read = 0;
+		for (long record = lo; record <= count; record++) {
+			MappedByteBuffer buffer = chunkOf(record);
+			int at = offsetOf(record);
+			long barTime = buffer.getLong(at);
+			if (barTime >= to) {
+				break;
+			}
+			visitor.bar(barTime, buffer.getLong(at + 8), buffer.getLong(at + 16), buffer.getLong(at + 24),
+					buffer.getLong(at + 32), buffer.getLong(at + 40));
+			read++;
+		}
+		return read;
+	}
+
+	long count() {
+		return count;
+	}
+
+	void force() {
+		file.force();
+	}
+
+	void close() throws IOException {
+		file.close();
+	}
+
+	private MappedByteBuffer chunkOf(long record) throws IOException {
+		return file.chunk((int) (record / RECORDS_PER_CHUNK));
+	}
+
+	private static int offsetOf(long record) {
+		return (int) (record % RECORDS_PER_CHUNK) * RECORD_SIZE;
+	}
+}
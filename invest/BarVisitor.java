@@ -0,0 +1,12 @@
+package invest;
+
+/**
+ * Receives OHLCV bars from a {@link CandleStore} query, as primitives so that
+ * drawing a chart allocates nothing. Prices are in cents, the time is the start of
+ * the bar in epoch milliseconds.
+ */
+@FunctionalInterface
+public interface BarVisitor {
+
+	void bar(long time, long open, long high, long low, long close, long volume);
+}
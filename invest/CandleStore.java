@@ -0,0 +1,258 @@
+package invest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import storage.Directories;
+
+/**
+ * Price history for the investing charts, one directory per market.
+ *
+ * Every trade is stored twice, both times in memory-mapped files:
+ *
+ * - as a raw tick in a compressed {@link TickColumn} (a few bytes per tick), and
+ * - in OHLCV bars at 1 s, 1 min, 1 h and 1 day ({@link BarSeries}), which are
+ *   updated as the trade arrives.
+ *
+ * A chart then reads bars at the finest resolution that still fits the number of
+ * points it can draw: a year of history is a few hundred day bars, whatever the
+ * number of ticks behind it.
+ *
+ * Recording is meant for one thread (the market engine, as a {@link TradeListener});
+ * queries may come from any thread. Each symbol has its own lock.
+ */
+public class CandleStore implements TradeListener {
+
+	public static final long SECOND = 1000;
+	public static final long MINUTE = 60 * SECOND;
+	public static final long HOUR = 60 * MINUTE;
+	public static final long DAY = 24 * HOUR;
+
+	private static final long[] RESOLUTIONS = { SECOND, MINUTE, HOUR, DAY };
+	private static final String[] RESOLUTION_NAMES = { "1s", "1m", "1h", "1d" };
+
+	private final String[] symbols;
+	private final Series[] series;
+
+	private static final class Series {
+		final TickColumn ticks;
+		final BarSeries[] bars = new BarSeries[RESOLUTIONS.length];
+
+		Series(Path dir, String symbol) throws IOException {
+			ticks = new TickColumn(dir.resolve(symbol + ".ticks"));
+			for (int r = 0; r < RESOLUTIONS.length; r++) {
+				bars[r] = new BarSeries(dir.resolve(symbol + "." + RESOLUTION_NAMES[r] + ".bars"), RESOLUTIONS[r]);
+			}
+		}
+	}
+
+	private CandleStore(String[] symbols, Series[] series) {
+		this.symbols = symbols;
+		this.series = series;
+	}
+
+	/**
+	 * Opens (or creates) the store in a directory. A symbol's number is its index in
+	 * {@code symbols}, the same numbering as the {@link MarketEngine}.
+	 */
+	public static CandleStore open(Path dir, String[] symbols) throws IOException {
+		Files.createDirectories(dir);
+		Series[] series = new Series[symbols.length];
+		for (int s = 0; s < symbols.length; s++) {
+			series[s] = new Series(dir, symbols[s]);
+		}
+		return new CandleStore(symbols.clone(), series);
+	}
+
+	/**
+	 * Records a trade from the market engine at the current time.
+	 */
+	@Override
+	public void trade(int symbol, long price, long quantity, long takerId, long makerId, int takerSide) {
+		try {
+			record(symbol, System.currentTimeMillis(), price, quantity);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Records a trade: appends the tick and rolls it into every bar resolution.
+	 */
+	public void record(int symbol, long time, long price, long quantity) throws IOException {
+		Series s = series[symbol];
+		synchronized (s) {
+			s.ticks.append(time, price, quantity);
+			for (BarSeries bars : s.bars) {
+				bars.add(time, price, quantity);
+			}
+		}
+	}
+
+	/**
+	 * Reads the bars of one resolution that start in [from, to).
+	 *
+	 * @param resolution one of {@link #SECOND}, {@link #MINUTE}, {@link #HOUR} or
+	 *                   {@link #DAY}
+	 * @return how many bars were read
+	 */
+	public int bars(int symbol, long resolution, long from, long to, BarVisitor visitor) throws IOException {
+		for (int r = 0; r < RESOLUTIONS.length; r++) {
+			if (RESOLUTIONS[r] == resolution) {
+				Series s = series[symbol];
+				synchronized (s) {
+					return s.bars[r].read(from, to, visitor);
+				}
+			}
+		}
+		throw new IllegalArgumentException("No bars at " + resolution + " ms");
+	}
+
+	/**
+	 * The resolution a chart of [from, to) with room for maxBars points should use:
+	 * the finest one that fits, or days if none does.
+	 */
+	public static long resolutionFor(long from, long to, int maxBars) {
+		for (long resolution : RESOLUTIONS) {
+			if ((to - from) / resolution <= maxBars) {
+				return resolution;
+			}
+		}
+		return DAY;
+	}
+
+	/**
+	 * Reads a chart: the bars of [from, to) at {@link #resolutionFor the right
+	 * resolution} for maxBars points.
+	 *
+	 * @return how many bars were read
+	 */
+	public int chart(int symbol, long from, long to, int maxBars, BarVisitor visitor) throws IOException {
+		return bars(symbol, resolutionFor(from, to, maxBars), from, to, visitor);
+	}
+
+	/**
+	 * Reads the raw ticks of [from, to), for the trade list and for checking bars.
+	 *
+	 * @return the number of ticks decoded to find them
+	 */
+	public long ticks(int symbol, long from, long to, TickVisitor visitor) throws IOException {
+		Series s = series[symbol];
+		synchronized (s) {
+			return s.ticks.read(from, to, visitor);
+		}
+	}
+
+	public long tickCount(int symbol) {
+		Series s = series[symbol];
+		synchronized (s) {
+			return s.ticks.ticks();
+		}
+	}
+
+	public long tickBytes(int symbol) {
+		Series s = series[symbol];
+		synchronized (s) {
+			return s.ticks.bytesUsed();
+		}
+	}
+
+	public long barCount(int symbol, long resolution) {
+		Series s = series[symbol];
+		synchronized (s) {
+			for (BarSeries bars : s.bars) {
+				if (bars.resolution() == resolution) {
+					return bars.count();
+				}
+			}
+		}
+		return 0;
+	}
+
+	public String symbol(int symbol) {
+		return symbols[symbol];
+	}
+
+	/**
+	 * Forces everything written so far to disk.
+	 */
+	public void flush() {
+		for (Series s : series) {
+			synchronized (s) {
+				s.ticks.force();
+				for (BarSeries bars : s.bars) {
+					bars.force();
+				}
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		for (Series s : series) {
+			synchronized (s) {
+				s.ticks.close();
+				for (BarSeries bars : s.bars) {
+					bars.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a year of simulated trades for one symbol, then compares drawing a
+	 * one-year chart from bars with scanning the ticks.
+	 */
+	public static void main(String[] args) throws IOException {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+		Path dir = Files.createTempDirectory("candles");
+		try {
+			CandleStore store = open(dir, StockMarket.SYMBOLS);
+			SplittableRandom random = new SplittableRandom(5);
+			long yearStart = 1_704_067_200_000L; // 2024-01-01 UTC
+			long step = 365 * DAY / ticks;
+			long time = yearStart;
+			long price = StockMarket.REFERENCE_PRICES[0];
+
+			long start = System.nanoTime();
+			for (int i = 0; i < ticks; i++) {
+				time += random.nextLong(2 * step + 1);
+				price = Math.max(1, price + random.nextInt(5) - 2);
+				store.record(0, time, price, 1 + random.nextInt(500));
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Recorded %,d ticks in %.2f s (%,.0f ticks/s), %.1f bytes per tick (24 raw)%n", ticks,
+					seconds, ticks / seconds, store.tickBytes(0) / (double) ticks);
+			System.out.printf("Bars: %,d 1s, %,d 1m, %,d 1h, %,d 1d%n", store.barCount(0, SECOND),
+					store.barCount(0, MINUTE), store.barCount(0, HOUR), store.barCount(0, DAY));
+
+			long[] last = new long[2];
+			BarVisitor keepClose = (barTime, open, high, low, close, volume) -> last[0] = close;
+			start = System.nanoTime();
+			int bars = store.chart(0, yearStart, yearStart + 365 * DAY, 1000, keepClose);
+			System.out.printf("One-year chart: %,d bars in %.2f ms, last close %.2f%n", bars,
+					(System.nanoTime() - start) / 1e6, last[0] / 100.0);
+			start = System.nanoTime();
+			bars = store.chart(0, yearStart + 180 * DAY, yearStart + 210 * DAY, 1000, keepClose);
+			System.out.printf("One-month chart: %,d bars in %.2f ms%n", bars, (System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			long scanned = store.ticks(0, yearStart, yearStart + 365 * DAY, (tickTime, tickPrice, quantity) -> {
+				last[1] = tickPrice;
+			});
+			System.out.printf("Same year from raw ticks: %,d ticks in %.2f ms, last price %.2f%n", scanned,
+					(System.nanoTime() - start) / 1e6, last[1] / 100.0);
+			store.close();
+
+			// Reopen and carry on where it left off
+			store = open(dir, StockMarket.SYMBOLS);
+			store.record(0, time + 1, price, 1);
+			System.out.printf("Reopened: %,d ticks, %,d day bars%n", store.tickCount(0), store.barCount(0, DAY));
+			store.close();
+		} finally {
+			Directories.deleteRecursively(dir);
+		}
+	}
+}
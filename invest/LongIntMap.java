@@ -0,0 +1,116 @@
+package invest;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long keys to int values (linear probing, deletion
+ * by backward shifting so there are no tombstones). Used to find resting orders by
+ * id without boxing. Not thread-safe; the matching engine is its only user.
+ */
+final class LongIntMap {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	LongIntMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		mask = capacity - 1;
+	}
+
+	int get(long key) {
+		int slot = slotOf(key);
+		while (true) {
+			long existing = keys[slot];
+			if (existing == key) {
+				return values[slot];
+			}
+			if (existing == EMPTY) {
+				return -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return false if the key was already there (the value is left alone)
+	 */
+	boolean putIfAbsent(long key, int value) {
+		if (key == EMPTY) {
+			throw new IllegalArgumentException("Reserved key");
+		}
+		if (size * 2 >= keys.length) {
+			grow();
+		}
+		int slot = slotOf(key);
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return the removed value, or -1
+	 */
+	int remove(long key) {
+		int slot = slotOf(key);
+		while (keys[slot] != key) {
+			if (keys[slot] == EMPTY) {
+				return -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		int value = values[slot];
+		// Shift later entries of the same probe chain back into the gap
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (keys[next] != EMPTY) {
+			int home = slotOf(keys[next]);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[gap] = EMPTY;
+		size--;
+		return value;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		mask = keys.length - 1;
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				putIfAbsent(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	private int slotOf(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
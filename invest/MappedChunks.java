@@ -0,0 +1,51 @@
+package invest;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file mapped in fixed-size chunks that are mapped (and the file grown) on first
+ * use, so a file can grow past what one mapping holds and small series stay small.
+ */
+final class MappedChunks {
+
+	private final FileChannel channel;
+	private final int chunkSize;
+	private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+	MappedChunks(Path path, int chunkSize) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Number of whole chunks the file had when it was opened (or has grown to).
+	 */
+	int existingChunks() throws IOException {
+		return (int) (channel.size() / chunkSize);
+	}
+
+	MappedByteBuffer chunk(int index) throws IOException {
+		while (chunks.size() <= index) {
+			chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) chunks.size() * chunkSize, chunkSize));
+		}
+		return chunks.get(index);
+	}
+
+	void force() {
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+	}
+
+	void close() throws IOException {
+		force();
+		channel.close();
+	}
+}
@@ -0,0 +1,306 @@
+package invest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import metrics.LatencyHistogram;
+
+/**
+ * The market: one {@link OrderBook} per symbol and a single matching thread that
+ * owns all of them. Order events come in through an {@link OrderEventRing}, are
+ * matched in arrival order, and after every batch the best bid and ask of each
+ * symbol that changed are published:
+ *
+ * - to {@link TopOfBookListener}s, once per symbol per batch (conflated), and
+ * - to a table any thread can read without locking ({@link #readTopOfBook}), kept
+ *   consistent with a sequence lock: the engine makes a symbol's version odd while
+ *   it writes the prices and even again afterwards, and a reader retries if it saw
+ *   an odd or changed version.
+ *
+ * With one thread owning the books, matching needs no locks at all, and a batch of
+ * events costs one hand-off instead of one per event.
+ */
+public class MarketEngine implements OrderEventHandler {
+
+	public static final int DEFAULT_LEVELS = 1 << 15; // a band of 327.68 € at 1 cent ticks
+	public static final int DEFAULT_RING_CAPACITY = 1 << 16;
+
+	private static final int BATCH = 4096;
+	private static final int LATENCY_SAMPLE_MASK = 15; // time every 16th event
+
+	// Published top of book per symbol: version, bid, bid quantity, ask, ask quantity
+	private static final int TOP_FIELDS = 5;
+
+	private final String[] symbols;
+	private final OrderBook[] books;
+	private final OrderEventRing ring;
+	private final AtomicLongArray top;
+
+	// Engine thread only
+	private final long[] lastTop;
+	private final boolean[] touched;
+	private final int[] touchedSymbols;
+	private int touchedCount;
+	private long eventCount;
+	private long rejected;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private volatile TradeListener[] tradeListeners = new TradeListener[0];
+	private volatile TopOfBookListener[] topListeners = new TopOfBookListener[0];
+	private volatile long events;
+	private volatile boolean running;
+	private Thread engine;
+
+	/**
+	 * @param symbols         ticker symbols; a symbol's number is its index here
+	 * @param referencePrices a price per symbol in ticks, the band is centered on it
+	 */
+	public MarketEngine(String[] symbols, long[] referencePrices, int levels, int ringCapacity) {
+		this.symbols = symbols.clone();
+		this.books = new OrderBook[symbols.length];
+		TradeListener dispatcher = this::dispatchTrade;
+		for (int s = 0; s < symbols.length; s++) {
+			long minPrice = Math.max(1, referencePrices[s] - levels / 2);
+			books[s] = new OrderBook(s, minPrice, levels, dispatcher);
+		}
+		this.ring = new OrderEventRing(ringCapacity);
+		this.top = new AtomicLongArray(symbols.length * TOP_FIELDS);
+		this.lastTop = new long[symbols.length * 4];
+		this.touched = new boolean[symbols.length];
+		this.touchedSymbols = new int[symbols.length];
+	}
+
+	public MarketEngine(String[] symbols, long[] referencePrices) {
+		this(symbols, referencePrices, DEFAULT_LEVELS, DEFAULT_RING_CAPACITY);
+	}
+
+	/**
+	 * Where order events go in once the engine is {@link #start() started}. It has a
+	 * single producer side: use it from one feed thread.
+	 */
+	public OrderEventRing input() {
+		return ring;
+	}
+
+	public int symbolCount() {
+		return symbols.length;
+	}
+
+	public String symbol(int symbol) {
+		return symbols[symbol];
+	}
+
+	/**
+	 * @return the symbol's number, or -1
+	 */
+	public int symbolOf(String name) {
+		for (int s = 0; s < symbols.length; s++) {
+			if (symbols[s].equals(name)) {
+				return s;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The books themselves, for the feed's price bands. Only the engine thread may
+	 * touch a book while the engine runs.
+	 */
+	public OrderBook[] books() {
+		return books.clone();
+	}
+
+	public synchronized void addTradeListener(TradeListener listener) {
+		TradeListener[] next = Arrays.copyOf(tradeListeners, tradeListeners.length + 1);
+		next[tradeListeners.length] = listener;
+		tradeListeners = next;
+	}
+
+	public synchronized void addTopOfBookListener(TopOfBookListener listener) {
+		TopOfBookListener[] next = Arrays.copyOf(topListeners, topListeners.length + 1);
+		next[topListeners.length] = listener;
+		topListeners = next;
+	}
+
+	/**
+	 * Starts the matching thread, which then takes its events from {@link #input()}.
+	 */
+	public synchronized void start() {
+		if (engine != null) {
+			return;
+		}
+		running = true;
+		engine = new Thread(this::run, "market-engine");
+		engine.setDaemon(true);
+		engine.start();
+	}
+
+	public synchronized void stop() throws InterruptedException {
+		if (engine == null) {
+			return;
+		}
+		running = false;
+		engine.join();
+		engine = null;
+	}
+
+	private void run() {
+		int idle = 0;
+		while (running) {
+			int count = ring.drain(this, BATCH);
+			if (count > 0) {
+				publish();
+				idle = 0;
+			} else if (++idle < 100) {
+				Thread.onSpinWait();
+			} else if (idle < 200) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(50_000);
+			}
+		}
+		ring.drain(this, Integer.MAX_VALUE);
+		publish();
+	}
+
+	/**
+	 * Matches one event right away. This is what the engine thread does with each
+	 * event from the ring; call it directly only when the engine is not started, and
+	 * call {@link #publish()} after a batch.
+	 */
+	@Override
+	public void onEvent(int type, int symbol, int side, long orderId, long price, long quantity) {
+		if (symbol < 0 || symbol >= books.length) {
+			rejected++;
+			return;
+		}
+		OrderBook book = books[symbol];
+		boolean sampled = (eventCount++ & LATENCY_SAMPLE_MASK) == 0;
+		long start = sampled ? System.nanoTime() : 0;
+		switch (type) {
+		case LIMIT:
+			if (!book.limit(orderId, side, price, quantity)) {
+				rejected++;
+			}
+			break;
+		case MARKET:
+			book.market(orderId, side, quantity);
+			break;
+		case CANCEL:
+			book.cancel(orderId);
+			break;
+		default:
+			rejected++;
+			return;
+		}
+		if (sampled) {
+			latency.record(System.nanoTime() - start);
+		}
+		if (!touched[symbol]) {
+			touched[symbol] = true;
+			touchedSymbols[touchedCount++] = symbol;
+		}
+	}
+
+	/**
+	 * Publishes the top of book of every symbol that had events since the last call
+	 * and really changed.
+	 */
+	public void publish() {
+		TopOfBookListener[] listeners = topListeners;
+		for (int i = 0; i < touchedCount; i++) {
+			int symbol = touchedSymbols[i];
+			touched[symbol] = false;
+			OrderBook book = books[symbol];
+			long bid = book.bestBid();
+			long bidQuantity = book.bidQuantity();
+			long ask = book.bestAsk();
+			long askQuantity = book.askQuantity();
+			int last = symbol * 4;
+			if (lastTop[last] == bid && lastTop[last + 1] == bidQuantity && lastTop[last + 2] == ask
+					&& lastTop[last + 3] == askQuantity) {
+				continue;
+			}
+			lastTop[last] = bid;
+			lastTop[last + 1] = bidQuantity;
+			lastTop[last + 2] = ask;
+			lastTop[last + 3] = askQuantity;
+
+			int base = symbol * TOP_FIELDS;
+			long version = top.get(base);
+			top.set(base, version + 1); // odd: being written
+			top.set(base + 1, bid);
+			top.set(base + 2, bidQuantity);
+			top.set(base + 3, ask);
+			top.set(base + 4, askQuantity);
+			top.set(base, version + 2);
+
+			for (TopOfBookListener listener : listeners) {
+				listener.topOfBook(symbol, bid, bidQuantity, ask, askQuantity);
+			}
+		}
+		touchedCount = 0;
+		events = eventCount;
+	}
+
+	/**
+	 * Copies the last published top of book of a symbol into {@code out} as bid, bid
+	 * quantity, ask, ask quantity. Safe from any thread, never blocks the engine.
+	 */
+	public void readTopOfBook(int symbol, long[] out) {
+		int base = symbol * TOP_FIELDS;
+		while (true) {
+			long version = top.get(base);
+			if ((version & 1) == 0) {
+				out[0] = top.get(base + 1);
+				out[1] = top.get(base + 2);
+				out[2] = top.get(base + 3);
+				out[3] = top.get(base + 4);
+				if (top.get(base) == version) {
+					return;
+				}
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	private void dispatchTrade(int symbol, long price, long quantity, long takerId, long makerId, int takerSide) {
+		for (TradeListener listener : tradeListeners) {
+			listener.trade(symbol, price, quantity, takerId, makerId, takerSide);
+		}
+	}
+
+	/**
+	 * Events matched so far, as of the last published batch.
+	 */
+	public long events() {
+		return events;
+	}
+
+	/**
+	 * Matching time per event (sampled), in nanoseconds.
+	 */
+	public LatencyHistogram latency() {
+		return latency;
+	}
+
+	/**
+	 * Trades so far. Exact only when the engine is stopped.
+	 */
+	public long trades() {
+		long trades = 0;
+		for (OrderBook book : books) {
+			trades += book.tradeCount();
+		}
+		return trades;
+	}
+
+	/**
+	 * Events that were rejected (unknown symbol, price outside the band, ...).
+	 * Exact only when the engine is stopped.
+	 */
+	public long rejected() {
+		return rejected;
+	}
+}
@@ -0,0 +1,314 @@
+package invest;
+
+import java.util.Arrays;
+
+/**
+ * Price-level limit order book of one symbol, with price-time priority matching.
+ *
+ * Everything is in primitive arrays. The book covers a fixed band of prices (one
+ * level per tick, like an exchange's price collar), so a price maps to its level by
+ * subtraction and there is no tree of levels to maintain. Each side keeps a bitmap
+ * of the levels that have orders, which makes finding the next best level after one
+ * empties a scan over a few words. Resting orders live in a pool of parallel arrays
+ * and form a doubly linked FIFO per level, so a cancel is O(1) via the id index.
+ *
+ * An order book is not thread-safe. {@link MarketEngine} gives each book to one
+ * thread, which is what makes matching lock-free: there is nothing to lock.
+ */
+public class OrderBook {
+
+	public static final int BUY = 0;
+	public static final int SELL = 1;
+
+	private static final int NONE = -1;
+
+	private final int symbol;
+	private final long minPrice;
+	private final int levels;
+	private final TradeListener trades;
+
+	// Per side, indexed by level (price - minPrice)
+	private final int[][] head = new int[2][];
+	private final int[][] tail = new int[2][];
+	private final long[][] levelQuantity = new long[2][];
+	private final long[][] occupied = new long[2][];
+	private int bestBid = NONE;
+	private int bestAsk = NONE;
+
+	// Order pool: a slot per resting order, free slots are chained through next
+	private long[] orderIds;
+	private long[] orderQuantity;
+	private int[] next;
+	private int[] previous;
+	private int[] orderLevel;
+	private byte[] orderSide;
+	private int freeSlot = NONE;
+	private int poolUsed;
+	private final LongIntMap index;
+
+	private long volume;
+	private long tradeCount;
+
+	/**
+	 * @param minPrice lowest price in the band, in ticks
+	 * @param levels   number of ticks in the band
+	 * @param trades   told about every fill, may be null
+	 */
+	public OrderBook(int symbol, long minPrice, int levels, TradeListener trades) {
+		if (minPrice <= 0 || levels <= 0) {
+			throw new IllegalArgumentException("Bad price band");
+		}
+		this.symbol = symbol;
+		this.minPrice = minPrice;
+		this.levels = levels;
+		this.trades = trades;
+		for (int side = BUY; side <= SELL; side++) {
+			head[side] = new int[levels];
+			tail[side] = new int[levels];
+			Arrays.fill(head[side], NONE);
+			Arrays.fill(tail[side], NONE);
+			levelQuantity[side] = new long[levels];
+			occupied[side] = new long[(levels + 63) >>> 6];
+		}
+		int pool = 1 << 12;
+		orderIds = new long[pool];
+		orderQuantity = new long[pool];
+		next = new int[pool];
+		previous = new int[pool];
+		orderLevel = new int[pool];
+		orderSide = new byte[pool];
+		index = new LongIntMap(pool);
+	}
+
+	/**
+	 * A limit order: trades against the other side as far as the price allows, and
+	 * the rest waits in the book.
+	 *
+	 * @return false if the order was rejected (price outside the band, bad quantity
+	 *         or an id that is already resting)
+	 */
+	public boolean limit(long orderId, int side, long price, long quantity) {
+		long offset = price - minPrice;
+		if (offset < 0 || offset >= levels || quantity <= 0 || index.get(orderId) >= 0) {
+			return false;
+		}
+		int level = (int) offset;
+		long remaining = match(orderId, side, level, quantity);
+		if (remaining > 0) {
+			rest(orderId, side, level, remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * A market order: trades at whatever the other side offers, and whatever can't
+	 * be filled is dropped (immediate or cancel).
+	 *
+	 * @return the quantity that was filled
+	 */
+	public long market(long orderId, int side, long quantity) {
+		if (quantity <= 0) {
+			return 0;
+		}
+		return quantity - match(orderId, side, side == BUY ? levels - 1 : 0, quantity);
+	}
+
+	/**
+	 * @return false if there is no resting order with this id (never placed, already
+	 *         filled or already cancelled)
+	 */
+	public boolean cancel(long orderId) {
+		int slot = index.remove(orderId);
+		if (slot < 0) {
+			return false;
+		}
+		unlink(slot);
+		return true;
+	}
+
+	// Trades an incoming order against the opposite side up to the limit level and
+	// returns what is left of it
+	private long match(long takerId, int side, int limitLevel, long quantity) {
+		int other = side ^ 1;
+		while (quantity > 0) {
+			int level = other == SELL ? bestAsk : bestBid;
+			if (level == NONE || (side == BUY ? level > limitLevel : level < limitLevel)) {
+				break;
+			}
+			long price = minPrice + level;
+			while (quantity > 0 && head[other][level] != NONE) {
+				int maker = head[other][level];
+				long fill = Math.min(quantity, orderQuantity[maker]);
+				quantity -= fill;
+				orderQuantity[maker] -= fill;
+				levelQuantity[other][level] -= fill;
+				volume += fill;
+				tradeCount++;
+				if (trades != null) {
+					trades.trade(symbol, price, fill, takerId, orderIds[maker], side);
+				}
+				if (orderQuantity[maker] == 0) {
+					index.remove(orderIds[maker]);
+					unlink(maker);
+				}
+			}
+		}
+		return quantity;
+	}
+
+	private void rest(long orderId, int side, int level, long quantity) {
+		int slot = allocate();
+		orderIds[slot] = orderId;
+		orderQuantity[slot] = quantity;
+		orderLevel[slot] = level;
+		orderSide[slot] = (byte) side;
+		next[slot] = NONE;
+		previous[slot] = tail[side][level];
+		if (tail[side][level] == NONE) {
+			head[side][level] = slot;
+			occupied[side][level >>> 6] |= 1L << level;
+		} else {
+			next[tail[side][level]] = slot;
+		}
+		tail[side][level] = slot;
+		levelQuantity[side][level] += quantity;
+		index.putIfAbsent(orderId, slot);
+
+		if (side == BUY && level > bestBid) {
+			bestBid = level;
+		} else if (side == SELL && (bestAsk == NONE || level < bestAsk)) {
+			bestAsk = level;
+		}
+	}
+
+	// Takes an order out of its level (the caller has already removed it from the
+	// index) and frees its slot
+	private void unlink(int slot) {
+		int side = orderSide[slot];
+		int level = orderLevel[slot];
+		levelQuantity[side][level] -= orderQuantity[slot];
+		if (previous[slot] == NONE) {
+			head[side][level] = next[slot];
+		} else {
+			next[previous[slot]] = next[slot];
+		}
+		if (next[slot] == NONE) {
+			tail[side][level] = previous[slot];
+		} else {
+			previous[next[slot]] = previous[slot];
+		}
+		next[slot] = freeSlot;
+		freeSlot = slot;
+
+		if (head[side][level] == NONE) {
+			occupied[side][level >>> 6] &= ~(1L << level);
+			if (side == BUY && level == bestBid) {
+				bestBid = highestBelow(occupied[BUY], level);
+			} else if (side == SELL && level == bestAsk) {
+				bestAsk = lowestAbove(occupied[SELL], level);
+			}
+		}
+	}
+
+	private int allocate() {
+		if (freeSlot != NONE) {
+			int slot = freeSlot;
+			freeSlot = next[slot];
+			return slot;
+		}
+		if (poolUsed == orderIds.length) {
+			int size = poolUsed * 2;
+			orderIds = Arrays.copyOf(orderIds, size);
+			orderQuantity = Arrays.copyOf(orderQuantity, size);
+			next = Arrays.copyOf(next, size);
+			previous = Arrays.copyOf(previous, size);
+			orderLevel = Arrays.copyOf(orderLevel, size);
+			orderSide = Arrays.copyOf(orderSide, size);
+		}
+		return poolUsed++;
+	}
+
+	// Highest set bit below level, or NONE
+	private static int highestBelow(long[] bits, int level) {
+		int word = level >>> 6;
+		long masked = bits[word] & ((1L << level) - 1);
+		while (true) {
+			if (masked != 0) {
+				return (word << 6) + 63 - Long.numberOfLeadingZeros(masked);
+			}
+			if (--word < 0) {
+				return NONE;
+			}
+			masked = bits[word];
+		}
+	}
+
+	// Lowest set bit above level, or NONE
+	private static int lowestAbove(long[] bits, int level) {
+		int word = level >>> 6;
+		long masked = (level & 63) == 63 ? 0 : bits[word] & (-1L << (level + 1));
+		while (true) {
+			if (masked != 0) {
+				return (word << 6) + Long.numberOfTrailingZeros(masked);
+			}
+			if (++word == bits.length) {
+				return NONE;
+			}
+			masked = bits[word];
+		}
+	}
+
+	public int symbol() {
+		return symbol;
+	}
+
+	/**
+	 * @return the best bid in ticks, or 0 if nobody is buying
+	 */
+	public long bestBid() {
+		return bestBid == NONE ? 0 : minPrice + bestBid;
+	}
+
+	/**
+	 * @return the best ask in ticks, or 0 if nobody is selling
+	 */
+	public long bestAsk() {
+		return bestAsk == NONE ? 0 : minPrice + bestAsk;
+	}
+
+	public long bidQuantity() {
+		return bestBid == NONE ? 0 : levelQuantity[BUY][bestBid];
+	}
+
+	public long askQuantity() {
+		return bestAsk == NONE ? 0 : levelQuantity[SELL][bestAsk];
+	}
+
+	/**
+	 * Total quantity resting at one price on one side.
+	 */
+	public long quantityAt(int side, long price) {
+		long offset = price - minPrice;
+		return offset < 0 || offset >= levels ? 0 : levelQuantity[side][(int) offset];
+	}
+
+	public long minPrice() {
+		return minPrice;
+	}
+
+	public long maxPrice() {
+		return minPrice + levels - 1;
+	}
+
+	public int restingOrders() {
+		return index.size();
+	}
+
+	public long volume() {
+		return volume;
+	}
+
+	public long tradeCount() {
+		return tradeCount;
+	}
+}
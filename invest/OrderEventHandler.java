@@ -0,0 +1,22 @@
+package invest;
+
+/**
+ * Receives order events as primitives: the tick feed produces them, the ring
+ * buffer carries them and the matching engine consumes them, without an object per
+ * event anywhere on the way.
+ */
+@FunctionalInterface
+public interface OrderEventHandler {
+
+	int LIMIT = 1;
+	int MARKET = 2;
+	int CANCEL = 3;
+
+	/**
+	 * @param type     {@link #LIMIT}, {@link #MARKET} or {@link #CANCEL}
+	 * @param side     {@link OrderBook#BUY} or {@link OrderBook#SELL} (ignored for cancels)
+	 * @param price    limit price in ticks (cents), only for limit orders
+	 * @param quantity number of shares, not for cancels
+	 */
+	void onEvent(int type, int symbol, int side, long orderId, long price, long quantity);
+}
@@ -0,0 +1,111 @@
+package invest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer, single-consumer ring buffer of order events, the hand-off between
+ * the feed thread and the matching engine. Events are stored as four longs in one
+ * preallocated array, so nothing is allocated per event, and the two sides only
+ * meet on two counters: the producer publishes with a release store, the consumer
+ * reads with an acquire load, and each side keeps a cached copy of the other's
+ * counter so that it touches the shared cache line only when it has to.
+ */
+public class OrderEventRing implements OrderEventHandler {
+
+	private static final int FIELDS = 4;
+
+	private final long[] events;
+	private final int mask;
+
+	// Producer side
+	private final AtomicLong tail = new PaddedCounter();
+	private long cachedHead;
+
+	// Consumer side
+	private final AtomicLong head = new PaddedCounter();
+	private long cachedTail;
+
+	/**
+	 * @param capacity number of events, rounded up to a power of two
+	 */
+	public OrderEventRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.events = new long[size * FIELDS];
+		this.mask = size - 1;
+	}
+
+	// Keeps the two counters off each other's cache line
+	@SuppressWarnings("unused")
+	private static final class PaddedCounter extends AtomicLong {
+		long p1, p2, p3, p4, p5, p6, p7;
+	}
+
+	/**
+	 * Adds an event if there is room. Producer thread only.
+	 */
+	public boolean offer(int type, int symbol, int side, long orderId, long price, long quantity) {
+		long position = tail.get();
+		if (position - cachedHead > mask) {
+			cachedHead = head.getAcquire();
+			if (position - cachedHead > mask) {
+				return false;
+			}
+		}
+		int base = (int) (position & mask) * FIELDS;
+		events[base] = ((long) type << 48) | ((long) side << 32) | (symbol & 0xFFFFFFFFL);
+		events[base + 1] = orderId;
+		events[base + 2] = price;
+		events[base + 3] = quantity;
+		tail.setRelease(position + 1);
+		return true;
+	}
+
+	/**
+	 * Adds an event, waiting while the ring is full. Producer thread only.
+	 */
+	@Override
+	public void onEvent(int type, int symbol, int side, long orderId, long price, long quantity) {
+		int spins = 0;
+		while (!offer(type, symbol, side, orderId, price, quantity)) {
+			if (++spins < 100) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Hands up to {@code max} waiting events to the handler. Consumer thread only.
+	 *
+	 * @return how many events were handled
+	 */
+	public int drain(OrderEventHandler handler, int max) {
+		long position = head.get();
+		if (cachedTail - position < 1) {
+			cachedTail = tail.getAcquire();
+		}
+		int count = (int) Math.min(max, cachedTail - position);
+		for (int i = 0; i < count; i++) {
+			int base = (int) ((position + i) & mask) * FIELDS;
+			long header = events[base];
+			handler.onEvent((int) (header >>> 48), (int) header, (int) (header >>> 32) & 0xFFFF, events[base + 1],
+					events[base + 2], events[base + 3]);
+		}
+		if (count > 0) {
+			head.setRelease(position + count);
+		}
+		return count;
+	}
+
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Events waiting, as seen from any thread (approximate while both sides run).
+	 */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+}
@@ -0,0 +1,474 @@
+package invest;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Live value and profit/loss of every customer's share portfolio, kept up to date
+ * incrementally as prices move.
+ *
+ * Next to the positions there is a reverse index from each symbol to the positions
+ * holding it. When a price moves by d, only those positions are visited and each
+ * adds quantity * d to its portfolio's value, so a tick costs O(holders of that
+ * symbol) instead of a revaluation of everything. Prices arrive as top-of-book
+ * updates from the {@link MarketEngine} and are conflated per symbol: the engine
+ * thread only stores the newest mid price, and the valuation thread applies the net
+ * move of every changed symbol about once a millisecond.
+ *
+ * Per portfolio (keyed by ledger account id) it keeps, all in cents:
+ *
+ * - value: market value of the positions (shorts count negative)
+ * - cost: what the open positions cost (average cost method)
+ * - unrealized P&amp;L: value - cost
+ * - realized P&amp;L: profit locked in by closing positions
+ * - gross exposure: the sum of |quantity| * price over the positions
+ *
+ * Writers take the write lock briefly (one symbol or one trade at a time), readers
+ * the read lock.
+ */
+public class PortfolioValuation implements TopOfBookListener {
+
+	private static final int NONE = -1;
+	private static final long APPLY_INTERVAL_NANOS = 1_000_000;
+
+	private final int symbols;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Prices: the newest one from the market (any thread) and the one applied
+	private final AtomicLongArray marketPrice;
+	private final AtomicLongArray dirtySymbols;
+	private final long[] appliedPrice;
+
+	// Portfolios, indexed by portfolio number
+	private final LongIntMap portfolioOfAccount = new LongIntMap(1 << 16);
+	private int[] accounts = new int[1024];
+	private long[] value = new long[1024];
+	private long[] cost = new long[1024];
+	private long[] realized = new long[1024];
+	private long[] gross = new long[1024];
+	private int[] firstPosition = new int[1024];
+	private int portfolioCount;
+
+	// Positions, indexed by position number
+	private final LongIntMap positionIndex = new LongIntMap(1 << 16);
+	private int[] positionPortfolio = new int[4096];
+	private int[] positionSymbol = new int[4096];
+	private long[] quantity = new long[4096];
+	private long[] positionCost = new long[4096];
+	private int[] nextPosition = new int[4096];
+	private int[] holderSlot = new int[4096];
+	private int positionCount;
+	private int freePosition = NONE;
+
+	// Reverse index: the positions holding each symbol
+	private final int[][] holders;
+	private final int[] holderCount;
+
+	private long appliedTicks;
+	private long positionUpdates;
+	private volatile boolean running;
+	private Thread applier;
+
+	public PortfolioValuation(int symbols) {
+		this.symbols = symbols;
+		this.marketPrice = new AtomicLongArray(symbols);
+		this.dirtySymbols = new AtomicLongArray((symbols + 63) >>> 6);
+		this.appliedPrice = new long[symbols];
+		this.holders = new int[symbols][16];
+		this.holderCount = new int[symbols];
+	}
+
+	/**
+	 * Takes the mid price from the engine; only the newest one per symbol counts.
+	 */
+	@Override
+	public void topOfBook(int symbol, long bidPrice, long bidQuantity, long askPrice, long askQuantity) {
+		long mid;
+		if (bidPrice > 0 && askPrice > 0) {
+			mid = (bidPrice + askPrice) / 2;
+		} else {
+			mid = Math.max(bidPrice, askPrice);
+		}
+		if (mid > 0) {
+			priceChanged(symbol, mid);
+		}
+	}
+
+	/**
+	 * Sets a new price for a symbol. Cheap and safe from any thread; the portfolios
+	 * follow on the next {@link #applyPending()}.
+	 */
+	public void priceChanged(int symbol, long price) {
+		marketPrice.set(symbol, price);
+		int word = symbol >>> 6;
+		long bit = 1L << symbol;
+		long current = dirtySymbols.get(word);
+		while ((current & bit) == 0 && !dirtySymbols.compareAndSet(word, current, current | bit)) {
+			current = dirtySymbols.get(word);
+		}
+	}
+
+	/**
+	 * Starts a thread that applies price changes about every millisecond.
+	 */
+	public synchronized void start() {
+		if (applier != null) {
+			return;
+		}
+		running = true;
+		applier = new Thread(() -> {
+			while (running) {
+				applyPending();
+				LockSupport.parkNanos(APPLY_INTERVAL_NANOS);
+			}
+		}, "portfolio-valuation");
+		applier.setDaemon(true);
+		applier.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+		applier = null;
+	}
+
+	/**
+	 * Applies the net price move of every symbol that changed since the last call.
+	 *
+	 * @return how many symbols moved
+	 */
+	public int applyPending() {
+		int moved = 0;
+		for (int word = 0; word < dirtySymbols.length(); word++) {
+			long bits = dirtySymbols.getAndSet(word, 0);
+			while (bits != 0) {
+				int symbol = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				lock.writeLock().lock();
+				try {
+					applyPrice(symbol, marketPrice.get(symbol));
+				} finally {
+					lock.writeLock().unlock();
+				}
+				moved++;
+			}
+		}
+		return moved;
+	}
+
+	// The incremental step: only the holders of the symbol are visited
+	private void applyPrice(int symbol, long price) {
+		long delta = price - appliedPrice[symbol];
+		if (delta == 0) {
+			return;
+		}
+		appliedPrice[symbol] = price;
+		int[] positions = holders[symbol];
+		int count = holderCount[symbol];
+		for (int i = 0; i < count; i++) {
+			int position = positions[i];
+			int portfolio = positionPortfolio[position];
+			long q = quantity[position];
+			value[portfolio] += q * delta;
+			gross[portfolio] += Math.abs(q) * delta;
+		}
+		appliedTicks++;
+		positionUpdates += count;
+	}
+
+	/**
+	 * Records a fill for a customer: positive quantity buys, negative sells (and may
+	 * go short). Cost is tracked with the average cost method.
+	 *
+	 * @param price the fill price in cents
+	 */
+	public void trade(int account, int symbol, long tradeQuantity, long price) {
+		if (symbol < 0 || symbol >= symbols || tradeQuantity == 0 || price <= 0) {
+			throw new IllegalArgumentException("Bad trade");
+		}
+		lock.writeLock().lock();
+		try {
+			if (appliedPrice[symbol] == 0) {
+				appliedPrice[symbol] = price; // first price seen for the symbol
+			}
+			int portfolio = portfolioOf(account, true);
+			int position = positionOf(portfolio, symbol);
+			long held = quantity[position];
+
+			if (held != 0 && Long.signum(held) != Long.signum(tradeQuantity)) {
+				// Reducing (or closing, or flipping) the position realizes P&L on the
+				// part that is closed
+				long closed = Math.min(Math.abs(tradeQuantity), Math.abs(held));
+				long released = positionCost[position] * closed / Math.abs(held);
+				realized[portfolio] += Long.signum(held) * closed * price - released;
+				positionCost[position] -= released;
+				cost[portfolio] -= released;
+				long remaining = tradeQuantity + Long.signum(held) * closed;
+				positionCost[position] += remaining * price;
+				cost[portfolio] += remaining * price;
+			} else {
+				positionCost[position] += tradeQuantity * price;
+				cost[portfolio] += tradeQuantity * price;
+			}
+
+			long mark = appliedPrice[symbol];
+			long after = held + tradeQuantity;
+			value[portfolio] += tradeQuantity * mark;
+			gross[portfolio] += (Math.abs(after) - Math.abs(held)) * mark;
+			quantity[position] = after;
+			if (after == 0) {
+				removePosition(position);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private int portfolioOf(int account, boolean create) {
+		int portfolio = portfolioOfAccount.get(account);
+		if (portfolio >= 0 || !create) {
+			return portfolio;
+		}
+		if (portfolioCount == accounts.length) {
+			int size = portfolioCount * 2;
+			accounts = Arrays.copyOf(accounts, size);
+			value = Arrays.copyOf(value, size);
+			cost = Arrays.copyOf(cost, size);
+			realized = Arrays.copyOf(realized, size);
+			gross = Arrays.copyOf(gross, size);
+			firstPosition = Arrays.copyOf(firstPosition, size);
+		}
+		portfolio = portfolioCount++;
+		accounts[portfolio] = account;
+		firstPosition[portfolio] = NONE;
+		portfolioOfAccount.putIfAbsent(account, portfolio);
+		return portfolio;
+	}
+
+	// Finds or opens the position of a portfolio in a symbol
+	private int positionOf(int portfolio, int symbol) {
+		long key = ((long) portfolio << 32) | symbol;
+		int position = positionIndex.get(key);
+		if (position >= 0) {
+			return position;
+		}
+		if (freePosition != NONE) {
+			position = freePosition;
+			freePosition = nextPosition[position];
+		} else {
+			if (positionCount == quantity.length) {
+				int size = positionCount * 2;
+				positionPortfolio = Arrays.copyOf(positionPortfolio, size);
+				positionSymbol = Arrays.copyOf(positionSymbol, size);
+				quantity = Arrays.copyOf(quantity, size);
+				positionCost = Arrays.copyOf(positionCost, size);
+				nextPosition = Arrays.copyOf(nextPosition, size);
+				holderSlot = Arrays.copyOf(holderSlot, size);
+			}
+			position = positionCount++;
+		}
+		positionPortfolio[position] = portfolio;
+		positionSymbol[position] = symbol;
+		quantity[position] = 0;
+		positionCost[position] = 0;
+		nextPosition[position] = firstPosition[portfolio];
+		firstPosition[portfolio] = position;
+		positionIndex.putIfAbsent(key, position);
+
+		if (holderCount[symbol] == holders[symbol].length) {
+			holders[symbol] = Arrays.copyOf(holders[symbol], holderCount[symbol] * 2);
+		}
+		holderSlot[position] = holderCount[symbol];
+		holders[symbol][holderCount[symbol]++] = position;
+		return position;
+	}
+
+	// A closed position leaves the reverse index, so ticks no longer visit it
+	private void removePosition(int position) {
+		int portfolio = positionPortfolio[position];
+		int symbol = positionSymbol[position];
+		positionIndex.remove(((long) portfolio << 32) | symbol);
+
+		int slot = holderSlot[position];
+		int last = holders[symbol][--holderCount[symbol]];
+		holders[symbol][slot] = last;
+		holderSlot[last] = slot;
+
+		if (firstPosition[portfolio] == position) {
+			firstPosition[portfolio] = nextPosition[position];
+		} else {
+			int p = firstPosition[portfolio];
+			while (nextPosition[p] != position) {
+				p = nextPosition[p];
+			}
+			nextPosition[p] = nextPosition[position];
+		}
+		nextPosition[position] = freePosition;
+		freePosition = position;
+	}
+
+	/**
+	 * Market value of the account's positions in cents, 0 if it has none.
+	 */
+	public long value(int account) {
+		return read(account, value);
+	}
+
+	public long cost(int account) {
+		return read(account, cost);
+	}
+
+	public long unrealizedPnl(int account) {
+		lock.readLock().lock();
+		try {
+			int portfolio = portfolioOf(account, false);
+			return portfolio < 0 ? 0 : value[portfolio] - cost[portfolio];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public long realizedPnl(int account) {
+		return read(account, realized);
+	}
+
+	public long grossExposure(int account) {
+		return read(account, gross);
+	}
+
+	/**
+	 * Exposure of an account to one symbol: quantity * current price in cents
+	 * (negative when short).
+	 */
+	public long exposure(int account, int symbol) {
+		lock.readLock().lock();
+		try {
+			int portfolio = portfolioOf(account, false);
+			if (portfolio < 0) {
+				return 0;
+			}
+			int position = positionIndex.get(((long) portfolio << 32) | symbol);
+			return position < 0 ? 0 : quantity[position] * appliedPrice[symbol];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public long quantity(int account, int symbol) {
+		lock.readLock().lock();
+		try {
+			int portfolio = portfolioOf(account, false);
+			int position = portfolio < 0 ? NONE : positionIndex.get(((long) portfolio << 32) | symbol);
+			return position < 0 ? 0 : quantity[position];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private long read(int account, long[] field) {
+		lock.readLock().lock();
+		try {
+			int portfolio = portfolioOf(account, false);
+			return portfolio < 0 ? 0 : field[portfolio];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Recomputes an account's value from scratch (sum of quantity * price), to check
+	 * the incremental figure against.
+	 */
+	public long recomputeValue(int account) {
+		lock.readLock().lock();
+		try {
+			int portfolio = portfolioOf(account, false);
+			long total = 0;
+			for (int p = portfolio < 0 ? NONE : firstPosition[portfolio]; p != NONE; p = nextPosition[p]) {
+				total += quantity[p] * appliedPrice[positionSymbol[p]];
+			}
+			return total;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int portfolioCount() {
+		lock.readLock().lock();
+		try {
+			return portfolioCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Price moves applied so far and the position updates they took.
+	 */
+	public String stats() {
+		lock.readLock().lock();
+		try {
+			return String.format("%,d price moves applied, %,d position updates (%.1f per move)", appliedTicks,
+					positionUpdates, appliedTicks == 0 ? 0.0 : positionUpdates / (double) appliedTicks);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Load check: 100k portfolios of eight positions each over 1000 symbols, then as
+	 * many ticks per second as it can do, and a check against full revaluation.
+	 */
+	public static void main(String[] args) {
+		int portfolios = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int symbols = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+		int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+		SplittableRandom random = new SplittableRandom(3);
+
+		PortfolioValuation valuation = new PortfolioValuation(symbols);
+		long[] prices = new long[symbols];
+		for (int s = 0; s < symbols; s++) {
+			prices[s] = 5_00 + random.nextInt(200_00);
+			valuation.priceChanged(s, prices[s]);
+		}
+		valuation.applyPending();
+		for (int account = 0; account < portfolios; account++) {
+			for (int i = 0; i < 8; i++) {
+				int symbol = random.nextInt(symbols);
+				valuation.trade(account, symbol, 1 + random.nextInt(100), prices[symbol]);
+			}
+			if (random.nextInt(4) == 0) { // some sell part of a holding again
+				int symbol = random.nextInt(symbols);
+				valuation.trade(account, symbol, -(1 + random.nextInt(50)), prices[symbol]);
+			}
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ticks; i++) {
+			int symbol = random.nextInt(symbols);
+			prices[symbol] = Math.max(1, prices[symbol] + random.nextInt(21) - 10);
+			valuation.priceChanged(symbol, prices[symbol]);
+			if ((i & 15) == 15) {
+				valuation.applyPending();
+			}
+		}
+		valuation.applyPending();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%,d portfolios, %,d ticks in %.2f s (%,.0f ticks/s)%n", valuation.portfolioCount(), ticks,
+				seconds, ticks / seconds);
+		System.out.println(valuation.stats());
+
+		int mismatches = 0;
+		for (int account = 0; account < portfolios; account++) {
+			if (valuation.value(account) != valuation.recomputeValue(account)) {
+				mismatches++;
+			}
+		}
+		System.out.println("Incremental values match full revaluation: " + (mismatches == 0));
+		System.out.printf("Account 0: value %.2f, unrealized %.2f, realized %.2f, gross exposure %.2f%n",
+				valuation.value(0) / 100.0, valuation.unrealizedPnl(0) / 100.0, valuation.realizedPnl(0) / 100.0,
+				valuation.grossExposure(0) / 100.0);
+	}
+}
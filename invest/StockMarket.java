@@ -1,10 +1,72 @@
-package invest;
-
-public class StockMarket {
-
-	public static void main(String[] args) {
-		
-
-	}
-
-}
+package invest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The investing section's market: a {@link MarketEngine} with a few Helsinki stocks,
+ * fed by the simulated {@link TickFeed}.
+ *
+ * Running this first measures raw matching speed on one thread, then runs the feed
+ * and the engine on their own threads for a few seconds and prints the top of book
+ * once a second, the way the investing page will see it.
+ */
+public class StockMarket {
+
+	public static final String[] SYMBOLS = { "NOKIA", "KONE", "NESTE", "FORTUM", "SAMPO", "UPM", "ELISA", "WRT1V" };
+	// Reference prices in cents
+	public static final long[] REFERENCE_PRICES = { 3_50, 46_80, 17_20, 13_90, 42_10, 30_40, 47_60, 14_30 };
+
+	public static MarketEngine createEngine() {
+		return new MarketEngine(SYMBOLS, REFERENCE_PRICES);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		long events = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		// Matching speed: feed and engine on the calling thread, no hand-off
+		MarketEngine engine = createEngine();
+		TickFeed feed = new TickFeed(engine.books(), REFERENCE_PRICES, 42);
+		feed.emit(events / 10, engine); // warm up
+		engine.latency().reset();
+		long start = System.nanoTime();
+		for (long done = 0; done < events; done += 4096) {
+			feed.emit(4096, engine);
+			engine.publish();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Single thread: %,d order events in %.2f s (%,.0f events/s), %,d trades%n", events, elapsed,
+				events / elapsed, engine.trades());
+		System.out.println("Matching latency: " + engine.latency().summary());
+
+		// Live: the feed thread pushes through the ring, the engine thread matches
+		MarketEngine live = createEngine();
+		AtomicLong updates = new AtomicLong();
+		live.addTopOfBookListener((symbol, bid, bidQuantity, ask, askQuantity) -> updates.incrementAndGet());
+		live.start();
+		Thread producer = new Thread(() -> {
+			TickFeed liveFeed = new TickFeed(live.books(), REFERENCE_PRICES, 7);
+			while (!Thread.currentThread().isInterrupted()) {
+				liveFeed.emit(1024, live.input());
+			}
+		}, "tick-feed");
+		producer.setDaemon(true);
+		producer.start();
+
+		long[] quote = new long[4];
+		for (int second = 1; second <= seconds; second++) {
+			Thread.sleep(1000);
+			StringBuilder line = new StringBuilder(String.format("%2d s %,12d events %,10d top-of-book updates |",
+					second, live.events(), updates.get()));
+			for (int s = 0; s < 3; s++) {
+				live.readTopOfBook(s, quote);
+				line.append(String.format(" %s %.2f/%.2f", live.symbol(s), quote[0] / 100.0, quote[2] / 100.0));
+			}
+			System.out.println(line);
+		}
+		producer.interrupt();
+		producer.join();
+		live.stop();
+		System.out.println("Live matching latency: " + live.latency().summary());
+	}
+}
@@ -0,0 +1,212 @@
+package invest;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The raw ticks of one symbol, compressed into a memory-mapped file.
+ *
+ * The file is a row of 64 KB blocks. Each block starts with the time and price of
+ * its first tick and then stores every tick as the difference to the one before:
+ * time delta, price delta and quantity, each as a zigzag varint. Ticks are close
+ * together in both time and price, so most take 3-5 bytes instead of 24. A block can
+ * be decoded on its own, and the first time of every block is kept in memory, so a
+ * range query starts at the right block instead of at the beginning.
+ *
+ * Not thread-safe; {@link CandleStore} locks around it.
+ */
+final class TickColumn {
+
+	static final int BLOCK_SIZE = 1 << 16;
+	private static final int BLOCKS_PER_CHUNK = 256; // 16 MB mappings
+	private static final int MAGIC = 0x4254434B; // "BTCK"
+
+	// Block header: magic, tick count, bytes used, (pad), first time, first price
+	private static final int HEADER_SIZE = 32;
+	private static final int MAX_TICK_SIZE = 3 * 10;
+
+	private final MappedChunks file;
+	private long[] blockFirstTime = new long[16];
+	private int blockCount;
+
+	// The block being written
+	private MappedByteBuffer block;
+	private int offset;
+	private int count;
+	private int used;
+	private long lastTime;
+	private long lastPrice;
+	private long ticks;
+
+	TickColumn(Path path) throws IOException {
+		file = new MappedChunks(path, BLOCKS_PER_CHUNK * BLOCK_SIZE);
+		int blocks = file.existingChunks() * BLOCKS_PER_CHUNK;
+		while (blockCount < blocks) {
+			MappedByteBuffer buffer = file.chunk(blockCount / BLOCKS_PER_CHUNK);
+			int start = (blockCount % BLOCKS_PER_CHUNK) * BLOCK_SIZE;
+			if (buffer.getInt(start) != MAGIC || buffer.getInt(start + 4) == 0) {
+				break;
+			}
+			addBlock(buffer.getLong(start + 16));
+			ticks += buffer.getInt(start + 4);
+		}
+		if (blockCount > 0) {
+			// Carry on writing into the last block: decode it to find where it ended
+			int last = blockCount - 1;
+			block = file.chunk(last / BLOCKS_PER_CHUNK);
+			offset = (last % BLOCKS_PER_CHUNK) * BLOCK_SIZE;
+			count = block.getInt(offset + 4);
+			used = block.getInt(offset + 8);
+			long[] end = new long[2];
+			decode(block, offset, Long.MIN_VALUE, Long.MAX_VALUE, (time, price, quantity) -> {
+				end[0] = time;
+				end[1] = price;
+			});
+			lastTime = end[0];
+			lastPrice = end[1];
+		}
+	}
+
+	/**
+	 * Appends a tick. Time must not go backwards; an earlier time is taken as the
+	 * last one.
+	 */
+	void append(long time, long price, long quantity) throws IOException {
+		if (block != null && time < lastTime) {
+			time = lastTime;
+		}
+		if (block == null || used + MAX_TICK_SIZE > BLOCK_SIZE) {
+			startBlock(time, price);
+		}
+		int position = offset + used;
+		position = putVarLong(block, position, zigzag(time - lastTime));
+		position = putVarLong(block, position, zigzag(price - lastPrice));
+		position = putVarLong(block, position, quantity);
+		used = position - offset;
+		count++;
+		block.putInt(offset + 8, used);
+		block.putInt(offset + 4, count);
+		lastTime = time;
+		lastPrice = price;
+		ticks++;
+	}
+
+	private void startBlock(long time, long price) throws IOException {
+		int index = blockCount;
+		block = file.chunk(index / BLOCKS_PER_CHUNK);
+		offset = (index % BLOCKS_PER_CHUNK) * BLOCK_SIZE;
+		block.putInt(offset, MAGIC);
+		block.putInt(offset + 4, 0);
+		block.putInt(offset + 8, HEADER_SIZE);
+		block.putLong(offset + 16, time);
+		block.putLong(offset + 24, price);
+		count = 0;
+		used = HEADER_SIZE;
+		lastTime = time;
+		lastPrice = price;
+		addBlock(time);
+	}
+
+	private void addBlock(long firstTime) {
+		if (blockCount == blockFirstTime.length) {
+			blockFirstTime = Arrays.copyOf(blockFirstTime, blockCount * 2);
+		}
+		blockFirstTime[blockCount++] = firstTime;
+	}
+
+	/**
+	 * Hands the ticks with from &lt;= time &lt; to to the visitor.
+	 *
+	 * @return the number of ticks decoded to find them
+	 */
+	long read(long from, long to, TickVisitor visitor) throws IOException {
+		// The last block that starts at or before from; the ticks begin there
+		int first = Arrays.binarySearch(blockFirstTime, 0, blockCount, from);
+		if (first < 0) {
+			first = Math.max(0, -first - 2);
+		}
+		// Several blocks can start at the same millisecond
+		while (first > 0 && blockFirstTime[first - 1] == from) {
+			first--;
+		}
+		long decoded = 0;
+		for (int b = first; b < blockCount && blockFirstTime[b] < to; b++) {
+			decoded += decode(file.chunk(b / BLOCKS_PER_CHUNK), (b % BLOCKS_PER_CHUNK) * BLOCK_SIZE, from, to,
+					visitor);
+		}
+		return decoded;
+	}
+
+	private static int decode(MappedByteBuffer buffer, int start, long from, long to, TickVisitor visitor) {
+		int n = buffer.getInt(start + 4);
+		long time = buffer.getLong(start + 16);
+		long price = buffer.getLong(start + 24);
+		int position = start + HEADER_SIZE;
+		long[] value = new long[1];
+		for (int i = 0; i < n; i++) {
+			position = getVarLong(buffer, position, value);
+			time += unzigzag(value[0]);
+			position = getVarLong(buffer, position, value);
+			price += unzigzag(value[0]);
+			position = getVarLong(buffer, position, value);
+			if (time >= to) {
+				return i + 1;
+			}
+			if (time >= from) {
+				visitor.tick(time, price, value[0]);
+			}
+		}
+		return n;
+	}
+
+	long ticks() {
+		return ticks;
+	}
+
+	/**
+	 * Bytes of the file actually holding ticks.
+	 */
+	long bytesUsed() {
+		return blockCount == 0 ? 0 : (long) (blockCount - 1) * BLOCK_SIZE + used;
+	}
+
+	void force() {
+		file.force();
+	}
+
+	void close() throws IOException {
+		file.close();
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int putVarLong(MappedByteBuffer buffer, int position, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put(position++, (byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put(position++, (byte) value);
+		return position;
+	}
+
+	private static int getVarLong(MappedByteBuffer buffer, int position, long[] out) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get(position++);
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		out[0] = value;
+		return position;
+	}
+}
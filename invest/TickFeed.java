@@ -0,0 +1,97 @@
+package invest;
+
+import java.util.SplittableRandom;
+
+/**
+ * Local simulated market data: a stream of limit orders, market orders and cancels
+ * for a set of symbols, with prices that random-walk around a reference price. It
+ * stands in for an exchange feed (there is no network here) and is reproducible
+ * from its seed.
+ *
+ * Most orders rest a few ticks away from the mid price, some cross it and trade,
+ * and about a third of the events cancel an order placed a little earlier, which is
+ * roughly the mix a real book sees.
+ */
+public class TickFeed {
+
+	private static final int RECENT_ORDERS = 256; // per symbol, power of two
+
+	private final SplittableRandom random;
+	private final long[] reference;
+	private final long[] mid;
+	private final long[][] recent;
+	private final long[] recentCount;
+	private final long[] minPrice;
+	private final long[] maxPrice;
+	private long nextOrderId = 1;
+
+	/**
+	 * @param books           the books the orders are meant for; prices stay inside
+	 *                        their bands
+	 * @param referencePrices where each symbol's price starts and is pulled back to
+	 */
+	public TickFeed(OrderBook[] books, long[] referencePrices, long seed) {
+		this.random = new SplittableRandom(seed);
+		int symbols = books.length;
+		this.reference = new long[symbols];
+		this.mid = new long[symbols];
+		this.minPrice = new long[symbols];
+		this.maxPrice = new long[symbols];
+		this.recent = new long[symbols][RECENT_ORDERS];
+		this.recentCount = new long[symbols];
+		for (int s = 0; s < symbols; s++) {
+			minPrice[s] = books[s].minPrice();
+			maxPrice[s] = books[s].maxPrice();
+			reference[s] = Math.max(minPrice[s] + 64, Math.min(maxPrice[s] - 64, referencePrices[s]));
+			mid[s] = reference[s];
+		}
+	}
+
+	/**
+	 * Produces one event.
+	 */
+	public void next(OrderEventHandler out) {
+		int symbol = random.nextInt(mid.length);
+		int roll = random.nextInt(100);
+
+		// The mid price moves a tick now and then, pulled back towards the reference
+		if (random.nextInt(64) == 0) {
+			long pull = Long.signum(reference[symbol] - mid[symbol]);
+			long step = random.nextInt(3) - 1 + (random.nextInt(8) == 0 ? pull : 0);
+			mid[symbol] = Math.max(minPrice[symbol] + 64, Math.min(maxPrice[symbol] - 64, mid[symbol] + step));
+		}
+
+		if (roll < 32 && recentCount[symbol] > 0) {
+			int known = (int) Math.min(recentCount[symbol], RECENT_ORDERS);
+			long orderId = recent[symbol][random.nextInt(known)];
+			out.onEvent(OrderEventHandler.CANCEL, symbol, OrderBook.BUY, orderId, 0, 0);
+			return;
+		}
+
+		int side = random.nextBoolean() ? OrderBook.BUY : OrderBook.SELL;
+		long orderId = nextOrderId++;
+		if (roll < 40) {
+			out.onEvent(OrderEventHandler.MARKET, symbol, side, orderId, 0, 1 + random.nextInt(200));
+			return;
+		}
+
+		// Distance from the mid: mostly close, sometimes deep; one in ten crosses
+		long distance = Long.numberOfTrailingZeros(random.nextLong() | (1L << 20));
+		if (random.nextInt(10) == 0) {
+			distance = -random.nextInt(4);
+		}
+		long price = side == OrderBook.BUY ? mid[symbol] - 1 - distance : mid[symbol] + 1 + distance;
+		price = Math.max(minPrice[symbol], Math.min(maxPrice[symbol], price));
+		out.onEvent(OrderEventHandler.LIMIT, symbol, side, orderId, price, 1 + random.nextInt(500));
+		recent[symbol][(int) (recentCount[symbol]++ & (RECENT_ORDERS - 1))] = orderId;
+	}
+
+	/**
+	 * Produces {@code count} events.
+	 */
+	public void emit(long count, OrderEventHandler out) {
+		for (long i = 0; i < count; i++) {
+			next(out);
+		}
+	}
+}
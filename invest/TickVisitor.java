@@ -0,0 +1,10 @@
+package invest;
+
+/**
+ * Receives raw ticks (trades) from a {@link CandleStore} query.
+ */
+@FunctionalInterface
+public interface TickVisitor {
+
+	void tick(long time, long price, long quantity);
+}
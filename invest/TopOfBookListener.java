@@ -0,0 +1,15 @@
+package invest;
+
+/**
+ * Receives the best bid and ask of a symbol whenever they change. Updates are
+ * conflated: after every batch of order events the engine publishes each changed
+ * symbol once, so a slow subscriber sees the latest prices, not every step. Called
+ * on the matching engine's thread; Swing code has to hop to the EDT itself.
+ *
+ * A price of 0 with quantity 0 means that side of the book is empty.
+ */
+@FunctionalInterface
+public interface TopOfBookListener {
+
+	void topOfBook(int symbol, long bidPrice, long bidQuantity, long askPrice, long askQuantity);
+}
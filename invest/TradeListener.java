@@ -0,0 +1,14 @@
+package invest;
+
+/**
+ * Told about every fill. Called on the matching engine's thread, so it has to be
+ * quick and must not block.
+ */
+@FunctionalInterface
+public interface TradeListener {
+
+	/**
+	 * @param takerSide side of the incoming order that caused the trade
+	 */
+	void trade(int symbol, long price, long quantity, long takerId, long makerId, int takerSide);
+}
@@ -0,0 +1,147 @@
+package ledger;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The secondary indexes the admin pages search with, kept next to the account
+ * store:
+ *
+ * - card number: the {@link AccountStore} is itself a hash index on card number,
+ *   so {@link #findByCard(long)} is a single probe
+ * - name prefix: {@link NamePrefixIndex}
+ * - balance and last activity: one {@link RangeIndex} each
+ *
+ * The range indexes are maintained incrementally from every ledger commit. The
+ * ledger thread only marks the account dirty; a background thread applies the
+ * changes every millisecond or so, moving each changed account from its previously
+ * indexed key to its current one. That keeps index maintenance off the transfer
+ * path (an account that changes many times in between is re-indexed once), at the
+ * cost of the indexes trailing the ledger by about a millisecond.
+ */
+public class AccountIndexes implements LedgerListener {
+
+	private static final int MAX_PENDING = 1 << 18;
+	private static final long APPLY_INTERVAL_NANOS = 1_000_000;
+
+	private final AccountStore store;
+	private final NamePrefixIndex names = new NamePrefixIndex();
+	private final RangeIndex balances = new RangeIndex();
+	private final RangeIndex activity = new RangeIndex();
+
+	// What each account is currently indexed under, off-heap. Only the applier
+	// touches these after construction.
+	private final OffHeapLongArray indexedBalance;
+	private final OffHeapLongArray indexedActivity;
+	private final BitSet indexed;
+
+	private final DirtyAccounts dirty;
+	private final int[] draining = new int[MAX_PENDING];
+	private final Thread applier;
+	private volatile boolean running = true;
+
+	/**
+	 * Builds the range indexes from the current contents of the store and starts
+	 * following changes. Register the result with {@link Ledger#addListener}.
+	 */
+	public AccountIndexes(AccountStore store) {
+		this.store = store;
+		this.indexedBalance = new OffHeapLongArray(store.capacity());
+		this.indexedActivity = new OffHeapLongArray(store.capacity());
+		this.indexed = new BitSet(store.capacity());
+		this.dirty = new DirtyAccounts(store.capacity(), MAX_PENDING);
+		synchronized (this) {
+			rebuild();
+		}
+		this.applier = new Thread(this::applyLoop, "account-indexes");
+		this.applier.setDaemon(true);
+		this.applier.start();
+	}
+
+	@Override
+	public void balanceChanged(int account, long balance) {
+		dirty.mark(account);
+	}
+
+	/**
+	 * Adds the customer's name for an account. Called when an account is
+	 * registered (names don't change through the ledger).
+	 */
+	public void addName(String name, int account) {
+		names.add(name, account);
+	}
+
+	/**
+	 * @return the account with this card number, or -1
+	 */
+	public int findByCard(long cardNumber) {
+		return store.slotOf(cardNumber);
+	}
+
+	public NamePrefixIndex names() {
+		return names;
+	}
+
+	public RangeIndex balances() {
+		return balances;
+	}
+
+	public RangeIndex activity() {
+		return activity;
+	}
+
+	public void stop() {
+		running = false;
+		applier.interrupt();
+	}
+
+	private void applyLoop() {
+		while (running) {
+			applyPending();
+			LockSupport.parkNanos(APPLY_INTERVAL_NANOS);
+		}
+	}
+
+	/**
+	 * Applies everything that changed so far. Normally the background thread does
+	 * this; call it directly when a query must see the latest commits.
+	 */
+	public synchronized void applyPending() {
+		boolean overflow = dirty.takeOverflow();
+		int count = dirty.drainTo(draining);
+		if (overflow) {
+			rebuild();
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			int account = draining[i];
+			dirty.clear(account);
+			reindex(account);
+		}
+	}
+
+	private void reindex(int account) {
+		long balance = store.balance(account);
+		long lastActivity = store.lastActivity(account);
+		if (indexed.get(account)) {
+			balances.update(indexedBalance.get(account), balance, account);
+			activity.update(indexedActivity.get(account), lastActivity, account);
+		} else {
+			balances.insert(balance, account);
+			activity.insert(lastActivity, account);
+			indexed.set(account);
+		}
+		indexedBalance.set(account, balance);
+		indexedActivity.set(account, lastActivity);
+	}
+
+	// Brings every occupied slot up to date; used at start and after an overflow
+	private void rebuild() {
+		int capacity = store.capacity();
+		for (int slot = 0; slot < capacity; slot++) {
+			if (store.isOccupied(slot)) {
+				reindex(slot);
+			}
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package ledger;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.IntConsumer;
+
+/**
+ * Off-heap account table keyed by card number. There is no object per account:
+ * the table is an open-addressing hash table (linear probing) of fixed-size slots
+ * in direct ByteBuffers, so a population of 100M accounts costs a few GB of native
+ * memory but next to nothing on the heap, and the garbage collector never has to
+ * look at it.
+ *
+ * <pre>
+ *  offset  size  field
+ *       0     8  card number (0 = empty slot)
+ *       8     8  balance in minor units
+ *      16     8  PIN hash
+ *      24     8  last activity (epoch millis)
+ *      32     4  flags
+ *      36     4  auth state (failed PIN attempts / lockout, see auth.AttemptLimiter)
+ *      40     8  journal sequence number of the last change to the account
+ * </pre>
+ *
+ * A slot index stays valid for the lifetime of the store (accounts are closed with
+ * a flag, never removed), so the ledger uses it as the account id.
+ *
+ * Inserts are serialized; lookups are lock-free. A new slot is filled in first and
+ * its card number is published last with a release store, so a reader that finds
+ * the card also sees the rest of the slot. Balances and the other mutable fields
+ * are not synchronized here; {@link Ledger} guards them with its stripe locks. The
+ * auth state is the exception, it is only changed with compare-and-set.
+ */
+public class AccountStore {
+
+	public static final int SLOT_SIZE = 48;
+
+	public static final int FLAG_FROZEN = 1;
+	public static final int FLAG_CLOSED = 1 << 1;
+	public static final int FLAG_ADMIN = 1 << 2;
+
+	private static final int CARD = 0;
+	private static final int BALANCE = 8;
+	private static final int PIN_HASH = 16;
+	private static final int LAST_ACTIVITY = 24;
+	private static final int FLAGS = 32;
+	private static final int AUTH_STATE = 36;
+	private static final int JOURNAL_SEQ = 40;
+
+	private static final int MAX_CHUNK_SHIFT = 20; // 1M slots (48 MB) per buffer
+	private static final double MAX_LOAD = 0.75;
+
+	private static final VarHandle LONGS =
+			MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle INTS =
+			MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	private final ByteBuffer[] chunks;
+	private final int chunkShift;
+	private final int chunkMask;
+	private final int capacity;
+	private final int mask;
+	private final int maxSize;
+	private volatile int size;
+
+	/**
+	 * @param expectedAccounts how many accounts the table has to hold; the table is
+	 *                         sized up front and does not grow
+	 */
+	public AccountStore(long expectedAccounts) {
+		long needed = Math.max(16, (long) Math.ceil(expectedAccounts / MAX_LOAD));
+		if (needed > 1 << 30) {
+			throw new IllegalArgumentException("Too many accounts: " + expectedAccounts);
+		}
+		this.capacity = Integer.highestOneBit((int) needed - 1) << 1;
+		this.mask = capacity - 1;
+		this.maxSize = (int) (capacity * MAX_LOAD);
+		this.chunkShift = Math.min(MAX_CHUNK_SHIFT, Integer.numberOfTrailingZeros(capacity));
+		this.chunkMask = (1 << chunkShift) - 1;
+
+		this.chunks = new ByteBuffer[capacity >>> chunkShift];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = ByteBuffer.allocateDirect((1 << chunkShift) * SLOT_SIZE).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/**
+	 * A store with exactly {@code capacity} slots (a power of two), e.g. the capacity
+	 * of the store a snapshot was taken from.
+	 */
+	public static AccountStore withCapacity(int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+		}
+		return new AccountStore((long) (capacity * MAX_LOAD));
+	}
+
+	/**
+	 * Adds an account.
+	 *
+	 * @return the slot of the new account
+	 * @throws IllegalArgumentException if the card number is already taken
+	 * @throws IllegalStateException    if the table is full
+	 */
+	public int insert(long cardNumber, long balance, long pinHash, int flags) {
+		return insert(cardNumber, balance, pinHash, flags, null);
+	}
+
+	/**
+	 * Like {@link #insert(long, long, long, int)}, but calls {@code beforePublish}
+	 * with the new slot once it is filled in and before its card can be found, so
+	 * the ledger can journal the account first. If it throws, the account isn't
+	 * added.
+	 */
+	synchronized int insert(long cardNumber, long balance, long pinHash, int flags, IntConsumer beforePublish) {
+		if (cardNumber == 0) {
+			throw new IllegalArgumentException("Card number 0 is reserved");
+		}
+		if (size >= maxSize) {
+			throw new IllegalStateException("Account store is full (" + size + " accounts)");
+		}
+		int slot = (int) mix(cardNumber) & mask;
+		while (true) {
+			long existing = plainCard(slot);
+			if (existing == 0) {
+				break;
+			}
+			if (existing == cardNumber) {
+				throw new IllegalArgumentException("Card number already registered: " + cardNumber);
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		ByteBuffer chunk = chunks[slot >>> chunkShift];
+		int offset = (slot & chunkMask) * SLOT_SIZE;
+		chunk.putLong(offset + BALANCE, balance);
+		chunk.putLong(offset + PIN_HASH, pinHash);
+		chunk.putLong(offset + LAST_ACTIVITY, System.currentTimeMillis());
+		chunk.putInt(offset + FLAGS, flags);
+		chunk.putLong(offset + JOURNAL_SEQ, 0);
+		if (beforePublish != null) {
+			beforePublish.accept(slot);
+		}
+		LONGS.setRelease(chunk, offset + CARD, cardNumber);
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Puts an account back into the slot it had when a snapshot was taken, without
+	 * probing. Only valid while loading a snapshot of a store with the same
+	 * capacity, where every account goes back to its old slot and so the probe
+	 * chains come out the same as before.
+	 */
+	synchronized void restore(int slot, long cardNumber, long balance, long pinHash, long lastActivity, int flags,
+			long journalSeq) {
+		if (cardNumber == 0 || plainCard(slot) != 0) {
+			throw new IllegalStateException("Slot " + slot + " can't be restored");
+		}
+		ByteBuffer chunk = chunks[slot >>> chunkShift];
+		int offset = (slot & chunkMask) * SLOT_SIZE;
+		chunk.putLong(offset + BALANCE, balance);
+		chunk.putLong(offset + PIN_HASH, pinHash);
+		chunk.putLong(offset + LAST_ACTIVITY, lastActivity);
+		chunk.putInt(offset + FLAGS, flags);
+		chunk.putLong(offset + JOURNAL_SEQ, journalSeq);
+		LONGS.setRelease(chunk, offset + CARD, cardNumber);
+		size++;
+	}
+
+	/**
+	 * @return the slot holding {@code cardNumber}, or -1 if there is no such account
+	 */
+	public int slotOf(long cardNumber) {
+		if (cardNumber == 0) {
+			return -1;
+		}
+		int slot = (int) mix(cardNumber) & mask;
+		while (true) {
+			long existing = cardAt(slot);
+			if (existing == cardNumber) {
+				return slot;
+			}
+			if (existing == 0) {
+				return -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public boolean isOccupied(int slot) {
+		return slot >= 0 && slot < capacity && cardAt(slot) != 0;
+	}
+
+	public long cardAt(int slot) {
+		return (long) LONGS.getAcquire(chunks[slot >>> chunkShift], (slot & chunkMask) * SLOT_SIZE + CARD);
+	}
+
+	private long plainCard(int slot) {
+		return chunks[slot >>> chunkShift].getLong((slot & chunkMask) * SLOT_SIZE + CARD);
+	}
+
+	public long balance(int slot) {
+		return chunks[slot >>> chunkShift].getLong((slot & chunkMask) * SLOT_SIZE + BALANCE);
+	}
+
+	public void setBalance(int slot, long balance) {
+		chunks[slot >>> chunkShift].putLong((slot & chunkMask) * SLOT_SIZE + BALANCE, balance);
+	}
+
+	public long pinHash(int slot) {
+		return chunks[slot >>> chunkShift].getLong((slot & chunkMask) * SLOT_SIZE + PIN_HASH);
+	}
+
+	public void setPinHash(int slot, long pinHash) {
+		chunks[slot >>> chunkShift].putLong((slot & chunkMask) * SLOT_SIZE + PIN_HASH, pinHash);
+	}
+
+	public long lastActivity(int slot) {
+		return chunks[slot >>> chunkShift].getLong((slot & chunkMask) * SLOT_SIZE + LAST_ACTIVITY);
+	}
+
+	public void setLastActivity(int slot, long epochMillis) {
+		chunks[slot >>> chunkShift].putLong((slot & chunkMask) * SLOT_SIZE + LAST_ACTIVITY, epochMillis);
+	}
+
+	public int flags(int slot) {
+		return chunks[slot >>> chunkShift].getInt((slot & chunkMask) * SLOT_SIZE + FLAGS);
+	}
+
+	public void setFlags(int slot, int flags) {
+		chunks[slot >>> chunkShift].putInt((slot & chunkMask) * SLOT_SIZE + FLAGS, flags);
+	}
+
+	public long journalSeq(int slot) {
+		return chunks[slot >>> chunkShift].getLong((slot & chunkMask) * SLOT_SIZE + JOURNAL_SEQ);
+	}
+
+	public void setJournalSeq(int slot, long seq) {
+		chunks[slot >>> chunkShift].putLong((slot & chunkMask) * SLOT_SIZE + JOURNAL_SEQ, seq);
+	}
+
+	public int authState(int slot) {
+		return (int) INTS.getVolatile(chunks[slot >>> chunkShift], (slot & chunkMask) * SLOT_SIZE + AUTH_STATE);
+	}
+
+	/**
+	 * Atomically replaces the auth state if it still is {@code expected}.
+	 */
+	public boolean compareAndSetAuthState(int slot, int expected, int state) {
+		return INTS.compareAndSet(chunks[slot >>> chunkShift], (slot & chunkMask) * SLOT_SIZE + AUTH_STATE, expected, state);
+	}
+
+	/**
+	 * Number of slots. Valid slot indexes are {@code 0 .. capacity() - 1}.
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Off-heap bytes used by the table.
+	 */
+	public long memoryUsage() {
+		return (long) capacity * SLOT_SIZE;
+	}
+
+	// Murmur3 finalizer, card numbers are far from random in their low bits
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	/**
+	 * Load check: fills the store with sequential card numbers and reports the load
+	 * time and how much heap is in use afterwards.
+	 */
+	public static void main(String[] args) {
+		int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+		long firstCard = 4_000_0000_0000_0000L;
+
+		long start = System.nanoTime();
+		AccountStore store = new AccountStore(accounts);
+		for (int i = 0; i < accounts; i++) {
+			store.insert(firstCard + i, 1_000_00, 0, 0);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		long heap = runtime.totalMemory() - runtime.freeMemory();
+		System.out.printf("Loaded %d accounts in %.2f s, off-heap %d MB, heap in use %d MB%n",
+				store.size(), seconds, store.memoryUsage() >> 20, heap >> 20);
+		System.out.println("Lookup check: " + (store.slotOf(firstCard + accounts / 2) >= 0));
+	}
+}
@@ -0,0 +1,17 @@
+package ledger;
+
+/**
+ * Gets the outcome of a command submitted to a {@link TransactionPipeline}. Called
+ * on the pipeline's notifier thread once the command is on disk, so it has to be
+ * quick; callbacks of one batch run one after another.
+ */
+@FunctionalInterface
+public interface CommandCallback {
+
+	/**
+	 * @param result  what the ledger answered, or null if the command failed
+	 * @param failure why it failed, usually a journal write or fsync error; null
+	 *                when there is a result
+	 */
+	void completed(TransferResult result, RuntimeException failure);
+}
@@ -0,0 +1,349 @@
+package ledger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+import storage.Directories;
+
+/**
+ * Remembers the answers to recent keyed requests, so that a double-clicked or
+ * retried transfer gets its first answer again instead of moving the money twice.
+ *
+ * Memory is fixed when the cache is created. The cache is split into segments,
+ * and each segment has two parts, both plain arrays:
+ * <ul>
+ * <li>a wheel of entries (key, time, result, journal sequence) in the order they
+ * were added. Every entry lives for the same time, so that order is also the order
+ * they expire in. The hand at the oldest end moves on when that entry has expired,
+ * or when the wheel is full and room is needed;</li>
+ * <li>an open-addressing hash set of keys that points into the wheel. It uses
+ * linear probing, and removal shifts entries back, so no tombstones build up.</li>
+ * </ul>
+ * An entry pushed out while it is still valid is counted in
+ * {@link #evictedEarly()}. If that number grows, the cache is too small for the
+ * rate of keyed requests over the TTL.
+ *
+ * The callers lock {@link #lockFor(long) a segment} around check, apply and put,
+ * so two copies of a request can't both miss.
+ */
+public class DedupCache {
+
+	public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	private static final int SEGMENTS = 64;
+
+	private final long ttlMillis;
+	private final Segment[] segments;
+
+	public DedupCache() {
+		this(DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * @param capacity  how many keys are remembered at most, about 40 bytes each
+	 * @param ttlMillis how long a key is remembered
+	 */
+	public DedupCache(int capacity, long ttlMillis) {
+		if (capacity <= 0 || ttlMillis <= 0) {
+			throw new IllegalArgumentException("Capacity and TTL must be positive");
+		}
+		this.ttlMillis = ttlMillis;
+		this.segments = new Segment[SEGMENTS];
+		int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(perSegment);
+		}
+	}
+
+	private static final class Segment {
+		// The wheel
+		final long[] keys;
+		final long[] times;
+		final long[] seqs;
+		final byte[] results;
+		int oldest;
+		int size;
+
+		// The hash set: wheel position + 1, 0 = empty
+		final int[] table;
+		final int tableMask;
+
+		long evictedEarly;
+
+		Segment(int capacity) {
+			keys = new long[capacity];
+			times = new long[capacity];
+			seqs = new long[capacity];
+			results = new byte[capacity];
+			int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2) - 1) << 1;
+			table = new int[tableSize];
+			tableMask = tableSize - 1;
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private Segment segmentOf(long key) {
+		return segments[(hash(key) >>> 26) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * The lock to hold while checking a key, carrying out its request and putting
+	 * its answer in.
+	 */
+	public Object lockFor(long key) {
+		return segmentOf(key);
+	}
+
+	/**
+	 * @return the answer the request with this key got, or null if the key is new
+	 *         or has expired
+	 */
+	public TransferResult get(long key, long now) {
+		Segment segment = segmentOf(key);
+		synchronized (segment) {
+			expire(segment, now);
+			int position = find(segment, key);
+			return position < 0 ? null : TransferResult.values()[segment.results[position]];
+		}
+	}
+
+	/**
+	 * Remembers the answer to a request.
+	 *
+	 * @param time       when the request was made; keys have to be put roughly in
+	 *                   time order
+	 * @param journalSeq the journal's last sequence number before the request was
+	 *                   journaled, 0 without a journal
+	 */
+	public void put(long key, TransferResult result, long time, long journalSeq) {
+		Segment segment = segmentOf(key);
+		synchronized (segment) {
+			expire(segment, time);
+			int existing = find(segment, key);
+			if (existing >= 0) {
+				segment.results[existing] = (byte) result.ordinal();
+				return;
+			}
+			int capacity = segment.keys.length;
+			if (segment.size == capacity) {
+				segment.evictedEarly++;
+				removeOldest(segment);
+			}
+			int position = (segment.oldest + segment.size) % capacity;
+			segment.keys[position] = key;
+			segment.times[position] = time;
+			segment.seqs[position] = journalSeq;
+			segment.results[position] = (byte) result.ordinal();
+			segment.size++;
+			int index = hash(key) & segment.tableMask;
+			while (segment.table[index] != 0) {
+				index = (index + 1) & segment.tableMask;
+			}
+			segment.table[index] = position + 1;
+		}
+	}
+
+	// Moves the hand past every entry whose time is up
+	private void expire(Segment segment, long now) {
+		long cutoff = now - ttlMillis;
+		while (segment.size > 0 && segment.times[segment.oldest] <= cutoff) {
+			removeOldest(segment);
+		}
+	}
+
+	private void removeOldest(Segment segment) {
+		int position = segment.oldest;
+		long key = segment.keys[position];
+		int index = hash(key) & segment.tableMask;
+		while (segment.table[index] != position + 1) {
+			index = (index + 1) & segment.tableMask;
+		}
+		// Backward shift: pull later entries of the probe run into the gap
+		int mask = segment.tableMask;
+		int gap = index;
+		int next = (gap + 1) & mask;
+		while (segment.table[next] != 0) {
+			int home = hash(segment.keys[segment.table[next] - 1]) & mask;
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				segment.table[gap] = segment.table[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		segment.table[gap] = 0;
+		segment.oldest = (position + 1) % segment.keys.length;
+		segment.size--;
+	}
+
+	// Wheel position of the key, or -1
+	private int find(Segment segment, long key) {
+		int index = hash(key) & segment.tableMask;
+		int entry;
+		while ((entry = segment.table[index]) != 0) {
+			if (segment.keys[entry - 1] == key) {
+				return entry - 1;
+			}
+			index = (index + 1) & segment.tableMask;
+		}
+		return -1;
+	}
+
+	/**
+	 * The journal records that still back remembered keys start after this sequence
+	 * number; compaction must keep them. Long.MAX_VALUE if nothing is remembered.
+	 */
+	public long oldestSeq(long now) {
+		long oldest = Long.MAX_VALUE;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				expire(segment, now);
+				if (segment.size > 0) {
+					oldest = Math.min(oldest, segment.seqs[segment.oldest]);
+				}
+			}
+		}
+		return oldest;
+	}
+
+	public long ttlMillis() {
+		return ttlMillis;
+	}
+
+	/**
+	 * Keys remembered right now, including expired ones the hand hasn't reached.
+	 */
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Keys that were pushed out before their time because the cache was full.
+	 */
+	public long evictedEarly() {
+		long evicted = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				evicted += segment.evictedEarly;
+			}
+		}
+		return evicted;
+	}
+
+	public long memoryUsage() {
+		long perEntry = 3 * Long.BYTES + 1;
+		long total = 0;
+		for (Segment segment : segments) {
+			total += segment.keys.length * perEntry + (long) segment.table.length * Integer.BYTES;
+		}
+		return total;
+	}
+
+	/**
+	 * Sustained load check: many more keys than the cache holds, with every tenth
+	 * request a repeat of a recent one. Then double clicks on a persistent ledger,
+	 * and retries of the same requests after it is reopened.
+	 */
+	public static void main(String[] args) throws IOException {
+		int capacity = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20_000_000;
+		DedupCache cache = new DedupCache(capacity, DEFAULT_TTL_MILLIS);
+		SplittableRandom random = new SplittableRandom(3);
+		long[] recent = new long[1024];
+		long now = 0;
+		int repeats = 0;
+		int found = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < requests; i++) {
+			now += 1; // a thousand requests per second of simulated time
+			long key;
+			if (i % 10 == 9) {
+				key = recent[random.nextInt(recent.length)];
+				repeats++;
+				if (cache.get(key, now) != null) {
+					found++;
+				}
+				continue;
+			}
+			key = random.nextLong();
+			if (cache.get(key, now) == null) {
+				cache.put(key, TransferResult.OK, now, i);
+			}
+			recent[i & (recent.length - 1)] = key;
+			if (i % 5_000_000 == 0) {
+				System.out.printf("after %,d: %,d keys, %,d bytes%n", i, cache.size(), cache.memoryUsage());
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%,d requests in %.2f s (%.0f ns each), %,d of %,d repeats answered from the cache%n", requests,
+				seconds, seconds * 1e9 / requests, found, repeats);
+		System.out.printf("%,d keys, %,d bytes, %,d pushed out early%n", cache.size(), cache.memoryUsage(),
+				cache.evictedEarly());
+
+		// Retries across a restart
+		Path dir = Files.createTempDirectory("dedup");
+		long[] keys = new long[1000];
+		long total;
+		try (PersistentLedger persistent = PersistentLedger.open(dir, 1000, new DedupCache(1 << 12, DEFAULT_TTL_MILLIS))) {
+			Ledger ledger = persistent.ledger();
+			for (int i = 0; i < 1000; i++) {
+				ledger.openAccount(4_000_0000_0000_0000L + i, 100_00, 0);
+			}
+			int duplicates = 0;
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = random.nextLong();
+				int from = ledger.accountOf(4_000_0000_0000_0000L + random.nextInt(1000));
+				int to = ledger.accountOf(4_000_0000_0000_0000L + random.nextInt(1000));
+				long amount = 1 + random.nextInt(200_00);
+				TransferResult first = ledger.transfer(keys[i], from, to, amount);
+				if (ledger.transfer(keys[i], from, to, amount) == first) { // the double click
+					duplicates++;
+				}
+			}
+			System.out.println("Double clicks answered from the cache: " + duplicates + " of " + keys.length);
+			persistent.snapshot();
+			persistent.snapshot();
+			total = balances(ledger);
+		}
+		try (PersistentLedger reopened = PersistentLedger.open(dir, 1000, new DedupCache(1 << 12, DEFAULT_TTL_MILLIS))) {
+			Ledger ledger = reopened.ledger();
+			int from = ledger.accountOf(4_000_0000_0000_0000L);
+			int to = ledger.accountOf(4_000_0000_0000_0000L + 1);
+			int repeated = 0;
+			for (long key : keys) {
+				if (ledger.dedupCache().get(key, System.currentTimeMillis()) != null) {
+					ledger.transfer(key, from, to, 1_00); // a retry after the restart
+					repeated++;
+				}
+			}
+			System.out.println("Keys remembered after the restart: " + repeated + " of " + keys.length
+					+ ", balances unchanged by the retries: " + (balances(ledger) == total));
+		} finally {
+			Directories.deleteRecursively(dir);
+		}
+	}
+
+	// Fingerprint of all balances
+	private static long balances(Ledger ledger) {
+		long hash = 0;
+		AccountStore store = ledger.store();
+		for (int slot = 0; slot < store.capacity(); slot++) {
+			if (store.isOccupied(slot)) {
+				hash = hash * 31 + store.balance(slot);
+			}
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,100 @@
+package ledger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of accounts that changed since somebody last looked. Marking is cheap and
+ * lock-free when the account is already marked (one bit per store slot), so an
+ * account that changes a thousand times is only queued once. The queue of marked
+ * ids is bounded; when it overflows, the consumer is told to treat everything as
+ * changed.
+ *
+ * Consumers drain the queue, and clear an account's bit <em>before</em> reading its
+ * current state, so a change that races with the drain is queued again rather
+ * than lost.
+ */
+public class DirtyAccounts {
+
+	private final AtomicLongArray bits;
+
+	// Guarded by this
+	private final int[] pending;
+	private int pendingCount;
+	private boolean overflowed;
+
+	/**
+	 * @param capacity   number of store slots
+	 * @param maxPending how many distinct accounts can be queued between two drains
+	 */
+	public DirtyAccounts(int capacity, int maxPending) {
+		this.bits = new AtomicLongArray((capacity + 63) >>> 6);
+		this.pending = new int[maxPending];
+	}
+
+	/**
+	 * @return true if the account wasn't marked yet
+	 */
+	public boolean mark(int account) {
+		int word = account >>> 6;
+		long bit = 1L << account;
+		long current;
+		do {
+			current = bits.get(word);
+			if ((current & bit) != 0) {
+				return false;
+			}
+		} while (!bits.compareAndSet(word, current, current | bit));
+
+		synchronized (this) {
+			if (pendingCount < pending.length) {
+				pending[pendingCount++] = account;
+			} else {
+				overflowed = true;
+			}
+		}
+		return true;
+	}
+
+	public void clear(int account) {
+		int word = account >>> 6;
+		long bit = 1L << account;
+		long current;
+		do {
+			current = bits.get(word);
+		} while ((current & bit) != 0 && !bits.compareAndSet(word, current, current & ~bit));
+	}
+
+	/**
+	 * Moves the queued account ids into {@code out}, which has to hold at least
+	 * {@link #maxPending()} entries. Their bits stay set until {@link #clear(int)}.
+	 *
+	 * @return the number of ids copied
+	 */
+	public synchronized int drainTo(int[] out) {
+		int count = pendingCount;
+		System.arraycopy(pending, 0, out, 0, count);
+		pendingCount = 0;
+		return count;
+	}
+
+	/**
+	 * Returns whether the queue overflowed since the last call, and if it did, clears
+	 * every bit: the caller is expected to refresh everything.
+	 */
+	public boolean takeOverflow() {
+		synchronized (this) {
+			if (!overflowed) {
+				return false;
+			}
+			overflowed = false;
+		}
+		for (int i = 0; i < bits.length(); i++) {
+			bits.set(i, 0);
+		}
+		return true;
+	}
+
+	public int maxPending() {
+		return pending.length;
+	}
+}
@@ -0,0 +1,387 @@
+package ledger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import storage.Directories;
+import storage.ReplicationLeader;
+
+/**
+ * A read-only copy of the primary's ledger, kept up to date by a
+ * {@link ReplicationLeader}. Lookups of balances, cards and totals can be sent
+ * here through {@link LedgerView}, so they don't compete with live transfers on
+ * the primary. The admin browser, the operations dashboard and statements can't
+ * use a follower: they hang indexes and listeners on the primary's store, and
+ * statements read the journal, which a follower doesn't keep.
+ *
+ * The follower connects to the leader, says which journal record it wants next,
+ * and applies what it is sent the same way a restart replays the journal. When it
+ * is far behind or starts from nothing, it is sent a snapshot first. A connection
+ * that breaks is opened again, and the follower goes on where it stopped.
+ *
+ * The records between two heartbeats are applied while holding one lock, and
+ * {@link #totalBalance()} takes that lock, so a total is always as of a heartbeat.
+ * Reads of single accounts only wait for the account's stripe. The copy can only
+ * be read, through {@link LedgerView}; it is replaced when a snapshot comes in,
+ * and every read goes to the current one.
+ */
+public class FollowerLedger implements LedgerView, Closeable {
+
+	private static final long RECONNECT_MILLIS = 500;
+
+	private final String host;
+	private final int port;
+	private final byte[] secret;
+	private final ReentrantLock applyLock = new ReentrantLock();
+	private final Object progress = new Object();
+	private final Thread receiver;
+	private volatile boolean open = true;
+	private volatile Socket socket;
+
+	private volatile Ledger ledger;
+	private PersistentLedger.Replay replay;
+	private volatile long appliedSeq;
+	private volatile long leaderTime;
+	private volatile long snapshots;
+	private volatile long connects;
+
+	/**
+	 * @param expectedAccounts size of the store until the first snapshot arrives
+	 * @param secret           the leader's replication secret
+	 */
+	public FollowerLedger(String host, int port, long expectedAccounts, byte[] secret) {
+		this.host = host;
+		this.port = port;
+		this.secret = secret.clone();
+		install(new AccountStore(expectedAccounts));
+		this.receiver = new Thread(this::receive, "replication-follower");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	private void install(AccountStore store) {
+		Ledger next = new Ledger(store);
+		replay = new PersistentLedger.Replay(store, null);
+		replay.lockWith(next);
+		ledger = next;
+	}
+
+	private void receive() {
+		while (open) {
+			try (Socket connection = new Socket(host, port)) {
+				socket = connection;
+				connects++;
+				connection.setTcpNoDelay(true);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+				DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+				ReplicationLeader.answerChallenge(in, out, secret);
+				out.writeLong(appliedSeq + 1);
+				out.flush();
+				follow(in);
+			} catch (IOException e) {
+				if (open) {
+					sleep(RECONNECT_MILLIS);
+				}
+			} finally {
+				if (applyLock.isHeldByCurrentThread()) {
+					applyLock.unlock();
+				}
+			}
+		}
+	}
+
+	private void follow(DataInputStream in) throws IOException {
+		while (true) {
+			byte frame = in.readByte();
+			switch (frame) {
+			case ReplicationLeader.RECORD:
+				if (!applyLock.isHeldByCurrentThread()) {
+					applyLock.lock();
+				}
+				long seq = in.readLong();
+				replay.record(seq, in.readShort(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+				appliedSeq = seq;
+				break;
+			case ReplicationLeader.HEARTBEAT:
+				in.readLong(); // the leader's last record, which we have now
+				leaderTime = in.readLong();
+				if (applyLock.isHeldByCurrentThread()) {
+					applyLock.unlock();
+				}
+				synchronized (progress) {
+					progress.notifyAll();
+				}
+				break;
+			case ReplicationLeader.SNAPSHOT:
+				long snapshotSeq = in.readLong();
+				int capacity = in.readInt();
+				long count = in.readLong();
+				AccountStore store = AccountStore.withCapacity(capacity);
+				for (long i = 0; i < count; i++) {
+					store.restore(in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readInt(),
+							in.readLong());
+				}
+				applyLock.lock();
+				try {
+					install(store);
+					appliedSeq = snapshotSeq;
+				} finally {
+					applyLock.unlock();
+				}
+				snapshots++;
+				break;
+			default:
+				throw new IOException("Unknown replication frame " + frame);
+			}
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public int accountOf(long cardNumber) {
+		return ledger.accountOf(cardNumber);
+	}
+
+	@Override
+	public int accountCount() {
+		return ledger.accountCount();
+	}
+
+	@Override
+	public boolean exists(int account) {
+		return ledger.exists(account);
+	}
+
+	@Override
+	public long balance(int account) {
+		return ledger.balance(account);
+	}
+
+	@Override
+	public long cardAt(int account) {
+		return ledger.cardAt(account);
+	}
+
+	@Override
+	public int flags(int account) {
+		return ledger.flags(account);
+	}
+
+	@Override
+	public long lastActivity(int account) {
+		return ledger.lastActivity(account);
+	}
+
+	/**
+	 * Sequence number of the last journal record applied here.
+	 */
+	public long appliedSeq() {
+		return appliedSeq;
+	}
+
+	/**
+	 * How old this copy is: the time since the leader sent the last heartbeat we
+	 * have. Both clocks are assumed to agree, which holds on one machine. -1 before
+	 * the first heartbeat.
+	 */
+	public long stalenessMillis() {
+		long time = leaderTime;
+		return time == 0 ? -1 : Math.max(0, System.currentTimeMillis() - time);
+	}
+
+	/**
+	 * Waits until the record with this sequence number is applied, e.g. to read a
+	 * change that was just made on the primary.
+	 *
+	 * @return false if that took longer than the timeout
+	 */
+	public boolean awaitSeq(long seq, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (progress) {
+			while (appliedSeq < seq) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) {
+					return false;
+				}
+				progress.wait(left);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sum of all balances as of the last heartbeat.
+	 */
+	@Override
+	public long totalBalance() {
+		applyLock.lock();
+		try {
+			return ledger.totalBalance();
+		} finally {
+			applyLock.unlock();
+		}
+	}
+
+	public long snapshotsReceived() {
+		return snapshots;
+	}
+
+	public long connects() {
+		return connects;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		Socket current = socket;
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	/**
+	 * Runs a primary and two followers as separate processes on this machine. The
+	 * second follower starts late, so it catches up from a snapshot.
+	 *
+	 * <pre>
+	 *  java ledger.FollowerLedger                                      all three
+	 *  java ledger.FollowerLedger leader dir port accounts seconds     the primary
+	 *  java ledger.FollowerLedger follower host port accounts seconds  a follower
+	 * </pre>
+	 *
+	 * The leader and its followers take the replication secret, base64, from the
+	 * REPLICATION_SECRET environment variable; run with no arguments, a random one
+	 * is made up and handed to all three.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			runAll();
+		} else if (args[0].equals("leader")) {
+			runLeader(Path.of(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+		} else {
+			runFollower(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+		}
+	}
+
+	private static void runAll() throws Exception {
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		String encoded = Base64.getEncoder().encodeToString(secret);
+		int accounts = 200_000;
+		int seconds = 12;
+		int port;
+		try (ServerSocket probe = new ServerSocket(0)) {
+			port = probe.getLocalPort();
+		}
+		Path dir = Files.createTempDirectory("replication");
+		List<Process> processes = new ArrayList<>();
+		try {
+			processes.add(start(encoded, "leader", dir.toString(), port, accounts, seconds));
+			Thread.sleep(2_000);
+			processes.add(start(encoded, "follower", "localhost", port, accounts, seconds - 3));
+			Thread.sleep(4_000);
+			processes.add(start(encoded, "follower", "localhost", port, accounts, seconds - 7));
+			for (Process process : processes) {
+				process.waitFor();
+			}
+		} finally {
+			for (Process process : processes) {
+				process.destroy();
+			}
+			Directories.deleteRecursively(dir);
+		}
+	}
+
+	private static Process start(String secret, String role, String where, int port, int accounts, int seconds)
+			throws IOException {
+		String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				FollowerLedger.class.getName(), role, where, String.valueOf(port), String.valueOf(accounts),
+				String.valueOf(seconds)).inheritIO();
+		builder.environment().put("REPLICATION_SECRET", secret); // not on the command line, where ps shows it
+		return builder.start();
+	}
+
+	private static byte[] secretFromEnvironment() {
+		String secret = System.getenv("REPLICATION_SECRET");
+		if (secret == null) {
+			throw new IllegalStateException("Set REPLICATION_SECRET to the base64 replication secret");
+		}
+		return Base64.getDecoder().decode(secret);
+	}
+
+	private static void runLeader(Path dir, int port, int accounts, int seconds) throws Exception {
+		long firstCard = 4_000_0000_0000_0000L;
+		try (PersistentLedger persistent = PersistentLedger.open(dir, accounts)) {
+			Ledger ledger = persistent.ledger();
+			ledger.setSyncCommit(false);
+			int[] ids = new int[accounts];
+			for (int i = 0; i < accounts; i++) {
+				ids[i] = ledger.openAccount(firstCard + i, 1_000_00, 0);
+			}
+			ledger.flush();
+			ledger.setSyncCommit(true);
+			persistent.startSnapshots(1, TimeUnit.SECONDS);
+			try (ReplicationLeader leader = new ReplicationLeader(ledger.journal(), persistent.snapshotDirectory(), port,
+					ReplicationLeader.DEFAULT_SHIP_INTERVAL_MILLIS, secretFromEnvironment())) {
+				// A few tellers doing transfers
+				long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+				List<Thread> tellers = new ArrayList<>();
+				for (int t = 0; t < 8; t++) {
+					Thread teller = new Thread(() -> {
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+						while (System.nanoTime() < deadline) {
+							ledger.transfer(ids[random.nextInt(accounts)], ids[random.nextInt(accounts)], 1 + random.nextInt(500));
+						}
+					});
+					teller.start();
+					tellers.add(teller);
+				}
+				while (System.nanoTime() < deadline) {
+					Thread.sleep(1_000);
+					System.out.printf("leader:    last record %,d, %d followers%n", ledger.journal().lastSeq(),
+							leader.followers());
+				}
+				for (Thread teller : tellers) {
+					teller.join();
+				}
+			}
+		}
+	}
+
+	private static void runFollower(String host, int port, int accounts, int seconds) throws Exception {
+		String name = "follower-" + ProcessHandle.current().pid();
+		long expected = accounts * 1_000_00L;
+		try (FollowerLedger follower = new FollowerLedger(host, port, accounts, secretFromEnvironment())) {
+			for (int i = 0; i < seconds; i++) {
+				Thread.sleep(1_000);
+				long total = follower.totalBalance();
+				System.out.printf("%s: applied %,d, %d ms behind, %d snapshots, %,d accounts, total %s%n", name,
+						follower.appliedSeq(), follower.stalenessMillis(), follower.snapshotsReceived(),
+						follower.accountCount(), total == expected ? "matches" : "differs by " + (total - expected));
+			}
+		}
+	}
+}
@@ -0,0 +1,787 @@
+package ledger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import storage.Journal;
+import storage.JournalRecord;
+
+/**
+ * The core account ledger. Balances are kept as long minor units (cents), never
+ * as formatted Strings. The accounts themselves live off-heap in an
+ * {@link AccountStore}; an account id is its slot in that store.
+ *
+ * Concurrency uses lock striping: every account belongs to one of a fixed number of
+ * stripes, and an operation locks the stripes of all accounts it touches in
+ * ascending stripe order. Because everybody takes locks in the same order there are
+ * no deadlocks, and transfers between unrelated accounts almost never share a
+ * stripe, so they run in parallel on all cores.
+ *
+ * With a {@link Journal} the ledger is event sourced: every change is appended to
+ * the journal while the stripes are held, before it is applied, and the call
+ * returns once the journal has it on disk (group commit, so concurrent callers
+ * share the fsync). The account remembers the sequence number of its last change,
+ * which lets {@link PersistentLedger} replay the journal over a snapshot that was
+ * taken while transfers kept running. A journal write that fails is thrown as an
+ * {@link UncheckedIOException} and the change is not applied.
+ *
+ * Front ends go through a {@link TransactionPipeline}, which applies commands in
+ * batches on one thread and forces the journal once per batch.
+ *
+ * The blocking transfer calls count into {@link #transfers()}, and every 16th,
+ * picked at random so that the tellers don't share a counter, is timed into
+ * {@link #transferLatency()}, including the wait for the disk.
+ */
+public class Ledger implements LedgerView {
+
+	public static final int DEFAULT_STRIPES = 4096;
+
+	private static final int LATENCY_SAMPLE_MASK = 15; // time every 16th transfer
+
+	private final AccountStore store;
+	private final ReentrantLock[] stripes;
+	private final int stripeMask;
+	private final Journal journal;
+	private volatile boolean syncCommit = true;
+	private volatile LedgerListener[] listeners = new LedgerListener[0];
+	private volatile TransferGuard guard;
+	private volatile DedupCache dedup;
+	private final LatencyHistogram transferLatency = new LatencyHistogram();
+	private final Counter transfers = new Counter();
+
+	public Ledger(AccountStore store) {
+		this(store, DEFAULT_STRIPES, null);
+	}
+
+	public Ledger(AccountStore store, Journal journal) {
+		this(store, DEFAULT_STRIPES, journal);
+	}
+
+	public Ledger(AccountStore store, int stripes) {
+		this(store, stripes, null);
+	}
+
+	/**
+	 * @param store   where the accounts are kept
+	 * @param stripes number of lock stripes, rounded up to a power of two
+	 * @param journal where every change is recorded, or null for a ledger that only
+	 *                lives in memory
+	 */
+	public Ledger(AccountStore store, int stripes, Journal journal) {
+		if (stripes <= 0) {
+			throw new IllegalArgumentException("Stripes must be positive");
+		}
+		int size = Integer.highestOneBit(stripes - 1 > 0 ? stripes - 1 : 1) << 1;
+		this.store = store;
+		this.stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+		this.stripeMask = size - 1;
+		this.journal = journal;
+	}
+
+	/**
+	 * Opens a new account.
+	 *
+	 * @return the id of the new account
+	 */
+	public int openAccount(long cardNumber, long openingBalance, long pinHash) {
+		if (openingBalance < 0) {
+			throw new IllegalArgumentException("Opening balance can't be negative");
+		}
+		// The REGISTER is journaled before the card can be found, so nothing that
+		// finds the account can get into the journal ahead of it. The stripe stays
+		// held until the card is published and the listeners know, so a snapshot
+		// copying the slot waits for it.
+		ReentrantLock[] held = new ReentrantLock[1];
+		int account;
+		try {
+			account = store.insert(cardNumber, openingBalance, pinHash, 0, slot -> {
+				held[0] = stripeOf(slot);
+				held[0].lock();
+				log(slot, JournalRecord.REGISTER, cardNumber, pinHash, openingBalance);
+			});
+			changed(account, openingBalance);
+		} finally {
+			if (held[0] != null) {
+				held[0].unlock();
+			}
+		}
+		durable();
+		return account;
+	}
+
+	/**
+	 * @return the account id for a card number, or -1 if there is no such account
+	 */
+	@Override
+	public int accountOf(long cardNumber) {
+		return store.slotOf(cardNumber);
+	}
+
+	@Override
+	public int accountCount() {
+		return store.size();
+	}
+
+	@Override
+	public boolean exists(int account) {
+		return store.isOccupied(account) && (store.flags(account) & AccountStore.FLAG_CLOSED) == 0;
+	}
+
+	@Override
+	public long balance(int account) {
+		if (!store.isOccupied(account)) {
+			throw new IllegalArgumentException("Unknown account " + account);
+		}
+		ReentrantLock stripe = stripeOf(account);
+		stripe.lock();
+		try {
+			return store.balance(account);
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Changes the flags of an account, for example to freeze it. Done under the
+	 * account's stripe lock so that it never races with a transfer.
+	 */
+	public void setFlags(int account, int flags) {
+		ReentrantLock stripe = stripeOf(account);
+		stripe.lock();
+		try {
+			log(account, JournalRecord.SET_FLAGS, store.cardAt(account), 0, flags);
+			store.setFlags(account, flags);
+		} finally {
+			stripe.unlock();
+		}
+		durable();
+	}
+
+	/**
+	 * Stores a new PIN hash for an account (registration or PIN change).
+	 */
+	public void setPinHash(int account, long pinHash) {
+		ReentrantLock stripe = stripeOf(account);
+		stripe.lock();
+		try {
+			log(account, JournalRecord.PIN_CHANGE, store.cardAt(account), pinHash, 0);
+			store.setPinHash(account, pinHash);
+		} finally {
+			stripe.unlock();
+		}
+		durable();
+	}
+
+	@Override
+	public long cardAt(int account) {
+		return store.cardAt(account);
+	}
+
+	@Override
+	public int flags(int account) {
+		return store.flags(account);
+	}
+
+	@Override
+	public long lastActivity(int account) {
+		return store.lastActivity(account);
+	}
+
+	public AccountStore store() {
+		return store;
+	}
+
+	/**
+	 * @return the journal, or null if this ledger is not persisted
+	 */
+	public Journal journal() {
+		return journal;
+	}
+
+	/**
+	 * The lock that guards an account's mutable fields; held while a snapshot copies
+	 * the account.
+	 */
+	ReentrantLock lockOf(int account) {
+		return stripeOf(account);
+	}
+
+	// Called with the account's stripe held, before the change is applied
+	private void log(int account, short type, long accountA, long accountB, long amount) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			store.setJournalSeq(account, journal.append(type, accountA, accountB, amount));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Like log, for a keyed request that went through: the REQUEST record goes in
+	// right before the operation's
+	private void logRequest(int account, long key, short type, long accountA, long accountB, long amount) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			store.setJournalSeq(account, journal.appendRequest(key, type, accountA, accountB, amount));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * With sync commit off, changes return as soon as they are in the journal instead
+	 * of waiting for the disk. Meant for bulk loads, which call {@link #flush()} at
+	 * the end; a crash before that loses the changes that weren't forced yet.
+	 */
+	public void setSyncCommit(boolean syncCommit) {
+		this.syncCommit = syncCommit;
+	}
+
+	/**
+	 * Waits until every change so far is on disk.
+	 */
+	public void flush() {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.awaitDurable(journal.lastSeq());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Called after the stripes are released: waits until everything journaled so
+	// far, which includes the caller's change, is on disk
+	private void durable() {
+		if (syncCommit) {
+			flush();
+		}
+	}
+
+	public synchronized void addListener(LedgerListener listener) {
+		LedgerListener[] next = Arrays.copyOf(listeners, listeners.length + 1);
+		next[listeners.length] = listener;
+		listeners = next;
+	}
+
+	public synchronized void removeListener(LedgerListener listener) {
+		LedgerListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == listener) {
+				LedgerListener[] next = new LedgerListener[current.length - 1];
+				System.arraycopy(current, 0, next, 0, i);
+				System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+				listeners = next;
+				return;
+			}
+		}
+	}
+
+	// Called with the account's stripe held
+	private void changed(int account, long balance) {
+		for (LedgerListener listener : listeners) {
+			listener.balanceChanged(account, balance);
+		}
+	}
+
+	public TransferResult deposit(int account, long amount) {
+		TransferResult result = applyDeposit(account, amount);
+		if (result.isOk()) {
+			durable();
+		}
+		return result;
+	}
+
+	// The no-wait halves of deposit, withdraw and transfer: the change is applied and
+	// journaled, but not forced. The TransactionPipeline forces once per batch.
+	TransferResult applyDeposit(int account, long amount) {
+		if (amount <= 0) {
+			return TransferResult.INVALID_AMOUNT;
+		}
+		if (!exists(account)) {
+			return TransferResult.UNKNOWN_ACCOUNT;
+		}
+		ReentrantLock stripe = stripeOf(account);
+		stripe.lock();
+		try {
+			if (isFrozen(account)) {
+				return TransferResult.ACCOUNT_FROZEN;
+			}
+			long balance = Math.addExact(store.balance(account), amount);
+			log(account, JournalRecord.DEPOSIT, store.cardAt(account), 0, amount);
+			store.setBalance(account, balance);
+			store.setLastActivity(account, System.currentTimeMillis());
+			changed(account, balance);
+		} finally {
+			stripe.unlock();
+		}
+		return TransferResult.OK;
+	}
+
+	public TransferResult withdraw(int account, long amount) {
+		TransferResult result = applyWithdraw(account, amount);
+		if (result.isOk()) {
+			durable();
+		}
+		return result;
+	}
+
+	TransferResult applyWithdraw(int account, long amount) {
+		if (amount <= 0) {
+			return TransferResult.INVALID_AMOUNT;
+		}
+		if (!exists(account)) {
+			return TransferResult.UNKNOWN_ACCOUNT;
+		}
+		ReentrantLock stripe = stripeOf(account);
+		stripe.lock();
+		try {
+			if (isFrozen(account)) {
+				return TransferResult.ACCOUNT_FROZEN;
+			}
+			long balance = store.balance(account);
+			if (balance < amount) {
+				return TransferResult.INSUFFICIENT_FUNDS;
+			}
+			log(account, JournalRecord.WITHDRAW, store.cardAt(account), 0, amount);
+			store.setBalance(account, balance - amount);
+			store.setLastActivity(account, System.currentTimeMillis());
+			changed(account, balance - amount);
+		} finally {
+			stripe.unlock();
+		}
+		return TransferResult.OK;
+	}
+
+	/**
+	 * Credits interest for a period. Unlike a deposit this also goes to frozen
+	 * accounts, and it does not wait for the disk: the interest batch posts millions
+	 * of these and calls {@link #flush()} once per range instead.
+	 *
+	 * @param period the interest period, e.g. 202405; journaled with the credit
+	 */
+	public TransferResult postInterest(int account, long amount, int period) {
+		if (amount <= 0) {
+			return TransferResult.INVALID_AMOUNT;
+		}
+		if (!exists(account)) {
+			return TransferResult.UNKNOWN_ACCOUNT;
+		}
+		ReentrantLock stripe = stripeOf(account);
+		stripe.lock();
+		try {
+			long balance = Math.addExact(store.balance(account), amount);
+			log(account, JournalRecord.INTEREST, store.cardAt(account), period, amount);
+			store.setBalance(account, balance);
+			changed(account, balance);
+		} finally {
+			stripe.unlock();
+		}
+		return TransferResult.OK;
+	}
+
+	/**
+	 * Gives back money that was taken for something that then failed, such as a
+	 * transfer to another shard that the payee's shard refused. Like
+	 * {@link #postInterest} this also goes to a frozen account: the money was its
+	 * own. Journaled as a deposit.
+	 */
+	public TransferResult refund(int account, long amount) {
+		if (amount <= 0) {
+			return TransferResult.INVALID_AMOUNT;
+		}
+		if (!exists(account)) {
+			return TransferResult.UNKNOWN_ACCOUNT;
+		}
+		ReentrantLock stripe = stripeOf(account);
+		stripe.lock();
+		try {
+			long balance = Math.addExact(store.balance(account), amount);
+			log(account, JournalRecord.DEPOSIT, store.cardAt(account), 0, amount);
+			store.setBalance(account, balance);
+			changed(account, balance);
+		} finally {
+			stripe.unlock();
+		}
+		durable();
+		return TransferResult.OK;
+	}
+
+	/**
+	 * Sets the check transfers have to pass, or null for none.
+	 */
+	public void setTransferGuard(TransferGuard guard) {
+		this.guard = guard;
+	}
+
+	/**
+	 * Moves {@code amount} from one account to another. Either both balances change
+	 * or neither does.
+	 */
+	public TransferResult transfer(int from, int to, long amount) {
+		boolean sampled = (ThreadLocalRandom.current().nextInt() & LATENCY_SAMPLE_MASK) == 0;
+		long start = sampled ? System.nanoTime() : 0;
+		TransferResult result = applyTransfer(from, to, amount, true);
+		if (result.isOk()) {
+			durable();
+		}
+		measured(sampled, start);
+		return result;
+	}
+
+	/**
+	 * A transfer an admin has reviewed and approved: like {@link #transfer}, but it
+	 * doesn't ask the transfer guard again.
+	 */
+	public TransferResult transferReviewed(int from, int to, long amount) {
+		TransferResult result = applyTransfer(from, to, amount, false);
+		if (result.isOk()) {
+			durable();
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the cache that {@link #transfer(long, int, int, long) keyed transfers}
+	 * are checked against.
+	 */
+	public void setDedupCache(DedupCache dedup) {
+		this.dedup = dedup;
+	}
+
+	public DedupCache dedupCache() {
+		return dedup;
+	}
+
+	/**
+	 * A transfer with an idempotency key, e.g. a random number the client picks once
+	 * per button click and sends again with every retry. The first request with a
+	 * key is carried out; repeats within the cache's TTL get the first answer back
+	 * and change nothing. Key 0 means no key.
+	 *
+	 * @throws IllegalStateException if no {@link DedupCache} is set
+	 */
+	public TransferResult transfer(long requestKey, int from, int to, long amount) {
+		boolean sampled = (ThreadLocalRandom.current().nextInt() & LATENCY_SAMPLE_MASK) == 0;
+		long start = sampled ? System.nanoTime() : 0;
+		TransferResult result = applyTransfer(requestKey, from, to, amount);
+		// Repeats wait too: the first answer may not be on disk yet
+		durable();
+		measured(sampled, start);
+		return result;
+	}
+
+	private void measured(boolean sampled, long start) {
+		transfers.increment();
+		if (sampled) {
+			transferLatency.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Nanoseconds per blocking transfer call, sampled.
+	 */
+	public LatencyHistogram transferLatency() {
+		return transferLatency;
+	}
+
+	/**
+	 * Blocking transfer calls so far, refused ones included.
+	 */
+	public Counter transfers() {
+		return transfers;
+	}
+
+	TransferResult applyTransfer(long requestKey, int from, int to, long amount) {
+		if (requestKey == 0) {
+			return applyTransfer(from, to, amount, true, 0);
+		}
+		DedupCache dedup = this.dedup;
+		if (dedup == null) {
+			throw new IllegalStateException("Keyed transfers need a dedup cache");
+		}
+		synchronized (dedup.lockFor(requestKey)) {
+			long now = System.currentTimeMillis();
+			TransferResult previous = dedup.get(requestKey, now);
+			if (previous != null) {
+				return previous;
+			}
+			long floorSeq = journal == null ? 0 : journal.lastSeq();
+			TransferResult result = applyTransfer(from, to, amount, true, requestKey);
+			if (!result.isOk() && journal != null) {
+				try {
+					journal.append(JournalRecord.REQUEST, requestKey, result.ordinal(), 0);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			dedup.put(requestKey, result, now, floorSeq);
+			return result;
+		}
+	}
+
+	TransferResult applyTransfer(int from, int to, long amount, boolean guarded) {
+		return applyTransfer(from, to, amount, guarded, 0);
+	}
+
+	private TransferResult applyTransfer(int from, int to, long amount, boolean guarded, long requestKey) {
+		if (amount <= 0) {
+			return TransferResult.INVALID_AMOUNT;
+		}
+		if (from == to) {
+			return TransferResult.SAME_ACCOUNT;
+		}
+		if (!exists(from) || !exists(to)) {
+			return TransferResult.UNKNOWN_ACCOUNT;
+		}
+		TransferGuard guard = this.guard;
+		if (guarded && guard != null && !guard.admit(from, to, amount)) {
+			return TransferResult.HELD;
+		}
+
+		int a = from & stripeMask;
+		int b = to & stripeMask;
+		// Lock ordering: always the lower stripe first
+		ReentrantLock first = stripes[Math.min(a, b)];
+		ReentrantLock second = a == b ? null : stripes[Math.max(a, b)];
+		TransferResult result;
+		first.lock();
+		try {
+			if (second != null) {
+				second.lock();
+			}
+			try {
+				result = move(from, to, amount, requestKey);
+			} finally {
+				if (second != null) {
+					second.unlock();
+				}
+			}
+		} finally {
+			first.unlock();
+		}
+		if (result.isOk() && guard != null) {
+			guard.transferred(from, to, amount);
+		}
+		return result;
+	}
+
+	private TransferResult move(int from, int to, long amount, long requestKey) {
+		if (isFrozen(from) || isFrozen(to)) {
+			return TransferResult.ACCOUNT_FROZEN;
+		}
+		long balance = store.balance(from);
+		if (balance < amount) {
+			return TransferResult.INSUFFICIENT_FUNDS;
+		}
+		long now = System.currentTimeMillis();
+		long credited = Math.addExact(store.balance(to), amount);
+		if (requestKey != 0) {
+			logRequest(from, requestKey, JournalRecord.TRANSFER, store.cardAt(from), store.cardAt(to), amount);
+		} else {
+			log(from, JournalRecord.TRANSFER, store.cardAt(from), store.cardAt(to), amount);
+		}
+		store.setJournalSeq(to, store.journalSeq(from));
+		store.setBalance(to, credited);
+		store.setBalance(from, balance - amount);
+		store.setLastActivity(from, now);
+		store.setLastActivity(to, now);
+		changed(from, balance - amount);
+		changed(to, credited);
+		return TransferResult.OK;
+	}
+
+	private boolean isFrozen(int account) {
+		return (store.flags(account) & AccountStore.FLAG_FROZEN) != 0;
+	}
+
+	/**
+	 * Applies a set of balance changes to several accounts atomically, for example a
+	 * payment split between multiple receivers. The deltas have to sum to zero so
+	 * that no money is created or destroyed, and no account may end up negative.
+	 *
+	 * @param accounts account ids, no duplicates
+	 * @param deltas   change for each account in minor units
+	 */
+	public TransferResult post(int[] accounts, long[] deltas) {
+		if (accounts.length != deltas.length || accounts.length < 2) {
+			return TransferResult.INVALID_AMOUNT;
+		}
+		long sum = 0;
+		for (int i = 0; i < accounts.length; i++) {
+			if (!exists(accounts[i])) {
+				return TransferResult.UNKNOWN_ACCOUNT;
+			}
+			if (deltas[i] == 0) {
+				return TransferResult.INVALID_AMOUNT;
+			}
+			for (int j = 0; j < i; j++) {
+				if (accounts[j] == accounts[i]) {
+					return TransferResult.SAME_ACCOUNT;
+				}
+			}
+			sum = Math.addExact(sum, deltas[i]);
+		}
+		if (sum != 0) {
+			return TransferResult.INVALID_AMOUNT;
+		}
+
+		int[] order = new int[accounts.length];
+		for (int i = 0; i < accounts.length; i++) {
+			order[i] = accounts[i] & stripeMask;
+		}
+		Arrays.sort(order);
+		TransferResult result = postLocked(order, accounts, deltas);
+		if (result.isOk()) {
+			durable();
+		}
+		return result;
+	}
+
+	// Takes the stripes in ascending order, skipping duplicates, and applies the
+	// deltas once all of them are held. Every new balance is worked out before
+	// anything is journaled, so a leg that would overflow throws with nothing
+	// logged or applied, like a transfer does.
+	private TransferResult postLocked(int[] order, int[] accounts, long[] deltas) {
+		int locked = 0;
+		try {
+			for (; locked < order.length; locked++) {
+				if (locked == 0 || order[locked] != order[locked - 1]) {
+					stripes[order[locked]].lock();
+				}
+			}
+			long[] balances = new long[accounts.length];
+			for (int i = 0; i < accounts.length; i++) {
+				if (isFrozen(accounts[i])) {
+					return TransferResult.ACCOUNT_FROZEN;
+				}
+				if (deltas[i] < 0 && store.balance(accounts[i]) < -deltas[i]) {
+					return TransferResult.INSUFFICIENT_FUNDS;
+				}
+				balances[i] = Math.addExact(store.balance(accounts[i]), deltas[i]);
+			}
+			logPost(accounts, deltas);
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < accounts.length; i++) {
+				store.setBalance(accounts[i], balances[i]);
+				store.setLastActivity(accounts[i], now);
+				changed(accounts[i], balances[i]);
+			}
+			return TransferResult.OK;
+		} finally {
+			unlock(order, locked);
+		}
+	}
+
+	// Releases the first count stripes of an ascending list, in reverse
+	private void unlock(int[] order, int count) {
+		for (int i = count - 1; i >= 0; i--) {
+			if (i == 0 || order[i] != order[i - 1]) {
+				stripes[order[i]].unlock();
+			}
+		}
+	}
+
+	// Called with all the stripes of the posting held
+	private void logPost(int[] accounts, long[] deltas) {
+		if (journal == null) {
+			return;
+		}
+		long[] cards = new long[accounts.length];
+		for (int i = 0; i < accounts.length; i++) {
+			cards[i] = store.cardAt(accounts[i]);
+		}
+		try {
+			long seq = journal.appendPost(cards, deltas);
+			for (int account : accounts) {
+				store.setJournalSeq(account, seq);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Sum of all balances. Locks every stripe, so this is a consistent snapshot
+	 * but not something to call on a hot path.
+	 */
+	@Override
+	public long totalBalance() {
+		int locked = 0;
+		try {
+			for (; locked < stripes.length; locked++) {
+				stripes[locked].lock();
+			}
+			long total = 0;
+			int capacity = store.capacity();
+			for (int slot = 0; slot < capacity; slot++) {
+				if (store.isOccupied(slot)) {
+					total += store.balance(slot);
+				}
+			}
+			return total;
+		} finally {
+			for (int i = locked - 1; i >= 0; i--) {
+				stripes[i].unlock();
+			}
+		}
+	}
+
+	private ReentrantLock stripeOf(int account) {
+		return stripes[account & stripeMask];
+	}
+
+	/**
+	 * Throughput check: uniformly random transfers on all cores. The target is
+	 * over 1M transfers/sec on 8 cores.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		Ledger ledger = new Ledger(new AccountStore(accounts));
+		int[] ids = new int[accounts];
+		for (int i = 0; i < accounts; i++) {
+			ids[i] = ledger.openAccount(4_000_0000_0000_0000L + i, 1_000_00, 0);
+		}
+		long before = ledger.totalBalance();
+
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		long[] done = new long[threads];
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int slot = t;
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long count = 0;
+				while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+					ledger.transfer(ids[random.nextInt(accounts)], ids[random.nextInt(accounts)], 1 + random.nextInt(500));
+					count++;
+				}
+				done[slot] = count;
+			});
+			workers[t].start();
+		}
+		long total = 0;
+		for (int t = 0; t < threads; t++) {
+			workers[t].join();
+			total += done[t];
+		}
+
+		System.out.printf("%d threads, %d accounts: %.0f transfers/s%n", threads, accounts, total / (double) seconds);
+		System.out.println("Money conserved: " + (before == ledger.totalBalance()));
+	}
+}
@@ -0,0 +1,14 @@
+package ledger;
+
+/**
+ * Gets told about every balance the ledger changes, including the opening
+ * balance of a new account once it can be found. Listeners are called while the
+ * ledger still holds the account's stripe lock, so changes to one account arrive
+ * in order. That also means a listener has to be quick and must never call back
+ * into the ledger.
+ */
+@FunctionalInterface
+public interface LedgerListener {
+
+	void balanceChanged(int account, long balance);
+}
@@ -0,0 +1,31 @@
+package ledger;
+
+/**
+ * Reading a ledger without being able to change it. A {@link Ledger} is one; a
+ * {@link FollowerLedger} only hands out this, because whatever is written to its
+ * copy is lost with the next snapshot from the primary.
+ */
+public interface LedgerView {
+
+	/**
+	 * @return the account id for a card number, or -1 if there is no such account
+	 */
+	int accountOf(long cardNumber);
+
+	int accountCount();
+
+	boolean exists(int account);
+
+	long balance(int account);
+
+	/**
+	 * Sum of all balances, consistent across accounts.
+	 */
+	long totalBalance();
+
+	long cardAt(int account);
+
+	int flags(int account);
+
+	long lastActivity(int account);
+}
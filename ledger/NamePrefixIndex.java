@@ -0,0 +1,276 @@
+package ledger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Finds accounts by the beginning of the customer's name ("mei" finds Meikäläinen
+ * and Meier). It is a sorted-array index: the names are stored once as UTF-8 in a
+ * byte arena and the index itself is just sorted arrays of references into the arena
+ * plus the account ids, so there is no String or node object per customer.
+ *
+ * New names are appended to a delta run, which is sorted when it is first searched
+ * (under the write lock, which the search then downgrades to its read lock, so no
+ * add can unsort it before the search is done) and merged into the main run once
+ * it reaches an eighth of its size. Inserts are
+ * therefore O(1) plus an amortized O(log n) share of the merges, and a lookup only
+ * has to binary search two sorted arrays. Names are matched case-insensitively.
+ */
+public class NamePrefixIndex {
+
+	private static final int ARENA_CHUNK = 1 << 24;
+	private static final int MAX_NAME_BYTES = 0xFFFF;
+	private static final int MIN_DELTA = 4096;
+
+	// Name bytes; a reference is chunk (24 bits) | offset (24 bits) | length (16 bits)
+	private final ArrayList<byte[]> arena = new ArrayList<>();
+	private int arenaPosition = ARENA_CHUNK;
+
+	private long[] mainRefs = new long[0];
+	private int[] mainAccounts = new int[0];
+	private int mainSize;
+
+	private long[] deltaRefs = new long[MIN_DELTA];
+	private int[] deltaAccounts = new int[MIN_DELTA];
+	private int deltaSize;
+	private boolean deltaSorted = true;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public void add(String name, int account) {
+		byte[] bytes = normalize(name);
+		lock.writeLock().lock();
+		try {
+			if (deltaSize == deltaRefs.length) {
+				deltaRefs = Arrays.copyOf(deltaRefs, deltaSize * 2);
+				deltaAccounts = Arrays.copyOf(deltaAccounts, deltaSize * 2);
+			}
+			deltaRefs[deltaSize] = store(bytes);
+			deltaAccounts[deltaSize] = account;
+			deltaSize++;
+			deltaSorted = false;
+			if (deltaSize >= Math.max(MIN_DELTA, mainSize / 8)) {
+				sortDelta();
+				merge();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return mainSize + deltaSize;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Number of accounts whose name starts with {@code prefix}.
+	 */
+	public int count(String prefix) {
+		byte[] bytes = normalize(prefix);
+		lockSorted();
+		try {
+			return upperBound(mainRefs, mainSize, bytes) - lowerBound(mainRefs, mainSize, bytes)
+					+ upperBound(deltaRefs, deltaSize, bytes) - lowerBound(deltaRefs, deltaSize, bytes);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Copies the accounts whose name starts with {@code prefix} into {@code out}, in
+	 * name order, skipping the first {@code skip} matches.
+	 *
+	 * @return how many accounts were copied
+	 */
+	public int find(String prefix, int skip, int[] out, int max) {
+		byte[] bytes = normalize(prefix);
+		lockSorted();
+		try {
+			int m = lowerBound(mainRefs, mainSize, bytes);
+			int mEnd = upperBound(mainRefs, mainSize, bytes);
+			int d = lowerBound(deltaRefs, deltaSize, bytes);
+			int dEnd = upperBound(deltaRefs, deltaSize, bytes);
+
+			int filled = 0;
+			while ((m < mEnd || d < dEnd) && filled < max) {
+				boolean takeMain;
+				if (m == mEnd) {
+					takeMain = false;
+				} else if (d == dEnd) {
+					takeMain = true;
+				} else {
+					takeMain = compare(mainRefs[m], mainAccounts[m], deltaRefs[d], deltaAccounts[d]) <= 0;
+				}
+				int account = takeMain ? mainAccounts[m++] : deltaAccounts[d++];
+				if (skip > 0) {
+					skip--;
+				} else {
+					out[filled++] = account;
+				}
+			}
+			return filled;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Takes the read lock with the delta sorted. If it isn't, it is sorted under the
+	// write lock, and the read lock is taken before that is let go.
+	private void lockSorted() {
+		lock.readLock().lock();
+		if (deltaSorted) {
+			return;
+		}
+		lock.readLock().unlock();
+		lock.writeLock().lock();
+		try {
+			if (!deltaSorted) {
+				sortDelta();
+			}
+			lock.readLock().lock();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Merge sort of the delta run (refs and accounts move together)
+	private void sortDelta() {
+		long[] refBuffer = new long[deltaSize];
+		int[] accountBuffer = new int[deltaSize];
+		for (int width = 1; width < deltaSize; width *= 2) {
+			for (int low = 0; low < deltaSize - width; low += 2 * width) {
+				int middle = low + width;
+				int high = Math.min(low + 2 * width, deltaSize);
+				int left = low;
+				int right = middle;
+				int out = low;
+				while (left < middle || right < high) {
+					if (right == high || (left < middle
+							&& compare(deltaRefs[left], deltaAccounts[left], deltaRefs[right], deltaAccounts[right]) <= 0)) {
+						refBuffer[out] = deltaRefs[left];
+						accountBuffer[out++] = deltaAccounts[left++];
+					} else {
+						refBuffer[out] = deltaRefs[right];
+						accountBuffer[out++] = deltaAccounts[right++];
+					}
+				}
+				System.arraycopy(refBuffer, low, deltaRefs, low, high - low);
+				System.arraycopy(accountBuffer, low, deltaAccounts, low, high - low);
+			}
+		}
+		deltaSorted = true;
+	}
+
+	private void merge() {
+		int total = mainSize + deltaSize;
+		long[] refs = new long[total];
+		int[] accounts = new int[total];
+		int m = 0;
+		int d = 0;
+		for (int i = 0; i < total; i++) {
+			if (d == deltaSize || (m < mainSize
+					&& compare(mainRefs[m], mainAccounts[m], deltaRefs[d], deltaAccounts[d]) <= 0)) {
+				refs[i] = mainRefs[m];
+				accounts[i] = mainAccounts[m++];
+			} else {
+				refs[i] = deltaRefs[d];
+				accounts[i] = deltaAccounts[d++];
+			}
+		}
+		mainRefs = refs;
+		mainAccounts = accounts;
+		mainSize = total;
+		deltaSize = 0;
+		deltaSorted = true;
+	}
+
+	private static byte[] normalize(String name) {
+		byte[] bytes = name.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+		return bytes.length <= MAX_NAME_BYTES ? bytes : Arrays.copyOf(bytes, MAX_NAME_BYTES);
+	}
+
+	private long store(byte[] bytes) {
+		if (arenaPosition + bytes.length > ARENA_CHUNK) {
+			arena.add(new byte[ARENA_CHUNK]);
+			arenaPosition = 0;
+		}
+		int chunk = arena.size() - 1;
+		System.arraycopy(bytes, 0, arena.get(chunk), arenaPosition, bytes.length);
+		long ref = ((long) chunk << 40) | ((long) arenaPosition << 16) | bytes.length;
+		arenaPosition += bytes.length;
+		return ref;
+	}
+
+	// Unsigned byte-wise comparison of a stored name with other bytes. With limit set,
+	// only the first limit bytes of the stored name take part (prefix matching).
+	private int compareBytes(long ref, byte[] other, int limit) {
+		byte[] chunk = arena.get((int) (ref >>> 40));
+		int offset = (int) (ref >>> 16) & 0xFFFFFF;
+		int length = Math.min((int) ref & 0xFFFF, limit);
+		int common = Math.min(length, other.length);
+		for (int i = 0; i < common; i++) {
+			int c = Integer.compare(chunk[offset + i] & 0xFF, other[i] & 0xFF);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return Integer.compare(length, other.length);
+	}
+
+	// Orders two stored entries by name, then by account
+	private int compare(long ref1, int account1, long ref2, int account2) {
+		byte[] chunk1 = arena.get((int) (ref1 >>> 40));
+		byte[] chunk2 = arena.get((int) (ref2 >>> 40));
+		int offset1 = (int) (ref1 >>> 16) & 0xFFFFFF;
+		int offset2 = (int) (ref2 >>> 16) & 0xFFFFFF;
+		int length1 = (int) ref1 & 0xFFFF;
+		int length2 = (int) ref2 & 0xFFFF;
+		int common = Math.min(length1, length2);
+		for (int i = 0; i < common; i++) {
+			int c = Integer.compare(chunk1[offset1 + i] & 0xFF, chunk2[offset2 + i] & 0xFF);
+			if (c != 0) {
+				return c;
+			}
+		}
+		int c = Integer.compare(length1, length2);
+		return c != 0 ? c : Integer.compare(account1, account2);
+	}
+
+	// First entry that starts with the prefix or sorts after it
+	private int lowerBound(long[] refs, int size, byte[] prefix) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareBytes(refs[mid], prefix, prefix.length) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	// First entry that sorts after every name starting with the prefix
+	private int upperBound(long[] refs, int size, byte[] prefix) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareBytes(refs[mid], prefix, prefix.length) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
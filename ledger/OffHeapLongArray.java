@@ -0,0 +1,40 @@
+package ledger;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fixed-size array of longs in native memory, split into chunks so that it can
+ * be larger than one ByteBuffer allows. Used for per-account side tables that
+ * would otherwise cost 8 bytes per account of heap.
+ */
+public class OffHeapLongArray {
+
+	private static final int CHUNK_SHIFT = 20; // 1M longs (8 MB) per buffer
+	private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	private final ByteBuffer[] chunks;
+	private final long length;
+
+	public OffHeapLongArray(long length) {
+		this.length = length;
+		int count = (int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT);
+		this.chunks = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long remaining = Math.min(1 << CHUNK_SHIFT, length - ((long) i << CHUNK_SHIFT));
+			chunks[i] = ByteBuffer.allocateDirect((int) remaining * Long.BYTES).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	public long get(long index) {
+		return chunks[(int) (index >>> CHUNK_SHIFT)].getLong((int) (index & CHUNK_MASK) * Long.BYTES);
+	}
+
+	public void set(long index, long value) {
+		chunks[(int) (index >>> CHUNK_SHIFT)].putLong((int) (index & CHUNK_MASK) * Long.BYTES, value);
+	}
+
+	public long length() {
+		return length;
+	}
+}
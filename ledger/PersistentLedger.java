@@ -0,0 +1,523 @@
+package ledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import storage.Journal;
+import storage.JournalRecord;
+import storage.JournalVisitor;
+import storage.SnapshotFile;
+import storage.SnapshotVisitor;
+
+/**
+ * A {@link Ledger} that survives restarts: every change goes to the journal (event
+ * sourcing), and snapshots of all accounts are written now and then so that a
+ * restart only has to load the latest snapshot and replay the journal after it.
+ *
+ * <pre>
+ *  dir/journal/journal-*.seg     the journal
+ *  dir/snapshots/snapshot-*.snap the last {@value #KEEP_SNAPSHOTS} snapshots
+ * </pre>
+ *
+ * Snapshots are written while transfers keep running. The writer notes the last
+ * journal record, then copies the accounts one by one, each under its stripe lock.
+ * By the time an account is copied it may already contain later changes too; that
+ * is fine because every account carries the sequence number of its own last
+ * change, and replay skips the records an account already contains. Journal
+ * segments that are older than every kept snapshot are deleted (compaction).
+ *
+ * When the new store has the same capacity as the snapshot's, every account goes
+ * straight back into its old slot without hashing, which makes loading a snapshot
+ * about as fast as reading the file. Account ids stay the same across restarts.
+ */
+public class PersistentLedger implements Closeable {
+
+	public static final int KEEP_SNAPSHOTS = 2;
+
+	private final Ledger ledger;
+	private final Journal journal;
+	private final Path snapshotDirectory;
+	private final long recoveredSnapshotSeq;
+	private final long replayedRecords;
+	private final long startupMillis;
+	private final Object snapshotLock = new Object();
+	private ScheduledExecutorService snapshotter;
+	private long lastSnapshotSeq;
+
+	private PersistentLedger(Ledger ledger, Path snapshotDirectory, long recoveredSnapshotSeq, long replayedRecords,
+			long startupMillis) {
+		this.ledger = ledger;
+		this.journal = ledger.journal();
+		this.snapshotDirectory = snapshotDirectory;
+		this.recoveredSnapshotSeq = recoveredSnapshotSeq;
+		this.lastSnapshotSeq = recoveredSnapshotSeq;
+		this.replayedRecords = replayedRecords;
+		this.startupMillis = startupMillis;
+	}
+
+	/**
+	 * Opens the ledger in {@code dir}, creating it if it is empty: loads the newest
+	 * snapshot that is intact and replays the rest of the journal.
+	 *
+	 * @param expectedAccounts how many accounts the store should have room for
+	 */
+	public static PersistentLedger open(Path dir, long expectedAccounts) throws IOException {
+		return open(dir, expectedAccounts, null);
+	}
+
+	/**
+	 * Like {@link #open(Path, long)}, and also refills the dedup cache with the
+	 * idempotency keys of the last TTL, so a retry that comes in after a restart
+	 * still gets its first answer. That replay starts at the beginning of the
+	 * journal instead of at the snapshot; records the snapshot contains are only
+	 * read for their keys.
+	 *
+	 * @param dedup the cache for keyed transfers, or null
+	 */
+	public static PersistentLedger open(Path dir, long expectedAccounts, DedupCache dedup) throws IOException {
+		long start = System.nanoTime();
+		Path snapshotDirectory = dir.resolve("snapshots");
+		Journal journal = Journal.open(dir.resolve("journal"));
+		try {
+			AccountStore store = null;
+			long snapshotSeq = 0;
+			for (Path path : SnapshotFile.list(snapshotDirectory)) {
+				try {
+					SnapshotFile snapshot = SnapshotFile.open(path);
+					store = load(snapshot, expectedAccounts);
+					snapshotSeq = snapshot.journalSeq();
+					break;
+				} catch (IOException e) {
+					System.err.println("Skipping snapshot " + path.getFileName() + ": " + e.getMessage());
+				}
+			}
+			if (store == null) {
+				store = new AccountStore(expectedAccounts);
+			}
+			if (journal.firstSeq() > snapshotSeq + 1) {
+				throw new IOException("Journal starts at " + journal.firstSeq() + " but the newest usable snapshot"
+						+ " ends at " + snapshotSeq + "; records in between are lost");
+			}
+
+			Replay replay = new Replay(store, dedup);
+			long replayed = journal.replay(dedup == null ? snapshotSeq + 1 : journal.firstSeq(), replay);
+			Ledger ledger = new Ledger(store, journal);
+			ledger.setDedupCache(dedup);
+			long millis = (System.nanoTime() - start) / 1_000_000;
+			return new PersistentLedger(ledger, snapshotDirectory, snapshotSeq, replayed, millis);
+		} catch (IOException | RuntimeException e) {
+			journal.close();
+			throw e;
+		}
+	}
+
+	private static AccountStore load(SnapshotFile snapshot, long expectedAccounts) throws IOException {
+		AccountStore store;
+		SnapshotVisitor visitor;
+		if (snapshot.capacity() * 0.75 >= Math.max(expectedAccounts, snapshot.accountCount())) {
+			store = AccountStore.withCapacity(snapshot.capacity());
+			visitor = store::restore;
+		} else {
+			// The store has to grow, so the accounts are hashed into new slots
+			AccountStore grown = new AccountStore(Math.max(expectedAccounts, snapshot.accountCount()));
+			store = grown;
+			visitor = (slot, card, balance, pinHash, lastActivity, flags, journalSeq) -> {
+				int account = grown.insert(card, balance, pinHash, flags);
+				grown.setLastActivity(account, lastActivity);
+				grown.setJournalSeq(account, journalSeq);
+			};
+		}
+		snapshot.read(visitor);
+		return store;
+	}
+
+	public Ledger ledger() {
+		return ledger;
+	}
+
+	/**
+	 * Where the snapshots are kept, e.g. for a {@link storage.ReplicationLeader}.
+	 */
+	public Path snapshotDirectory() {
+		return snapshotDirectory;
+	}
+
+	/**
+	 * Journal sequence number of the snapshot the last startup began with, 0 if
+	 * there was none.
+	 */
+	public long recoveredSnapshotSeq() {
+		return recoveredSnapshotSeq;
+	}
+
+	public long replayedRecords() {
+		return replayedRecords;
+	}
+
+	public long startupMillis() {
+		return startupMillis;
+	}
+
+	/**
+	 * Writes a snapshot in the background every {@code period}, as long as something
+	 * has changed since the previous one.
+	 */
+	public synchronized void startSnapshots(long period, TimeUnit unit) {
+		if (snapshotter != null) {
+			return;
+		}
+		snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "ledger-snapshots");
+			thread.setDaemon(true);
+			return thread;
+		});
+		snapshotter.scheduleWithFixedDelay(() -> {
+			try {
+				if (journal.lastSeq() != lastSnapshotSeq()) {
+					snapshot();
+				}
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Snapshot failed: " + e);
+			}
+		}, period, period, unit);
+	}
+
+	private synchronized long lastSnapshotSeq() {
+		return lastSnapshotSeq;
+	}
+
+	/**
+	 * Writes a snapshot now, on the calling thread, and then drops the snapshots and
+	 * journal segments that are no longer needed. Transfers continue meanwhile.
+	 *
+	 * @return the new snapshot
+	 */
+	public SnapshotFile snapshot() throws IOException {
+		synchronized (snapshotLock) {
+			return writeSnapshot();
+		}
+	}
+
+	private SnapshotFile writeSnapshot() throws IOException {
+		AccountStore store = ledger.store();
+		long cutSeq = journal.lastSeq();
+		SnapshotFile snapshot;
+		try (SnapshotFile.Writer writer = SnapshotFile.create(snapshotDirectory, cutSeq, store.capacity())) {
+			int capacity = store.capacity();
+			for (int slot = 0; slot < capacity; slot++) {
+				long card;
+				long balance;
+				long pinHash;
+				long lastActivity;
+				int flags;
+				long seq;
+				ReentrantLock stripe = ledger.lockOf(slot);
+				stripe.lock();
+				try {
+					// Checked under the stripe: an account being opened is journaled
+					// before its card shows, with the stripe held until then
+					if (!store.isOccupied(slot)) {
+						continue;
+					}
+					card = store.cardAt(slot);
+					balance = store.balance(slot);
+					pinHash = store.pinHash(slot);
+					lastActivity = store.lastActivity(slot);
+					flags = store.flags(slot);
+					seq = store.journalSeq(slot);
+				} finally {
+					stripe.unlock();
+				}
+				writer.add(slot, card, balance, pinHash, lastActivity, flags, seq);
+			}
+			// The snapshot may contain changes that were journaled but not forced yet.
+			// They have to be on disk before the snapshot is, or a crash could leave a
+			// snapshot that is ahead of its journal.
+			journal.awaitDurable(journal.lastSeq());
+			snapshot = writer.commit();
+		}
+		synchronized (this) {
+			lastSnapshotSeq = Math.max(lastSnapshotSeq, cutSeq);
+		}
+		compact();
+		return snapshot;
+	}
+
+	// Keeps the newest snapshots and the journal from the oldest of them on; the
+	// journal itself also keeps what a reader asked for with retainSince
+	private void compact() throws IOException {
+		List<Path> snapshots = SnapshotFile.list(snapshotDirectory);
+		if (snapshots.size() < KEEP_SNAPSHOTS) {
+			return;
+		}
+		for (Path old : snapshots.subList(KEEP_SNAPSHOTS, snapshots.size())) {
+			Files.deleteIfExists(old);
+		}
+		long oldestKept = SnapshotFile.open(snapshots.get(KEEP_SNAPSHOTS - 1)).journalSeq();
+		// The REQUEST records of keys still remembered have to survive a restart too
+		DedupCache dedup = ledger.dedupCache();
+		if (dedup != null) {
+			oldestKept = Math.min(oldestKept, dedup.oldestSeq(System.currentTimeMillis()));
+		}
+		journal.deleteBefore(oldestKept + 1);
+	}
+
+	/**
+	 * Stops the background snapshots (letting a running one finish) and closes the
+	 * journal.
+	 */
+	@Override
+	public void close() throws IOException {
+		ScheduledExecutorService executor;
+		synchronized (this) {
+			executor = snapshotter;
+			snapshotter = null;
+		}
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		journal.close();
+	}
+
+	/**
+	 * Applies journal records straight to the store. A record is only applied to an
+	 * account whose own last change is older, so records the snapshot already
+	 * contains are skipped. Idempotency keys that haven't expired go into the dedup
+	 * cache. A {@link FollowerLedger} uses this too, to apply the records it is sent.
+	 */
+	static final class Replay implements JournalVisitor {
+
+		private final AccountStore store;
+		private final DedupCache dedup;
+		private final long keyCutoff;
+		private int[] postAccounts = new int[8];
+		private long[] postDeltas = new long[8];
+		private int postLegs;
+		private long requestKey;
+		private long requestSeq;
+		private long requestTime;
+		private Ledger locks;
+
+		Replay(AccountStore store, DedupCache dedup) {
+			this.store = store;
+			this.dedup = dedup;
+			this.keyCutoff = dedup == null ? 0 : System.currentTimeMillis() - dedup.ttlMillis();
+		}
+
+		@Override
+		public void record(long seq, short type, long timestamp, long accountA, long accountB, long amount) {
+			if (requestKey != 0) {
+				// A request that went through counts once its own record is there
+				if (seq == requestSeq + 1) {
+					dedup.put(requestKey, TransferResult.OK, requestTime, requestSeq - 1);
+				}
+				requestKey = 0;
+			}
+			int account;
+			switch (type) {
+			case JournalRecord.REQUEST:
+				if (dedup == null || timestamp <= keyCutoff) {
+					break;
+				}
+				if (accountB == TransferResult.OK.ordinal()) {
+					requestKey = accountA;
+					requestSeq = seq;
+					requestTime = timestamp;
+				} else {
+					dedup.put(accountA, TransferResult.values()[(int) accountB], timestamp, seq - 1);
+				}
+				break;
+			case JournalRecord.REGISTER:
+				account = store.slotOf(accountA);
+				if (account < 0) {
+					account = store.insert(accountA, amount, accountB, 0);
+				} else if (store.journalSeq(account) < seq) {
+					store.setBalance(account, amount);
+					store.setPinHash(account, accountB);
+				} else {
+					break;
+				}
+				store.setLastActivity(account, timestamp);
+				store.setJournalSeq(account, seq);
+				break;
+			case JournalRecord.PIN_CHANGE:
+				account = applicable(accountA, seq);
+				if (account >= 0) {
+					store.setPinHash(account, accountB);
+					store.setJournalSeq(account, seq);
+				}
+				break;
+			case JournalRecord.SET_FLAGS:
+				account = applicable(accountA, seq);
+				if (account >= 0) {
+					store.setFlags(account, (int) amount);
+					store.setJournalSeq(account, seq);
+				}
+				break;
+			case JournalRecord.DEPOSIT:
+			case JournalRecord.INTEREST:
+				add(store.slotOf(accountA), amount, seq, timestamp);
+				break;
+			case JournalRecord.WITHDRAW:
+				add(store.slotOf(accountA), -amount, seq, timestamp);
+				break;
+			case JournalRecord.TRANSFER:
+				add(store.slotOf(accountA), -amount, seq, timestamp);
+				add(store.slotOf(accountB), amount, seq, timestamp);
+				break;
+			case JournalRecord.POST:
+				// Collect the legs; the posting is applied at its last leg, so one that
+				// was cut off by a crash is never applied at all
+				if (postLegs == postAccounts.length) {
+					postAccounts = Arrays.copyOf(postAccounts, postLegs * 2);
+					postDeltas = Arrays.copyOf(postDeltas, postLegs * 2);
+				}
+				postAccounts[postLegs] = store.slotOf(accountA);
+				postDeltas[postLegs++] = amount;
+				if (accountB == 0) {
+					for (int i = 0; i < postLegs; i++) {
+						add(postAccounts[i], postDeltas[i], seq, timestamp);
+					}
+					postLegs = 0;
+				}
+				break;
+			default:
+				// LOGIN and anything newer than this code don't change accounts
+				break;
+			}
+		}
+
+		/**
+		 * Changes balances under the ledger's stripe locks, for a ledger that is read
+		 * while records are applied.
+		 */
+		void lockWith(Ledger ledger) {
+			this.locks = ledger;
+		}
+
+		private void add(int account, long delta, long seq, long timestamp) {
+			if (account < 0) {
+				return;
+			}
+			if (locks == null) {
+				apply(account, delta, seq, timestamp);
+			} else {
+				ReentrantLock stripe = locks.lockOf(account);
+				stripe.lock();
+				try {
+					apply(account, delta, seq, timestamp);
+				} finally {
+					stripe.unlock();
+				}
+			}
+		}
+
+		private void apply(int account, long delta, long seq, long timestamp) {
+			if (store.journalSeq(account) >= seq) {
+				return;
+			}
+			store.setBalance(account, store.balance(account) + delta);
+			store.setLastActivity(account, timestamp);
+			store.setJournalSeq(account, seq);
+		}
+
+		// The account for a card if the record at seq is newer than what it has
+		private int applicable(long card, long seq) {
+			int account = store.slotOf(card);
+			return account >= 0 && store.journalSeq(account) < seq ? account : -1;
+		}
+	}
+
+	/**
+	 * Cold start check: builds a ledger, runs transfers while snapshots are taken in
+	 * the background, and then reopens it and reports how long startup took.
+	 */
+	public static void main(String[] args) throws Exception {
+		int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int transfers = args.length > 1 ? Integer.parseInt(args[1]) : 3_000_000;
+		Path dir = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("ledger-check");
+		long firstCard = 4_000_0000_0000_0000L;
+
+		long total;
+		try (PersistentLedger persistent = open(dir, accounts)) {
+			Ledger ledger = persistent.ledger();
+			ledger.setSyncCommit(false); // bulk load, one fsync at the end
+			if (ledger.accountCount() == 0) {
+				for (int i = 0; i < accounts; i++) {
+					ledger.openAccount(firstCard + i, 1_000_00, 0);
+				}
+			}
+			persistent.startSnapshots(1, TimeUnit.SECONDS);
+
+			int[] ids = new int[accounts];
+			for (int i = 0; i < accounts; i++) {
+				ids[i] = ledger.accountOf(firstCard + i);
+			}
+			SplittableRandom random = new SplittableRandom(1);
+			long start = System.nanoTime();
+			for (int i = 0; i < transfers; i++) {
+				ledger.transfer(ids[random.nextInt(accounts)], ids[random.nextInt(accounts)], 1 + random.nextInt(500));
+			}
+			ledger.flush();
+			System.out.printf("%d transfers in %.2f s with the journal and background snapshots%n", transfers,
+					(System.nanoTime() - start) / 1e9);
+			total = ledger.totalBalance();
+		}
+
+		try (PersistentLedger reopened = open(dir, accounts)) {
+			System.out.printf("Cold start: snapshot at record %d + %d journal records replayed in %d ms%n",
+					reopened.recoveredSnapshotSeq(), reopened.replayedRecords(), reopened.startupMillis());
+			System.out.println("Balances match: " + (reopened.ledger().totalBalance() == total) + " (" + dir + ")");
+		}
+
+		// Accounts that are paid the moment they can be found: each credit has to be
+		// journaled after the account's REGISTER, or replay drops it
+		Path openDir = Files.createTempDirectory("ledger-open-check");
+		int opened = 100_000;
+		try (PersistentLedger persistent = open(openDir, opened + 1)) {
+			Ledger ledger = persistent.ledger();
+			ledger.setSyncCommit(false);
+			int payer = ledger.openAccount(firstCard - 1, opened * 100L, 0);
+			Thread opener = new Thread(() -> {
+				for (int i = 0; i < opened; i++) {
+					ledger.openAccount(firstCard + i, 0, 0);
+				}
+			}, "opener");
+			opener.start();
+			for (int i = 0; i < opened; i++) {
+				int payee;
+				while ((payee = ledger.accountOf(firstCard + i)) < 0) {
+					Thread.onSpinWait();
+				}
+				ledger.transfer(payer, payee, 100);
+			}
+			opener.join();
+			ledger.flush();
+		}
+		try (PersistentLedger reopened = open(openDir, opened + 1)) {
+			Ledger ledger = reopened.ledger();
+			int credited = 0;
+			for (int i = 0; i < opened; i++) {
+				if (ledger.balance(ledger.accountOf(firstCard + i)) == 100) {
+					credited++;
+				}
+			}
+			System.out.printf("Paid while being opened: %d of %d credits replayed, money conserved: %b%n", credited,
+					opened, ledger.totalBalance() == opened * 100L);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package ledger;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An ordered index of (key, account) pairs that answers range queries, e.g. "all
+ * accounts with a balance between 10 000 and 20 000 €" or "accounts active in the
+ * last hour", in order of the key.
+ *
+ * It is a two-level B+-tree: the leaves are blocks of up to {@link #BLOCK_SIZE}
+ * entries in sorted primitive arrays, and the directory above them is a sorted list
+ * of blocks. A lookup is a binary search over the blocks and then one inside the
+ * block; an insert shifts at most one block and splits it when it gets full. Pairs
+ * are ordered by key and then by account, so every entry is unique.
+ *
+ * Readers share a read lock and the (single) writer takes the write lock.
+ */
+public class RangeIndex {
+
+	public static final int BLOCK_SIZE = 512;
+
+	private static final class Block {
+		final long[] keys = new long[BLOCK_SIZE];
+		final int[] accounts = new int[BLOCK_SIZE];
+		int size;
+	}
+
+	private final ArrayList<Block> blocks = new ArrayList<>();
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private long size;
+
+	public RangeIndex() {
+		blocks.add(new Block());
+	}
+
+	private static int compare(long key1, int account1, long key2, int account2) {
+		int c = Long.compare(key1, key2);
+		return c != 0 ? c : Integer.compare(account1, account2);
+	}
+
+	// Last block whose first entry is <= (key, account), or 0
+	private int findBlock(long key, int account) {
+		int low = 1;
+		int high = blocks.size() - 1;
+		int result = 0;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			Block block = blocks.get(mid);
+			if (compare(block.keys[0], block.accounts[0], key, account) <= 0) {
+				result = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return result;
+	}
+
+	// First position in the block whose entry is >= (key, account)
+	private static int lowerBound(Block block, long key, int account) {
+		int low = 0;
+		int high = block.size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(block.keys[mid], block.accounts[mid], key, account) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	public void insert(long key, int account) {
+		lock.writeLock().lock();
+		try {
+			insertLocked(key, account);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean remove(long key, int account) {
+		lock.writeLock().lock();
+		try {
+			return removeLocked(key, account);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves an account from one key to another in one step.
+	 */
+	public void update(long oldKey, long newKey, int account) {
+		if (oldKey == newKey) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			removeLocked(oldKey, account);
+			insertLocked(newKey, account);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void insertLocked(long key, int account) {
+		int index = findBlock(key, account);
+		Block block = blocks.get(index);
+		int position = lowerBound(block, key, account);
+		if (position < block.size && block.keys[position] == key && block.accounts[position] == account) {
+			return; // already there
+		}
+
+		if (block.size == BLOCK_SIZE) {
+			// Split in half and insert into the half the entry belongs to
+			Block right = new Block();
+			int half = BLOCK_SIZE / 2;
+			System.arraycopy(block.keys, half, right.keys, 0, BLOCK_SIZE - half);
+			System.arraycopy(block.accounts, half, right.accounts, 0, BLOCK_SIZE - half);
+			right.size = BLOCK_SIZE - half;
+			block.size = half;
+			blocks.add(index + 1, right);
+			if (position > half) {
+				block = right;
+				position -= half;
+			}
+		}
+
+		System.arraycopy(block.keys, position, block.keys, position + 1, block.size - position);
+		System.arraycopy(block.accounts, position, block.accounts, position + 1, block.size - position);
+		block.keys[position] = key;
+		block.accounts[position] = account;
+		block.size++;
+		size++;
+	}
+
+	private boolean removeLocked(long key, int account) {
+		int index = findBlock(key, account);
+		Block block = blocks.get(index);
+		int position = lowerBound(block, key, account);
+		if (position == block.size || block.keys[position] != key || block.accounts[position] != account) {
+			return false;
+		}
+		System.arraycopy(block.keys, position + 1, block.keys, position, block.size - position - 1);
+		System.arraycopy(block.accounts, position + 1, block.accounts, position, block.size - position - 1);
+		block.size--;
+		size--;
+		if (block.size == 0 && blocks.size() > 1) {
+			blocks.remove(index);
+		}
+		return true;
+	}
+
+	public long size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Number of entries with {@code low <= key <= high}.
+	 */
+	public int count(long low, long high) {
+		lock.readLock().lock();
+		try {
+			long count = 0;
+			int index = findBlock(low, Integer.MIN_VALUE);
+			int position = lowerBound(blocks.get(index), low, Integer.MIN_VALUE);
+			for (; index < blocks.size(); index++, position = 0) {
+				Block block = blocks.get(index);
+				if (block.size > 0 && block.keys[block.size - 1] <= high) {
+					count += block.size - position; // the whole rest of the block is in range
+					continue;
+				}
+				while (position < block.size && block.keys[position] <= high) {
+					count++;
+					position++;
+				}
+				break;
+			}
+			return (int) Math.min(Integer.MAX_VALUE, count);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Copies the accounts of the entries with {@code low <= key <= high} into
+	 * {@code out}, in key order, skipping the first {@code skip} of them.
+	 *
+	 * @return how many accounts were copied
+	 */
+	public int fetch(long low, long high, int skip, int[] out, int max) {
+		lock.readLock().lock();
+		try {
+			int index = findBlock(low, Integer.MIN_VALUE);
+			int position = lowerBound(blocks.get(index), low, Integer.MIN_VALUE);
+
+			// Whole blocks can be skipped without looking at their entries
+			while (index < blocks.size()) {
+				Block block = blocks.get(index);
+				int available = block.size - position;
+				if (skip < available) {
+					position += skip;
+					skip = 0;
+					break;
+				}
+				skip -= available;
+				index++;
+				position = 0;
+			}
+
+			int filled = 0;
+			for (; index < blocks.size() && filled < max; index++, position = 0) {
+				Block block = blocks.get(index);
+				while (position < block.size && filled < max) {
+					if (block.keys[position] > high) {
+						return filled;
+					}
+					out[filled++] = block.accounts[position++];
+				}
+			}
+			return filled;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,563 @@
+package ledger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import metrics.LatencyHistogram;
+import storage.Directories;
+import storage.Journal;
+
+/**
+ * The way into the ledger for the front ends. Deposits, withdrawals and transfers
+ * go through a staged pipeline, so callers don't each lock, journal and wait for
+ * their own fsync.
+ *
+ * <pre>
+ *  callers -> ingest -> apply -> commit -> notify -> callers
+ * </pre>
+ *
+ * It works like a Disruptor. There is one preallocated ring of command slots, and
+ * every stage owns a sequence counter that only it writes and the next stage
+ * follows:
+ * <ul>
+ * <li>ingest: any thread claims a slot with one atomic increment, fills it in and
+ * publishes it;</li>
+ * <li>apply ("ledger-apply"): validates each command, puts transfers through the
+ * ledger's {@link TransferGuard} and applies them, which appends them to the
+ * journal. Risk check and apply share a thread because the velocity windows have
+ * to see a transfer before the next one is scored;</li>
+ * <li>commit ("ledger-commit"): one fsync for everything applied so far;</li>
+ * <li>notify ("ledger-notify"): hands every command its result and frees the
+ * slots.</li>
+ * </ul>
+ *
+ * A stage takes whatever has piled up since its last round, so batches grow with
+ * the load. A busy pipeline covers hundreds of commands with one fsync, and a quiet
+ * one sends a command through on its own. The batch limit on the apply stage caps
+ * how long a command waits behind others, which keeps p99 bounded. An idle stage
+ * parks, and the stage before it wakes it up.
+ */
+public class TransactionPipeline {
+
+	public static final int DEFAULT_CAPACITY = 1 << 14;
+	public static final int DEFAULT_MAX_BATCH = 256;
+
+	private static final int DEPOSIT = 1;
+	private static final int WITHDRAW = 2;
+	private static final int TRANSFER = 3;
+
+	private static final int SPINS = 100;
+	private static final long LATENCY_SAMPLE_MASK = 15; // time every 16th command
+
+	private final Ledger ledger;
+	private final Journal journal;
+	private final int capacity;
+	private final int mask;
+	private final int maxBatch;
+
+	// The slots. A slot belongs to its producer until it is published, then to the
+	// stages in turn, and is free again once notify has passed it.
+	private final int[] types;
+	private final int[] accountsA;
+	private final int[] accountsB;
+	private final long[] amounts;
+	private final long[] keys;
+	private final TransferResult[] results;
+	private final RuntimeException[] failures;
+	private final CommandCallback[] callbacks;
+	private final long[] submitTimes;
+	private final AtomicLongArray published;
+
+	private final Sequence claimed = new Sequence();
+	private final Sequence applied = new Sequence();
+	private final Sequence committed = new Sequence();
+	private final Sequence notified = new Sequence();
+	private volatile Thread applyWaiter;
+	private volatile long appliedJournalSeq;
+
+	private final ThreadLocal<Waiter> waiters = ThreadLocal.withInitial(Waiter::new);
+	private final LatencyHistogram batchSizes = new LatencyHistogram();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private volatile boolean accepting = true;
+	private final AtomicInteger submitting = new AtomicInteger(); // callers between the check and the publish
+	private volatile boolean running;
+	private Thread[] stages;
+
+	public TransactionPipeline(Ledger ledger) {
+		this(ledger, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * @param capacity number of command slots, rounded up to a power of two
+	 * @param maxBatch most commands the apply stage takes in one round
+	 */
+	public TransactionPipeline(Ledger ledger, int capacity, int maxBatch) {
+		if (maxBatch <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.ledger = ledger;
+		this.journal = ledger.journal();
+		this.capacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.maxBatch = maxBatch;
+		this.types = new int[this.capacity];
+		this.accountsA = new int[this.capacity];
+		this.accountsB = new int[this.capacity];
+		this.amounts = new long[this.capacity];
+		this.keys = new long[this.capacity];
+		this.results = new TransferResult[this.capacity];
+		this.failures = new RuntimeException[this.capacity];
+		this.callbacks = new CommandCallback[this.capacity];
+		this.submitTimes = new long[this.capacity];
+		this.published = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			published.set(i, -1);
+		}
+	}
+
+	// A stage's position: the last sequence it is done with. Padded so that the
+	// stages don't share a cache line.
+	@SuppressWarnings("unused")
+	private static final class Sequence extends AtomicLong {
+		long p1, p2, p3, p4, p5, p6, p7;
+		volatile Thread waiter;
+
+		Sequence() {
+			super(-1);
+		}
+
+		// Only the owning stage calls this: moves on and wakes the stage that follows
+		void publish(long value) {
+			set(value);
+			Thread next = waiter;
+			if (next != null) {
+				LockSupport.unpark(next);
+			}
+		}
+	}
+
+	// What a blocking caller waits on; one per thread, reused for every call
+	private static final class Waiter implements CommandCallback {
+		private final Thread thread = Thread.currentThread();
+		private volatile boolean done;
+		private TransferResult result;
+		private RuntimeException failure;
+
+		@Override
+		public void completed(TransferResult result, RuntimeException failure) {
+			this.result = result;
+			this.failure = failure;
+			done = true;
+			LockSupport.unpark(thread);
+		}
+
+		TransferResult await() {
+			int spins = 0;
+			while (!done) {
+				if (++spins < SPINS) {
+					Thread.onSpinWait();
+				} else {
+					LockSupport.park(this);
+				}
+			}
+			done = false;
+			if (failure != null) {
+				throw failure;
+			}
+			return result;
+		}
+	}
+
+	public synchronized void start() {
+		if (stages != null) {
+			return;
+		}
+		running = true;
+		accepting = true;
+		stages = new Thread[] { new Thread(this::applyLoop, "ledger-apply"), new Thread(this::commitLoop, "ledger-commit"),
+				new Thread(this::notifyLoop, "ledger-notify") };
+		for (Thread stage : stages) {
+			stage.setDaemon(true);
+			stage.start();
+		}
+	}
+
+	/**
+	 * Stops taking commands, finishes the ones already submitted and stops the
+	 * stages. Until the next {@link #start()}, submitting throws an
+	 * IllegalStateException.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (stages == null) {
+			return;
+		}
+		accepting = false;
+		// A caller that got past the check just before is still claiming; once none
+		// is left, nothing can be claimed after last
+		while (submitting.get() > 0) {
+			LockSupport.parkNanos(100_000);
+		}
+		long last = claimed.get();
+		while (notified.get() < last) {
+			LockSupport.parkNanos(100_000);
+		}
+		running = false;
+		for (Thread stage : stages) {
+			LockSupport.unpark(stage);
+			stage.join();
+		}
+		stages = null;
+	}
+
+	// Blocking calls: return once the command is on disk
+
+	public TransferResult deposit(int account, long amount) {
+		return call(DEPOSIT, account, 0, amount, 0);
+	}
+
+	public TransferResult withdraw(int account, long amount) {
+		return call(WITHDRAW, account, 0, amount, 0);
+	}
+
+	public TransferResult transfer(int from, int to, long amount) {
+		return call(TRANSFER, from, to, amount, 0);
+	}
+
+	/**
+	 * A transfer with an idempotency key, see {@link Ledger#transfer(long, int, int, long)}.
+	 */
+	public TransferResult transfer(long requestKey, int from, int to, long amount) {
+		return call(TRANSFER, from, to, amount, requestKey);
+	}
+
+	// Asynchronous calls: return right away, the callback gets the result
+
+	public void submitDeposit(int account, long amount, CommandCallback callback) {
+		submit(DEPOSIT, account, 0, amount, 0, callback);
+	}
+
+	public void submitWithdraw(int account, long amount, CommandCallback callback) {
+		submit(WITHDRAW, account, 0, amount, 0, callback);
+	}
+
+	public void submitTransfer(int from, int to, long amount, CommandCallback callback) {
+		submit(TRANSFER, from, to, amount, 0, callback);
+	}
+
+	public void submitTransfer(long requestKey, int from, int to, long amount, CommandCallback callback) {
+		submit(TRANSFER, from, to, amount, requestKey, callback);
+	}
+
+	private TransferResult call(int type, int a, int b, long amount, long key) {
+		Waiter waiter = waiters.get();
+		submit(type, a, b, amount, key, waiter);
+		return waiter.await();
+	}
+
+	// Ingest, refused once stop() has begun
+	private void submit(int type, int a, int b, long amount, long key, CommandCallback callback) {
+		submitting.incrementAndGet();
+		try {
+			if (!accepting) {
+				throw new IllegalStateException("Pipeline is stopping");
+			}
+			publish(type, a, b, amount, key, callback);
+		} finally {
+			submitting.decrementAndGet();
+		}
+	}
+
+	// Claims a slot, waits if the ring is full, fills it in and publishes it
+	private void publish(int type, int a, int b, long amount, long key, CommandCallback callback) {
+		long seq = claimed.incrementAndGet();
+		int spins = 0;
+		while (seq - notified.get() > capacity) {
+			if (++spins < SPINS) {
+				Thread.onSpinWait();
+			} else if (spins < 2 * SPINS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(20_000);
+			}
+		}
+		int slot = (int) seq & mask;
+		types[slot] = type;
+		accountsA[slot] = a;
+		accountsB[slot] = b;
+		amounts[slot] = amount;
+		keys[slot] = key;
+		callbacks[slot] = callback;
+		if ((seq & LATENCY_SAMPLE_MASK) == 0) {
+			submitTimes[slot] = System.nanoTime();
+		}
+		published.set(slot, seq);
+		Thread waiting = applyWaiter;
+		if (waiting != null) {
+			LockSupport.unpark(waiting);
+		}
+	}
+
+	private void applyLoop() {
+		long next = applied.get() + 1;
+		while (awaitPublished(next)) {
+			long end = next;
+			while (end + 1 - next < maxBatch && published.get((int) (end + 1) & mask) == end + 1) {
+				end++;
+			}
+			for (long seq = next; seq <= end; seq++) {
+				apply((int) seq & mask);
+			}
+			if (journal != null) {
+				appliedJournalSeq = journal.lastSeq();
+			}
+			applied.publish(end);
+			next = end + 1;
+		}
+	}
+
+	private void apply(int slot) {
+		try {
+			switch (types[slot]) {
+			case DEPOSIT:
+				results[slot] = ledger.applyDeposit(accountsA[slot], amounts[slot]);
+				break;
+			case WITHDRAW:
+				results[slot] = ledger.applyWithdraw(accountsA[slot], amounts[slot]);
+				break;
+			default:
+				results[slot] = ledger.applyTransfer(keys[slot], accountsA[slot], accountsB[slot], amounts[slot]);
+				break;
+			}
+		} catch (RuntimeException e) {
+			failures[slot] = e;
+		}
+	}
+
+	private void commitLoop() {
+		long next = committed.get() + 1;
+		while (true) {
+			long end = await(applied, next);
+			if (end < next) {
+				return;
+			}
+			if (journal != null) {
+				try {
+					journal.awaitDurable(appliedJournalSeq);
+				} catch (IOException e) {
+					// Applied but maybe not on disk: the callers get the error, as
+					// they would from the ledger itself
+					RuntimeException failure = new UncheckedIOException(e);
+					for (long seq = next; seq <= end; seq++) {
+						int slot = (int) seq & mask;
+						if (failures[slot] == null) {
+							failures[slot] = failure;
+						}
+					}
+				}
+			}
+			batchSizes.record(end - next + 1);
+			committed.publish(end);
+			next = end + 1;
+		}
+	}
+
+	private void notifyLoop() {
+		long next = notified.get() + 1;
+		while (true) {
+			long end = await(committed, next);
+			if (end < next) {
+				return;
+			}
+			for (long seq = next; seq <= end; seq++) {
+				int slot = (int) seq & mask;
+				CommandCallback callback = callbacks[slot];
+				TransferResult result = results[slot];
+				RuntimeException failure = failures[slot];
+				callbacks[slot] = null;
+				results[slot] = null;
+				failures[slot] = null;
+				try {
+					callback.completed(failure == null ? result : null, failure);
+				} catch (RuntimeException e) {
+					System.err.println("Command callback failed: " + e);
+				}
+				if ((seq & LATENCY_SAMPLE_MASK) == 0) {
+					latency.record(System.nanoTime() - submitTimes[slot]);
+				}
+			}
+			notified.set(end);
+			next = end + 1;
+		}
+	}
+
+	// Waits until the command with this sequence is published; false if the
+	// pipeline stopped first
+	private boolean awaitPublished(long seq) {
+		int slot = (int) seq & mask;
+		int spins = 0;
+		while (published.get(slot) != seq) {
+			if (!running) {
+				return false;
+			}
+			if (++spins < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				applyWaiter = Thread.currentThread();
+				if (published.get(slot) != seq && running) {
+					LockSupport.park(this);
+				}
+				applyWaiter = null;
+			}
+		}
+		return true;
+	}
+
+	// Waits until the sequence reaches the value and returns where it is; less than
+	// the value if the pipeline stopped first
+	private long await(Sequence sequence, long value) {
+		int spins = 0;
+		long current;
+		while ((current = sequence.get()) < value) {
+			if (!running) {
+				return current;
+			}
+			if (++spins < SPINS) {
+				Thread.onSpinWait();
+			} else {
+				sequence.waiter = Thread.currentThread();
+				if (sequence.get() < value && running) {
+					LockSupport.park(this);
+				}
+				sequence.waiter = null;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Commands per fsync, one value per commit.
+	 */
+	public LatencyHistogram batchSizes() {
+		return batchSizes;
+	}
+
+	/**
+	 * Nanoseconds from submitting a command until its callback returned, for every
+	 * 16th command.
+	 */
+	public LatencyHistogram latency() {
+		return latency;
+	}
+
+	/**
+	 * Commands finished so far.
+	 */
+	public long completed() {
+		return notified.get() + 1;
+	}
+
+	public int maxBatch() {
+		return maxBatch;
+	}
+
+	/**
+	 * Commands submitted and not finished yet.
+	 */
+	public long inFlight() {
+		return claimed.get() - notified.get();
+	}
+
+	/**
+	 * Compares callers that each transfer and fsync on their own with the same
+	 * callers going through the pipeline, at a few batch limits.
+	 */
+	public static void main(String[] args) throws Exception {
+		int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int callers = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		Path dir = Files.createTempDirectory("pipeline");
+		try (Journal journal = Journal.open(dir)) {
+			Ledger ledger = new Ledger(new AccountStore(accounts), journal);
+			ledger.setSyncCommit(false);
+			int[] ids = new int[accounts];
+			for (int i = 0; i < accounts; i++) {
+				ids[i] = ledger.openAccount(4_000_0000_0000_0000L + i, 1_000_000_00L, 0);
+			}
+			ledger.flush();
+			ledger.setSyncCommit(true);
+			long before = ledger.totalBalance();
+
+			run("Direct, fsync per call", callers, seconds, ids,
+					(from, to, amount) -> ledger.transfer(from, to, amount));
+			for (int batch : new int[] { 1, 16, 256 }) {
+				TransactionPipeline pipeline = new TransactionPipeline(ledger, DEFAULT_CAPACITY, batch);
+				pipeline.start();
+				run("Pipeline, batch " + batch, callers, seconds, ids, pipeline::transfer);
+				runAsync("  async, one submitter", pipeline, seconds, ids);
+				pipeline.stop();
+				LatencyHistogram sizes = pipeline.batchSizes();
+				System.out.printf("   %,d fsyncs, commands per fsync: mean %.1f, p99 %d, max %d%n", sizes.count(), sizes.mean(),
+						sizes.percentile(99), sizes.max());
+			}
+			System.out.println("Money conserved: " + (before == ledger.totalBalance()));
+		} finally {
+			Directories.deleteRecursively(dir);
+		}
+	}
+
+	// One thread keeps up to 4096 transfers in flight, no caller threads to wake
+	private static void runAsync(String name, TransactionPipeline pipeline, int seconds, int[] ids)
+			throws InterruptedException {
+		LatencyHistogram latency = new LatencyHistogram();
+		Semaphore window = new Semaphore(4096);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		while (System.nanoTime() < deadline) {
+			window.acquire();
+			long start = System.nanoTime();
+			pipeline.submitTransfer(ids[random.nextInt(ids.length)], ids[random.nextInt(ids.length)],
+					1 + random.nextInt(100_00), (result, failure) -> {
+						latency.record(System.nanoTime() - start);
+						window.release();
+					});
+		}
+		window.acquire(4096);
+		System.out.printf("%-24s %,9.0f transfers/s  %s%n", name, latency.count() / (double) seconds, latency.summary());
+	}
+
+	private interface Transfer {
+		TransferResult transfer(int from, int to, long amount);
+	}
+
+	private static void run(String name, int callers, int seconds, int[] ids, Transfer transfer)
+			throws InterruptedException {
+		LatencyHistogram latency = new LatencyHistogram();
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		Thread[] threads = new Thread[callers];
+		for (int t = 0; t < callers; t++) {
+			threads[t] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (System.nanoTime() < deadline) {
+					long start = System.nanoTime();
+					transfer.transfer(ids[random.nextInt(ids.length)], ids[random.nextInt(ids.length)],
+							1 + random.nextInt(100_00));
+					latency.record(System.nanoTime() - start);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		System.out.printf("%-24s %,9.0f transfers/s  %s%n", name, latency.count() / (double) seconds, latency.summary());
+	}
+}
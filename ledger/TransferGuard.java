@@ -0,0 +1,20 @@
+package ledger;
+
+/**
+ * A check every {@link Ledger#transfer transfer} has to pass, such as fraud
+ * scoring. It runs on the caller's thread before any stripe is locked, so it may
+ * take its own locks, but it sits on the transfer path and has to be quick.
+ */
+public interface TransferGuard {
+
+	/**
+	 * @return false to hold the transfer; it is then not applied and the ledger
+	 *         answers {@link TransferResult#HELD}
+	 */
+	boolean admit(int from, int to, long amount);
+
+	/**
+	 * Told about every transfer that went through, after the locks are released.
+	 */
+	void transferred(int from, int to, long amount);
+}
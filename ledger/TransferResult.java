@@ -0,0 +1,20 @@
+package ledger;
+
+/**
+ * Outcome of a ledger operation. Operations return one of these instead of
+ * throwing, because a declined transfer is a normal thing for a bank.
+ */
+public enum TransferResult {
+
+	OK,
+	INSUFFICIENT_FUNDS,
+	UNKNOWN_ACCOUNT,
+	INVALID_AMOUNT,
+	SAME_ACCOUNT,
+	ACCOUNT_FROZEN,
+	HELD; // stopped by the transfer guard, waits for an admin to review it
+
+	public boolean isOk() {
+		return this == OK;
+	}
+}
@@ -0,0 +1,13 @@
+package main;
+
+/**
+ * The kinds of banking activity the {@link ActivitySimulator} can pick for a user.
+ */
+public enum Activity {
+
+	DEPOSIT,
+	WITHDRAW,
+	TRANSFER,
+	LOGIN,
+	BALANCE_CHECK
+}
@@ -0,0 +1,74 @@
+package main;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Relative weights of the different activities, e.g. "70% balance checks, 20%
+ * transfers, 10% everything else". Weights don't have to add up to anything.
+ */
+public class ActivityMix {
+
+	private static final Activity[] ACTIVITIES = Activity.values();
+
+	private final int[] weights = new int[ACTIVITIES.length];
+	private int[] cumulative = new int[ACTIVITIES.length];
+	private int total;
+
+	/**
+	 * A mix that looks roughly like a real retail bank: mostly reads and logins.
+	 */
+	public static ActivityMix typical() {
+		return new ActivityMix()
+				.weight(Activity.BALANCE_CHECK, 40)
+				.weight(Activity.LOGIN, 20)
+				.weight(Activity.TRANSFER, 25)
+				.weight(Activity.DEPOSIT, 10)
+				.weight(Activity.WITHDRAW, 5);
+	}
+
+	public ActivityMix weight(Activity activity, int weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("Weight can't be negative: " + weight);
+		}
+		weights[activity.ordinal()] = weight;
+		int sum = 0;
+		int[] next = new int[ACTIVITIES.length];
+		for (int i = 0; i < ACTIVITIES.length; i++) {
+			sum += weights[i];
+			next[i] = sum;
+		}
+		cumulative = next;
+		total = sum;
+		return this;
+	}
+
+	/**
+	 * @param roll a uniformly random number in [0, 1)
+	 */
+	public Activity pick(double roll) {
+		if (total == 0) {
+			throw new IllegalStateException("Activity mix has no weights");
+		}
+		int target = (int) (roll * total);
+		for (int i = 0; i < cumulative.length; i++) {
+			if (target < cumulative[i]) {
+				return ACTIVITIES[i];
+			}
+		}
+		return ACTIVITIES[ACTIVITIES.length - 1];
+	}
+
+	public Map<Activity, Integer> weights() {
+		Map<Activity, Integer> map = new EnumMap<>(Activity.class);
+		for (Activity activity : ACTIVITIES) {
+			map.put(activity, weights[activity.ordinal()]);
+		}
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return weights().toString();
+	}
+}
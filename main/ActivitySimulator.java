@@ -0,0 +1,305 @@
+package main;
+
+import java.lang.reflect.Method;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import ledger.AccountStore;
+import ledger.Ledger;
+import ledger.TransferResult;
+
+/**
+ * Randomly selects a user and randomly selects some kind of banking activity for
+ * them, so that the bank looks busy. It doubles as the load generator we capacity
+ * plan against:
+ *
+ * - the activity mix is configurable ({@link ActivityMix})
+ * - users are picked with a Zipf skew, so a few hot accounts get most traffic
+ * - with a target rate it runs open-loop: arrivals are Poisson distributed and are
+ *   dispatched at their scheduled time no matter how slow the bank is, and latency
+ *   is measured from the scheduled time (so a stall shows up as a stall)
+ * - without a rate it runs closed-loop, each worker as fast as it can
+ * - everything random comes from one seed, so a run can be repeated exactly
+ *
+ * Operations run on virtual threads when the JVM has them (Java 21+) and on a
+ * fixed pool of platform threads otherwise.
+ */
+public class ActivitySimulator {
+
+	private static final Activity[] ACTIVITIES = Activity.values();
+
+	private final Ledger ledger;
+	private final int[] accounts;
+
+	private ActivityMix mix = ActivityMix.typical();
+	private double skew = 0.99;
+	private double rate;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private long seed = 42;
+	private long maxAmount = 500_00;
+
+	// Statistics
+	private final LongAdder[] completed = new LongAdder[ACTIVITIES.length];
+	private final LongAdder declined = new LongAdder();
+	private final LongAdder latencyTotal = new LongAdder();
+	private final AtomicLong latencyMax = new AtomicLong();
+
+	private volatile boolean running;
+	private Thread background;
+
+	/**
+	 * @param ledger   the ledger to drive
+	 * @param accounts ids of the accounts to pick users from; the first ones are
+	 *                 the hottest when the skew is above 0
+	 */
+	public ActivitySimulator(Ledger ledger, int[] accounts) {
+		if (accounts.length < 2) {
+			throw new IllegalArgumentException("Need at least two accounts to simulate transfers");
+		}
+		this.ledger = ledger;
+		this.accounts = accounts;
+		for (int i = 0; i < completed.length; i++) {
+			completed[i] = new LongAdder();
+		}
+	}
+
+	public ActivitySimulator mix(ActivityMix mix) {
+		this.mix = mix;
+		return this;
+	}
+
+	/**
+	 * @param skew Zipf exponent, 0 picks users uniformly
+	 */
+	public ActivitySimulator skew(double skew) {
+		this.skew = skew;
+		return this;
+	}
+
+	/**
+	 * @param operationsPerSecond target arrival rate, 0 runs closed-loop at full speed
+	 */
+	public ActivitySimulator rate(double operationsPerSecond) {
+		this.rate = operationsPerSecond;
+		return this;
+	}
+
+	/**
+	 * @param workers concurrent workers in closed-loop mode, and the size of the
+	 *                fallback pool when there are no virtual threads
+	 */
+	public ActivitySimulator workers(int workers) {
+		this.workers = workers;
+		return this;
+	}
+
+	public ActivitySimulator seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * @param maxAmount largest amount moved by one operation, in minor units
+	 */
+	public ActivitySimulator maxAmount(long maxAmount) {
+		this.maxAmount = maxAmount;
+		return this;
+	}
+
+	/**
+	 * Runs the simulation on the calling thread for the given time.
+	 */
+	public void run(long durationMillis) throws InterruptedException {
+		running = true;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+		if (deadline < 0) {
+			deadline = Long.MAX_VALUE;
+		}
+		ZipfianGenerator users = new ZipfianGenerator(accounts.length, skew);
+		ExecutorService executor = newExecutor(workers);
+		try {
+			if (rate > 0) {
+				runOpenLoop(executor, users, deadline);
+			} else {
+				runClosedLoop(executor, users, deadline);
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+			running = false;
+		}
+	}
+
+	/**
+	 * Starts the simulation in the background until {@link #stop()} is called. This
+	 * is what the main page uses to make the bank look alive.
+	 */
+	public synchronized void start() {
+		if (background != null) {
+			return;
+		}
+		background = new Thread(() -> {
+			try {
+				run(Long.MAX_VALUE);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "activity-simulator");
+		background.setDaemon(true);
+		background.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+		if (background != null) {
+			background.interrupt();
+			background = null;
+		}
+	}
+
+	// One dispatcher decides everything up front (activity, users, amount, arrival
+	// time) from the seed, so the run is reproducible even though the operations
+	// themselves complete in any order.
+	private void runOpenLoop(ExecutorService executor, ZipfianGenerator users, long deadline) {
+		SplittableRandom random = new SplittableRandom(seed);
+		double meanGapNanos = 1e9 / rate;
+		long scheduled = System.nanoTime();
+		while (running && scheduled < deadline) {
+			scheduled += (long) (-Math.log(1.0 - random.nextDouble()) * meanGapNanos);
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			Activity activity = mix.pick(random.nextDouble());
+			int user = accounts[users.next(random)];
+			int other = accounts[users.next(random)];
+			long amount = 1 + random.nextLong(maxAmount);
+			long intended = scheduled;
+			executor.execute(() -> {
+				perform(activity, user, other, amount);
+				recordLatency(System.nanoTime() - intended);
+			});
+		}
+	}
+
+	private void runClosedLoop(ExecutorService executor, ZipfianGenerator users, long deadline) {
+		SplittableRandom root = new SplittableRandom(seed);
+		for (int w = 0; w < workers; w++) {
+			SplittableRandom random = root.split();
+			executor.execute(() -> {
+				while (running && System.nanoTime() < deadline) {
+					Activity activity = mix.pick(random.nextDouble());
+					int user = accounts[users.next(random)];
+					int other = accounts[users.next(random)];
+					long amount = 1 + random.nextLong(maxAmount);
+					long start = System.nanoTime();
+					perform(activity, user, other, amount);
+					recordLatency(System.nanoTime() - start);
+				}
+			});
+		}
+	}
+
+	private void perform(Activity activity, int user, int other, long amount) {
+		TransferResult result = TransferResult.OK;
+		switch (activity) {
+			case DEPOSIT:
+				result = ledger.deposit(user, amount);
+				break;
+			case WITHDRAW:
+				result = ledger.withdraw(user, amount);
+				break;
+			case TRANSFER:
+				result = ledger.transfer(user, other, amount);
+				break;
+			case LOGIN:
+				AccountStore store = ledger.store();
+				if (ledger.accountOf(store.cardAt(user)) != user) {
+					result = TransferResult.UNKNOWN_ACCOUNT;
+				}
+				break;
+			case BALANCE_CHECK:
+				ledger.balance(user);
+				break;
+		}
+		completed[activity.ordinal()].increment();
+		if (!result.isOk()) {
+			declined.increment();
+		}
+	}
+
+	private void recordLatency(long nanos) {
+		latencyTotal.add(nanos);
+		long max = latencyMax.get();
+		while (nanos > max && !latencyMax.compareAndSet(max, nanos)) {
+			max = latencyMax.get();
+		}
+	}
+
+	public long completed(Activity activity) {
+		return completed[activity.ordinal()].sum();
+	}
+
+	public long totalCompleted() {
+		long total = 0;
+		for (LongAdder adder : completed) {
+			total += adder.sum();
+		}
+		return total;
+	}
+
+	public long declined() {
+		return declined.sum();
+	}
+
+	public String report(double seconds) {
+		long total = totalCompleted();
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d operations in %.1f s (%.0f ops/s, %.1f M ops/min), %d declined%n",
+				total, seconds, total / seconds, total / seconds * 60 / 1e6, declined()));
+		for (Activity activity : ACTIVITIES) {
+			sb.append(String.format("  %-14s %d%n", activity, completed(activity)));
+		}
+		sb.append(String.format("  latency mean %.1f us, max %.1f us%n",
+				total == 0 ? 0.0 : latencyTotal.sum() / (double) total / 1e3, latencyMax.get() / 1e3));
+		return sb.toString();
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() only exists on Java 21+
+	private static ExecutorService newExecutor(int fallbackThreads) {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(Math.max(1, fallbackThreads));
+		}
+	}
+
+	/**
+	 * Load generator entry point:
+	 * {@code ActivitySimulator [accounts] [opsPerSecond, 0 = closed loop] [seconds] [skew] [seed]}
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		double rate = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		double skew = args.length > 3 ? Double.parseDouble(args[3]) : 0.99;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+		Ledger ledger = new Ledger(new AccountStore(accountCount));
+		int[] accounts = new int[accountCount];
+		for (int i = 0; i < accountCount; i++) {
+			accounts[i] = ledger.openAccount(4_000_0000_0000_0000L + i, 1_000_00, 0);
+		}
+
+		ActivitySimulator simulator = new ActivitySimulator(ledger, accounts).rate(rate).skew(skew).seed(seed);
+		long start = System.nanoTime();
+		simulator.run(seconds * 1000L);
+		System.out.print(simulator.report((System.nanoTime() - start) / 1e9));
+	}
+}
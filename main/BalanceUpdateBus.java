@@ -0,0 +1,277 @@
+package main;
+
+import java.awt.BorderLayout;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import ledger.AccountStore;
+import ledger.DirtyAccounts;
+import ledger.Ledger;
+import ledger.LedgerListener;
+import metrics.LatencyHistogram;
+import money.MoneyFormatter;
+
+/**
+ * Sits between the ledger and the Swing UI so that live balances don't flood the
+ * Event Dispatching Thread with one invokeLater per ledger event.
+ *
+ * Every balance change only marks the account dirty ({@link DirtyAccounts}: one bit
+ * per account, queued the first time its bit gets set). A ticker thread runs at a
+ * fixed frame rate, collects the dirty accounts, reads their latest balance and
+ * hands the whole frame to the EDT as a single task. An account that changed a
+ * thousand times during a frame is delivered once, with its latest value.
+ *
+ * If the EDT hasn't finished the previous frame yet, the tick is skipped and the
+ * changes simply roll into the next frame. The batch arrays are reused, so steady
+ * state is allocation-free apart from the one Runnable per frame.
+ *
+ * {@link #lag()} is how long a frame took from being posted until the listeners
+ * were done with it, i.e. how far the screen is behind the ledger.
+ */
+public class BalanceUpdateBus implements LedgerListener {
+
+	public static final int DEFAULT_FRAME_RATE = 60;
+	public static final int DEFAULT_MAX_PER_FRAME = 1 << 16;
+
+	/**
+	 * Receives one frame of changes, always on the EDT.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param accounts ids of the accounts that changed, valid only during the call
+		 * @param balances their latest balances, same order
+		 * @param count    number of valid entries
+		 */
+		void balancesChanged(int[] accounts, long[] balances, int count);
+
+		/**
+		 * More accounts changed than fit into one frame; everything shown should be
+		 * refreshed.
+		 */
+		default void allBalancesChanged() {
+		}
+	}
+
+	private final AccountStore store;
+	private final DirtyAccounts dirty;
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	// Only touched by the ticker, and by the EDT while a frame is in flight
+	private final int[] batchAccounts;
+	private final long[] batchBalances;
+	private final AtomicBoolean inFlight = new AtomicBoolean();
+
+	private final LongAdder updates = new LongAdder();
+	private final LongAdder frames = new LongAdder();
+	private final LatencyHistogram lag = new LatencyHistogram();
+	private ScheduledExecutorService ticker;
+
+	public BalanceUpdateBus(AccountStore store) {
+		this(store, DEFAULT_MAX_PER_FRAME);
+	}
+
+	/**
+	 * @param maxPerFrame how many distinct accounts one frame can carry
+	 */
+	public BalanceUpdateBus(AccountStore store, int maxPerFrame) {
+		this.store = store;
+		this.dirty = new DirtyAccounts(store.capacity(), maxPerFrame);
+		this.batchAccounts = new int[maxPerFrame];
+		this.batchBalances = new long[maxPerFrame];
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void balanceChanged(int account, long balance) {
+		updates.increment();
+		dirty.mark(account);
+	}
+
+	public synchronized void start(int framesPerSecond) {
+		if (ticker != null) {
+			return;
+		}
+		ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "balance-update-bus");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = 1_000_000_000L / framesPerSecond;
+		ticker.scheduleAtFixedRate(this::tick, period, period, TimeUnit.NANOSECONDS);
+	}
+
+	public synchronized void stop() {
+		if (ticker != null) {
+			ticker.shutdownNow();
+			ticker = null;
+		}
+	}
+
+	// Runs on the ticker thread
+	private void tick() {
+		if (inFlight.get()) {
+			return;
+		}
+
+		int count = dirty.drainTo(batchAccounts);
+		boolean overflow = dirty.takeOverflow();
+		if (count == 0 && !overflow) {
+			return;
+		}
+
+		// Clear the bit before reading the balance: a change that lands in between is
+		// queued again and shows up (once more) in the next frame, but is never lost.
+		for (int i = 0; i < count; i++) {
+			int account = batchAccounts[i];
+			dirty.clear(account);
+			batchBalances[i] = store.balance(account);
+		}
+
+		inFlight.set(true);
+		frames.increment();
+		long posted = System.nanoTime();
+		SwingUtilities.invokeLater(() -> {
+			try {
+				for (Listener listener : listeners) {
+					if (overflow) {
+						listener.allBalancesChanged();
+					} else {
+						listener.balancesChanged(batchAccounts, batchBalances, count);
+					}
+				}
+			} finally {
+				lag.record(System.nanoTime() - posted);
+				inFlight.set(false);
+			}
+		});
+	}
+
+	/**
+	 * Number of ledger updates seen so far.
+	 */
+	public long updates() {
+		return updates.sum();
+	}
+
+	/**
+	 * Number of frames (EDT tasks) posted so far.
+	 */
+	public long frames() {
+		return frames.sum();
+	}
+
+	/**
+	 * Nanoseconds from posting a frame to the EDT until its listeners returned.
+	 */
+	public LatencyHistogram lag() {
+		return lag;
+	}
+
+	/**
+	 * Demo: a table of the hottest accounts while the activity simulator pushes
+	 * 100k ledger updates per second through the bus.
+	 */
+	public static void main(String[] args) {
+		int accountCount = 100_000;
+		int rows = 500;
+		Ledger ledger = new Ledger(new AccountStore(accountCount));
+		int[] accounts = new int[accountCount];
+		for (int i = 0; i < accountCount; i++) {
+			accounts[i] = ledger.openAccount(4_000_0000_0000_0000L + i, 1_000_00, 0);
+		}
+
+		BalanceUpdateBus bus = new BalanceUpdateBus(ledger.store());
+		ledger.addListener(bus);
+
+		SwingUtilities.invokeLater(() -> {
+			MoneyFormatter moneyFormat = MoneyFormatter.finnishEuros();
+			long[] shown = new long[rows];
+			Map<Integer, Integer> rowOf = new HashMap<>();
+			for (int row = 0; row < rows; row++) {
+				shown[row] = ledger.balance(accounts[row]);
+				rowOf.put(accounts[row], row);
+			}
+
+			AbstractTableModel model = new AbstractTableModel() {
+				@Override
+				public int getRowCount() {
+					return rows;
+				}
+
+				@Override
+				public int getColumnCount() {
+					return 2;
+				}
+
+				@Override
+				public String getColumnName(int column) {
+					return column == 0 ? "Card number" : "Balance";
+				}
+
+				@Override
+				public Object getValueAt(int row, int column) {
+					if (column == 0) {
+						return ledger.store().cardAt(accounts[row]);
+					}
+					return moneyFormat.format(shown[row]);
+				}
+			};
+
+			bus.addListener(new Listener() {
+				@Override
+				public void balancesChanged(int[] changed, long[] balances, int count) {
+					for (int i = 0; i < count; i++) {
+						Integer row = rowOf.get(changed[i]);
+						if (row != null) {
+							shown[row] = balances[i];
+							model.fireTableRowsUpdated(row, row);
+						}
+					}
+				}
+
+				@Override
+				public void allBalancesChanged() {
+					for (int row = 0; row < rows; row++) {
+						shown[row] = ledger.balance(accounts[row]);
+					}
+					model.fireTableDataChanged();
+				}
+			});
+
+			JFrame frame = new JFrame("Live balances");
+			frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+			frame.setSize(600, 700);
+			JLabel status = new JLabel();
+			frame.add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+			frame.add(status, BorderLayout.SOUTH);
+			new Timer(1000, e -> status.setText(String.format("%,d ledger updates, %,d frames",
+					bus.updates(), bus.frames()))).start();
+			frame.setVisible(true);
+		});
+
+		bus.start(DEFAULT_FRAME_RATE);
+		new ActivitySimulator(ledger, accounts).rate(100_000).start();
+	}
+}
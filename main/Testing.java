@@ -1,13 +1,15 @@
 package main;
 
+import money.Money;
+import money.MoneyFormatter;
+
 public class Testing {
 
 	public static void main(String[] args) {
 	
-		
-		char EUR = '€';
-		Comparable<String> bankBalance = "3 885 166,33" + (char) EUR;
-		System.out.println(bankBalance);
+		// Balances are cents in a long, and only become text when they are shown
+		Money bankBalance = Money.euros(388_516_633);
+		System.out.println(MoneyFormatter.finnishEuros().format(bankBalance));
 		
 	}
 }
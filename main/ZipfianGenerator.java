@@ -0,0 +1,91 @@
+package main;
+
+import java.util.SplittableRandom;
+
+/**
+ * Picks ranks in {@code [0, n)} following a Zipf distribution, so that a few "hot"
+ * accounts see most of the traffic, like in real life. Rank 0 is the hottest.
+ *
+ * Uses rejection-inversion sampling (Hörmann and Derflinger), which needs O(1)
+ * setup and O(1) expected time per sample, so it works for populations of any size
+ * without a precomputed table. An exponent of 0 gives a uniform distribution.
+ */
+public class ZipfianGenerator {
+
+	private final int n;
+	private final double exponent;
+	private final double hIntegralX1;
+	private final double hIntegralN;
+	private final double s;
+
+	/**
+	 * @param n        number of elements
+	 * @param exponent skew, 0 is uniform and around 1 is typical for hot keys
+	 */
+	public ZipfianGenerator(int n, double exponent) {
+		if (n <= 0 || exponent < 0) {
+			throw new IllegalArgumentException("Invalid Zipf parameters: n=" + n + ", exponent=" + exponent);
+		}
+		this.n = n;
+		this.exponent = exponent;
+		this.hIntegralX1 = hIntegral(1.5) - 1.0;
+		this.hIntegralN = hIntegral(n + 0.5);
+		this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+	}
+
+	public int next(SplittableRandom random) {
+		if (exponent == 0) {
+			return random.nextInt(n);
+		}
+		while (true) {
+			double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+			double x = hIntegralInverse(u);
+			int k = (int) (x + 0.5);
+			if (k < 1) {
+				k = 1;
+			} else if (k > n) {
+				k = n;
+			}
+			if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+				return k - 1;
+			}
+		}
+	}
+
+	public int size() {
+		return n;
+	}
+
+	private double h(double x) {
+		return Math.exp(-exponent * Math.log(x));
+	}
+
+	private double hIntegral(double x) {
+		double logX = Math.log(x);
+		return helper2((1.0 - exponent) * logX) * logX;
+	}
+
+	private double hIntegralInverse(double x) {
+		double t = x * (1.0 - exponent);
+		if (t < -1.0) {
+			t = -1.0;
+		}
+		return Math.exp(helper1(t) * x);
+	}
+
+	// log(1 + x) / x, accurate near 0
+	private static double helper1(double x) {
+		if (Math.abs(x) > 1e-8) {
+			return Math.log1p(x) / x;
+		}
+		return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+	}
+
+	// (exp(x) - 1) / x, accurate near 0
+	private static double helper2(double x) {
+		if (Math.abs(x) > 1e-8) {
+			return Math.expm1(x) / x;
+		}
+		return 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+	}
+}
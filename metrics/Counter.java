@@ -0,0 +1,25 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that many threads bump at once, e.g. transfers done. Backed by a
+ * {@link LongAdder}, so threads on different cores don't fight over one cache
+ * line, and nothing is allocated once the adder has grown its cells.
+ */
+public class Counter {
+
+	private final LongAdder count = new LongAdder();
+
+	public void increment() {
+		count.increment();
+	}
+
+	public void add(long amount) {
+		count.add(amount);
+	}
+
+	public long count() {
+		return count.sum();
+	}
+}
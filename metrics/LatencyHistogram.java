@@ -0,0 +1,136 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram. Values are sorted into
+ * log-linear buckets: every power of two is split into {@link #SUB_BUCKETS} linear
+ * sub-buckets, so any recorded value is known to within about 3% while the whole
+ * range from 1 ns to several minutes fits into a couple of thousand counters.
+ *
+ * {@link #record(long)} is a couple of shifts and one atomic increment, and never
+ * allocates, so it can sit on hot paths.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAGNITUDES = 64 - SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+	private final AtomicLong max = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+
+	/**
+	 * @param value a latency in nanoseconds (or any other non-negative value)
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketOf(value));
+		total.incrementAndGet();
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	// Values below SUB_BUCKETS get a bucket each; above that, the SUB_BUCKET_BITS
+	// bits right below the highest set bit pick the sub-bucket.
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	// Highest value that lands in a bucket
+	static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+	public long count() {
+		return total.get();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile for example 99.9
+	 * @return the value below which that share of the recordings fall (upper bound of
+	 *         its bucket), or 0 if nothing was recorded
+	 */
+	public long percentile(double percentile) {
+		long count = total.get();
+		if (count == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+		long seen = 0;
+		for (int bucket = 0; bucket < counts.length(); bucket++) {
+			seen += counts.get(bucket);
+			if (seen >= target) {
+				return Math.min(upperBoundOf(bucket), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public double mean() {
+		long count = 0;
+		double sum = 0;
+		for (int bucket = 0; bucket < counts.length(); bucket++) {
+			long c = counts.get(bucket);
+			if (c != 0) {
+				count += c;
+				sum += c * (double) upperBoundOf(bucket);
+			}
+		}
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * Adds everything recorded in {@code other} to this histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int bucket = 0; bucket < counts.length(); bucket++) {
+			long c = other.counts.get(bucket);
+			if (c != 0) {
+				counts.addAndGet(bucket, c);
+			}
+		}
+		total.addAndGet(other.total.get());
+		long otherMax = other.max.get();
+		long current = max.get();
+		while (otherMax > current && !max.compareAndSet(current, otherMax)) {
+			current = max.get();
+		}
+	}
+
+	public void reset() {
+		for (int bucket = 0; bucket < counts.length(); bucket++) {
+			counts.set(bucket, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * One-line summary in microseconds, e.g. for a log.
+	 */
+	public String summary() {
+		return String.format("n=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", count(),
+				percentile(50) / 1e3, percentile(99) / 1e3, percentile(99.9) / 1e3, max() / 1e3);
+	}
+}
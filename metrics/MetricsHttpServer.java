@@ -0,0 +1,61 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a {@link MetricsRegistry} as plain text on {@code GET /metrics}, for
+ * Prometheus or for a curl during an incident. It uses the JDK's own HTTP
+ * server on one daemon thread, so there is nothing to deploy.
+ */
+public class MetricsHttpServer {
+
+	public static final int DEFAULT_PORT = 9404;
+
+	private final HttpServer server;
+
+	/**
+	 * Starts serving right away.
+	 *
+	 * @param port port to listen on, 0 for any free one
+	 */
+	public MetricsHttpServer(MetricsRegistry registry, int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", exchange -> serve(exchange, registry));
+		server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "metrics-http");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		server.start();
+	}
+
+	private static void serve(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+		try (exchange) {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = registry.toText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,134 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Shows a {@link MetricsRegistry} in JConsole or VisualVM, as one MBean
+ * ("bank:type=Metrics") with a read-only long attribute per value. A histogram
+ * "ledger.transfer" becomes ledger.transfer.count, .p50, .p99, .p999 and .max,
+ * all in nanoseconds.
+ *
+ * The attribute list is built when a JMX client asks for it, so metrics
+ * registered later show up after the client reconnects.
+ */
+public class MetricsJmx implements DynamicMBean {
+
+	public static final String OBJECT_NAME = "bank:type=Metrics";
+
+	private static final String[] HISTOGRAM_PARTS = { "count", "p50", "p99", "p999", "max" };
+
+	private final MetricsRegistry registry;
+
+	public MetricsJmx(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Registers the registry with the platform MBean server, replacing an earlier
+	 * registration.
+	 */
+	public static ObjectName register(MetricsRegistry registry) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(new MetricsJmx(registry), name);
+		return name;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Counter counter = registry.counters().get(attribute);
+		if (counter != null) {
+			return counter.count();
+		}
+		LongSupplier gauge = registry.gauges().get(attribute);
+		if (gauge != null) {
+			return gauge.getAsLong();
+		}
+		int dot = attribute.lastIndexOf('.');
+		LatencyHistogram histogram = dot < 0 ? null : registry.histograms().get(attribute.substring(0, dot));
+		if (histogram != null) {
+			switch (attribute.substring(dot + 1)) {
+			case "count":
+				return histogram.count();
+			case "p50":
+				return histogram.percentile(50);
+			case "p99":
+				return histogram.percentile(99);
+			case "p999":
+				return histogram.percentile(99.9);
+			case "max":
+				return histogram.max();
+			default:
+				break;
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// left out, as the interface says
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) {
+		throw new UnsupportedOperationException("Metrics are read-only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		throw new UnsupportedOperationException("Metrics have no operations");
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		for (String name : registry.histograms().keySet()) {
+			for (String part : HISTOGRAM_PARTS) {
+				attributes.add(attribute(name + "." + part, part.equals("count") ? "Recordings" : "Nanoseconds"));
+			}
+		}
+		for (Map.Entry<String, Counter> entry : registry.counters().entrySet()) {
+			attributes.add(attribute(entry.getKey(), "Counter"));
+		}
+		for (String name : registry.gauges().keySet()) {
+			attributes.add(attribute(name, "Gauge"));
+		}
+		return new MBeanInfo(getClass().getName(), "Bank metrics", attributes.toArray(new MBeanAttributeInfo[0]), null,
+				null, null);
+	}
+
+	private static MBeanAttributeInfo attribute(String name, String description) {
+		return new MBeanAttributeInfo(name, "long", description, true, false, false);
+	}
+}
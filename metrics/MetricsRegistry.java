@@ -0,0 +1,129 @@
+package metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The bank's metrics by name, for the exporters and the operations dashboard.
+ *
+ * The components keep their own histograms and counters and only record into them;
+ * the registry just knows where they are. Nothing on a hot path ever looks a metric
+ * up by name. Names are dotted, e.g. "ledger.transfer". Histograms hold
+ * nanoseconds.
+ *
+ * {@link #writeText} renders everything in the Prometheus text format, which is
+ * what the scrape endpoint serves.
+ */
+public class MetricsRegistry {
+
+	private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+	private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+	private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+	private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+	/**
+	 * The registry the application wires its components into.
+	 */
+	public static MetricsRegistry global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Adds a histogram a component already keeps, replacing one of the same name.
+	 */
+	public LatencyHistogram register(String name, LatencyHistogram histogram) {
+		histograms.put(name, histogram);
+		return histogram;
+	}
+
+	public Counter register(String name, Counter counter) {
+		counters.put(name, counter);
+		return counter;
+	}
+
+	/**
+	 * A value that is read when it is exported, e.g. a queue length or a count a
+	 * component already keeps.
+	 */
+	public void gauge(String name, LongSupplier value) {
+		gauges.put(name, value);
+	}
+
+	public LatencyHistogram histogram(String name) {
+		return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+	}
+
+	public Counter counter(String name) {
+		return counters.computeIfAbsent(name, n -> new Counter());
+	}
+
+	public Map<String, LatencyHistogram> histograms() {
+		return histograms;
+	}
+
+	public Map<String, Counter> counters() {
+		return counters;
+	}
+
+	public Map<String, LongSupplier> gauges() {
+		return gauges;
+	}
+
+	/**
+	 * Writes every metric in the Prometheus text format. Histograms become summaries
+	 * in seconds with the 0.5, 0.99 and 0.999 quantiles.
+	 */
+	public void writeText(Appendable out) throws IOException {
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			String name = promName(entry.getKey()) + "_seconds";
+			LatencyHistogram histogram = entry.getValue();
+			long count = histogram.count();
+			out.append("# TYPE ").append(name).append(" summary\n");
+			quantile(out, name, "0.5", histogram.percentile(50));
+			quantile(out, name, "0.99", histogram.percentile(99));
+			quantile(out, name, "0.999", histogram.percentile(99.9));
+			out.append(name).append("_sum ").append(seconds((long) (histogram.mean() * count))).append('\n');
+			out.append(name).append("_count ").append(Long.toString(count)).append('\n');
+		}
+		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+			String name = promName(entry.getKey()) + "_total";
+			out.append("# TYPE ").append(name).append(" counter\n");
+			out.append(name).append(' ').append(Long.toString(entry.getValue().count())).append('\n');
+		}
+		for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+			String name = promName(entry.getKey());
+			out.append("# TYPE ").append(name).append(" gauge\n");
+			out.append(name).append(' ').append(Long.toString(entry.getValue().getAsLong())).append('\n');
+		}
+	}
+
+	private static void quantile(Appendable out, String name, String quantile, long nanos) throws IOException {
+		out.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(seconds(nanos)).append('\n');
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+
+	static String promName(String name) {
+		StringBuilder result = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			result.append(Character.isLetterOrDigit(c) ? c : '_');
+		}
+		return result.toString();
+	}
+
+	public String toText() {
+		StringBuilder text = new StringBuilder();
+		try {
+			writeText(text);
+		} catch (IOException e) {
+			throw new AssertionError(e); // a StringBuilder doesn't throw
+		}
+		return text.toString();
+	}
+}
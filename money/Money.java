@@ -0,0 +1,214 @@
+package money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * An amount of money: a long count of minor units (cents for euros) and a
+ * currency. Balances are never doubles or Strings; this is the type to use where
+ * an amount leaves the ledger, and {@link MoneyFormatter} turns it into text.
+ *
+ * All arithmetic is exact. Anything that overflows a long throws an
+ * ArithmeticException, and mixing currencies throws an IllegalArgumentException.
+ * Where a result has to be rounded to whole minor units (interest, fees, splits)
+ * it is rounded half to even, i.e. banker's rounding, so rounding errors don't
+ * add up in one direction over many accounts.
+ *
+ * The static methods do the same on plain longs, for the hot paths that work on
+ * the ledger's arrays and can't allocate an object per amount.
+ */
+public final class Money implements Comparable<Money> {
+
+	public static final Currency EUR = Currency.getInstance("EUR");
+
+	/** Longest text {@link #parse} takes; a long has 19 digits, the rest is room for decimals. */
+	public static final int MAX_PARSE_LENGTH = 64;
+
+	private final long minorUnits;
+	private final Currency currency;
+
+	private Money(long minorUnits, Currency currency) {
+		if (currency == null) {
+			throw new NullPointerException("currency");
+		}
+		this.minorUnits = minorUnits;
+		this.currency = currency;
+	}
+
+	public static Money of(long minorUnits, Currency currency) {
+		return new Money(minorUnits, currency);
+	}
+
+	public static Money euros(long cents) {
+		return new Money(cents, EUR);
+	}
+
+	public static Money zero(Currency currency) {
+		return new Money(0, currency);
+	}
+
+	/**
+	 * @param amount in major units, e.g. "12.345"; extra decimals are rounded half
+	 *               to even
+	 * @throws NumberFormatException if it isn't a number
+	 * @throws ArithmeticException   if it doesn't fit a long, is longer than
+	 *                               {@link #MAX_PARSE_LENGTH} chars or has an
+	 *                               exponent
+	 */
+	public static Money parse(String amount, Currency currency) {
+		// "1e99999999" is a valid BigDecimal, and scaling it would take forever
+		if (amount.length() > MAX_PARSE_LENGTH) {
+			throw new ArithmeticException("Amount too long");
+		}
+		if (amount.indexOf('e') >= 0 || amount.indexOf('E') >= 0) {
+			throw new ArithmeticException("Amount with an exponent: " + amount);
+		}
+		BigDecimal major = new BigDecimal(amount);
+		BigDecimal minor = major.movePointRight(fractionDigits(currency)).setScale(0, RoundingMode.HALF_EVEN);
+		return new Money(minor.longValueExact(), currency);
+	}
+
+	/**
+	 * Digits after the decimal point, e.g. 2 for euros, 0 for yen.
+	 */
+	public static int fractionDigits(Currency currency) {
+		return Math.max(0, currency.getDefaultFractionDigits());
+	}
+
+	public long minorUnits() {
+		return minorUnits;
+	}
+
+	public Currency currency() {
+		return currency;
+	}
+
+	public boolean isNegative() {
+		return minorUnits < 0;
+	}
+
+	public boolean isZero() {
+		return minorUnits == 0;
+	}
+
+	public Money plus(Money other) {
+		return new Money(Math.addExact(minorUnits, same(other).minorUnits), currency);
+	}
+
+	public Money minus(Money other) {
+		return new Money(Math.subtractExact(minorUnits, same(other).minorUnits), currency);
+	}
+
+	public Money negate() {
+		return new Money(Math.negateExact(minorUnits), currency);
+	}
+
+	public Money times(long factor) {
+		return new Money(Math.multiplyExact(minorUnits, factor), currency);
+	}
+
+	/**
+	 * This amount times numerator / denominator, rounded half to even; e.g.
+	 * {@code times(3, 1000)} for a fee of 0.3 %.
+	 */
+	public Money times(long numerator, long denominator) {
+		return new Money(multiplyDivide(minorUnits, numerator, denominator), currency);
+	}
+
+	/**
+	 * Splits the amount into parts that differ by at most one minor unit and add up
+	 * to exactly this amount; the first parts get the extra units.
+	 */
+	public Money[] split(int parts) {
+		if (parts <= 0) {
+			throw new IllegalArgumentException("Parts must be positive");
+		}
+		long share = minorUnits / parts;
+		long rest = minorUnits % parts;
+		Money[] result = new Money[parts];
+		for (int i = 0; i < parts; i++) {
+			long extra = i < Math.abs(rest) ? Long.signum(rest) : 0;
+			result[i] = new Money(share + extra, currency);
+		}
+		return result;
+	}
+
+	private Money same(Money other) {
+		if (!other.currency.equals(currency)) {
+			throw new IllegalArgumentException("Can't mix " + currency + " and " + other.currency);
+		}
+		return other;
+	}
+
+	/**
+	 * amount * numerator / denominator in minor units, rounded half to even.
+	 *
+	 * @throws ArithmeticException if the result doesn't fit a long, or the
+	 *                             denominator is 0
+	 */
+	public static long multiplyDivide(long amount, long numerator, long denominator) {
+		if (denominator == 0) {
+			throw new ArithmeticException("Division by zero");
+		}
+		long product;
+		try {
+			product = Math.multiplyExact(amount, numerator);
+		} catch (ArithmeticException e) {
+			// The product needs more than 64 bits even if the result doesn't
+			return BigDecimal.valueOf(amount).multiply(BigDecimal.valueOf(numerator))
+					.divide(BigDecimal.valueOf(denominator), 0, RoundingMode.HALF_EVEN).longValueExact();
+		}
+		return divideHalfEven(product, denominator);
+	}
+
+	/**
+	 * dividend / divisor, rounded half to even.
+	 */
+	public static long divideHalfEven(long dividend, long divisor) {
+		if (divisor == Long.MIN_VALUE || dividend == Long.MIN_VALUE) {
+			return BigDecimal.valueOf(dividend).divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_EVEN)
+					.longValueExact();
+		}
+		long quotient = dividend / divisor;
+		long remainder = dividend % divisor;
+		if (remainder == 0) {
+			return quotient;
+		}
+		// Compare twice the remainder with the divisor, without overflowing
+		long absRemainder = Math.abs(remainder);
+		long half = Math.abs(divisor) - absRemainder;
+		int signum = (dividend < 0) == (divisor < 0) ? 1 : -1;
+		if (absRemainder > half || (absRemainder == half && (quotient & 1) != 0)) {
+			quotient += signum;
+		}
+		return quotient;
+	}
+
+	@Override
+	public int compareTo(Money other) {
+		return Long.compare(minorUnits, same(other).minorUnits);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Money)) {
+			return false;
+		}
+		Money money = (Money) other;
+		return money.minorUnits == minorUnits && money.currency.equals(currency);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(minorUnits) * 31 + currency.hashCode();
+	}
+
+	/**
+	 * E.g. "EUR -12.34"; for display use a {@link MoneyFormatter}.
+	 */
+	@Override
+	public String toString() {
+		return currency.getCurrencyCode() + " " + BigDecimal.valueOf(minorUnits, fractionDigits(currency)).toPlainString();
+	}
+}
@@ -0,0 +1,193 @@
+package money;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Writes amounts the way a locale writes money, e.g. "3 885 166,33 €" in
+ * Finland or "€3,885,166.33" in Ireland, straight into a char array.
+ *
+ * The separators, the currency symbol and where it goes are taken from the JDK's
+ * locale data once, when the formatter is made. After that {@link #format(long,
+ * char[], int)} is plain digit arithmetic: no Formatter, no doubles, no
+ * allocation, so the admin table can format a million balances a second. Only
+ * groups of equal size are supported (not the Indian lakh grouping).
+ *
+ * A formatter never changes after it is made, so one instance can be shared by
+ * all threads.
+ */
+public final class MoneyFormatter {
+
+	private static final MoneyFormatter FINNISH_EUROS = new MoneyFormatter(Locale.forLanguageTag("fi-FI"), Money.EUR);
+
+	private final Currency currency;
+	private final int fractionDigits;
+	private final char groupingSeparator;
+	private final char decimalSeparator;
+	private final int groupingSize;
+	private final char[] positivePrefix;
+	private final char[] positiveSuffix;
+	private final char[] negativePrefix;
+	private final char[] negativeSuffix;
+	private final int maxLength;
+
+	public MoneyFormatter(Locale locale, Currency currency) {
+		NumberFormat format = NumberFormat.getCurrencyInstance(locale);
+		format.setCurrency(currency);
+		if (!(format instanceof DecimalFormat)) {
+			throw new IllegalArgumentException("No decimal currency format for " + locale);
+		}
+		DecimalFormat decimal = (DecimalFormat) format;
+		DecimalFormatSymbols symbols = decimal.getDecimalFormatSymbols();
+		this.currency = currency;
+		this.fractionDigits = Money.fractionDigits(currency);
+		this.groupingSeparator = symbols.getMonetaryGroupingSeparator();
+		this.decimalSeparator = symbols.getMonetaryDecimalSeparator();
+		this.groupingSize = decimal.isGroupingUsed() && decimal.getGroupingSize() > 0 ? decimal.getGroupingSize() : 0;
+		this.positivePrefix = decimal.getPositivePrefix().toCharArray();
+		this.positiveSuffix = decimal.getPositiveSuffix().toCharArray();
+		this.negativePrefix = decimal.getNegativePrefix().toCharArray();
+		this.negativeSuffix = decimal.getNegativeSuffix().toCharArray();
+		int affixes = Math.max(positivePrefix.length + positiveSuffix.length, negativePrefix.length + negativeSuffix.length);
+		this.maxLength = affixes + 19 + 19 + 1; // digits, grouping separators, decimal separator
+	}
+
+	/**
+	 * Euros as written in Finland: "3 885 166,33 €".
+	 */
+	public static MoneyFormatter finnishEuros() {
+		return FINNISH_EUROS;
+	}
+
+	public Currency currency() {
+		return currency;
+	}
+
+	/**
+	 * The most chars {@link #format(long, char[], int)} ever writes.
+	 */
+	public int maxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Writes the amount into {@code out} from {@code offset} on.
+	 *
+	 * @param minorUnits the amount in minor units of this formatter's currency
+	 * @return number of chars written
+	 * @throws ArrayIndexOutOfBoundsException if there are fewer than
+	 *                                        {@link #maxLength()} chars of room
+	 */
+	public int format(long minorUnits, char[] out, int offset) {
+		boolean negative = minorUnits < 0;
+		char[] prefix = negative ? negativePrefix : positivePrefix;
+		char[] suffix = negative ? negativeSuffix : positiveSuffix;
+
+		// Number of digits, with at least one before the decimal separator
+		int digits = 1;
+		for (long rest = minorUnits / 10; rest != 0; rest /= 10) {
+			digits++;
+		}
+		digits = Math.max(digits, fractionDigits + 1);
+		int integerDigits = digits - fractionDigits;
+		int separators = groupingSize == 0 ? 0 : (integerDigits - 1) / groupingSize;
+		int length = prefix.length + digits + separators + (fractionDigits > 0 ? 1 : 0) + suffix.length;
+
+		int position = offset;
+		System.arraycopy(prefix, 0, out, position, prefix.length);
+		position += prefix.length;
+
+		// The digits, written from the last one backwards; working on the negative
+		// value keeps Long.MIN_VALUE in range
+		long value = negative ? minorUnits : -minorUnits;
+		int end = position + digits + separators + (fractionDigits > 0 ? 1 : 0);
+		int index = end;
+		for (int i = 0; i < fractionDigits; i++) {
+			out[--index] = (char) ('0' - value % 10);
+			value /= 10;
+		}
+		if (fractionDigits > 0) {
+			out[--index] = decimalSeparator;
+		}
+		for (int i = 0; i < integerDigits; i++) {
+			if (i > 0 && groupingSize > 0 && i % groupingSize == 0) {
+				out[--index] = groupingSeparator;
+			}
+			out[--index] = (char) ('0' - value % 10);
+			value /= 10;
+		}
+
+		System.arraycopy(suffix, 0, out, end, suffix.length);
+		return length;
+	}
+
+	/**
+	 * Appends the amount; allocates nothing once the builder has room.
+	 */
+	public StringBuilder format(long minorUnits, StringBuilder out, char[] scratch) {
+		int length = format(minorUnits, scratch, 0);
+		return out.append(scratch, 0, length);
+	}
+
+	/**
+	 * The amount as a new String, for labels and table cells.
+	 */
+	public String format(long minorUnits) {
+		char[] buffer = new char[maxLength];
+		return new String(buffer, 0, format(minorUnits, buffer, 0));
+	}
+
+	public String format(Money money) {
+		if (!money.currency().equals(currency)) {
+			throw new IllegalArgumentException("This formatter writes " + currency + ", not " + money.currency());
+		}
+		return format(money.minorUnits());
+	}
+
+	/**
+	 * Formatting speed against String.format, and a few samples.
+	 */
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+		MoneyFormatter formatter = finnishEuros();
+		for (long cents : new long[] { 388_516_633, 0, 5, -1_00, -123_456_789, Long.MAX_VALUE, Long.MIN_VALUE }) {
+			System.out.println(formatter.format(cents));
+		}
+		System.out.println(new MoneyFormatter(Locale.forLanguageTag("en-IE"), Money.EUR).format(388_516_633));
+		System.out.println(new MoneyFormatter(Locale.JAPAN, Currency.getInstance("JPY")).format(1_234_567));
+
+		long[] balances = new long[1 << 16];
+		SplittableRandom random = new SplittableRandom(1);
+		for (int i = 0; i < balances.length; i++) {
+			balances[i] = random.nextLong(-1_000_000_00L, 100_000_000_00L);
+		}
+		char[] buffer = new char[formatter.maxLength()];
+		for (int round = 0; round < 3; round++) {
+			long checksum = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				checksum += formatter.format(balances[i & (balances.length - 1)], buffer, 0);
+			}
+			double buffered = (System.nanoTime() - start) / 1e9;
+
+			start = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				checksum += formatter.format(balances[i & (balances.length - 1)]).length();
+			}
+			double strings = (System.nanoTime() - start) / 1e9;
+
+			int slowCount = count / 20;
+			start = System.nanoTime();
+			for (int i = 0; i < slowCount; i++) {
+				checksum += String.format("%,.2f €", balances[i & (balances.length - 1)] / 100.0).length();
+			}
+			double slow = (System.nanoTime() - start) / 1e9;
+			System.out.printf("into a char[]: %,.0f/s, as Strings: %,.0f/s, String.format: %,.0f/s (checksum %d)%n",
+					count / buffered, count / strings, slowCount / slow, checksum);
+		}
+	}
+}
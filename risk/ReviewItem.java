@@ -0,0 +1,75 @@
+package risk;
+
+/**
+ * A transfer the risk checks flagged or held, waiting for an admin.
+ */
+public class ReviewItem {
+
+	public enum Status {
+		PENDING,
+		APPROVED,
+		REJECTED
+	}
+
+	private final long id;
+	private final long time;
+	private final int from;
+	private final int to;
+	private final long amount;
+	private final RiskAction action;
+	private final String reasons;
+	private volatile Status status = Status.PENDING;
+
+	ReviewItem(long id, long time, int from, int to, long amount, RiskAction action, String reasons) {
+		this.id = id;
+		this.time = time;
+		this.from = from;
+		this.to = to;
+		this.amount = amount;
+		this.action = action;
+		this.reasons = reasons;
+	}
+
+	public long id() {
+		return id;
+	}
+
+	public long time() {
+		return time;
+	}
+
+	public int from() {
+		return from;
+	}
+
+	public int to() {
+		return to;
+	}
+
+	public long amount() {
+		return amount;
+	}
+
+	/**
+	 * {@link RiskAction#FLAG} (the transfer went through) or
+	 * {@link RiskAction#HOLD} (it waits for approval).
+	 */
+	public RiskAction action() {
+		return action;
+	}
+
+	/**
+	 * The names of the rules that fired.
+	 */
+	public String reasons() {
+		return reasons;
+	}
+
+	public Status status() {
+		return status;
+	}
+
+	void setStatus(Status status) {
+		this.status = status;
+	}
+}
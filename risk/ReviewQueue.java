@@ -0,0 +1,149 @@
+package risk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ledger.Ledger;
+import ledger.TransferResult;
+
+/**
+ * The transfers waiting for an admin, oldest first. Approving a held transfer
+ * carries it out (without asking the risk checks again); rejecting it drops it.
+ * For a flagged transfer, which already went through, approving or rejecting only
+ * records the admin's verdict.
+ *
+ * The queue keeps at most {@code capacity} items. Decided items make room for new
+ * ones; when everything in it is still pending, new items are refused and counted
+ * as overflow (a held transfer is then simply declined).
+ */
+public class ReviewQueue {
+
+	private final Ledger ledger;
+	private final int capacity;
+	private final Map<Long, ReviewItem> items = new LinkedHashMap<>();
+	private long nextId = 1;
+	private int pending;
+	private long overflow;
+	private volatile Runnable[] listeners = new Runnable[0];
+
+	public ReviewQueue(Ledger ledger, int capacity) {
+		this.ledger = ledger;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return the new item, or null if the queue is full of pending items
+	 */
+	ReviewItem add(int from, int to, long amount, RiskAction action, String reasons, long now) {
+		ReviewItem item;
+		synchronized (this) {
+			if (items.size() >= capacity && !dropDecided()) {
+				overflow++;
+				return null;
+			}
+			item = new ReviewItem(nextId++, now, from, to, amount, action, reasons);
+			items.put(item.id(), item);
+			pending++;
+		}
+		changed();
+		return item;
+	}
+
+	// Makes room by forgetting the oldest decided item
+	private boolean dropDecided() {
+		Iterator<ReviewItem> it = items.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().status() != ReviewItem.Status.PENDING) {
+				it.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Approves an item. A held transfer is carried out now.
+	 *
+	 * @return the result of the transfer (OK for a flagged one), or null if there is
+	 *         no such pending item
+	 */
+	public TransferResult approve(long id) {
+		ReviewItem item = decide(id, ReviewItem.Status.APPROVED);
+		if (item == null) {
+			return null;
+		}
+		TransferResult result = TransferResult.OK;
+		if (item.action() == RiskAction.HOLD) {
+			result = ledger.transferReviewed(item.from(), item.to(), item.amount());
+		}
+		changed();
+		return result;
+	}
+
+	/**
+	 * Rejects an item: a held transfer is dropped, a flagged one is marked as
+	 * confirmed fraud.
+	 *
+	 * @return false if there is no such pending item
+	 */
+	public boolean reject(long id) {
+		boolean decided = decide(id, ReviewItem.Status.REJECTED) != null;
+		if (decided) {
+			changed();
+		}
+		return decided;
+	}
+
+	private synchronized ReviewItem decide(long id, ReviewItem.Status status) {
+		ReviewItem item = items.get(id);
+		if (item == null || item.status() != ReviewItem.Status.PENDING) {
+			return null;
+		}
+		item.setStatus(status);
+		pending--;
+		return item;
+	}
+
+	/**
+	 * The pending items, oldest first.
+	 */
+	public synchronized List<ReviewItem> pending() {
+		List<ReviewItem> result = new ArrayList<>(pending);
+		for (ReviewItem item : items.values()) {
+			if (item.status() == ReviewItem.Status.PENDING) {
+				result.add(item);
+			}
+		}
+		return result;
+	}
+
+	public synchronized int pendingCount() {
+		return pending;
+	}
+
+	/**
+	 * Items that were refused because the queue was full.
+	 */
+	public synchronized long overflow() {
+		return overflow;
+	}
+
+	/**
+	 * Called (on whatever thread made the change) when items are added or decided.
+	 */
+	public synchronized void addListener(Runnable listener) {
+		Runnable[] next = Arrays.copyOf(listeners, listeners.length + 1);
+		next[listeners.length] = listener;
+		listeners = next;
+	}
+
+	private void changed() {
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package risk;
+
+/**
+ * What the risk checks decide about a transfer, from mild to strict.
+ */
+public enum RiskAction {
+
+	ALLOW, // goes through
+	FLAG, // goes through, and an admin looks at it afterwards
+	HOLD; // stopped until an admin approves it
+
+	public RiskAction max(RiskAction other) {
+		return other.ordinal() > ordinal() ? other : this;
+	}
+}
@@ -0,0 +1,66 @@
+package risk;
+
+import ledger.AccountStore;
+
+/**
+ * What the rules get to see of a transfer: the transfer itself, the payer's
+ * outgoing and the payee's incoming velocity windows (not counting this transfer),
+ * and the account store for anything else about the accounts.
+ */
+public class RiskContext {
+
+	final long[] outgoing = new long[2 * VelocityWindows.WINDOWS];
+	final long[] incoming = new long[2 * VelocityWindows.WINDOWS];
+	private final AccountStore store;
+	int from;
+	int to;
+	long amount;
+	long now;
+	String flagReasons; // of the last transfer scored, if it was flagged; until it went through
+
+	RiskContext(AccountStore store) {
+		this.store = store;
+	}
+
+	public int from() {
+		return from;
+	}
+
+	public int to() {
+		return to;
+	}
+
+	public long amount() {
+		return amount;
+	}
+
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * Transfers the payer made in a {@link VelocityWindows} window.
+	 */
+	public long outgoingCount(int window) {
+		return outgoing[window];
+	}
+
+	public long outgoingAmount(int window) {
+		return outgoing[VelocityWindows.WINDOWS + window];
+	}
+
+	/**
+	 * Transfers the payee received in a window.
+	 */
+	public long incomingCount(int window) {
+		return incoming[window];
+	}
+
+	public long incomingAmount(int window) {
+		return incoming[VelocityWindows.WINDOWS + window];
+	}
+
+	public AccountStore store() {
+		return store;
+	}
+}
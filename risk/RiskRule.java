@@ -0,0 +1,15 @@
+package risk;
+
+/**
+ * One configurable check of the {@link RiskEngine}. Rules run on the transfer path
+ * for every transfer, so they should only look at what the context already has.
+ */
+public interface RiskRule {
+
+	/**
+	 * Shown to the admin as the reason a transfer was flagged or held.
+	 */
+	String name();
+
+	RiskAction evaluate(RiskContext transfer);
+}
@@ -0,0 +1,98 @@
+package risk;
+
+import java.util.List;
+
+/**
+ * The rules the bank uses, as factories so that the limits can be configured.
+ */
+public final class RiskRules {
+
+	private RiskRules() {
+	}
+
+	/**
+	 * A single transfer of at least {@code limit} cents.
+	 */
+	public static RiskRule largeAmount(long limit, RiskAction action) {
+		return rule(String.format("amount >= %,.2f", limit / 100.0), t -> t.amount() >= limit ? action : RiskAction.ALLOW);
+	}
+
+	/**
+	 * The payer sends more than {@code maxCount} transfers, or more than
+	 * {@code maxAmount} cents, within the window (this transfer included).
+	 */
+	public static RiskRule outgoingVelocity(int window, long maxCount, long maxAmount, RiskAction action) {
+		return rule(String.format("over %d transfers or %,.2f out per %s", maxCount, maxAmount / 100.0,
+				windowName(window)), t -> t.outgoingCount(window) + 1 > maxCount
+						|| t.outgoingAmount(window) + t.amount() > maxAmount ? action : RiskAction.ALLOW);
+	}
+
+	/**
+	 * The payee receives more than {@code maxCount} transfers, or more than
+	 * {@code maxAmount} cents, within the window: money mules collect from many
+	 * payers at once.
+	 */
+	public static RiskRule incomingVelocity(int window, long maxCount, long maxAmount, RiskAction action) {
+		return rule(String.format("over %d transfers or %,.2f in per %s", maxCount, maxAmount / 100.0,
+				windowName(window)), t -> t.incomingCount(window) + 1 > maxCount
+						|| t.incomingAmount(window) + t.amount() > maxAmount ? action : RiskAction.ALLOW);
+	}
+
+	/**
+	 * An account that was idle for {@code idleMillis} suddenly sends at least
+	 * {@code minAmount} cents, a typical sign of a taken-over account.
+	 */
+	public static RiskRule dormantAccount(long idleMillis, long minAmount, RiskAction action) {
+		return rule(String.format("idle %d days, then %,.2f", idleMillis / 86_400_000L, minAmount / 100.0),
+				t -> t.amount() >= minAmount && t.now() - t.store().lastActivity(t.from()) >= idleMillis ? action
+						: RiskAction.ALLOW);
+	}
+
+	/**
+	 * The bank's defaults.
+	 */
+	public static List<RiskRule> defaults() {
+		return List.of(
+				largeAmount(10_000_00, RiskAction.FLAG),
+				largeAmount(50_000_00, RiskAction.HOLD),
+				outgoingVelocity(VelocityWindows.MINUTE, 10, 5_000_00, RiskAction.HOLD),
+				outgoingVelocity(VelocityWindows.HOUR, 60, 20_000_00, RiskAction.FLAG),
+				outgoingVelocity(VelocityWindows.DAY, 200, 50_000_00, RiskAction.HOLD),
+				incomingVelocity(VelocityWindows.HOUR, 50, 20_000_00, RiskAction.FLAG),
+				dormantAccount(180 * 86_400_000L, 1_000_00, RiskAction.FLAG));
+	}
+
+	private static String windowName(int window) {
+		switch (window) {
+		case VelocityWindows.MINUTE:
+			return "minute";
+		case VelocityWindows.HOUR:
+			return "hour";
+		default:
+			return "day";
+		}
+	}
+
+	private interface Check {
+		RiskAction evaluate(RiskContext transfer);
+	}
+
+	private static RiskRule rule(String name, Check check) {
+		return new RiskRule() {
+			@Override
+			public String name() {
+				return name;
+			}
+
+			@Override
+			public RiskAction evaluate(RiskContext transfer) {
+				return check.evaluate(transfer);
+			}
+
+			@Override
+			public String toString() {
+				return name;
+			}
+		};
+	}
+}
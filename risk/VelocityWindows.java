@@ -0,0 +1,178 @@
+package risk;
+
+/**
+ * Per-account transfer counts and amounts over the last minute, hour and day.
+ *
+ * Each window is a ring of time buckets (six 10 s buckets for the minute, six
+ * 10 min buckets for the hour, twelve 2 h buckets for the day). A bucket remembers
+ * which period it belongs to, so a stale bucket is simply overwritten when its slot
+ * comes round again and nothing ever has to be expired. A window's total is the
+ * sum of its buckets that are still inside it, so it slides in bucket-sized steps.
+ *
+ * Everything is in one long[]: the table is set-associative, 8 accounts per set.
+ * Only accounts with recent transfers need an entry, so when a set is full the
+ * account that was idle longest gives its place up; with a table sized for the
+ * accounts active in a day that is an account whose windows have run out anyway.
+ * Each set is guarded by one of a fixed number of locks.
+ */
+public class VelocityWindows {
+
+	public static final int MINUTE = 0;
+	public static final int HOUR = 1;
+	public static final int DAY = 2;
+	public static final int WINDOWS = 3;
+
+	private static final long[] BUCKET_MILLIS = { 10_000, 600_000, 7_200_000 };
+	private static final int[] BUCKETS = { 6, 6, 12 };
+	private static final int[] FIRST_BUCKET = { 0, 6, 12 };
+	private static final int TOTAL_BUCKETS = 24;
+
+	// Entry: account + 1 (0 = free), last seen, then per bucket a (period << 24 |
+	// count) word and an amount word
+	private static final int ACCOUNT = 0;
+	private static final int LAST_SEEN = 1;
+	private static final int BUCKET_DATA = 2;
+	private static final int STRIDE = BUCKET_DATA + TOTAL_BUCKETS * 2;
+	private static final int COUNT_BITS = 24;
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+	private static final int WAYS = 8;
+	private static final int LOCKS = 1024;
+
+	private final long[] data;
+	private final int setMask;
+	private final Object[] locks;
+
+	/**
+	 * @param entries how many accounts can be tracked at once (rounded up to a power
+	 *                of two); about 400 bytes each
+	 */
+	public VelocityWindows(int entries) {
+		int sets = Integer.highestOneBit(Math.max(1, (entries + WAYS - 1) / WAYS - 1)) << 1;
+		this.setMask = sets - 1;
+		this.data = new long[sets * WAYS * STRIDE];
+		this.locks = new Object[Math.min(sets, LOCKS)];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Counts a transfer of {@code amount} for the account at time {@code now}.
+	 */
+	public void record(int account, long amount, long now) {
+		int set = setOf(account);
+		synchronized (locks[set % locks.length]) {
+			int entry = find(set, account);
+			if (entry < 0) {
+				entry = claim(set, account);
+			}
+			data[entry + LAST_SEEN] = now;
+			for (int w = 0; w < WINDOWS; w++) {
+				long period = now / BUCKET_MILLIS[w];
+				int bucket = entry + BUCKET_DATA + (FIRST_BUCKET[w] + (int) (period % BUCKETS[w])) * 2;
+				long word = data[bucket];
+				if (word >>> COUNT_BITS == period) {
+					if ((word & COUNT_MASK) != COUNT_MASK) {
+						data[bucket] = word + 1;
+					}
+					data[bucket + 1] += amount;
+				} else {
+					data[bucket] = period << COUNT_BITS | 1;
+					data[bucket + 1] = amount;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads all windows of an account at once: counts go to {@code out[window]},
+	 * amounts to {@code out[WINDOWS + window]}. An account without an entry reads as
+	 * zeros.
+	 */
+	public void read(int account, long now, long[] out) {
+		for (int i = 0; i < 2 * WINDOWS; i++) {
+			out[i] = 0;
+		}
+		int set = setOf(account);
+		synchronized (locks[set % locks.length]) {
+			int entry = find(set, account);
+			if (entry < 0) {
+				return;
+			}
+			for (int w = 0; w < WINDOWS; w++) {
+				long current = now / BUCKET_MILLIS[w];
+				int first = entry + BUCKET_DATA + FIRST_BUCKET[w] * 2;
+				for (int b = 0; b < BUCKETS[w]; b++) {
+					long word = data[first + b * 2];
+					long period = word >>> COUNT_BITS;
+					if (period <= current && period > current - BUCKETS[w]) {
+						out[w] += word & COUNT_MASK;
+						out[WINDOWS + w] += data[first + b * 2 + 1];
+					}
+				}
+			}
+		}
+	}
+
+	public long count(int account, int window, long now) {
+		long[] out = new long[2 * WINDOWS];
+		read(account, now, out);
+		return out[window];
+	}
+
+	public long amount(int account, int window, long now) {
+		long[] out = new long[2 * WINDOWS];
+		read(account, now, out);
+		return out[WINDOWS + window];
+	}
+
+	/**
+	 * Length of a window in milliseconds.
+	 */
+	public static long windowMillis(int window) {
+		return BUCKET_MILLIS[window] * BUCKETS[window];
+	}
+
+	private int setOf(int account) {
+		int h = account * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & setMask;
+	}
+
+	// Offset of the account's entry in its set, or -1
+	private int find(int set, int account) {
+		int base = set * WAYS * STRIDE;
+		for (int way = 0; way < WAYS; way++) {
+			int entry = base + way * STRIDE;
+			if (data[entry + ACCOUNT] == account + 1L) {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	// A free way, or else the one idle longest, cleared for the account
+	private int claim(int set, int account) {
+		int base = set * WAYS * STRIDE;
+		int victim = base;
+		for (int way = 0; way < WAYS; way++) {
+			int entry = base + way * STRIDE;
+			if (data[entry + ACCOUNT] == 0) {
+				victim = entry;
+				break;
+			}
+			if (data[entry + LAST_SEEN] < data[victim + LAST_SEEN]) {
+				victim = entry;
+			}
+		}
+		for (int i = 0; i < STRIDE; i++) {
+			data[victim + i] = 0;
+		}
+		data[victim + ACCOUNT] = account + 1L;
+		return victim;
+	}
+
+	public long memoryUsage() {
+		return (long) data.length * Long.BYTES;
+	}
+}
@@ -0,0 +1,188 @@
+package start;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+
+import ledger.CommandCallback;
+import ledger.TransferResult;
+import money.Money;
+import money.MoneyFormatter;
+
+/**
+ * The logged in customer's account: the balance, and deposits, withdrawals and
+ * transfers to another card. They all go through the bank's
+ * {@link ledger.TransactionPipeline} without blocking the EDT; the result comes
+ * back once the command is on disk.
+ */
+public class AccountPage extends FormPage {
+
+	private static final MoneyFormatter MONEY = MoneyFormatter.finnishEuros();
+
+	private final JLabel cardLabel;
+	private final JLabel balanceLabel;
+	private final JTextField amountField = new JTextField(10);
+	private final JTextField toField = new JTextField(19);
+	private final JButton[] actions;
+
+	private Bank bank;
+	private int account = -1;
+	// Idempotency key of the last transfer whose outcome isn't known, 0 for none
+	private long transferKey;
+	private int keyPayee;
+	private long keyAmount;
+
+	public AccountPage(PageNavigator navigator) {
+		super(navigator, "Your account");
+		cardLabel = addValue("Card number");
+		balanceLabel = addValue("Balance");
+		addField("Amount", amountField);
+		addField("To card number", toField);
+		JButton deposit = addButton("Deposit");
+		JButton withdraw = addButton("Withdraw");
+		JButton transfer = addButton("Transfer");
+		deposit.addActionListener(e -> deposit());
+		withdraw.addActionListener(e -> withdraw());
+		transfer.addActionListener(e -> transfer());
+		actions = new JButton[] { deposit, withdraw, transfer };
+		finish();
+	}
+
+	/**
+	 * Called by the login page, before it shows this one.
+	 */
+	void open(Bank bank, int account) {
+		this.bank = bank;
+		this.account = account;
+		this.transferKey = 0;
+		cardLabel.setText(Long.toString(bank.ledger().store().cardAt(account)));
+	}
+
+	@Override
+	public String title() {
+		return "Welcome to the bank! | Your account";
+	}
+
+	@Override
+	public void shown() {
+		amountField.setText("");
+		toField.setText("");
+		showMessage(null);
+		refresh();
+		amountField.requestFocusInWindow();
+	}
+
+	private void refresh() {
+		balanceLabel.setText(MONEY.format(bank.ledger().balance(account)));
+	}
+
+	private void deposit() {
+		long amount = amount();
+		if (amount > 0) {
+			submit("Deposited " + MONEY.format(amount), done -> bank.pipeline().submitDeposit(account, amount, done));
+		}
+	}
+
+	private void withdraw() {
+		long amount = amount();
+		if (amount > 0) {
+			submit("Withdrew " + MONEY.format(amount), done -> bank.pipeline().submitWithdraw(account, amount, done));
+		}
+	}
+
+	private void transfer() {
+		long amount = amount();
+		if (amount <= 0) {
+			return;
+		}
+		int to;
+		try {
+			to = bank.ledger().accountOf(Long.parseLong(toField.getText().replaceAll("[ -]", "")));
+		} catch (NumberFormatException e) {
+			to = -1;
+		}
+		if (to < 0) {
+			showMessage(message(TransferResult.UNKNOWN_ACCOUNT));
+			return;
+		}
+		// Trying a failed transfer again reuses its key, so the money can't go twice
+		if (transferKey == 0 || keyPayee != to || keyAmount != amount) {
+			transferKey = ThreadLocalRandom.current().nextLong() | 1;
+			keyPayee = to;
+			keyAmount = amount;
+		}
+		int payee = to;
+		long key = transferKey;
+		submit("Sent " + MONEY.format(amount) + " to " + toField.getText().trim(),
+				done -> bank.pipeline().submitTransfer(key, account, payee, amount, done));
+	}
+
+	// The amount typed in, in cents, or 0 after telling the customer what is wrong
+	private long amount() {
+		long cents;
+		try {
+			cents = Money.parse(amountField.getText().trim().replace(" ", "").replace(',', '.'), MONEY.currency())
+					.minorUnits();
+		} catch (NumberFormatException | ArithmeticException e) {
+			showMessage("Type the amount in euros, e.g. 12,50");
+			return 0;
+		}
+		if (cents <= 0) {
+			showMessage(message(TransferResult.INVALID_AMOUNT));
+			return 0;
+		}
+		return cents;
+	}
+
+	// The buttons stay off until the pipeline has answered
+	private void submit(String success, Consumer<CommandCallback> command) {
+		setBusy(true);
+		showMessage("Working on it...");
+		command.accept((result, failure) -> SwingUtilities.invokeLater(() -> {
+			setBusy(false);
+			refresh();
+			if (failure != null) {
+				System.err.println("Command failed: " + failure);
+				showMessage("Something went wrong, please check the balance before trying again");
+				return;
+			}
+			transferKey = 0; // the outcome is known
+			if (result.isOk()) {
+				amountField.setText("");
+				toField.setText("");
+				showMessage(success);
+			} else {
+				showMessage(message(result));
+			}
+		}));
+	}
+
+	private void setBusy(boolean busy) {
+		for (JButton action : actions) {
+			action.setEnabled(!busy);
+		}
+	}
+
+	private static String message(TransferResult result) {
+		switch (result) {
+		case INSUFFICIENT_FUNDS:
+			return "There isn't enough money on the account";
+		case UNKNOWN_ACCOUNT:
+			return "There is no account with that card number";
+		case INVALID_AMOUNT:
+			return "The amount has to be more than zero";
+		case SAME_ACCOUNT:
+			return "That is the card of this account";
+		case ACCOUNT_FROZEN:
+			return "The account is frozen, please contact the bank";
+		case HELD:
+			return "The transfer waits for the bank to review it";
+		default:
+			return result.toString();
+		}
+	}
+}
@@ -1,5 +1,31 @@
 package start;
 
-public class AdminLogin {
+import javax.swing.JPasswordField;
+import javax.swing.JTextField;
 
+public class AdminLogin extends FormPage {
+
+	private final JTextField userField = new JTextField(16);
+	private final JPasswordField passwordField = new JPasswordField(16);
+
+	public AdminLogin(PageNavigator navigator) {
+		super(navigator, "Administrator login");
+		addField("User name", userField);
+		addField("Password", passwordField);
+		// There are no administrator accounts to check against yet
+		addButton("Login").setEnabled(false);
+		finish();
+		showMessage("Administrator login is not available yet");
+	}
+
+	@Override
+	public String title() {
+		return "Welcome to the bank! | Admin Login";
+	}
+
+	@Override
+	public void shown() {
+		passwordField.setText("");
+		userField.requestFocusInWindow();
+	}
 }
@@ -0,0 +1,133 @@
+package start;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import auth.CredentialService;
+import auth.PinHasher;
+import cards.CardIssuer;
+import ledger.DedupCache;
+import ledger.Ledger;
+import ledger.PersistentLedger;
+import ledger.TransactionPipeline;
+import risk.ReviewQueue;
+import risk.RiskEngine;
+
+/**
+ * The bank behind the pages: the journaled ledger (in bank-data, or wherever
+ * -Dbank.dir points), the PIN checks, and the {@link TransactionPipeline} every
+ * deposit, withdrawal and transfer from the app goes through. Transfers are
+ * scored by the default {@link RiskEngine} rules, whose held and flagged transfers
+ * wait in {@link #reviewQueue()}, and a retried transfer with the same key is only
+ * carried out once, also across a restart.
+ *
+ * Opening it replays the journal, so Main opens it on a thread of its own
+ * ("bank-open") while the home screen comes up. Pages wait on the future, never
+ * on the EDT.
+ */
+public class Bank implements Closeable {
+
+	private static final long EXPECTED_ACCOUNTS = 100_000;
+	private static final long SNAPSHOT_MINUTES = 10;
+
+	private final PersistentLedger persistent;
+	private final Ledger ledger;
+	private final PinHasher hasher;
+	private final CredentialService credentials;
+	private final RiskEngine risk;
+	private final TransactionPipeline pipeline;
+	private final CardIssuer issuer;
+
+	private Bank(PersistentLedger persistent) {
+		this.persistent = persistent;
+		this.ledger = persistent.ledger();
+		this.hasher = new PinHasher(System.getProperty("bank.pepper", "demo pepper"));
+		this.credentials = new CredentialService(ledger, hasher);
+		this.risk = RiskEngine.install(ledger);
+		this.pipeline = new TransactionPipeline(ledger);
+		// Every account the app opens takes the next number, so the count of
+		// accounts is where the sequence goes on from
+		this.issuer = CardIssuer.sequential(CardIssuer.DEFAULT_IIN, ledger.accountCount());
+		pipeline.start();
+		persistent.startSnapshots(SNAPSHOT_MINUTES, TimeUnit.MINUTES);
+	}
+
+	public static Path defaultDirectory() {
+		return Paths.get(System.getProperty("bank.dir", "bank-data"));
+	}
+
+	/**
+	 * Opens the bank in the background. It is closed again when the JVM exits.
+	 */
+	public static CompletableFuture<Bank> openAsync(Path dir) {
+		CompletableFuture<Bank> opened = new CompletableFuture<>();
+		Thread thread = new Thread(() -> {
+			try {
+				Bank bank = new Bank(PersistentLedger.open(dir, EXPECTED_ACCOUNTS, new DedupCache()));
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					try {
+						bank.close();
+					} catch (IOException e) {
+						System.err.println("Closing the bank failed: " + e);
+					}
+				}, "bank-close"));
+				opened.complete(bank);
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Opening the bank in " + dir + " failed: " + e);
+				opened.completeExceptionally(e);
+			}
+		}, "bank-open");
+		thread.setDaemon(true);
+		thread.start();
+		return opened;
+	}
+
+	public Ledger ledger() {
+		return ledger;
+	}
+
+	public CredentialService credentials() {
+		return credentials;
+	}
+
+	public TransactionPipeline pipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * Transfers the risk checks held or flagged, for an administrator.
+	 */
+	public ReviewQueue reviewQueue() {
+		return risk.queue();
+	}
+
+	/**
+	 * Opens an empty account under a new card number with the given PIN.
+	 *
+	 * @return the card number
+	 * @throws IllegalStateException if the bank has run out of card numbers or room
+	 */
+	public long openAccount(char[] pin) {
+		long card = issuer.issue();
+		while (ledger.accountOf(card) >= 0) {
+			card = issuer.issue(); // opened some other way, e.g. by an import
+		}
+		ledger.openAccount(card, 0, hasher.hash(card, pin));
+		return card;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			pipeline.stop();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		credentials.shutdown();
+		persistent.close();
+	}
+}
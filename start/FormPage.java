@@ -0,0 +1,105 @@
+package start;
+
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+
+import styles.Skin;
+import styles.SwingCustomizationUtils;
+
+/**
+ * A page with a heading, labelled fields under each other, a message line and a
+ * row of buttons, on the same gradient as the home screen. The first button is
+ * always "Back".
+ */
+public abstract class FormPage implements Page {
+
+	private final JPanel panel;
+	private final JPanel buttons = new JPanel(new FlowLayout(FlowLayout.CENTER, 20, 0));
+	private final JLabel message = new JLabel(" ");
+	private final GridBagConstraints g = new GridBagConstraints();
+	private int rows;
+
+	protected FormPage(PageNavigator navigator, String heading) {
+		panel = SwingCustomizationUtils.createSkinnedPanel(Skin.verticalGradient(Skin.GRADIENT_TOP, Skin.GRADIENT_BOTTOM));
+		panel.setLayout(new GridBagLayout());
+
+		JLabel headingLabel = new JLabel(heading);
+		headingLabel.setFont(Skin.TITLE_FONT);
+		headingLabel.setForeground(Color.WHITE);
+		g.gridx = 0;
+		g.gridy = rows++;
+		g.gridwidth = 2;
+		g.insets = new Insets(20, 0, 40, 0);
+		panel.add(headingLabel, g);
+
+		buttons.setOpaque(false);
+		addButton("Back").addActionListener(e -> navigator.back());
+	}
+
+	protected void addField(String label, JComponent field) {
+		JLabel fieldLabel = new JLabel(label);
+		fieldLabel.setFont(Skin.TEXT_FONT);
+		fieldLabel.setForeground(Color.WHITE);
+		field.setFont(Skin.TEXT_FONT);
+		g.gridy = rows++;
+		g.gridwidth = 1;
+		g.insets = new Insets(10, 10, 10, 10);
+		g.gridx = 0;
+		g.anchor = GridBagConstraints.LINE_END;
+		panel.add(fieldLabel, g);
+		g.gridx = 1;
+		g.anchor = GridBagConstraints.LINE_START;
+		panel.add(field, g);
+	}
+
+	// A label that shows a value rather than naming a field
+	protected JLabel addValue(String label) {
+		JLabel value = new JLabel();
+		value.setForeground(Color.WHITE);
+		addField(label, value);
+		return value;
+	}
+
+	protected JButton addButton(String text) {
+		JButton button = new JButton(text);
+		button.setFont(Skin.BUTTON_FONT);
+		buttons.add(button);
+		return button;
+	}
+
+	// Called by the subclass once its fields are in
+	protected void finish() {
+		g.gridx = 0;
+		g.gridy = rows++;
+		g.gridwidth = 2;
+		g.insets = new Insets(20, 0, 0, 0);
+		g.anchor = GridBagConstraints.CENTER;
+		message.setFont(Skin.TEXT_FONT);
+		message.setForeground(Color.WHITE);
+		panel.add(message, g);
+		g.gridy = rows++;
+		g.insets = new Insets(20, 0, 0, 0);
+		panel.add(buttons, g);
+	}
+
+	/**
+	 * Shows a line of text above the buttons, e.g. why something didn't work.
+	 * Null or empty clears it.
+	 */
+	protected void showMessage(String text) {
+		message.setText(text == null || text.isEmpty() ? " " : text);
+	}
+
+	@Override
+	public JComponent view() {
+		return panel;
+	}
+}
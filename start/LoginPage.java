@@ -1,5 +1,92 @@
 package start;
 
-public class LoginPage {
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
+import javax.swing.JButton;
+import javax.swing.JPasswordField;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+
+import auth.LoginResult;
+
+public class LoginPage extends FormPage {
+
+	private final PageNavigator navigator;
+	private final CompletableFuture<Bank> bank;
+	private final JTextField cardField = new JTextField(19);
+	private final JPasswordField pinField = new JPasswordField(4);
+	private final JButton loginButton;
+
+	public LoginPage(PageNavigator navigator, CompletableFuture<Bank> bank) {
+		super(navigator, "Log in to your account");
+		this.navigator = navigator;
+		this.bank = bank;
+		addField("Card number", cardField);
+		addField("PIN", pinField);
+		loginButton = addButton("Login");
+		loginButton.addActionListener(e -> login());
+		pinField.addActionListener(e -> login()); // Enter in the PIN field
+		finish();
+	}
+
+	@Override
+	public String title() {
+		return "Welcome to the bank! | Login";
+	}
+
+	@Override
+	public void shown() {
+		// Nothing typed last time stays on screen
+		cardField.setText("");
+		pinField.setText("");
+		showMessage(null);
+		cardField.requestFocusInWindow();
+	}
+
+	// The PIN is checked on the verifier threads; the answer comes back to the EDT
+	private void login() {
+		long card;
+		try {
+			card = Long.parseLong(cardField.getText().replaceAll("[ -]", ""));
+		} catch (NumberFormatException e) {
+			showMessage("Type the card number, digits only");
+			return;
+		}
+		char[] pin = pinField.getPassword();
+		loginButton.setEnabled(false);
+		showMessage("Checking...");
+		bank.thenCompose(b -> b.credentials().verifyAsync(card, pin)).whenComplete((result, failure) -> {
+			Arrays.fill(pin, '\0');
+			SwingUtilities.invokeLater(() -> loggedIn(card, result, failure));
+		});
+	}
+
+	private void loggedIn(long card, LoginResult result, Throwable failure) {
+		loginButton.setEnabled(true);
+		if (failure != null) {
+			showMessage("The bank can't be reached right now");
+			return;
+		}
+		switch (result) {
+		case OK:
+			Bank opened = bank.join(); // done, the PIN was checked against it
+			navigator.page(AccountPage.class).open(opened, opened.ledger().accountOf(card));
+			navigator.show(AccountPage.class);
+			break;
+		case WRONG_PIN:
+			pinField.setText("");
+			showMessage("Wrong PIN");
+			break;
+		case LOCKED_OUT:
+			showMessage("Too many wrong PINs, the card is locked for a while");
+			break;
+		case UNKNOWN_CARD:
+			showMessage("There is no account with that card number");
+			break;
+		default:
+			showMessage("The bank is busy, please try again in a moment");
+			break;
+		}
+	}
 }
@@ -2,7 +2,6 @@ package start;
 
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.GradientPaint;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridBagConstraints;
@@ -12,6 +11,10 @@ import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.font.FontRenderContext;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -19,12 +22,26 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
+import styles.Skin;
+import styles.SkinCache;
+import styles.SkinPainter;
+
 public class Main extends JFrame implements ActionListener {
 	
 	// Creating constants for the window size.
 	private static final int WINDOW_HEIGHT = 720;
 	private static final int WINDOW_WIDTH = 1080;
 	
+	// When main() was entered, and whether this run only trains the CDS archive
+	private static long mainStarted;
+	private static boolean training;
+	
+	// Opened in the background while the window comes up
+	private static CompletableFuture<Bank> bank;
+	
+	private PageNavigator navigator;
+	private boolean firstFramePainted;
+	
 	public Main() {
 		createAndShowGUI();
 	}
@@ -32,14 +49,19 @@ public class Main extends JFrame implements ActionListener {
 	private void createAndShowGUI() {
 		// Here we create and set up the window
 		JFrame frame = new JFrame();
-		frame.setTitle("Welcome to the bank! | Login Page");
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		frame.setAlwaysOnTop(true);
 		frame.setSize(WINDOW_WIDTH, WINDOW_HEIGHT);
 		
-		// TODO: Create the gradient background
-		JPanel panel = new JPanel();
-		frame.setContentPane(panel);
+		// The gradient background. It is the home page; the other pages are only
+		// built when they are needed.
+		JPanel panel = new GradientPanel();
+		navigator = new PageNavigator(frame, panel, "Welcome to the bank! | Login Page");
+		navigator.register(LoginPage.class, () -> new LoginPage(navigator, bank));
+		navigator.register(AccountPage.class, () -> new AccountPage(navigator));
+		navigator.register(AdminLogin.class, () -> new AdminLogin(navigator));
+		navigator.register(Register.class, () -> new Register(navigator, bank));
+		navigator.register(TermsOfUse.class, () -> new TermsOfUse(navigator));
 		
 		// Using GridBagLayout
 		panel.setLayout(new GridBagLayout());
@@ -48,7 +70,7 @@ public class Main extends JFrame implements ActionListener {
 		// Create and style components here (no method)
 		JLabel welcomeLabel = new JLabel();
 		welcomeLabel.setText("Welcome to the bank - Login page!");
-		welcomeLabel.setFont(new Font("Arial", Font.BOLD, 32));
+		welcomeLabel.setFont(Skin.TITLE_FONT);
 		
 		JButton loginButton = new JButton();
 		loginButton.setText("Login");
@@ -58,7 +80,7 @@ public class Main extends JFrame implements ActionListener {
 		class CustomLabel extends JLabel {
 			public CustomLabel(String text) {
 				super(text);
-				setFont(new Font("Arial", Font.BOLD, 32));
+				setFont(Skin.TITLE_FONT);
 				setForeground(Color.white);
 				setOpaque(true);
 				setBackground(Color.black);
@@ -68,39 +90,33 @@ public class Main extends JFrame implements ActionListener {
 			protected void paintComponent(Graphics g) {
 				super.paintComponent(g);
 				Graphics2D g2d = (Graphics2D) g;
-				g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, loginButton);
-				g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, loginButton);
-				FontRenderContext frc = g2d.getFontRenderContext()
+				g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+				g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+				FontRenderContext frc = g2d.getFontRenderContext();
 			}
 		}
 		
-		frame.add(loginButton, g);
 		JButton registerButton = new JButton();
 		registerButton.setText("Register");
-		frame.add(registerButton, g);
 		JButton adminLoginbutton = new JButton();
 		adminLoginbutton.setText("Admin Login");
-		frame.add(adminLoginbutton, g);
 		JButton exitButton = new JButton();
 		exitButton.setText("Exit the application");
-		frame.add(exitButton, g);
 		JButton backButton = new JButton();
 		backButton.setText("Previous Page");
-		frame.add(backButton, g);
 		JButton nextButton = new JButton();
 		nextButton.setText("Next Page (Terms of Use)");
-		frame.add(nextButton, g);
 		
 		JLabel registerLabel = new JLabel();
 		registerLabel.setText("Would you like to register?");
 		
 		// Add actionlisteners
-		loginButton.addActionListener(e -> navigateTo("LoginPage"));
-		adminLoginbutton.addActionListener(e -> navigateTo("AdminLoginPage"));
-		registerButton.addActionListener(e -> navigateTo("RegisterPage"));
+		loginButton.addActionListener(e -> navigator.show(LoginPage.class));
+		adminLoginbutton.addActionListener(e -> navigator.show(AdminLogin.class));
+		registerButton.addActionListener(e -> navigator.show(Register.class));
 		exitButton.addActionListener(e -> System.exit(0));
-		backButton.addActionListener(e -> navigateTo("PrevPage"));
-		nextButton.addActionListener(e -> navigateTo("NextPage"));
+		backButton.addActionListener(e -> navigator.back());
+		nextButton.addActionListener(e -> navigator.show(TermsOfUse.class));
 		
 		// Setting the layout constraints and adding components
 		g.insets = new Insets(20, 20, 20, 20);
@@ -184,13 +200,31 @@ public class Main extends JFrame implements ActionListener {
 		frame.add(welcomeLabel, g);
 	}
 	
-	private static void navigateTo(String page) {
-		// Add the navigation logic here
-		System.out.println("Opening page" +page);
+	// Runs once, right after the home page was painted for the first time
+	private void onFirstFrame() {
+		long sinceMain = (System.nanoTime() - mainStarted) / 1_000_000;
+		long sinceJvm = ProcessHandle.current().info().startInstant()
+				.map(start -> Duration.between(start, Instant.now()).toMillis()).orElse(-1L);
+		System.out.println("First frame after " + sinceJvm + " ms (" + sinceMain + " ms since main)");
 		
+		// Most people log in next, so that page is built while they read this one
+		navigator.prewarm(LoginPage.class, Register.class, AdminLogin.class).thenRun(() -> {
+			if (training) {
+				System.exit(0); // the archive is written on exit
+			}
+		});
 	}
 	
+	/**
+	 * Starts the app. With --train it exits once the first frame is up and the
+	 * likely pages are built, which is how start/appcds.sh records the classes for
+	 * its class data sharing archive.
+	 */
 	public static void main(String[] args) {
+		mainStarted = System.nanoTime();
+		training = args.length > 0 && args[0].equals("--train");
+		bank = Bank.openAsync(Bank.defaultDirectory());
+		
 		// Schedule a job for the Event Dispatching Thread, EDT:
 		// Create and show the application's GUI.
 		SwingUtilities.invokeLater(() -> {
@@ -206,21 +240,20 @@ public class Main extends JFrame implements ActionListener {
 		
 	}
 	
-	// Custom JPanel with a gradient background
+	// Custom JPanel with a gradient background. The gradient is rendered once per
+	// window size by the skin cache, so a repaint only copies the image.
 	class GradientPanel extends JPanel {
 
+		private final SkinPainter background = Skin.verticalGradient(Skin.GRADIENT_TOP, Skin.GRADIENT_BOTTOM);
+
+		@Override
 		protected void paintComponent(Graphics g) {
-			super.paintComponent(getGraphics());
-			Graphics2D g2d = (Graphics2D) g;
-			int width = getWidth();
-			int height = getHeight();
-			// Creating two Colors to be used in the gradient background
-			Color color11 = new Color(0, 0, 170);
-			Color color22 = new Color(0, 0, 220);
-			GradientPaint gp = new GradientPaint(0, 0, color11, 0, height, color22);
-			g2d.setPaint(gp);
-			g2d.fillRect(0, 0, width, height);
-			
+			SkinCache.paint(g, background, getWidth(), getHeight());
+			if (!firstFramePainted) {
+				firstFramePainted = true;
+				// After this paint is on screen, not during it
+				SwingUtilities.invokeLater(Main.this::onFirstFrame);
+			}
 		}
 		
 	}
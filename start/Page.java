@@ -0,0 +1,27 @@
+package start;
+
+import javax.swing.JComponent;
+
+/**
+ * One screen of the app, e.g. the login page. Pages are registered with the
+ * {@link PageNavigator} by type and only built the first time they are needed
+ * (or ahead of time, see {@link PageNavigator#prewarm}).
+ */
+public interface Page {
+
+	/**
+	 * Shown in the window title.
+	 */
+	String title();
+
+	/**
+	 * The page's content; the same component every time.
+	 */
+	JComponent view();
+
+	/**
+	 * Called on the EDT every time the page comes on screen.
+	 */
+	default void shown() {
+	}
+}
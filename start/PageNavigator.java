@@ -0,0 +1,196 @@
+package start;
+
+import java.awt.CardLayout;
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+
+import styles.Skin;
+
+/**
+ * Switches the main window between pages. Pages are registered by type with a
+ * factory and built the first time they are shown, so starting the app only
+ * builds the home screen.
+ *
+ * Pages the user is likely to open next can be {@link #prewarm prewarmed} while
+ * the user is still looking at the current page. A background thread only loads
+ * what is safe to load off the EDT: the classes of the pages, of the components
+ * and of their look and feel delegates, and the fonts. The pages themselves are
+ * then built on the EDT, one per event, so input in between isn't held up.
+ *
+ * Everything except that class and font loading runs on the EDT.
+ */
+public class PageNavigator {
+
+	private static final String HOME = "home";
+
+	// What the pages are made of, for prewarming
+	private static final String[] COMPONENT_UI_IDS = { "LabelUI", "ButtonUI", "TextFieldUI", "PasswordFieldUI",
+			"PanelUI" };
+	private static final String[] COMPONENT_CLASSES = { "javax.swing.JTextField", "javax.swing.JPasswordField",
+			"javax.swing.text.DefaultCaret", "javax.swing.text.PlainDocument" };
+	private static final Font[] FONTS = { Skin.TITLE_FONT, Skin.BUTTON_FONT, Skin.TEXT_FONT };
+
+	private final JFrame frame;
+	private final String homeTitle;
+	private final CardLayout cards = new CardLayout();
+	private final JPanel content = new JPanel(cards);
+	private final Map<Class<? extends Page>, Supplier<? extends Page>> factories = new HashMap<>();
+	private final Map<Class<? extends Page>, Page> pages = new HashMap<>();
+	private final Deque<Class<? extends Page>> history = new ArrayDeque<>();
+	private Class<? extends Page> current;
+
+	/**
+	 * @param home      the first screen, shown right away
+	 * @param homeTitle window title for it
+	 */
+	public PageNavigator(JFrame frame, JComponent home, String homeTitle) {
+		this.frame = frame;
+		this.homeTitle = homeTitle;
+		content.add(home, HOME);
+		frame.setContentPane(content);
+		frame.setTitle(homeTitle);
+	}
+
+	public <T extends Page> void register(Class<T> type, Supplier<T> factory) {
+		factories.put(type, factory);
+	}
+
+	/**
+	 * The page of that type, built now if it wasn't yet.
+	 */
+	public <T extends Page> T page(Class<T> type) {
+		Page page = pages.get(type);
+		if (page == null) {
+			page = factory(type).get();
+			install(type, page);
+		}
+		return type.cast(page);
+	}
+
+	private Supplier<? extends Page> factory(Class<? extends Page> type) {
+		Supplier<? extends Page> factory = factories.get(type);
+		if (factory == null) {
+			throw new IllegalArgumentException("No page registered for " + type.getSimpleName());
+		}
+		return factory;
+	}
+
+	private void install(Class<? extends Page> type, Page page) {
+		pages.put(type, page);
+		content.add(page.view(), type.getName());
+	}
+
+	/**
+	 * Shows a page and remembers the one before it for {@link #back()}.
+	 */
+	public void show(Class<? extends Page> type) {
+		Page page = page(type);
+		if (type == current) {
+			return;
+		}
+		history.push(current == null ? Page.class : current); // Page.class stands for home
+		display(type, page);
+	}
+
+	/**
+	 * Goes back to the page shown before this one.
+	 *
+	 * @return false if we are already home
+	 */
+	public boolean back() {
+		if (history.isEmpty()) {
+			return false;
+		}
+		Class<? extends Page> previous = history.pop();
+		if (previous == Page.class) {
+			current = null;
+			cards.show(content, HOME);
+			frame.setTitle(homeTitle);
+		} else {
+			display(previous, pages.get(previous));
+		}
+		return true;
+	}
+
+	private void display(Class<? extends Page> type, Page page) {
+		current = type;
+		cards.show(content, type.getName());
+		frame.setTitle(page.title());
+		page.shown();
+	}
+
+	/**
+	 * Loads the classes and fonts of the pages on a background thread
+	 * ("page-prewarm"), then builds the pages on the EDT, one per event.
+	 *
+	 * @return completes on the EDT once all of them are installed
+	 */
+	@SafeVarargs
+	public final CompletableFuture<Void> prewarm(Class<? extends Page>... types) {
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		List<Class<? extends Page>> wanted = new ArrayList<>();
+		for (Class<? extends Page> type : types) {
+			factory(type); // fails here rather than later
+			wanted.add(type);
+		}
+		// The look and feel is only asked on the EDT, the thread just loads what it names
+		List<String> classNames = new ArrayList<>();
+		for (Class<? extends Page> type : wanted) {
+			classNames.add(type.getName());
+		}
+		classNames.addAll(List.of(COMPONENT_CLASSES));
+		for (String uiClassId : COMPONENT_UI_IDS) {
+			String uiClass = UIManager.getString(uiClassId);
+			if (uiClass != null) {
+				classNames.add(uiClass);
+			}
+		}
+		ClassLoader loader = getClass().getClassLoader();
+		Thread thread = new Thread(() -> {
+			for (String name : classNames) {
+				try {
+					Class.forName(name, false, loader); // loaded, but initialized on first use
+				} catch (ClassNotFoundException | LinkageError e) {
+					System.err.println("Prewarming " + name + " failed: " + e);
+				}
+			}
+			for (Font font : FONTS) {
+				font.canDisplayUpTo("0123456789 Welcome to the bank!"); // opens the font file
+			}
+			SwingUtilities.invokeLater(() -> buildNext(wanted.iterator(), done));
+		}, "page-prewarm");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+		return done;
+	}
+
+	// One page per event, on the EDT; pages opened meanwhile are already built
+	private void buildNext(Iterator<Class<? extends Page>> types, CompletableFuture<Void> done) {
+		if (!types.hasNext()) {
+			done.complete(null);
+			return;
+		}
+		try {
+			page(types.next());
+		} catch (RuntimeException e) {
+			// It gets built again when it is opened
+			System.err.println("Prewarming a page failed: " + e);
+		}
+		SwingUtilities.invokeLater(() -> buildNext(types, done));
+	}
+}
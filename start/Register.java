@@ -1,5 +1,66 @@
 package start;
 
-public class Register {
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+
+import cards.CardIssuer;
+
+/**
+ * Opens an empty account and shows its new card number and PIN, once. Money goes
+ * in from the account page after logging in.
+ */
+public class Register extends FormPage {
+
+	private final CompletableFuture<Bank> bank;
+	private final JLabel cardLabel;
+	private final JLabel pinLabel;
+	private final JButton registerButton;
+
+	public Register(PageNavigator navigator, CompletableFuture<Bank> bank) {
+		super(navigator, "Open an account");
+		this.bank = bank;
+		cardLabel = addValue("Card number");
+		pinLabel = addValue("PIN");
+		registerButton = addButton("Register");
+		registerButton.addActionListener(e -> register());
+		finish();
+	}
+
+	@Override
+	public String title() {
+		return "Welcome to the bank! | Register";
+	}
+
+	@Override
+	public void shown() {
+		// The PIN of the last account opened here isn't left on screen
+		cardLabel.setText("");
+		pinLabel.setText("");
+		showMessage(null);
+		registerButton.setEnabled(true);
+		registerButton.requestFocusInWindow();
+	}
+
+	// Hashing the PIN and journaling the account happen off the EDT
+	private void register() {
+		registerButton.setEnabled(false);
+		showMessage("Opening the account...");
+		char[] pin = CardIssuer.newPin();
+		bank.thenApplyAsync(b -> b.openAccount(pin)).whenComplete((card, failure) -> SwingUtilities.invokeLater(() -> {
+			if (failure != null) {
+				System.err.println("Opening an account failed: " + failure);
+				registerButton.setEnabled(true);
+				showMessage("The account could not be opened, please try again later");
+			} else {
+				cardLabel.setText(Long.toString(card));
+				pinLabel.setText(new String(pin));
+				showMessage("Write these down, the PIN is not shown again");
+			}
+			Arrays.fill(pin, '\0');
+		}));
+	}
 }
@@ -0,0 +1,29 @@
+package start;
+
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+
+import styles.Skin;
+
+public class TermsOfUse extends FormPage {
+
+	private static final String TERMS = "This is a demo bank. No real money is moved, and the accounts,\n"
+			+ "cards and transfers you see are made up by the activity simulator.\n\n"
+			+ "Keep your PIN to yourself anyway.";
+
+	public TermsOfUse(PageNavigator navigator) {
+		super(navigator, "Terms of use");
+		JTextArea text = new JTextArea(TERMS, 8, 48);
+		text.setEditable(false);
+		text.setLineWrap(true);
+		text.setWrapStyleWord(true);
+		text.setFont(Skin.TEXT_FONT);
+		addField("", new JScrollPane(text));
+		finish();
+	}
+
+	@Override
+	public String title() {
+		return "Welcome to the bank! | Terms of Use";
+	}
+}
@@ -0,0 +1,34 @@
+#!/bin/sh
+# Starts the bank app with a class data sharing (AppCDS) archive, so the JVM maps
+# the already parsed and verified classes of Swing and the app instead of loading
+# them one by one. The first run records the archive: it starts the app with
+# --train, which exits once the first frame is up and the likely next pages are
+# built, and the classes loaded by then are written to the archive.
+#
+#  mvn -B package
+#  start/appcds.sh [bank jar]      default: bank/target/bank-1.0-SNAPSHOT.jar
+#
+# CDS only archives classes that come from jars, so it runs the jar the Maven
+# build makes. The archive is recorded again whenever the jar is newer than it;
+# delete it after changing the JDK. Needs Java 13 or newer.
+#
+# The training run opens a bank like any other start does, so it gets a throwaway
+# bank directory instead of the real one.
+
+ROOT=$(dirname "$0")/..
+JAR=${1:-$ROOT/bank/target/bank-1.0-SNAPSHOT.jar}
+ARCHIVE=${ARCHIVE:-$ROOT/bank-app.jsa}
+
+if [ ! -f "$JAR" ]; then
+	echo "No $JAR, build it first with: mvn -B package" >&2
+	exit 1
+fi
+if [ ! -f "$ARCHIVE" ] || [ "$JAR" -nt "$ARCHIVE" ]; then
+	echo "Recording $ARCHIVE"
+	TRAINING_DIR=$(mktemp -d) || exit 1
+	java -XX:ArchiveClassesAtExit="$ARCHIVE" -Dbank.dir="$TRAINING_DIR" -cp "$JAR" start.Main --train
+	STATUS=$?
+	rm -rf "$TRAINING_DIR"
+	[ $STATUS -eq 0 ] || exit 1
+fi
+exec java -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" start.Main
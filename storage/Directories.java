@@ -0,0 +1,32 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * File tree helpers for the demos and benchmarks, which work in a temporary
+ * directory and remove it afterwards.
+ */
+public final class Directories {
+
+	private Directories() {
+	}
+
+	/**
+	 * Deletes the directory and everything in it, deepest files first. A directory
+	 * that isn't there is fine.
+	 */
+	public static void deleteRecursively(Path dir) throws IOException {
+		if (!Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+}
@@ -0,0 +1,442 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import metrics.LatencyHistogram;
+
+/**
+ * Append-only transaction journal. This is where registrations, PIN changes and
+ * every money movement end up, instead of the .txt file from the original plan.
+ *
+ * Records are fixed-size binary ({@link JournalRecord}) and are written into
+ * memory-mapped segment files. When a segment is full a new one is started
+ * (segment rolling). Durability uses group commit: callers append and then wait in
+ * {@link #awaitDurable(long)}, and a single flusher thread forces the dirty part of
+ * the active segment once for everybody who is waiting, so many concurrent
+ * transactions share one fsync.
+ *
+ * On {@link #open(Path)} the last segment is scanned and anything after the last
+ * intact record is thrown away, so a crash in the middle of a write is harmless.
+ *
+ * Every 16th {@link #append} is timed into {@link #appendLatency()}, and every
+ * fsync of the flusher into {@link #syncLatency()}.
+ */
+public class Journal implements Closeable {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final long APPEND_SAMPLE_MASK = 15; // time every 16th append
+
+	private final Path directory;
+	private final int segmentSize;
+	private final List<JournalSegment> segments = new ArrayList<>();
+
+	// Append state, guarded by this
+	private final ByteBuffer scratch = ByteBuffer.allocate(JournalRecord.SIZE);
+	private final CRC32C crc = new CRC32C();
+	private JournalSegment active;
+	private long nextSeq;
+	private long retainedSince = Long.MAX_VALUE;
+
+	// Group commit state, guarded by flushLock. Waiters and the flusher sleep on
+	// separate conditions so that waiters never wake each other up.
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private final Condition flushNeeded = flushLock.newCondition();
+	private final Condition flushed = flushLock.newCondition();
+	private long durableSeq;
+	private boolean flushRequested;
+	private IOException flushFailure;
+	private volatile boolean open = true;
+	private final Thread flusher;
+
+	private final LatencyHistogram appendLatency = new LatencyHistogram();
+	private final LatencyHistogram syncLatency = new LatencyHistogram();
+
+	private Journal(Path directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.flusher = new Thread(this::flushLoop, "journal-flusher");
+		this.flusher.setDaemon(true);
+	}
+
+	public static Journal open(Path directory) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens (or creates) the journal in {@code directory} and recovers it.
+	 *
+	 * @param segmentSize size of each segment file in bytes
+	 */
+	public static Journal open(Path directory, int segmentSize) throws IOException {
+		if (segmentSize < JournalSegment.HEADER_SIZE + JournalRecord.SIZE) {
+			throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+		}
+		Files.createDirectories(directory);
+		Journal journal = new Journal(directory, segmentSize);
+		journal.recover();
+		journal.flusher.start();
+		return journal;
+	}
+
+	private void recover() throws IOException {
+		JournalSegment.deleteUnfinished(directory);
+		List<Path> files;
+		try (Stream<Path> list = Files.list(directory)) {
+			files = list.filter(JournalSegment::isSegmentFile).sorted().toList();
+		}
+		for (Path file : files) {
+			segments.add(JournalSegment.open(file));
+		}
+
+		if (segments.isEmpty()) {
+			active = JournalSegment.create(directory, 1, segmentSize);
+			segments.add(active);
+			nextSeq = 1;
+		} else {
+			active = segments.get(segments.size() - 1);
+			nextSeq = active.recover(scratch, crc);
+		}
+		durableSeq = nextSeq - 1;
+	}
+
+	/**
+	 * Appends one record. The record is visible to {@link #replay} right away but is
+	 * only guaranteed to survive a crash after {@link #awaitDurable(long)} returns.
+	 *
+	 * @return the sequence number assigned to the record
+	 */
+	public synchronized long append(short type, long accountA, long accountB, long amount) throws IOException {
+		if (!open) {
+			throw new IOException("Journal is closed");
+		}
+		if (!active.hasRoom()) {
+			roll();
+		}
+		long seq = nextSeq++;
+		boolean sampled = (seq & APPEND_SAMPLE_MASK) == 0;
+		long start = sampled ? System.nanoTime() : 0;
+		JournalRecord.encode(scratch, crc, type, seq, System.currentTimeMillis(), accountA, accountB, amount);
+		active.append(scratch);
+		if (sampled) {
+			appendLatency.record(System.nanoTime() - start);
+		}
+		return seq;
+	}
+
+	/**
+	 * Appends one {@link JournalRecord#POST} record per leg, with no other records in
+	 * between.
+	 *
+	 * @return the sequence number of the last leg
+	 */
+	public synchronized long appendPost(long[] accounts, long[] amounts) throws IOException {
+		if (!open) {
+			throw new IOException("Journal is closed");
+		}
+		long now = System.currentTimeMillis();
+		long seq = 0;
+		for (int i = 0; i < accounts.length; i++) {
+			if (!active.hasRoom()) {
+				roll();
+			}
+			seq = nextSeq++;
+			JournalRecord.encode(scratch, crc, JournalRecord.POST, seq, now, accounts[i], accounts.length - 1 - i,
+					amounts[i]);
+			active.append(scratch);
+		}
+		return seq;
+	}
+
+	/**
+	 * Appends a {@link JournalRecord#REQUEST} with the idempotency key, result 0 (OK),
+	 * and right after it the record of the operation, with no other records in
+	 * between.
+	 *
+	 * @return the sequence number of the operation's record
+	 */
+	public synchronized long appendRequest(long key, short type, long accountA, long accountB, long amount)
+			throws IOException {
+		if (!open) {
+			throw new IOException("Journal is closed");
+		}
+		long now = System.currentTimeMillis();
+		long seq = 0;
+		for (int i = 0; i < 2; i++) {
+			if (!active.hasRoom()) {
+				roll();
+			}
+			seq = nextSeq++;
+			if (i == 0) {
+				JournalRecord.encode(scratch, crc, JournalRecord.REQUEST, seq, now, key, 0, 0);
+			} else {
+				JournalRecord.encode(scratch, crc, type, seq, now, accountA, accountB, amount);
+			}
+			active.append(scratch);
+		}
+		return seq;
+	}
+
+	/**
+	 * Appends one record and waits until it is on disk.
+	 */
+	public long appendAndCommit(short type, long accountA, long accountB, long amount) throws IOException {
+		long seq = append(type, accountA, accountB, amount);
+		awaitDurable(seq);
+		return seq;
+	}
+
+	// The old segment is forced before the new one takes any records, so the
+	// flusher only ever has to look at the active segment.
+	private void roll() throws IOException {
+		active.syncTo(active.writePosition());
+		active = JournalSegment.create(directory, nextSeq, segmentSize);
+		segments.add(active);
+	}
+
+	/**
+	 * Blocks until every record up to and including {@code seq} has been forced to
+	 * disk. Concurrent callers are served by the same fsync.
+	 */
+	public void awaitDurable(long seq) throws IOException {
+		flushLock.lock();
+		try {
+			while (durableSeq < seq) {
+				if (flushFailure != null) {
+					throw new IOException("Journal flush failed", flushFailure);
+				}
+				if (!open) {
+					throw new IOException("Journal is closed");
+				}
+				if (!flushRequested) {
+					flushRequested = true;
+					flushNeeded.signal();
+				}
+				flushed.awaitUninterruptibly();
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void flushLoop() {
+		while (true) {
+			flushLock.lock();
+			try {
+				while (open && !flushRequested) {
+					flushNeeded.awaitUninterruptibly();
+				}
+				if (!open) {
+					return;
+				}
+				flushRequested = false;
+			} finally {
+				flushLock.unlock();
+			}
+
+			JournalSegment segment;
+			int end;
+			long seq;
+			synchronized (this) {
+				segment = active;
+				end = segment.writePosition();
+				seq = nextSeq - 1;
+			}
+
+			IOException failure = null;
+			long start = System.nanoTime();
+			try {
+				segment.syncTo(end);
+			} catch (UncheckedIOException e) {
+				failure = e.getCause();
+			}
+			syncLatency.record(System.nanoTime() - start);
+
+			flushLock.lock();
+			try {
+				if (failure != null) {
+					flushFailure = failure;
+				} else if (seq > durableSeq) {
+					durableSeq = seq;
+				}
+				flushed.signalAll();
+			} finally {
+				flushLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Replays every record with a sequence number of at least {@code fromSeq}.
+	 *
+	 * @return the number of records visited
+	 */
+	public long replay(long fromSeq, JournalVisitor visitor) {
+		List<JournalSegment> snapshot;
+		synchronized (this) {
+			snapshot = new ArrayList<>(segments);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(JournalRecord.SIZE);
+		CRC32C checksum = new CRC32C();
+		long start = Math.max(fromSeq, 1);
+		long next = start;
+		for (int i = 0; i < snapshot.size(); i++) {
+			JournalSegment segment = snapshot.get(i);
+			boolean last = i == snapshot.size() - 1;
+			if (!last && snapshot.get(i + 1).firstSeq() <= next) {
+				continue;
+			}
+			next = segment.replay(next, buffer, checksum, visitor);
+		}
+		return next - start;
+	}
+
+	/**
+	 * Deletes the segments that only hold records before {@code seq}, once a
+	 * snapshot has made them unnecessary. The active segment is always kept, and
+	 * so is everything {@link #retainSince(long)} asked for.
+	 *
+	 * @return how many segments were deleted
+	 */
+	public int deleteBefore(long seq) throws IOException {
+		List<JournalSegment> obsolete = new ArrayList<>();
+		synchronized (this) {
+			// A segment ends where the next one starts
+			while (segments.size() > 1 && segments.get(1).firstSeq() <= seq
+					&& segments.get(1).firstTimestamp() <= retainedSince) {
+				obsolete.add(segments.remove(0));
+			}
+		}
+		for (JournalSegment segment : obsolete) {
+			Files.deleteIfExists(segment.path());
+		}
+		return obsolete.size();
+	}
+
+	/**
+	 * Keeps {@link #deleteBefore(long)} from deleting the records from this time
+	 * on, and the last one before it, e.g. for statements that are rebuilt from the
+	 * start of a month. Only kept until the journal is closed; Long.MAX_VALUE drops
+	 * the hold.
+	 */
+	public synchronized void retainSince(long epochMillis) {
+		retainedSince = epochMillis;
+	}
+
+	/**
+	 * @return the sequence number of the oldest record still in the journal (or of
+	 *         the next one, if the journal is empty)
+	 */
+	public synchronized long firstSeq() {
+		return segments.get(0).firstSeq();
+	}
+
+	/**
+	 * @return the sequence number of the last appended record, 0 if there is none
+	 */
+	public synchronized long lastSeq() {
+		return nextSeq - 1;
+	}
+
+	public long durableSeq() {
+		flushLock.lock();
+		try {
+			return durableSeq;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Nanoseconds to encode and write one record, without waiting for the lock;
+	 * sampled.
+	 */
+	public LatencyHistogram appendLatency() {
+		return appendLatency;
+	}
+
+	/**
+	 * Nanoseconds per fsync. Its count is the number of fsyncs.
+	 */
+	public LatencyHistogram syncLatency() {
+		return syncLatency;
+	}
+
+	public Path directory() {
+		return directory;
+	}
+
+	/**
+	 * Forces whatever is still pending and stops the flusher thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		long last;
+		synchronized (this) {
+			if (!open) {
+				return;
+			}
+			last = nextSeq - 1;
+		}
+		awaitDurable(last);
+		synchronized (this) {
+			open = false;
+		}
+		flushLock.lock();
+		try {
+			flushNeeded.signal();
+			flushed.signalAll();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Small throughput check: several threads committing transfers at the same time.
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+		Path dir = Files.createTempDirectory("journal-check");
+
+		try (Journal journal = Journal.open(dir, 8 * 1024 * 1024)) {
+			Thread[] workers = new Thread[threads];
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				final long payer = t;
+				workers[t] = new Thread(() -> {
+					try {
+						for (int i = 0; i < perThread; i++) {
+							journal.appendAndCommit(JournalRecord.TRANSFER, payer, payer + 1, 100);
+						}
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				workers[t].start();
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long total = (long) threads * perThread;
+			System.out.printf("Committed %d records in %.2f s (%.0f tx/s)%n", total, seconds, total / seconds);
+		}
+
+		try (Journal reopened = Journal.open(dir, 8 * 1024 * 1024)) {
+			System.out.println("Recovered " + reopened.replay(1, (seq, type, ts, a, b, amount) -> { })
+					+ " records from " + dir);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * Fixed layout of one journal record. Every record is exactly {@link #SIZE} bytes,
+ * so a segment is just an array of records after its header and nothing ever
+ * has to be parsed as text.
+ *
+ * <pre>
+ *  offset  size  field
+ *       0     4  CRC32C of bytes 4..47
+ *       4     2  record type
+ *       6     2  flags (reserved, 0 for now)
+ *       8     8  sequence number (starts at 1, no gaps)
+ *      16     8  timestamp (epoch millis)
+ *      24     8  account A (card number of the payer / owner)
+ *      32     8  account B (card number of the payee, or a PIN hash)
+ *      40     8  amount in minor units (cents)
+ * </pre>
+ *
+ * A {@link #POST} (one ledger posting split over several accounts) is written as
+ * one record per leg, with consecutive sequence numbers. Account B of a leg holds
+ * the number of legs still to come, so the last leg has 0 there and a posting cut
+ * off by a crash can be recognized and left out on replay.
+ *
+ * An {@link #INTEREST} credit has the interest period (e.g. 202405) in account B,
+ * so the batch that posted it can tell afterwards which accounts already got it.
+ *
+ * A {@link #REQUEST} records the answer to a request that carried an idempotency
+ * key: the key is in account A, the {@code TransferResult} ordinal in account B. A
+ * request that went through is written right before the record of what it did,
+ * with the next sequence number, so one whose record was cut off by a crash can be
+ * told apart and left out on replay. A declined request is only the REQUEST.
+ */
+public final class JournalRecord {
+
+	public static final int SIZE = 48;
+
+	// Field offsets inside one record
+	static final int CRC = 0;
+	static final int TYPE = 4;
+	static final int FLAGS = 6;
+	static final int SEQ = 8;
+	static final int TIMESTAMP = 16;
+	static final int ACCOUNT_A = 24;
+	static final int ACCOUNT_B = 32;
+	static final int AMOUNT = 40;
+
+	// Record types
+	public static final short REGISTER = 1;
+	public static final short PIN_CHANGE = 2;
+	public static final short LOGIN = 3;
+	public static final short SET_FLAGS = 4;
+	public static final short DEPOSIT = 10;
+	public static final short WITHDRAW = 11;
+	public static final short TRANSFER = 12;
+	public static final short POST = 13;
+	public static final short INTEREST = 14;
+	public static final short REQUEST = 15;
+
+	private JournalRecord() {
+	}
+
+	/**
+	 * Encodes a record into {@code dst} (a heap buffer of at least {@link #SIZE} bytes)
+	 * and fills in the checksum. The buffer's position is not touched.
+	 */
+	static void encode(ByteBuffer dst, CRC32C crc, short type, long seq, long timestamp,
+			long accountA, long accountB, long amount) {
+		dst.putShort(TYPE, type);
+		dst.putShort(FLAGS, (short) 0);
+		dst.putLong(SEQ, seq);
+		dst.putLong(TIMESTAMP, timestamp);
+		dst.putLong(ACCOUNT_A, accountA);
+		dst.putLong(ACCOUNT_B, accountB);
+		dst.putLong(AMOUNT, amount);
+		dst.putInt(CRC, checksum(dst.array(), dst.arrayOffset(), crc));
+	}
+
+	/**
+	 * Checks a record previously copied into {@code src}: the checksum has to match
+	 * and the sequence number has to be set. A zeroed slot is never valid.
+	 */
+	static boolean isValid(ByteBuffer src, CRC32C crc) {
+		return src.getLong(SEQ) > 0 && src.getInt(CRC) == checksum(src.array(), src.arrayOffset(), crc);
+	}
+
+	private static int checksum(byte[] array, int offset, CRC32C crc) {
+		crc.reset();
+		crc.update(array, offset + TYPE, SIZE - TYPE);
+		return (int) crc.getValue();
+	}
+}
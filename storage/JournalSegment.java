@@ -0,0 +1,240 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * One memory-mapped journal file. The file is pre-allocated to its full size when
+ * it is created, starts with a small header and is then filled with fixed-size
+ * records from the front. Segments are only ever appended to by {@link Journal}.
+ */
+final class JournalSegment {
+
+	// Header layout, padded to one record so that records stay aligned
+	static final int HEADER_SIZE = JournalRecord.SIZE;
+	private static final int MAGIC = 0x424A4E4C; // "BJNL"
+	private static final int VERSION = 1;
+
+	private final Path path;
+	private final long firstSeq;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+
+	// Byte offset of the next free record slot (guarded by the journal lock)
+	private int writePosition;
+	// Everything before this offset has been forced to disk (guarded by this)
+	private int syncedPosition;
+
+	private JournalSegment(Path path, long firstSeq, MappedByteBuffer buffer) {
+		this.path = path;
+		this.firstSeq = firstSeq;
+		this.buffer = buffer;
+		this.capacity = buffer.capacity();
+		this.writePosition = HEADER_SIZE;
+		this.syncedPosition = HEADER_SIZE;
+	}
+
+	static String fileName(long firstSeq) {
+		return String.format("journal-%020d.seg", firstSeq);
+	}
+
+	static long firstSeqOf(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring("journal-".length(), name.length() - ".seg".length()));
+	}
+
+	static boolean isSegmentFile(Path file) {
+		String name = file.getFileName().toString();
+		return name.startsWith("journal-") && name.endsWith(".seg");
+	}
+
+	/**
+	 * Creates and pre-allocates a new, empty segment. The file is written and forced
+	 * under a temporary name and only then renamed into place, so a crash never
+	 * leaves a segment without its header for {@link #open(Path)} to choke on.
+	 */
+	static JournalSegment create(Path dir, long firstSeq, int size) throws IOException {
+		Path path = dir.resolve(fileName(firstSeq));
+		Path temporary = dir.resolve(fileName(firstSeq) + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putLong(8, firstSeq);
+			header.putInt(16, JournalRecord.SIZE);
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+			// pre-allocate: the last byte makes the file its full size, the rest reads as zeros
+			channel.write(ByteBuffer.allocate(1), size - 1);
+			channel.force(true);
+		}
+		Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(dir);
+		return open(path);
+	}
+
+	// Makes the rename itself durable. Not every platform can open a directory
+	// (Windows can't), and there the rename is as durable as it gets anyway.
+	private static void syncDirectory(Path dir) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(dir, StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try (channel) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Deletes what a crash in the middle of {@link #create(Path, long, int)} left
+	 * behind.
+	 */
+	static void deleteUnfinished(Path dir) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "journal-*.seg.tmp")) {
+			for (Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	/**
+	 * Maps an existing segment. The write position is left at the start; call
+	 * {@link #recover(ByteBuffer, CRC32C)} to find the real end.
+	 */
+	static JournalSegment open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not a journal segment: " + path);
+			}
+			if (buffer.getInt(4) != VERSION || buffer.getInt(16) != JournalRecord.SIZE) {
+				throw new IOException("Unsupported journal segment version: " + path);
+			}
+			long firstSeq = buffer.getLong(8);
+			if (firstSeq != firstSeqOf(path)) {
+				throw new IOException("Segment header does not match its file name: " + path);
+			}
+			return new JournalSegment(path, firstSeq, buffer);
+		}
+	}
+
+	/**
+	 * Scans the segment for the last intact record. Everything after it (a torn
+	 * write, or stale bytes the OS flushed out of order) is zeroed and forced, so
+	 * that it can never be mistaken for a valid record after the next crash.
+	 *
+	 * @return the sequence number the next record should get
+	 */
+	long recover(ByteBuffer scratch, CRC32C crc) {
+		long expected = firstSeq;
+		int position = HEADER_SIZE;
+		while (position + JournalRecord.SIZE <= capacity) {
+			buffer.get(position, scratch.array(), 0, JournalRecord.SIZE);
+			if (!JournalRecord.isValid(scratch, crc) || scratch.getLong(JournalRecord.SEQ) != expected) {
+				break;
+			}
+			expected++;
+			position += JournalRecord.SIZE;
+		}
+
+		int dirtyEnd = position;
+		byte[] zeros = new byte[JournalRecord.SIZE];
+		for (int p = position; p + JournalRecord.SIZE <= capacity; p += JournalRecord.SIZE) {
+			if (buffer.getLong(p + JournalRecord.SEQ) != 0 || buffer.getInt(p + JournalRecord.CRC) != 0) {
+				buffer.put(p, zeros, 0, JournalRecord.SIZE);
+				dirtyEnd = p + JournalRecord.SIZE;
+			}
+		}
+		if (dirtyEnd > position) {
+			buffer.force(position, dirtyEnd - position);
+		}
+
+		writePosition = position;
+		synchronized (this) {
+			syncedPosition = position;
+		}
+		return expected;
+	}
+
+	/**
+	 * Visits every valid record in order, starting at {@code fromSeq}.
+	 *
+	 * @return the sequence number after the last visited record
+	 */
+	long replay(long fromSeq, ByteBuffer scratch, CRC32C crc, JournalVisitor visitor) {
+		long expected = firstSeq;
+		int position = HEADER_SIZE;
+		if (fromSeq > firstSeq) {
+			position += (int) Math.min(fromSeq - firstSeq, (capacity - HEADER_SIZE) / JournalRecord.SIZE)
+					* JournalRecord.SIZE;
+			expected = firstSeq + (position - HEADER_SIZE) / JournalRecord.SIZE;
+		}
+		while (position + JournalRecord.SIZE <= capacity) {
+			buffer.get(position, scratch.array(), 0, JournalRecord.SIZE);
+			if (!JournalRecord.isValid(scratch, crc) || scratch.getLong(JournalRecord.SEQ) != expected) {
+				break;
+			}
+			visitor.record(expected, scratch.getShort(JournalRecord.TYPE), scratch.getLong(JournalRecord.TIMESTAMP),
+					scratch.getLong(JournalRecord.ACCOUNT_A), scratch.getLong(JournalRecord.ACCOUNT_B),
+					scratch.getLong(JournalRecord.AMOUNT));
+			expected++;
+			position += JournalRecord.SIZE;
+		}
+		return expected;
+	}
+
+	boolean hasRoom() {
+		return writePosition + JournalRecord.SIZE <= capacity;
+	}
+
+	/**
+	 * Copies an already encoded record into the next free slot.
+	 */
+	void append(ByteBuffer record) {
+		buffer.put(writePosition, record.array(), 0, JournalRecord.SIZE);
+		writePosition += JournalRecord.SIZE;
+	}
+
+	/**
+	 * Forces everything up to {@code end}. Only the range that is still dirty is
+	 * flushed. May run outside the journal lock, while appends continue further on.
+	 */
+	synchronized void syncTo(int end) {
+		int start = syncedPosition;
+		if (end > start) {
+			buffer.force(start, end - start);
+			syncedPosition = end;
+		}
+	}
+
+	int writePosition() {
+		return writePosition;
+	}
+
+	long firstSeq() {
+		return firstSeq;
+	}
+
+	/**
+	 * Timestamp of the first record, Long.MAX_VALUE while the segment is empty.
+	 */
+	long firstTimestamp() {
+		return writePosition > HEADER_SIZE ? buffer.getLong(HEADER_SIZE + JournalRecord.TIMESTAMP) : Long.MAX_VALUE;
+	}
+
+	Path path() {
+		return path;
+	}
+}
@@ -0,0 +1,11 @@
+package storage;
+
+/**
+ * Receives records while the journal is being replayed. The fields are handed
+ * over as primitives so that replaying millions of records allocates nothing.
+ */
+@FunctionalInterface
+public interface JournalVisitor {
+
+	void record(long seq, short type, long timestamp, long accountA, long accountB, long amount);
+}
@@ -0,0 +1,287 @@
+package storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Ships the journal to read-only followers over TCP, asynchronously: a transfer
+ * never waits for a follower.
+ *
+ * Snapshots carry every card number, balance and PIN hash, so a follower has to
+ * prove it knows the replication secret before it is sent anything: the leader
+ * sends a random challenge, and the follower answers with the HMAC-SHA256 of it
+ * under the secret. The leader listens on the loopback interface unless it is
+ * given another address for remote followers.
+ *
+ * A follower connects, answers the challenge and sends the sequence number it
+ * wants next. If the
+ * journal still has that record, shipping starts there. If compaction has already
+ * deleted it, or the follower is so far behind the newest snapshot that loading
+ * the snapshot is quicker than replaying, the follower first gets the snapshot and
+ * then the journal after it. From then on, every {@code shipInterval} the leader sends whatever was
+ * added since, followed by a heartbeat with its last sequence number and clock, so
+ * a follower always knows how far behind it is. The ship interval is the knob for
+ * the lag: followers are at most about that much behind, plus the time on the
+ * wire. Only records that are on disk are shipped, so a follower never gets ahead
+ * of what the leader would recover after a crash.
+ *
+ * <pre>
+ *  leader -> follower   16 bytes challenge
+ *  follower -> leader   32 bytes HMAC-SHA256(secret, challenge), long next sequence number wanted
+ *  leader -> follower   frames, each starting with one byte:
+ *    'S' snapshot       long journalSeq, int capacity, long count, then per account
+ *                       int slot, long card, balance, pinHash, lastActivity, int flags,
+ *                       long journalSeq
+ *    'R' record         long seq, short type, long timestamp, accountA, accountB, amount
+ *    'H' heartbeat      long last durable seq, long leader time in millis
+ * </pre>
+ *
+ * Every follower gets its own thread ("replication-N"), so a slow one only holds up
+ * itself.
+ */
+public class ReplicationLeader implements Closeable {
+
+	public static final byte SNAPSHOT = 'S';
+	public static final byte RECORD = 'R';
+	public static final byte HEARTBEAT = 'H';
+
+	public static final long DEFAULT_SHIP_INTERVAL_MILLIS = 10;
+	// A follower further behind the newest snapshot than this loads the snapshot
+	private static final long SNAPSHOT_CATCH_UP_RECORDS = 100_000;
+	private static final int CHALLENGE_BYTES = 16;
+	private static final int RESPONSE_BYTES = 32;
+	public static final int MIN_SECRET_BYTES = 16;
+
+	private final Journal journal;
+	private final Path snapshotDirectory;
+	private final long shipIntervalMillis;
+	private final byte[] secret;
+	private final SecureRandom random = new SecureRandom();
+	private final ServerSocket server;
+	private final List<Socket> followers = new CopyOnWriteArrayList<>();
+	private final Thread acceptor;
+	private volatile boolean open = true;
+	private int followerCount;
+
+	/**
+	 * Listens on the loopback interface only, for followers on this machine.
+	 *
+	 * @param snapshotDirectory where the snapshots for catching up are, or null to
+	 *                          only ever ship the journal
+	 * @param port              port to listen on, 0 for any free one
+	 * @param secret            shared with the followers, at least
+	 *                          {@link #MIN_SECRET_BYTES} random bytes
+	 */
+	public ReplicationLeader(Journal journal, Path snapshotDirectory, int port, long shipIntervalMillis,
+			byte[] secret) throws IOException {
+		this(journal, snapshotDirectory, InetAddress.getLoopbackAddress(), port, shipIntervalMillis, secret);
+	}
+
+	/**
+	 * @param bindAddress the interface followers on other machines reach this one on
+	 */
+	public ReplicationLeader(Journal journal, Path snapshotDirectory, InetAddress bindAddress, int port,
+			long shipIntervalMillis, byte[] secret) throws IOException {
+		if (secret.length < MIN_SECRET_BYTES) {
+			throw new IllegalArgumentException("The replication secret needs at least " + MIN_SECRET_BYTES + " bytes");
+		}
+		this.journal = journal;
+		this.snapshotDirectory = snapshotDirectory;
+		this.shipIntervalMillis = shipIntervalMillis;
+		this.secret = secret.clone();
+		this.server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(new InetSocketAddress(bindAddress, port));
+		this.acceptor = new Thread(this::accept, "replication-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int port() {
+		return server.getLocalPort();
+	}
+
+	public int followers() {
+		return followers.size();
+	}
+
+	private void accept() {
+		while (open) {
+			try {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				followers.add(socket);
+				Thread shipper = new Thread(() -> ship(socket), "replication-" + ++followerCount);
+				shipper.setDaemon(true);
+				shipper.start();
+			} catch (IOException e) {
+				if (open) {
+					System.err.println("Replication accept failed: " + e);
+				}
+			}
+		}
+	}
+
+	private void ship(Socket socket) {
+		try (socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+			if (!authenticate(in, out)) {
+				System.err.println("Replication: " + socket.getRemoteSocketAddress() + " doesn't know the secret");
+				return;
+			}
+			long next = catchUp(out, in.readLong());
+			while (open) {
+				long limit = journal.durableSeq();
+				if (limit >= next) {
+					long from = next;
+					journal.replay(from, (seq, type, timestamp, accountA, accountB, amount) -> {
+						if (seq > limit) {
+							return;
+						}
+						try {
+							out.writeByte(RECORD);
+							out.writeLong(seq);
+							out.writeShort(type);
+							out.writeLong(timestamp);
+							out.writeLong(accountA);
+							out.writeLong(accountB);
+							out.writeLong(amount);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+					next = limit + 1;
+				}
+				out.writeByte(HEARTBEAT);
+				out.writeLong(limit);
+				out.writeLong(System.currentTimeMillis());
+				out.flush();
+				Thread.sleep(shipIntervalMillis);
+			}
+		} catch (IOException | UncheckedIOException e) {
+			// The follower went away; it reconnects and says where to go on from
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			followers.remove(socket);
+		}
+	}
+
+	private boolean authenticate(DataInputStream in, DataOutputStream out) throws IOException {
+		byte[] challenge = new byte[CHALLENGE_BYTES];
+		random.nextBytes(challenge);
+		out.write(challenge);
+		out.flush();
+		byte[] response = new byte[RESPONSE_BYTES];
+		in.readFully(response);
+		return MessageDigest.isEqual(response, respond(secret, challenge));
+	}
+
+	/**
+	 * A follower's side of the handshake: reads the challenge and answers it.
+	 */
+	public static void answerChallenge(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+		byte[] challenge = new byte[CHALLENGE_BYTES];
+		in.readFully(challenge);
+		out.write(respond(secret, challenge));
+	}
+
+	private static byte[] respond(byte[] secret, byte[] challenge) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+			return mac.doFinal(challenge);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 is not available", e);
+		}
+	}
+
+	// Sends the newest snapshot if the journal doesn't go back far enough, or if
+	// loading the snapshot is quicker than replaying; returns where to go on from
+	private long catchUp(DataOutputStream out, long next) throws IOException {
+		boolean compacted = next < journal.firstSeq() || next > journal.lastSeq() + 1;
+		SnapshotFile snapshot = newestSnapshot();
+		if (snapshot != null && (compacted || snapshot.journalSeq() - next >= SNAPSHOT_CATCH_UP_RECORDS)) {
+			return sendSnapshot(out, snapshot);
+		}
+		if (compacted) {
+			throw new IOException("Follower wants record " + next + " and there is no snapshot to start from");
+		}
+		return next;
+	}
+
+	private SnapshotFile newestSnapshot() throws IOException {
+		if (snapshotDirectory == null) {
+			return null;
+		}
+		for (Path path : SnapshotFile.list(snapshotDirectory)) {
+			try {
+				return SnapshotFile.open(path);
+			} catch (IOException e) {
+				// damaged, try the one before
+			}
+		}
+		return null;
+	}
+
+	private long sendSnapshot(DataOutputStream out, SnapshotFile snapshot) throws IOException {
+		out.writeByte(SNAPSHOT);
+		out.writeLong(snapshot.journalSeq());
+		out.writeInt(snapshot.capacity());
+		out.writeLong(snapshot.accountCount());
+		try {
+			snapshot.read((slot, card, balance, pinHash, lastActivity, flags, journalSeq) -> {
+				try {
+					out.writeInt(slot);
+					out.writeLong(card);
+					out.writeLong(balance);
+					out.writeLong(pinHash);
+					out.writeLong(lastActivity);
+					out.writeInt(flags);
+					out.writeLong(journalSeq);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return snapshot.journalSeq() + 1;
+	}
+
+	/**
+	 * Stops listening and drops the followers.
+	 */
+	@Override
+	public void close() throws IOException {
+		open = false;
+		server.close();
+		for (Socket socket : followers) {
+			try {
+				socket.close();
+			} catch (SocketException e) {
+				// already gone
+			}
+		}
+	}
+}
@@ -0,0 +1,285 @@
+package storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * A compacted copy of every account at one point in the journal, so that startup
+ * only has to load this and replay the journal from there instead of from the
+ * beginning of time.
+ *
+ * <pre>
+ *  header (64 bytes)
+ *       0     4  magic "BSNP"
+ *       4     4  version
+ *       8     8  journal sequence number the snapshot was started at
+ *      16     4  capacity of the account store
+ *      20     4  record size (48)
+ *      24     8  number of accounts
+ *      60     4  CRC32C of bytes 0..59
+ *
+ *  blocks, each: record count (4), records, CRC32C of the count and records (4)
+ *  a block with a count of 0 ends the file
+ *
+ *  record (48 bytes)
+ *       0     8  card number
+ *       8     8  balance
+ *      16     8  PIN hash
+ *      24     8  last activity
+ *      32     8  journal sequence number of the account's last change
+ *      40     4  slot
+ *      44     4  flags
+ * </pre>
+ *
+ * A snapshot is written to a temporary file and renamed into place only once it is
+ * complete and forced, so a snapshot file that exists is whole. The checksums are
+ * there for the disk going bad under it.
+ */
+public final class SnapshotFile {
+
+	public static final int RECORD_SIZE = 48;
+	static final int HEADER_SIZE = 64;
+	private static final int MAGIC = 0x42534E50; // "BSNP"
+	private static final int VERSION = 1;
+	private static final int BLOCK_RECORDS = 8192; // 384 kB per block
+
+	private final Path path;
+	private final long journalSeq;
+	private final int capacity;
+	private final long accountCount;
+
+	private SnapshotFile(Path path, long journalSeq, int capacity, long accountCount) {
+		this.path = path;
+		this.journalSeq = journalSeq;
+		this.capacity = capacity;
+		this.accountCount = accountCount;
+	}
+
+	static String fileName(long journalSeq) {
+		return String.format("snapshot-%020d.snap", journalSeq);
+	}
+
+	static boolean isSnapshotFile(Path file) {
+		String name = file.getFileName().toString();
+		return name.startsWith("snapshot-") && name.endsWith(".snap");
+	}
+
+	/**
+	 * @return the snapshots in {@code dir}, newest first
+	 */
+	public static List<Path> list(Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) {
+			return List.of();
+		}
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(SnapshotFile::isSnapshotFile).sorted(Comparator.reverseOrder()).toList();
+		}
+	}
+
+	/**
+	 * Opens a snapshot and checks its header. The accounts are only read by
+	 * {@link #read(SnapshotVisitor)}.
+	 */
+	public static SnapshotFile open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header);
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException("Not a snapshot: " + path);
+			}
+			if (header.getInt(60) != checksum(header.array(), 0, 60, new CRC32C())) {
+				throw new IOException("Snapshot header is damaged: " + path);
+			}
+			if (header.getInt(4) != VERSION || header.getInt(20) != RECORD_SIZE) {
+				throw new IOException("Unsupported snapshot version: " + path);
+			}
+			return new SnapshotFile(path, header.getLong(8), header.getInt(16), header.getLong(24));
+		}
+	}
+
+	/**
+	 * Starts writing a new snapshot into {@code dir}.
+	 *
+	 * @param journalSeq the last journal record that is certainly contained in the
+	 *                   snapshot; replay continues after it
+	 */
+	public static Writer create(Path dir, long journalSeq, int capacity) throws IOException {
+		Files.createDirectories(dir);
+		return new Writer(dir, journalSeq, capacity);
+	}
+
+	public Path path() {
+		return path;
+	}
+
+	public long journalSeq() {
+		return journalSeq;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public long accountCount() {
+		return accountCount;
+	}
+
+	/**
+	 * Hands every account in the snapshot to the visitor, in slot order.
+	 *
+	 * @throws IOException if a block is damaged or the file is cut short
+	 */
+	public void read(SnapshotVisitor visitor) throws IOException {
+		CRC32C crc = new CRC32C();
+		ByteBuffer block = ByteBuffer.allocate(4 + BLOCK_RECORDS * RECORD_SIZE + 4);
+		long seen = 0;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			channel.position(HEADER_SIZE);
+			while (true) {
+				block.clear().limit(4);
+				readFully(channel, block);
+				int count = block.getInt(0);
+				if (count < 0 || count > BLOCK_RECORDS) {
+					throw new IOException("Snapshot block is damaged: " + path);
+				}
+				int length = 4 + count * RECORD_SIZE;
+				block.limit(length + 4);
+				readFully(channel, block);
+				if (block.getInt(length) != checksum(block.array(), 0, length, crc)) {
+					throw new IOException("Snapshot block is damaged: " + path);
+				}
+				if (count == 0) {
+					break;
+				}
+				for (int offset = 4; offset < length; offset += RECORD_SIZE) {
+					visitor.account(block.getInt(offset + 40), block.getLong(offset), block.getLong(offset + 8),
+							block.getLong(offset + 16), block.getLong(offset + 24), block.getInt(offset + 44),
+							block.getLong(offset + 32));
+				}
+				seen += count;
+			}
+		}
+		if (seen != accountCount) {
+			throw new IOException("Snapshot has " + seen + " accounts, header says " + accountCount + ": " + path);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Snapshot is cut short");
+			}
+		}
+	}
+
+	private static int checksum(byte[] array, int offset, int length, CRC32C crc) {
+		crc.reset();
+		crc.update(array, offset, length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Writes one snapshot. Nothing is visible under the final name until
+	 * {@link #commit()}; closing an uncommitted writer deletes what was written.
+	 */
+	public static final class Writer implements Closeable {
+
+		private final Path temporary;
+		private final Path target;
+		private final long journalSeq;
+		private final int capacity;
+		private final FileChannel channel;
+		private final ByteBuffer block = ByteBuffer.allocate(4 + BLOCK_RECORDS * RECORD_SIZE + 4);
+		private final CRC32C crc = new CRC32C();
+		private int blockCount;
+		private long accountCount;
+		private boolean committed;
+
+		private Writer(Path dir, long journalSeq, int capacity) throws IOException {
+			this.target = dir.resolve(fileName(journalSeq));
+			this.temporary = dir.resolve(fileName(journalSeq) + ".tmp");
+			this.journalSeq = journalSeq;
+			this.capacity = capacity;
+			this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE);
+			channel.position(HEADER_SIZE);
+		}
+
+		public void add(int slot, long cardNumber, long balance, long pinHash, long lastActivity, int flags,
+				long accountJournalSeq) throws IOException {
+			int offset = 4 + blockCount * RECORD_SIZE;
+			block.putLong(offset, cardNumber);
+			block.putLong(offset + 8, balance);
+			block.putLong(offset + 16, pinHash);
+			block.putLong(offset + 24, lastActivity);
+			block.putLong(offset + 32, accountJournalSeq);
+			block.putInt(offset + 40, slot);
+			block.putInt(offset + 44, flags);
+			accountCount++;
+			if (++blockCount == BLOCK_RECORDS) {
+				writeBlock();
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			int length = 4 + blockCount * RECORD_SIZE;
+			block.putInt(0, blockCount);
+			block.putInt(length, checksum(block.array(), 0, length, crc));
+			block.clear().limit(length + 4);
+			while (block.hasRemaining()) {
+				channel.write(block);
+			}
+			block.clear();
+			blockCount = 0;
+		}
+
+		/**
+		 * Finishes the file, forces it to disk and moves it to its final name.
+		 *
+		 * @return the finished snapshot
+		 */
+		public SnapshotFile commit() throws IOException {
+			if (blockCount > 0) {
+				writeBlock();
+			}
+			writeBlock(); // the empty end block
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putLong(8, journalSeq);
+			header.putInt(16, capacity);
+			header.putInt(20, RECORD_SIZE);
+			header.putLong(24, accountCount);
+			header.putInt(60, checksum(header.array(), 0, 60, crc));
+			while (header.hasRemaining()) {
+				channel.write(header, header.position()); // the header is at the start of the file
+			}
+			channel.force(true);
+			channel.close();
+			Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			committed = true;
+			return new SnapshotFile(target, journalSeq, capacity, accountCount);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (channel.isOpen()) {
+				channel.close();
+			}
+			if (!committed) {
+				Files.deleteIfExists(temporary);
+			}
+		}
+	}
+}
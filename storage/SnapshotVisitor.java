@@ -0,0 +1,12 @@
+package storage;
+
+/**
+ * Receives the accounts of a snapshot while it is being loaded, as primitives so
+ * that loading millions of accounts allocates nothing.
+ */
+@FunctionalInterface
+public interface SnapshotVisitor {
+
+	void account(int slot, long cardNumber, long balance, long pinHash, long lastActivity, int flags,
+			long journalSeq);
+}
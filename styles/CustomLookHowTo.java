@@ -1,14 +1,10 @@
 package styles;
 
 
-import java.awt.AlphaComposite;
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.GridLayout;
-import java.awt.RenderingHints;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -129,13 +125,12 @@ public class CustomLookHowTo /* (extends JFrame || implements WindowEvent, Actio
         ));
         textArea.setOpaque(false);
 
+        // The rounded background comes from the skin cache, as a tile per size
+        SkinPainter background = Skin.roundedFill(backgroundColor, cornerRadius);
         textArea.setUI(new javax.swing.plaf.basic.BasicTextAreaUI() {
             @Override
             protected void paintSafely(Graphics g) {
-                Graphics2D g2d = (Graphics2D) g;
-                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                g2d.setColor(backgroundColor);
-                g2d.fillRoundRect(0, 0, textArea.getWidth(), textArea.getHeight(), cornerRadius, cornerRadius);
+                SkinCache.paint(g, background, textArea.getWidth(), textArea.getHeight());
                 super.paintSafely(g);
             }
         });
@@ -153,29 +148,20 @@ public class CustomLookHowTo /* (extends JFrame || implements WindowEvent, Actio
      * @return A glowing JLabel.
      */
     public static JLabel createGlowingLabel(String text, Font font, Color textColor, Color glowColor) {
+        // The glow is drawn once per size and then blitted, see SkinCache
+        SkinPainter glow = Skin.glow(glowColor);
         JLabel label = new JLabel(text) {
             @Override
             protected void paintComponent(Graphics g) {
-                Graphics2D g2d = (Graphics2D) g;
-                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-                // Draw glow effect
-                g2d.setColor(glowColor);
-                for (int i = 1; i <= 6; i++) {
-                    g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.1f * (6 - i)));
-                    g2d.setStroke(new BasicStroke(i * 2));
-                    g2d.drawRoundRect(
-                            i - 1, i - 1, getWidth() - i * 2 + 1, getHeight() - i * 2 + 1, 20, 20
-                    );
-                }
+                SkinCache.paint(g, glow, getWidth(), getHeight());
 
                 // Draw text
-                g2d.setColor(textColor);
-                super.paintComponent(g2d);
+                super.paintComponent(g);
             }
         };
 
         label.setFont(font);
+        label.setForeground(textColor);
         label.setHorizontalAlignment(SwingConstants.CENTER);
         label.setOpaque(false);
 
@@ -213,14 +199,14 @@ public class CustomLookHowTo /* (extends JFrame || implements WindowEvent, Actio
             // Glowing Label
             JLabel glowingLabel = createGlowingLabel(
                     "Glowing Label",
-                    new Font("Serif", Font.BOLD, 24),
+                    Skin.HEADING_FONT,
                     Color.WHITE, Color.CYAN
             );
             frame.add(glowingLabel);
 
             // Additional Button Example
             JButton customButton = new JButton("Click Me");
-            customButton.setFont(new Font("Arial", Font.BOLD, 16));
+            customButton.setFont(Skin.BUTTON_FONT);
             customButton.setBackground(Color.BLUE);
             customButton.setForeground(Color.WHITE);
             customButton.setBorder(BorderFactory.createEmptyBorder(10, 20, 10, 20));
@@ -0,0 +1,161 @@
+package styles;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.util.Objects;
+
+/**
+ * The fonts, colors and strokes the bank's screens share, and the painters for
+ * the backgrounds that {@link SkinCache} keeps as tiles: the glow, the vertical
+ * gradient and the rounded fill.
+ *
+ * Fonts, colors and strokes never change once made, so one instance of each is
+ * enough for every component; nothing needs a new one inside paintComponent.
+ */
+public final class Skin {
+
+    // Fonts
+    public static final Font TITLE_FONT = new Font("Arial", Font.BOLD, 32);
+    public static final Font HEADING_FONT = new Font("Serif", Font.BOLD, 24);
+    public static final Font BUTTON_FONT = new Font("Arial", Font.BOLD, 16);
+    public static final Font TEXT_FONT = new Font("Arial", Font.PLAIN, 14);
+
+    // Colors
+    public static final Color GRADIENT_TOP = new Color(0, 0, 170);
+    public static final Color GRADIENT_BOTTOM = new Color(0, 0, 220);
+    public static final Color PANEL_BACKGROUND = new Color(50, 50, 50);
+    public static final Color FIELD_BACKGROUND = new Color(40, 40, 40);
+    public static final Color ACCENT = new Color(30, 144, 255);
+    public static final Color ACCENT_HOVER = new Color(70, 130, 180);
+
+    // The glow is six round rects, each wider and fainter than the one before
+    private static final int GLOW_RINGS = 6;
+    private static final int GLOW_ARC = 20;
+    private static final Stroke[] GLOW_STROKES = new Stroke[GLOW_RINGS + 1];
+    private static final Composite[] GLOW_COMPOSITES = new Composite[GLOW_RINGS + 1];
+
+    static {
+        for (int i = 1; i <= GLOW_RINGS; i++) {
+            GLOW_STROKES[i] = new BasicStroke(i * 2);
+            GLOW_COMPOSITES[i] = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.1f * (GLOW_RINGS - i));
+        }
+    }
+
+    private Skin() {
+    }
+
+    /**
+     * A soft glowing frame around the edge of the component.
+     */
+    public static SkinPainter glow(Color color) {
+        return new Glow(color);
+    }
+
+    /**
+     * A gradient from one color at the top to another at the bottom.
+     */
+    public static SkinPainter verticalGradient(Color top, Color bottom) {
+        return new VerticalGradient(top, bottom);
+    }
+
+    /**
+     * The whole component filled with rounded corners.
+     */
+    public static SkinPainter roundedFill(Color color, int cornerRadius) {
+        return new RoundedFill(color, cornerRadius);
+    }
+
+    private static final class Glow implements SkinPainter {
+        private final Color color;
+
+        Glow(Color color) {
+            this.color = color;
+        }
+
+        @Override
+        public void paint(Graphics2D g, int width, int height) {
+            g.setColor(color);
+            for (int i = 1; i <= GLOW_RINGS; i++) {
+                g.setComposite(GLOW_COMPOSITES[i]);
+                g.setStroke(GLOW_STROKES[i]);
+                g.drawRoundRect(i - 1, i - 1, width - i * 2 + 1, height - i * 2 + 1, GLOW_ARC, GLOW_ARC);
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Glow && ((Glow) other).color.equals(color);
+        }
+
+        @Override
+        public int hashCode() {
+            return color.hashCode();
+        }
+    }
+
+    private static final class VerticalGradient implements SkinPainter {
+        private final Color top;
+        private final Color bottom;
+
+        VerticalGradient(Color top, Color bottom) {
+            this.top = top;
+            this.bottom = bottom;
+        }
+
+        @Override
+        public void paint(Graphics2D g, int width, int height) {
+            g.setPaint(new GradientPaint(0, 0, top, 0, height, bottom));
+            g.fillRect(0, 0, width, height);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof VerticalGradient)) {
+                return false;
+            }
+            VerticalGradient gradient = (VerticalGradient) other;
+            return gradient.top.equals(top) && gradient.bottom.equals(bottom);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(top, bottom);
+        }
+    }
+
+    private static final class RoundedFill implements SkinPainter {
+        private final Color color;
+        private final int cornerRadius;
+
+        RoundedFill(Color color, int cornerRadius) {
+            this.color = color;
+            this.cornerRadius = cornerRadius;
+        }
+
+        @Override
+        public void paint(Graphics2D g, int width, int height) {
+            g.setColor(color);
+            g.fillRoundRect(0, 0, width, height, cornerRadius, cornerRadius);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof RoundedFill)) {
+                return false;
+            }
+            RoundedFill fill = (RoundedFill) other;
+            return fill.color.equals(color) && fill.cornerRadius == cornerRadius;
+        }
+
+        @Override
+        public int hashCode() {
+            return color.hashCode() * 31 + cornerRadius;
+        }
+    }
+}
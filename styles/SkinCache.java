@@ -0,0 +1,195 @@
+package styles;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.UIManager;
+
+/**
+ * Pre-rendered component backgrounds. The first paint of a {@link SkinPainter} at
+ * a size draws it into a tile; every later paint at that size, by that component
+ * or any other with an equal painter, is one drawImage.
+ *
+ * Tiles are made with the screen's compatible image format, which Java2D keeps as
+ * a managed image: after a couple of blits it holds a copy in video memory and the
+ * blit is done by the graphics card. They are drawn at the screen's pixel size, so
+ * they stay sharp on scaled displays.
+ *
+ * A resized component simply asks for a tile of the new size. Tiles nobody used
+ * for a while are dropped once they add up to more than {@link #MAX_PIXELS}. A
+ * change of look and feel drops all of them; call {@link #invalidate()} after
+ * changing colors some other way.
+ *
+ * Only use it on the EDT, like the rest of Swing.
+ */
+public final class SkinCache {
+
+    public static final long MAX_PIXELS = 8_000_000; // about 32 MB of tiles
+
+    private static final Map<Key, BufferedImage> TILES = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Key PROBE = new Key(null, 0, 0);
+    private static long pixels;
+    private static long hits;
+    private static long misses;
+
+    static {
+        UIManager.addPropertyChangeListener(e -> {
+            if ("lookAndFeel".equals(e.getPropertyName())) {
+                invalidate();
+            }
+        });
+    }
+
+    private SkinCache() {
+    }
+
+    private static final class Key {
+        SkinPainter painter;
+        int width;
+        int height;
+
+        Key(SkinPainter painter, int width, int height) {
+            this.painter = painter;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return key.width == width && key.height == height && key.painter.equals(painter);
+        }
+
+        @Override
+        public int hashCode() {
+            return (painter.hashCode() * 31 + width) * 31 + height;
+        }
+    }
+
+    /**
+     * Paints the background at 0, 0 with the given size, from a tile if there is
+     * one.
+     */
+    public static void paint(Graphics g, SkinPainter painter, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        Graphics2D g2d = (Graphics2D) g;
+        AffineTransform transform = g2d.getTransform();
+        int pixelWidth = (int) Math.ceil(width * transform.getScaleX());
+        int pixelHeight = (int) Math.ceil(height * transform.getScaleY());
+
+        PROBE.painter = painter;
+        PROBE.width = pixelWidth;
+        PROBE.height = pixelHeight;
+        BufferedImage tile = TILES.get(PROBE);
+        PROBE.painter = null;
+        if (tile == null) {
+            misses++;
+            tile = render(g2d, painter, width, height, pixelWidth, pixelHeight);
+            TILES.put(new Key(painter, pixelWidth, pixelHeight), tile);
+            pixels += (long) pixelWidth * pixelHeight;
+            trim();
+        } else {
+            hits++;
+        }
+        g2d.drawImage(tile, 0, 0, width, height, null);
+    }
+
+    private static BufferedImage render(Graphics2D target, SkinPainter painter, int width, int height,
+            int pixelWidth, int pixelHeight) {
+        BufferedImage tile = target.getDeviceConfiguration().createCompatibleImage(pixelWidth, pixelHeight,
+                Transparency.TRANSLUCENT);
+        Graphics2D g = tile.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.scale(pixelWidth / (double) width, pixelHeight / (double) height);
+            painter.paint(g, width, height);
+        } finally {
+            g.dispose();
+        }
+        return tile;
+    }
+
+    // Drops the least recently used tiles until the rest fit
+    private static void trim() {
+        Iterator<Map.Entry<Key, BufferedImage>> tiles = TILES.entrySet().iterator();
+        while (pixels > MAX_PIXELS && TILES.size() > 1 && tiles.hasNext()) {
+            BufferedImage tile = tiles.next().getValue();
+            pixels -= (long) tile.getWidth() * tile.getHeight();
+            tile.flush();
+            tiles.remove();
+        }
+    }
+
+    /**
+     * Drops every tile, e.g. after the colors changed.
+     */
+    public static void invalidate() {
+        for (BufferedImage tile : TILES.values()) {
+            tile.flush();
+        }
+        TILES.clear();
+        pixels = 0;
+    }
+
+    public static int tiles() {
+        return TILES.size();
+    }
+
+    public static long hits() {
+        return hits;
+    }
+
+    public static long misses() {
+        return misses;
+    }
+
+    /**
+     * Paint cost check: a glowing, label sized background painted the old way
+     * (six anti-aliased round rects with a new stroke and composite each time) and
+     * from the cache. Runs headless.
+     */
+    public static void main(String[] args) {
+        int paints = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int width = 480;
+        int height = 140;
+        BufferedImage screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        SkinPainter glow = Skin.glow(Color.CYAN);
+
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            long start = System.nanoTime();
+            for (int i = 0; i < paints; i++) {
+                Graphics2D g = screen.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                glow.paint(g, width, height);
+                g.dispose();
+            }
+            double direct = (System.nanoTime() - start) / (double) paints;
+
+            start = System.nanoTime();
+            for (int i = 0; i < paints; i++) {
+                Graphics2D g = screen.createGraphics();
+                paint(g, glow, width, height);
+                g.dispose();
+            }
+            double cached = (System.nanoTime() - start) / (double) paints;
+            if (round == 1) {
+                System.out.printf("Drawn every time: %,.0f ns per paint%n", direct);
+                System.out.printf("From the cache:   %,.0f ns per paint (%.1fx), %d tiles, %,d hits, %,d misses%n",
+                        cached, direct / cached, tiles(), hits(), misses());
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package styles;
+
+import java.awt.Graphics2D;
+
+/**
+ * Draws a component background that only depends on its size, so
+ * {@link SkinCache} can draw it once into a tile and blit the tile on every
+ * repaint after that.
+ *
+ * Painters that draw the same thing must be equal (and have the same hash code),
+ * so that components with the same look share their tiles.
+ */
+@FunctionalInterface
+public interface SkinPainter {
+
+    /**
+     * @param g      draws into the tile, anti-aliasing already on
+     * @param width  width of the component
+     * @param height height of the component
+     */
+    void paint(Graphics2D g, int width, int height);
+}
@@ -29,6 +29,25 @@ public class SwingCustomizationUtils {
         panel.setBorder(new EmptyBorder(padding, padding, padding, padding));
         return panel;
     }
+
+    /**
+     * Creates a JPanel whose background is drawn by a skin painter, e.g.
+     * {@link Skin#verticalGradient}. The background is rendered once per size by
+     * {@link SkinCache}, so repainting the panel is a single image copy.
+     *
+     * @param painter Draws the background.
+     * @return A JPanel with the cached background.
+     */
+    public static JPanel createSkinnedPanel(SkinPainter painter) {
+        JPanel panel = new JPanel() {
+            @Override
+            protected void paintComponent(Graphics g) {
+                SkinCache.paint(g, painter, getWidth(), getHeight());
+            }
+        };
+        panel.setOpaque(false);
+        return panel;
+    }
     // Customized textfield
 		public static JTextField createStyledTextField(String placeholder, Font font, Color textColor, 
 		            Color backgroundColor, Color caretColor, 
@@ -84,6 +103,8 @@ public class SwingCustomizationUtils {
      */
     public static JButton createCustomButton(
         String text, Font font, Color backgroundColor, Color foregroundColor, Color hoverColor, String tooltip) {
+        Cursor handCursor = Cursor.getPredefinedCursor(Cursor.HAND_CURSOR);
+        Cursor defaultCursor = Cursor.getDefaultCursor();
         JButton button = new JButton(text);
         button.setFont(font);
         button.setBackground(backgroundColor);
@@ -98,13 +119,13 @@ public class SwingCustomizationUtils {
             @Override
             public void mouseEntered(java.awt.event.MouseEvent evt) {
                 button.setBackground(hoverColor);
-                button.setCursor(new Cursor(Cursor.HAND_CURSOR));
+                button.setCursor(handCursor);
             }
 
             @Override
             public void mouseExited(java.awt.event.MouseEvent evt) {
                 button.setBackground(backgroundColor);
-                button.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
+                button.setCursor(defaultCursor);
             }
         });
 
@@ -129,12 +150,15 @@ public class SwingCustomizationUtils {
         textField.setForeground(foregroundColor);
         textField.setBackground(backgroundColor);
         textField.setCaretColor(caretColor);
-        textField.setBorder(BorderFactory.createLineBorder(backgroundColor.darker(), 2));
+        // Both borders are made once and swapped on focus changes
+        Border normalBorder = BorderFactory.createLineBorder(backgroundColor.darker(), 2);
+        Border focusedBorder = BorderFactory.createLineBorder(focusBorder, 2);
+        textField.setBorder(normalBorder);
 
         textField.addFocusListener(new java.awt.event.FocusAdapter() {
             @Override
             public void focusGained(java.awt.event.FocusEvent evt) {
-                textField.setBorder(BorderFactory.createLineBorder(focusBorder, 2));
+                textField.setBorder(focusedBorder);
                 if (textField.getText().equals(placeholderText)) {
                     textField.setText("");
                     textField.setForeground(foregroundColor);
@@ -143,7 +167,7 @@ public class SwingCustomizationUtils {
 
             @Override
             public void focusLost(java.awt.event.FocusEvent evt) {
-                textField.setBorder(BorderFactory.createLineBorder(backgroundColor.darker(), 2));
+                textField.setBorder(normalBorder);
                 if (textField.getText().isEmpty()) {
                     textField.setText(placeholderText);
                     textField.setForeground(Color.GRAY);
@@ -230,8 +254,9 @@ public class SwingCustomizationUtils {
             frame.setLayout(new GridLayout(4, 1, 10, 10));
             frame.getContentPane().setBackground(Color.DARK_GRAY);
 
-            // Custom Panel
-            JPanel panel = createCustomPanel(new Color(50, 50, 50), true, 20);
+            // Custom Panel, with a cached gradient background
+            JPanel panel = createSkinnedPanel(Skin.verticalGradient(Skin.PANEL_BACKGROUND, Color.BLACK));
+            setMargins(panel, 20, 20, 20, 20);
             panel.add(new JLabel("Custom JPanel with Padding"));
             frame.add(panel);
 